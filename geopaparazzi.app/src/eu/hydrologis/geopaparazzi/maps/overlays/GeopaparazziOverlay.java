@@ -21,23 +21,13 @@ import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Paint.Align;
 import android.graphics.Path;
 import android.graphics.Point;
-import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 
-import com.vividsolutions.jts.android.PointTransformation;
-import com.vividsolutions.jts.android.ShapeWriter;
-import com.vividsolutions.jts.android.geom.DrawableShape;
-import com.vividsolutions.jts.android.geom.PathShape;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.Geometry;
-
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.Projection;
 import org.mapsforge.android.maps.overlay.ItemizedOverlay;
@@ -61,20 +51,12 @@ import eu.geopaparazzi.library.util.ColorUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.Utilities;
-import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
-import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
-import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
-import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
-import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryIterator;
-import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
-import eu.geopaparazzi.spatialite.database.spatial.util.Style;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.database.DaoImages;
 import eu.hydrologis.geopaparazzi.database.DaoNotes;
 import eu.hydrologis.geopaparazzi.maps.MapsActivity;
 import eu.hydrologis.geopaparazzi.util.Constants;
 import eu.hydrologis.geopaparazzi.util.Note;
-import jsqlite.Exception;
 
 /**
  * GeopaparazziOverlay is an abstract base class to display {@link OverlayWay OverlayWays}. The class defines some methods to
@@ -161,6 +143,7 @@ public abstract class GeopaparazziOverlay extends Overlay {
     private boolean doNotesTextHalo;
     private GpsServiceStatus gpsServiceStatus = GpsServiceStatus.GPS_OFF;
     private GpsLoggingStatus gpsLoggingStatus = GpsLoggingStatus.GPS_DATABASELOGGING_OFF;
+    private final VectorTileRenderer vectorTileRenderer;
 
     /**
      * Create a {@link OverlayWay} wrapped type.
@@ -169,6 +152,7 @@ public abstract class GeopaparazziOverlay extends Overlay {
      */
     public GeopaparazziOverlay(Context context) {
         super();
+        vectorTileRenderer = new VectorTileRenderer(this);
         this.wayPath = new Path();
         this.wayPath.setFillType(Path.FillType.EVEN_ODD);
 
@@ -435,7 +419,7 @@ public abstract class GeopaparazziOverlay extends Overlay {
         /*
          * first spatialite layers, if any
          */
-        drawFromSpatialite(canvas, drawPosition, projection, drawZoomLevel);
+        vectorTileRenderer.drawTiles(canvas, drawPosition, drawZoomLevel);
 
         /*
          * WAYS
@@ -696,301 +680,10 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
     }
 
-    private void drawFromSpatialite(Canvas canvas, Point drawPosition, Projection projection, byte drawZoomLevel) {
-        /*
-         * draw from spatialite
-         */
-        double n = 90;
-        double w = -180;
-        double s = -90;
-        double e = 180;
-        try {
-            GeoPoint zeroPoint = projection.fromPixels(0, 0);
-            GeoPoint whPoint = projection.fromPixels(canvas.getWidth(), canvas.getHeight());
-            n = zeroPoint.getLatitude();
-            w = zeroPoint.getLongitude();
-            s = whPoint.getLatitude();
-            e = whPoint.getLongitude();
-        } catch (java.lang.Exception e2) {
-            GPLog.error(this, "Problems retrieving viewport bounds", e2); //$NON-NLS-1$
-        }
-        Envelope canvasEnvelope = new Envelope(w, e, s, n);
-        try {
-            SpatialDatabasesManager sdManager = SpatialDatabasesManager.getInstance();
-            List<SpatialVectorTable> spatialVectorTables = sdManager.getSpatialVectorTables(false);
-            /*
-             * draw geometries
-             */
-            for (SpatialVectorTable spatialTable : spatialVectorTables) {
-                if (stopDrawing()) {
-                    // stop working
-                    return;
-                }
-                Style style4Table = spatialTable.getStyle();
-                if (style4Table.enabled == 0) {
-                    continue;
-                }
-                // TODO enable this again only when updating of bound when adding geometries has been done
-                //                if (!envelope.intersects(spatialTable.getTableEnvelope())) {
-                //                    continue;
-                //                }
-                if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
-                    // we do not draw outside of the zoom levels
-                    continue;
-                }
-                AbstractSpatialDatabaseHandler spatialDatabaseHandler = sdManager.getVectorHandler(spatialTable);
-                if (!(spatialDatabaseHandler instanceof SpatialiteDatabaseHandler)) {
-                    return;
-                }
-                GeometryIterator geometryIterator = null;
-                try {
-                    Paint fill = null;
-                    Paint stroke = null;
-                    if (style4Table.fillcolor != null && style4Table.fillcolor.trim().length() > 0)
-                        fill = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getFillPaint4Style(style4Table);
-                    if (style4Table.strokecolor != null && style4Table.strokecolor.trim().length() > 0)
-                        stroke = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getStrokePaint4Style(style4Table);
-                    PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                            drawZoomLevel);
-                    ShapeWriter shapeWriter;
-                    ShapeWriter shape_writer_point = null;
-                    if (spatialTable.isPoint()) {
-                        shapeWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                spatialTable.getStyle().size);
-                    } else {
-                        shapeWriter = new ShapeWriter(pointTransformer);
-                        if (spatialTable.isGeometryCollection()) {
-                            shape_writer_point = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                    spatialTable.getStyle().size);
-                        }
-                    }
-                    shapeWriter.setRemoveDuplicatePoints(true);
-                    shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
-                    geometryIterator = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getGeometryIteratorInBounds(
-                            LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
-                    while (geometryIterator.hasNext()) {
-                        Geometry geom = geometryIterator.next();
-                        if (geom != null) {
-                            if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
-                                // TODO check the performance impact of this
-                                continue;
-                            }
-                            if (spatialTable.isGeometryCollection()) {
-                                int geometriesCount = geom.getNumGeometries();
-                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
-                                for (int j = 0; j < geometriesCount; j++) {
-                                    Geometry geom_collect = geom.getGeometryN(j);
-                                    if (geom_collect != null) {
-                                        String geometryType = geom_collect.getGeometryType();
-                                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
-                                        if (geometryType.toUpperCase().contains("POINT")) {
-                                            drawGeometry(geom_collect, canvas, shape_writer_point, fill, stroke);
-                                        } else {
-                                            drawGeometry(geom_collect, canvas, shapeWriter, fill, stroke);
-                                        }
-                                        if (stopDrawing()) { // stop working
-                                            return;
-                                        }
-                                    }
-                                }
-                            } else {
-                                drawGeometry(geom, canvas, shapeWriter, fill, stroke);
-                                if (stopDrawing()) { // stop working
-                                    return;
-                                }
-                            }
-                        } else {
-                            GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite  [geom == null] description["
-                                    + spatialTable.getTableName() + "]", new NullPointerException());
-                        }
-                    }
-                } finally {
-                    if (geometryIterator != null)
-                        geometryIterator.close();
-                }
-            }
-            /*
-             * draw labels
-             */
-            for (SpatialVectorTable spatialTable : spatialVectorTables) {
-                if (stopDrawing()) {
-                    // stop working
-                    return;
-                }
-                Style style4Table = spatialTable.getStyle();
-                if (style4Table.enabled == 0 || style4Table.labelvisible == 0) {
-                    continue;
-                }
-                if (!canvasEnvelope.intersects(spatialTable.getTableEnvelope())) {
-                    continue;
-                }
-                if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
-                    // we do not draw outside of the zoom levels
-                    continue;
-                }
-
-                float delta = style4Table.size / 2f;
-                if (delta < 2) {
-                    delta = 2;
-                }
-
-                Paint dbTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-                dbTextPaint.setStyle(Paint.Style.FILL);
-                dbTextPaint.setColor(Color.BLACK);
-                dbTextPaint.setTextSize(style4Table.labelsize);
-                Paint dbTextHaloPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-                dbTextHaloPaint.setStyle(Paint.Style.STROKE);
-                dbTextHaloPaint.setStrokeWidth(3);
-                dbTextHaloPaint.setColor(Color.WHITE);
-                dbTextHaloPaint.setTextSize(style4Table.labelsize);
-
-                AbstractSpatialDatabaseHandler spatialDatabaseHandler = sdManager.getVectorHandler(spatialTable);
-                if (!(spatialDatabaseHandler instanceof SpatialiteDatabaseHandler)) {
-                    return;
-                }
-                GeometryIterator geometryIterator = null;
-                try {
-                    PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                            drawZoomLevel);
-                    ShapeWriter linesWriter = null;
-                    if (spatialTable.isLine()) {
-                        linesWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                spatialTable.getStyle().size);
-                        dbTextHaloPaint.setTextAlign(Align.CENTER);
-                        dbTextPaint.setTextAlign(Align.CENTER);
-                    } else {
-                        dbTextHaloPaint.setTextAlign(Align.LEFT);
-                        dbTextPaint.setTextAlign(Align.LEFT);
-                    }
-
-                    geometryIterator = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getGeometryIteratorInBounds(
-                            LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
-                    while (geometryIterator.hasNext()) {
-                        Geometry geom = geometryIterator.next();
-                        if (geom != null) {
-                            String labelText = geometryIterator.getLabelText();
-                            if (labelText == null || labelText.length() == 0) {
-                                continue;
-                            }
-                            if (spatialTable.isGeometryCollection()) {
-                                int geometriesCount = geom.getNumGeometries();
-                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
-                                for (int j = 0; j < geometriesCount; j++) {
-                                    Geometry geom_collect = geom.getGeometryN(j);
-                                    if (geom_collect != null) {
-                                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
-                                        drawLabel(pointTransformer, geom_collect, labelText, canvas, dbTextPaint,
-                                                dbTextHaloPaint, delta, linesWriter);
-                                        if (stopDrawing()) { // stop working
-                                            return;
-                                        }
-                                    }
-                                }
-                            } else {
-                                drawLabel(pointTransformer, geom, labelText, canvas, dbTextPaint, dbTextHaloPaint, delta,
-                                        linesWriter);
-                                if (stopDrawing()) { // stop working
-                                    return;
-                                }
-                            }
-                        }
-                    }
-                } finally {
-                    if (geometryIterator != null)
-                        geometryIterator.close();
-                }
-            }
-        } catch (Exception e1) {
-            GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite [failed]", e1); //$NON-NLS-1$
-        }
-    }
-
     private boolean stopDrawing() {
         return isInterrupted() || sizeHasChanged() || needRedraw();
     }
 
-    private static void drawGeometry(Geometry geom, Canvas canvas, ShapeWriter shape_writer, Paint fill, Paint stroke) {
-        String s_geometry_type = geom.getGeometryType();
-        int i_geometry_type = GeometryType.forValue(s_geometry_type);
-        GeometryType geometry_type = GeometryType.forValue(i_geometry_type);
-        DrawableShape shape = shape_writer.toShape(geom);
-        switch (geometry_type) {
-            case POINT_XY:
-            case POINT_XYM:
-            case POINT_XYZ:
-            case POINT_XYZM:
-            case MULTIPOINT_XY:
-            case MULTIPOINT_XYM:
-            case MULTIPOINT_XYZ:
-            case MULTIPOINT_XYZM: {
-                if (fill != null)
-                    shape.fill(canvas, fill);
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawGeometry geometry_type["+s_geometry_type+"]: ["+i_geometry_type+"]");
-            }
-            break;
-            case LINESTRING_XY:
-            case LINESTRING_XYM:
-            case LINESTRING_XYZ:
-            case LINESTRING_XYZM:
-            case MULTILINESTRING_XY:
-            case MULTILINESTRING_XYM:
-            case MULTILINESTRING_XYZ:
-            case MULTILINESTRING_XYZM: {
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-            }
-            break;
-            case POLYGON_XY:
-            case POLYGON_XYM:
-            case POLYGON_XYZ:
-            case POLYGON_XYZM:
-            case MULTIPOLYGON_XY:
-            case MULTIPOLYGON_XYM:
-            case MULTIPOLYGON_XYZ:
-            case MULTIPOLYGON_XYZM: {
-                if (fill != null)
-                    shape.fill(canvas, fill);
-                if (stroke != null)
-                    shape.draw(canvas, stroke);
-            }
-            break;
-            default:
-                break;
-        }
-    }
-
-    private static void drawLabel(PointTransformation pointTransformer, Geometry geom, String label, Canvas canvas,
-                                  Paint dbTextPaint, Paint dbTextHaloPaint, float delta, ShapeWriter linesWriter) {
-
-        if (linesWriter == null) {
-            /*
-             * for points and polygons for now just use the centroid
-             */
-            com.vividsolutions.jts.geom.Point centroid = geom.getCentroid();
-            Coordinate coordinate = centroid.getCoordinate();
-            PointF dest = new PointF();
-            pointTransformer.transform(coordinate, dest);
-            float x = dest.x + delta;
-            float y = dest.y - delta;
-            // if (doNotesTextHalo)
-            canvas.drawText(label, x, y, dbTextHaloPaint);
-            canvas.drawText(label, x, y, dbTextPaint);
-        } else {
-            DrawableShape shape = linesWriter.toShape(geom);
-            if (shape instanceof PathShape) {
-                PathShape lineShape = (PathShape) shape;
-                Path linePath = lineShape.getPath();
-                // if (doNotesTextHalo)
-                int hOffset = 15;
-                int vOffset = -5;
-                canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextHaloPaint);
-                canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextPaint);
-            }
-        }
-    }
-
     @Override
     protected String getThreadName() {
         return THREAD_NAME;
@@ -1209,6 +902,7 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
     @Override
     public void dispose() {
+        vectorTileRenderer.dispose();
         super.dispose();
     }
 }
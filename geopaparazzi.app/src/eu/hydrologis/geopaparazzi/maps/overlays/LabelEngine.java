@@ -0,0 +1,289 @@
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Path;
+import android.graphics.PathMeasure;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.Style;
+
+/**
+ * Placement of the labels of a paint run.
+ * 
+ * <p>Labels are collected as candidates with a priority, usually the size
+ * of their feature expressed as a length, so that labels of lines, polygons
+ * and points are comparable. When drawn, they are placed by descending priority and
+ * a label is rejected if it overlaps one already placed, which is checked 
+ * through a screen space grid. Placement stops once the label budget is used.</p>
+ * 
+ * <p>Equal priorities, as the ones of all points, are ordered by position, 
+ * top to bottom and left to right, and then by text, so that canvases painted
+ * with a margin around them, as the tiles, take the same decisions 
+ * for the labels they share.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LabelEngine {
+    private static final int CELL_SIZE = 64;
+    /**
+     * The offsets of labels along lines.
+     */
+    private static final int PATH_H_OFFSET = 15;
+    private static final int PATH_V_OFFSET = -5;
+    /**
+     * The distance at which the position along lines is sampled to compute the label bounds.
+     */
+    private static final float PATH_SAMPLE_STEP = 8f;
+
+    private final float minX;
+    private final float minY;
+    private final int columns;
+    private final int rows;
+    private final List<List<RectF>> cells;
+    private final int labelBudget;
+    private final List<Candidate> candidates = new ArrayList<Candidate>();
+
+    /**
+     * Constructor.
+     * 
+     * @param minX the left of the area labels can be placed in.
+     * @param minY the top of the area labels can be placed in.
+     * @param maxX the right of the area labels can be placed in.
+     * @param maxY the bottom of the area labels can be placed in.
+     * @param labelBudget the maximum number of labels to draw.
+     */
+    public LabelEngine( float minX, float minY, float maxX, float maxY, int labelBudget ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.labelBudget = labelBudget;
+        columns = Math.max(1, (int) Math.ceil((maxX - minX) / CELL_SIZE));
+        rows = Math.max(1, (int) Math.ceil((maxY - minY) / CELL_SIZE));
+        cells = new ArrayList<List<RectF>>(columns * rows);
+        for( int i = 0; i < columns * rows; i++ ) {
+            cells.add(null);
+        }
+    }
+
+    /**
+     * Add a label placed at a point.
+     * 
+     * @param label the text.
+     * @param x the x of the feature.
+     * @param y the y of the feature.
+     * @param priority the priority, higher is placed first.
+     * @param labelStyle the style of the label.
+     */
+    public void addPointLabel( String label, float x, float y, double priority, LabelStyle labelStyle ) {
+        float labelX = x + labelStyle.delta;
+        float labelY = y - labelStyle.delta;
+        Paint.FontMetrics fontMetrics = labelStyle.fontMetrics;
+        float halo = labelStyle.haloPaint.getStrokeWidth();
+        RectF bounds = new RectF(labelX - halo, labelY + fontMetrics.ascent - halo, labelX
+                + labelStyle.textPaint.measureText(label) + halo, labelY + fontMetrics.descent + halo);
+        candidates.add(new Candidate(label, null, labelX, labelY, bounds, priority, labelStyle));
+    }
+
+    /**
+     * Add a label that follows a line.
+     * 
+     * <p>Labels longer than the line are ignored.</p>
+     * 
+     * @param label the text.
+     * @param linePath the path of the line.
+     * @param priority the priority, higher is placed first.
+     * @param labelStyle the style of the label.
+     */
+    public void addPathLabel( String label, Path linePath, double priority, LabelStyle labelStyle ) {
+        PathMeasure pathMeasure = new PathMeasure(linePath, false);
+        float length = pathMeasure.getLength();
+        float textWidth = labelStyle.textPaint.measureText(label);
+        if (textWidth > length) {
+            return;
+        }
+        // the text is centered at the horizontal offset
+        float start = Math.max(0, PATH_H_OFFSET - textWidth / 2f);
+        float end = Math.min(length, PATH_H_OFFSET + textWidth / 2f);
+        float[] position = new float[2];
+        RectF bounds = null;
+        for( float distance = start;; distance = Math.min(end, distance + PATH_SAMPLE_STEP) ) {
+            pathMeasure.getPosTan(distance, position, null);
+            if (bounds == null) {
+                bounds = new RectF(position[0], position[1], position[0], position[1]);
+            } else {
+                bounds.union(position[0], position[1]);
+            }
+            if (distance >= end) {
+                break;
+            }
+        }
+        float textHeight = labelStyle.textPaint.getTextSize() + labelStyle.haloPaint.getStrokeWidth();
+        bounds.inset(-textHeight, -textHeight);
+        pathMeasure.getPosTan(0, position, null);
+        candidates.add(new Candidate(label, linePath, position[0], position[1], bounds, priority, labelStyle));
+    }
+
+    /**
+     * Place and draw the collected labels.
+     * 
+     * @param canvas the canvas to draw on.
+     * @param stopCondition the condition to stop drawing.
+     * @return <code>false</code> if drawing has been stopped.
+     */
+    public boolean draw( Canvas canvas, SpatialiteVectorPainter.StopCondition stopCondition ) {
+        Collections.sort(candidates, new Comparator<Candidate>(){
+            public int compare( Candidate c1, Candidate c2 ) {
+                if (c1.priority != c2.priority) {
+                    return c1.priority > c2.priority ? -1 : 1;
+                }
+                // tie-break by position and text, independent of the insertion order
+                if (c1.y != c2.y) {
+                    return c1.y < c2.y ? -1 : 1;
+                }
+                if (c1.x != c2.x) {
+                    return c1.x < c2.x ? -1 : 1;
+                }
+                return c1.label.compareTo(c2.label);
+            }
+        });
+        int placed = 0;
+        for( Candidate candidate : candidates ) {
+            if (placed >= labelBudget) {
+                break;
+            }
+            if (stopCondition.stopDrawing()) {
+                return false;
+            }
+            if (!place(candidate.bounds)) {
+                continue;
+            }
+            drawLabel(canvas, candidate);
+            placed++;
+        }
+        return true;
+    }
+
+    /**
+     * Reserve the bounds of a label, if they don't overlap the ones of placed labels.
+     */
+    private boolean place( RectF bounds ) {
+        int minColumn = Math.max(0, (int) ((bounds.left - minX) / CELL_SIZE));
+        int maxColumn = Math.min(columns - 1, (int) ((bounds.right - minX) / CELL_SIZE));
+        int minRow = Math.max(0, (int) ((bounds.top - minY) / CELL_SIZE));
+        int maxRow = Math.min(rows - 1, (int) ((bounds.bottom - minY) / CELL_SIZE));
+        if (minColumn > maxColumn || minRow > maxRow) {
+            // outside of the area
+            return false;
+        }
+        for( int row = minRow; row <= maxRow; row++ ) {
+            for( int column = minColumn; column <= maxColumn; column++ ) {
+                List<RectF> cell = cells.get(row * columns + column);
+                if (cell == null) {
+                    continue;
+                }
+                for( RectF placedBounds : cell ) {
+                    if (RectF.intersects(placedBounds, bounds)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        for( int row = minRow; row <= maxRow; row++ ) {
+            for( int column = minColumn; column <= maxColumn; column++ ) {
+                int index = row * columns + column;
+                List<RectF> cell = cells.get(index);
+                if (cell == null) {
+                    cell = new ArrayList<RectF>(4);
+                    cells.set(index, cell);
+                }
+                cell.add(bounds);
+            }
+        }
+        return true;
+    }
+
+    private static void drawLabel( Canvas canvas, Candidate candidate ) {
+        LabelStyle labelStyle = candidate.labelStyle;
+        if (candidate.linePath == null) {
+            canvas.drawText(candidate.label, candidate.x, candidate.y, labelStyle.haloPaint);
+            canvas.drawText(candidate.label, candidate.x, candidate.y, labelStyle.textPaint);
+        } else {
+            canvas.drawTextOnPath(candidate.label, candidate.linePath, PATH_H_OFFSET, PATH_V_OFFSET, labelStyle.haloPaint);
+            canvas.drawTextOnPath(candidate.label, candidate.linePath, PATH_H_OFFSET, PATH_V_OFFSET, labelStyle.textPaint);
+        }
+    }
+
+    /**
+     * The label paints of a table, shared by all its labels.
+     */
+    public static class LabelStyle {
+        final Paint textPaint;
+        final Paint haloPaint;
+        final Paint.FontMetrics fontMetrics;
+        final float delta;
+        final boolean onPath;
+
+        /**
+         * Constructor.
+         * 
+         * @param style4Table the style of the table.
+         * @param onPath if <code>true</code>, labels follow lines.
+         */
+        public LabelStyle( Style style4Table, boolean onPath ) {
+            this.onPath = onPath;
+            float tmpDelta = style4Table.size / 2f;
+            if (tmpDelta < 2) {
+                tmpDelta = 2;
+            }
+            delta = tmpDelta;
+
+            textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            textPaint.setStyle(Paint.Style.FILL);
+            textPaint.setColor(Color.BLACK);
+            textPaint.setTextSize(style4Table.labelsize);
+            haloPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            haloPaint.setStyle(Paint.Style.STROKE);
+            haloPaint.setStrokeWidth(3);
+            haloPaint.setColor(Color.WHITE);
+            haloPaint.setTextSize(style4Table.labelsize);
+            Align align = onPath ? Align.CENTER : Align.LEFT;
+            haloPaint.setTextAlign(align);
+            textPaint.setTextAlign(align);
+            fontMetrics = textPaint.getFontMetrics();
+        }
+
+        /**
+         * @return <code>true</code>, if labels follow lines.
+         */
+        public boolean isOnPath() {
+            return onPath;
+        }
+    }
+
+    private static class Candidate {
+        final String label;
+        final Path linePath;
+        final float x;
+        final float y;
+        final RectF bounds;
+        final double priority;
+        final LabelStyle labelStyle;
+
+        Candidate( String label, Path linePath, float x, float y, RectF bounds, double priority, LabelStyle labelStyle ) {
+            this.label = label;
+            this.linePath = linePath;
+            this.x = x;
+            this.y = y;
+            this.bounds = bounds;
+            this.priority = priority;
+            this.labelStyle = labelStyle;
+        }
+    }
+}
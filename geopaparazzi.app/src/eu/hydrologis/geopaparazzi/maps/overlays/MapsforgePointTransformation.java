@@ -3,38 +3,63 @@ package eu.hydrologis.geopaparazzi.maps.overlays;
 import android.graphics.Point;
 import android.graphics.PointF;
 
-import com.vividsolutions.jts.android.PointTransformation;
+import com.vividsolutions.jts.android.BulkPointTransformation;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 
-import org.mapsforge.android.maps.Projection;
-import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
 
 /**
  * Transformation that handles mapsforge transforms.
  * 
+ * <p>The mercator projection of the zoom level is applied directly 
+ * to the lon/lat values, with the scale and origin computed once. 
+ * Latitudes are limited to the ones of the mercator map, as mapsforge does,
+ * so that points at the poles stay finite.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
-public class MapsforgePointTransformation implements PointTransformation {
-    private byte drawZoom;
-    private Projection projection;
-    private final Point tmpPoint = new Point();
-    private Point drawPosition;
+public class MapsforgePointTransformation implements BulkPointTransformation {
+    private final double scaleX;
+    private final double scaleY;
+    private final double originX;
+    private final double originY;
 
     /**
      * Constructor.
      * 
-     * @param projection projection.
      * @param drawPosition the position.
      * @param drawZoom the zoom level.
      */
-    public MapsforgePointTransformation( Projection projection, Point drawPosition, byte drawZoom ) {
-        this.projection = projection;
-        this.drawPosition = drawPosition;
-        this.drawZoom = drawZoom;
+    public MapsforgePointTransformation( Point drawPosition, byte drawZoom ) {
+        double mapSize = (double) ((long) Tile.TILE_SIZE << drawZoom);
+        // same as MercatorProjection.longitudeToPixelX and latitudeToPixelY
+        scaleX = mapSize / 360.0;
+        scaleY = mapSize / (4 * Math.PI);
+        originX = 180.0 * scaleX - drawPosition.x;
+        originY = 0.5 * mapSize - drawPosition.y;
     }
 
     public void transform( Coordinate model, PointF view ) {
-        projection.toPoint(new GeoPoint(model.y, model.x), tmpPoint, drawZoom);
-        view.set(tmpPoint.x - drawPosition.x, tmpPoint.y - drawPosition.y);
+        view.set(toViewX(model.x), toViewY(model.y));
+    }
+
+    public void transform( CoordinateSequence src, float[] dest ) {
+        int size = src.size();
+        for( int i = 0, j = 0; i < size; i++, j += 2 ) {
+            dest[j] = toViewX(src.getX(i));
+            dest[j + 1] = toViewY(src.getY(i));
+        }
+    }
+
+    private float toViewX( double longitude ) {
+        return (float) (longitude * scaleX + originX);
+    }
+
+    private float toViewY( double latitude ) {
+        latitude = Math.max(MercatorProjection.LATITUDE_MIN, Math.min(MercatorProjection.LATITUDE_MAX, latitude));
+        double sinLatitude = Math.sin(Math.toRadians(latitude));
+        return (float) (originY - Math.log((1 + sinLatitude) / (1 - sinLatitude)) * scaleY);
     }
-}
\ No newline at end of file
+}
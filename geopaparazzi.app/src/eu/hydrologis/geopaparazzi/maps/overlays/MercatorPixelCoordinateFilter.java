@@ -0,0 +1,35 @@
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import org.mapsforge.core.util.MercatorProjection;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.ProjectingWKBReader;
+
+/**
+ * Projection of wgs84 coordinates to the mapsforge pixel 
+ * coordinates of a zoom level.
+ * 
+ * <p>It is applied by a {@link ProjectingWKBReader} while decoding, so that
+ * the geometries are created already projected.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MercatorPixelCoordinateFilter implements ProjectingWKBReader.OrdinateProjection {
+    private final byte zoomLevel;
+
+    /**
+     * Constructor.
+     * 
+     * @param zoomLevel the zoom level to project to.
+     */
+    public MercatorPixelCoordinateFilter( byte zoomLevel ) {
+        this.zoomLevel = zoomLevel;
+    }
+
+    public double projectX( double longitude ) {
+        return MercatorProjection.longitudeToPixelX(longitude, zoomLevel);
+    }
+
+    public double projectY( double latitude ) {
+        return MercatorProjection.latitudeToPixelY(latitude, zoomLevel);
+    }
+}
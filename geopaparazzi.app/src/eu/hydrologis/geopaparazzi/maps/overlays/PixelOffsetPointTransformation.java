@@ -0,0 +1,39 @@
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Point;
+import android.graphics.PointF;
+
+import com.vividsolutions.jts.android.BulkPointTransformation;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+
+/**
+ * Transformation for geometries that have already been projected
+ * to mapsforge pixel coordinates through {@link MercatorPixelCoordinateFilter}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PixelOffsetPointTransformation implements BulkPointTransformation {
+    private Point drawPosition;
+
+    /**
+     * Constructor.
+     * 
+     * @param drawPosition the position.
+     */
+    public PixelOffsetPointTransformation( Point drawPosition ) {
+        this.drawPosition = drawPosition;
+    }
+
+    public void transform( Coordinate model, PointF view ) {
+        view.set((float) (model.x - drawPosition.x), (float) (model.y - drawPosition.y));
+    }
+
+    public void transform( CoordinateSequence src, float[] dest ) {
+        int size = src.size();
+        for( int i = 0, j = 0; i < size; i++, j += 2 ) {
+            dest[j] = (float) (src.getX(i) - drawPosition.x);
+            dest[j + 1] = (float) (src.getY(i) - drawPosition.y);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+import com.vividsolutions.jts.android.PointTransformation;
+import com.vividsolutions.jts.android.ShapeWriter;
+import com.vividsolutions.jts.android.geom.DrawableShape;
+import com.vividsolutions.jts.android.geom.PathShape;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryIterator;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryTileCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryTileCache.GeometryTile;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.Style;
+import eu.hydrologis.geopaparazzi.maps.overlays.LabelEngine.LabelStyle;
+import jsqlite.Exception;
+
+/**
+ * Painter of the enabled spatialite vector tables.
+ * 
+ * <p>Paints geometries and labels of all enabled tables on a canvas,
+ * given the mapsforge pixel position of its upper left corner. It is
+ * used by the {@link VectorTileRenderer} workers to rasterize tiles.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SpatialiteVectorPainter {
+    /**
+     * The distance in pixels below which vertices are dropped, if the style has no bigger decimation.
+     */
+    private static final double MIN_PIXEL_TOLERANCE = 0.5;
+    /**
+     * The maximum number of labels placed on a canvas.
+     */
+    private static final int LABEL_BUDGET = 150;
+
+    /**
+     * Condition checked while painting to abandon work that is no longer needed.
+     */
+    public interface StopCondition {
+        /**
+         * @return <code>true</code> if painting should stop.
+         */
+        boolean stopDrawing();
+    }
+
+    private SpatialiteVectorPainter() {
+    }
+
+    /**
+     * Paint the enabled vector tables.
+     * 
+     * @param canvas the canvas to paint on.
+     * @param drawPosition the mapsforge pixel position of the upper left corner of the canvas.
+     * @param drawZoomLevel the zoom level.
+     * @param margin the pixels around the canvas from which geometries and labels are still 
+     *          painted, so that labels crossing the canvas border are not cut.
+     * @param stopCondition the condition to stop painting.
+     * @return <code>true</code> if painting has been completed, <code>false</code> if it has been stopped.
+     */
+    public static boolean paint( Canvas canvas, Point drawPosition, byte drawZoomLevel, int margin,
+            final StopCondition stopCondition ) {
+        Envelope canvasPixelEnvelope = new Envelope(drawPosition.x - margin, drawPosition.x + canvas.getWidth() + margin,
+                drawPosition.y - margin, drawPosition.y + canvas.getHeight() + margin);
+        double n = MercatorProjection.pixelYToLatitude(canvasPixelEnvelope.getMinY(), drawZoomLevel);
+        double w = MercatorProjection.pixelXToLongitude(canvasPixelEnvelope.getMinX(), drawZoomLevel);
+        double s = MercatorProjection.pixelYToLatitude(canvasPixelEnvelope.getMaxY(), drawZoomLevel);
+        double e = MercatorProjection.pixelXToLongitude(canvasPixelEnvelope.getMaxX(), drawZoomLevel);
+        Envelope canvasEnvelope = new Envelope(w, e, s, n);
+        double pixelsPerDegree = (Tile.TILE_SIZE << drawZoomLevel) / 360.0;
+        GeometryTileCache geometryTileCache = GeometryTileCache.getInstance();
+        /*
+         * labels are collected while the geometries are drawn, so that
+         * every table is queried only once, and placed on top at the end
+         */
+        LabelEngine labelEngine = new LabelEngine(-margin, -margin, canvas.getWidth() + margin, canvas.getHeight() + margin,
+                LABEL_BUDGET);
+        /*
+         * the stop condition is also checked while the queries run, so that
+         * a slow query is aborted as soon as the drawing is no longer needed
+         */
+        CancellationToken cancellationToken = new CancellationToken(){
+            @Override
+            public boolean isCanceled() {
+                if (!super.isCanceled() && stopCondition.stopDrawing()) {
+                    // once stopped, stay stopped
+                    cancel();
+                }
+                return super.isCanceled();
+            }
+        };
+        try {
+            SpatialDatabasesManager sdManager = SpatialDatabasesManager.getInstance();
+            List<SpatialVectorTable> spatialVectorTables = sdManager.getSpatialVectorTables(false);
+            /*
+             * draw geometries and collect labels
+             */
+            for (SpatialVectorTable spatialTable : spatialVectorTables) {
+                if (stopCondition.stopDrawing()) {
+                    // stop working
+                    return false;
+                }
+                Style style4Table = spatialTable.getStyle();
+                if (style4Table.enabled == 0) {
+                    continue;
+                }
+                if (!spatialTable.intersectsTableBounds(canvasEnvelope)) {
+                    // no geometries of the table in view
+                    continue;
+                }
+                if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
+                    // we do not draw outside of the zoom levels
+                    continue;
+                }
+                AbstractSpatialDatabaseHandler spatialDatabaseHandler = sdManager.getVectorHandler(spatialTable);
+                if (!(spatialDatabaseHandler instanceof SpatialiteDatabaseHandler)) {
+                    continue;
+                }
+                boolean doLabels = style4Table.labelvisible == 1;
+                LabelStyle labelStyle = null;
+                if (doLabels) {
+                    labelStyle = new LabelStyle(style4Table, spatialTable.isLine());
+                }
+                /*
+                 * tiles are painted by several workers at once, and drawing
+                 * changes the paint style, so every paint run uses its own copy
+                 */
+                Paint fill = null;
+                Paint stroke = null;
+                if (style4Table.fillcolor != null && style4Table.fillcolor.trim().length() > 0)
+                    fill = new Paint(((SpatialiteDatabaseHandler) spatialDatabaseHandler).getFillPaint4Style(style4Table));
+                if (style4Table.strokecolor != null && style4Table.strokecolor.trim().length() > 0)
+                    stroke = new Paint(((SpatialiteDatabaseHandler) spatialDatabaseHandler).getStrokePaint4Style(style4Table));
+                // cached geometries are already projected, so only the draw position is applied
+                PointTransformation pointTransformer = new PixelOffsetPointTransformation(drawPosition);
+                ShapeWriter shapeWriter;
+                ShapeWriter shape_writer_point = null;
+                if (spatialTable.isPoint()) {
+                    shapeWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
+                            spatialTable.getStyle().size);
+                } else {
+                    shapeWriter = new ShapeWriter(pointTransformer);
+                    if (spatialTable.isGeometryCollection()) {
+                        shape_writer_point = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
+                                spatialTable.getStyle().size);
+                    }
+                }
+                // the decimation factor is defined in degrees
+                float pixelTolerance = (float) Math.max(MIN_PIXEL_TOLERANCE, style4Table.decimationFactor
+                        * pixelsPerDegree);
+                shapeWriter.setPixelTolerance(pixelTolerance);
+                /*
+                 * clip beyond the stroke, so that the edges clipped 
+                 * polygons get along the bounds are not visible
+                 */
+                float clipMargin = margin + (stroke != null ? stroke.getStrokeWidth() : 0) + 1;
+                shapeWriter.setClipBounds(new RectF(-clipMargin, -clipMargin, canvas.getWidth() + clipMargin, canvas
+                        .getHeight() + clipMargin));
+                ShapeWriter labelShapeWriter = null;
+                if (doLabels && labelStyle.isOnPath()) {
+                    // labels follow the whole line, to be placed the same in all tiles
+                    labelShapeWriter = new ShapeWriter(pointTransformer);
+                    labelShapeWriter.setPixelTolerance(pixelTolerance);
+                }
+
+                GeometryTile geometryTile = geometryTileCache.get(spatialTable, drawZoomLevel, canvasEnvelope);
+                if (geometryTile == null) {
+                    geometryTile = loadGeometryTile((SpatialiteDatabaseHandler) spatialDatabaseHandler, spatialTable, n, s,
+                            e, w, drawZoomLevel, stopCondition, cancellationToken);
+                    if (geometryTile == null) {
+                        // stopped or failed while loading
+                        return false;
+                    }
+                }
+                List<Geometry> geometries = geometryTile.getGeometries();
+                List<String> labels = geometryTile.getLabels();
+                for (int i = 0; i < geometries.size(); i++) {
+                    Geometry geom = geometries.get(i);
+                    if (!canvasPixelEnvelope.intersects(geom.getEnvelopeInternal())) {
+                        // TODO check the performance impact of this
+                        continue;
+                    }
+                    String labelText = null;
+                    if (doLabels) {
+                        labelText = labels.get(i);
+                        if (labelText != null && labelText.length() == 0) {
+                            labelText = null;
+                        }
+                    }
+                    if (spatialTable.isGeometryCollection()) {
+                        int geometriesCount = geom.getNumGeometries();
+                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
+                        for (int j = 0; j < geometriesCount; j++) {
+                            Geometry geom_collect = geom.getGeometryN(j);
+                            if (geom_collect != null) {
+                                String geometryType = geom_collect.getGeometryType();
+                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
+                                DrawableShape shape;
+                                if (geometryType.toUpperCase().contains("POINT")) {
+                                    shape = drawGeometry(geom_collect, canvas, shape_writer_point, fill, stroke);
+                                } else {
+                                    shape = drawGeometry(geom_collect, canvas, shapeWriter, fill, stroke);
+                                }
+                                if (labelText != null) {
+                                    collectLabel(pointTransformer, labelShapeWriter, canvasPixelEnvelope, geom_collect,
+                                            shape, labelText, labelStyle, labelEngine);
+                                }
+                                if (stopCondition.stopDrawing()) { // stop working
+                                    return false;
+                                }
+                            }
+                        }
+                    } else {
+                        DrawableShape shape = drawGeometry(geom, canvas, shapeWriter, fill, stroke);
+                        if (labelText != null) {
+                            collectLabel(pointTransformer, labelShapeWriter, canvasPixelEnvelope, geom, shape, labelText,
+                                    labelStyle, labelEngine);
+                        }
+                        if (stopCondition.stopDrawing()) { // stop working
+                            return false;
+                        }
+                    }
+                }
+            }
+            /*
+             * place and draw labels from what has been collected
+             */
+            if (!labelEngine.draw(canvas, stopCondition)) {
+                return false;
+            }
+        } catch (Exception e1) {
+            GPLog.error("SpatialiteVectorPainter", "SpatialiteVectorPainter.paint [failed]", e1); //$NON-NLS-1$
+        }
+        return true;
+    }
+
+    /**
+     * Loads the geometries of a table around the viewport into the cache.
+     *
+     * <p>The viewport is snapped to the tile grid of the zoom level and
+     * enlarged by one tile, so that small pans are served by the cache.</p>
+     *
+     * <p>If a cached tile overlaps the new envelope, its geometries are kept and
+     * only the newly exposed strips are queried, merging by ROWID.</p>
+     *
+     * @return the loaded tile or <code>null</code>, if drawing has been stopped meanwhile or a query failed.
+     */
+    private static GeometryTile loadGeometryTile(SpatialiteDatabaseHandler spatialDatabaseHandler,
+                                                 SpatialVectorTable spatialTable, double n, double s, double e, double w, byte drawZoomLevel,
+                                                 StopCondition stopCondition, CancellationToken cancellationToken)
+            throws Exception {
+        long maxTile = (1L << drawZoomLevel) - 1;
+        long minTileX = Math.max(0, MercatorProjection.longitudeToTileX(w, drawZoomLevel) - 1);
+        long maxTileX = Math.min(maxTile, MercatorProjection.longitudeToTileX(e, drawZoomLevel) + 1);
+        long minTileY = Math.max(0, MercatorProjection.latitudeToTileY(n, drawZoomLevel) - 1);
+        long maxTileY = Math.min(maxTile, MercatorProjection.latitudeToTileY(s, drawZoomLevel) + 1);
+        double tileW = MercatorProjection.tileXToLongitude(minTileX, drawZoomLevel);
+        double tileE = MercatorProjection.tileXToLongitude(maxTileX + 1, drawZoomLevel);
+        double tileN = MercatorProjection.tileYToLatitude(minTileY, drawZoomLevel);
+        double tileS = MercatorProjection.tileYToLatitude(maxTileY + 1, drawZoomLevel);
+        Envelope tileEnvelope = new Envelope(tileW, tileE, tileS, tileN);
+        Envelope tilePixelEnvelope = new Envelope(minTileX * Tile.TILE_SIZE, (maxTileX + 1) * Tile.TILE_SIZE, minTileY
+                * Tile.TILE_SIZE, (maxTileY + 1) * Tile.TILE_SIZE);
+
+        boolean doLabels = spatialTable.getStyle().labelvisible == 1;
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        List<String> labels = new ArrayList<String>();
+        List<Long> rowIds = new ArrayList<Long>();
+        Set<Long> loadedRowIds = new HashSet<Long>();
+
+        // read before querying, an edit meanwhile makes the result unfit for the cache
+        int dataVersion = spatialTable.getDataVersion();
+        List<Envelope> queryEnvelopes = new ArrayList<Envelope>();
+        GeometryTile overlappingTile = GeometryTileCache.getInstance().getOverlapping(spatialTable, drawZoomLevel, tileEnvelope);
+        if (overlappingTile == null) {
+            queryEnvelopes.add(tileEnvelope);
+        } else {
+            // keep what is already in memory
+            List<Geometry> cachedGeometries = overlappingTile.getGeometries();
+            List<String> cachedLabels = overlappingTile.getLabels();
+            long[] cachedRowIds = overlappingTile.getRowIds();
+            for (int i = 0; i < cachedGeometries.size(); i++) {
+                Geometry geom = cachedGeometries.get(i);
+                if (tilePixelEnvelope.intersects(geom.getEnvelopeInternal())) {
+                    geometries.add(geom);
+                    labels.add(cachedLabels.get(i));
+                    rowIds.add(cachedRowIds[i]);
+                    loadedRowIds.add(cachedRowIds[i]);
+                }
+            }
+            addExposedStrips(tileEnvelope, overlappingTile.getEnvelope(), queryEnvelopes);
+        }
+
+        MercatorPixelCoordinateFilter pixelFilter = new MercatorPixelCoordinateFilter(drawZoomLevel);
+        double simplifyTolerance = getSimplifyTolerance(spatialTable.getStyle(), drawZoomLevel, tileN, tileS);
+        for (Envelope queryEnvelope : queryEnvelopes) {
+            GeometryIterator geometryIterator = null;
+            try {
+                geometryIterator = spatialDatabaseHandler.getGeometryIteratorInBounds(LibraryConstants.SRID_WGS84_4326, true,
+                        spatialTable, queryEnvelope.getMaxY(), queryEnvelope.getMinY(), queryEnvelope.getMaxX(),
+                        queryEnvelope.getMinX(), drawZoomLevel, simplifyTolerance, cancellationToken);
+                // project while decoding
+                geometryIterator.setProjection(pixelFilter);
+                while (geometryIterator.hasNext()) {
+                    Geometry geom = geometryIterator.next();
+                    if (geom != null) {
+                        // geometries crossing the strips borders are found more than once
+                        if (loadedRowIds.add(geometryIterator.getRowId())) {
+                            geometries.add(geom);
+                            labels.add(doLabels ? geometryIterator.getLabelText() : null);
+                            rowIds.add(geometryIterator.getRowId());
+                        }
+                        if (stopCondition.stopDrawing()) { // stop working
+                            return null;
+                        }
+                    } else {
+                        GPLog.error("SpatialiteVectorPainter", "SpatialiteVectorPainter.loadGeometryTile  [geom == null] description["
+                                + spatialTable.getTableName() + "]", new NullPointerException());
+                    }
+                }
+                if (geometryIterator.hadError()) {
+                    // the query failed, the geometries are incomplete and must not be cached
+                    return null;
+                }
+            } finally {
+                if (geometryIterator != null)
+                    geometryIterator.close();
+            }
+            if (cancellationToken.isCanceled()) {
+                // the query has been aborted, the geometries are incomplete
+                return null;
+            }
+        }
+        long[] rowIdsArray = new long[rowIds.size()];
+        for (int i = 0; i < rowIdsArray.length; i++) {
+            rowIdsArray[i] = rowIds.get(i);
+        }
+        return GeometryTileCache.getInstance().put(spatialTable, drawZoomLevel, tileEnvelope, geometries, labels, rowIdsArray, dataVersion);
+    }
+
+    /**
+     * Adds the parts of an envelope that are not covered by the loaded one. 
+     *
+     * <p>These are at most a strip above, one below and one on each side 
+     * of the loaded envelope, i.e. an L-shape for a diagonal pan.</p>
+     */
+    private static void addExposedStrips(Envelope envelope, Envelope loaded, List<Envelope> strips) {
+        if (!envelope.intersects(loaded)) {
+            strips.add(envelope);
+            return;
+        }
+        if (envelope.getMinY() < loaded.getMinY())
+            strips.add(new Envelope(envelope.getMinX(), envelope.getMaxX(), envelope.getMinY(), loaded.getMinY()));
+        if (envelope.getMaxY() > loaded.getMaxY())
+            strips.add(new Envelope(envelope.getMinX(), envelope.getMaxX(), loaded.getMaxY(), envelope.getMaxY()));
+        double minY = Math.max(envelope.getMinY(), loaded.getMinY());
+        double maxY = Math.min(envelope.getMaxY(), loaded.getMaxY());
+        if (envelope.getMinX() < loaded.getMinX())
+            strips.add(new Envelope(envelope.getMinX(), loaded.getMinX(), minY, maxY));
+        if (envelope.getMaxX() > loaded.getMaxX())
+            strips.add(new Envelope(loaded.getMaxX(), envelope.getMaxX(), minY, maxY));
+    }
+
+    /**
+     * Get the distance in degrees below which vertices can't be told apart at a zoom level.
+     *
+     * <p>This is half a pixel, measured at the latitude where pixels cover the least degrees.
+     * Generalization is skipped when it would not remove more than the decimation of the style.</p>
+     *
+     * @return the tolerance or 0, if no generalization is needed.
+     */
+    private static double getSimplifyTolerance(Style style, byte drawZoomLevel, double n, double s) {
+        double degreesPerPixel = 360.0 / (Tile.TILE_SIZE << drawZoomLevel);
+        double maxLatitude = Math.min(MercatorProjection.LATITUDE_MAX, Math.max(Math.abs(n), Math.abs(s)));
+        double tolerance = degreesPerPixel * Math.cos(Math.toRadians(maxLatitude)) / 2.0;
+        if (tolerance <= style.decimationFactor) {
+            return 0;
+        }
+        return tolerance;
+    }
+
+    private static DrawableShape drawGeometry(Geometry geom, Canvas canvas, ShapeWriter shape_writer, Paint fill,
+                                              Paint stroke) {
+        String s_geometry_type = geom.getGeometryType();
+        int i_geometry_type = GeometryType.forValue(s_geometry_type);
+        GeometryType geometry_type = GeometryType.forValue(i_geometry_type);
+        DrawableShape shape = shape_writer.toShape(geom);
+        switch (geometry_type) {
+            case POINT_XY:
+            case POINT_XYM:
+            case POINT_XYZ:
+            case POINT_XYZM:
+            case MULTIPOINT_XY:
+            case MULTIPOINT_XYM:
+            case MULTIPOINT_XYZ:
+            case MULTIPOINT_XYZM: {
+                if (fill != null)
+                    shape.fill(canvas, fill);
+                if (stroke != null)
+                    shape.draw(canvas, stroke);
+                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawGeometry geometry_type["+s_geometry_type+"]: ["+i_geometry_type+"]");
+            }
+            break;
+            case LINESTRING_XY:
+            case LINESTRING_XYM:
+            case LINESTRING_XYZ:
+            case LINESTRING_XYZM:
+            case MULTILINESTRING_XY:
+            case MULTILINESTRING_XYM:
+            case MULTILINESTRING_XYZ:
+            case MULTILINESTRING_XYZM: {
+                if (stroke != null)
+                    shape.draw(canvas, stroke);
+            }
+            break;
+            case POLYGON_XY:
+            case POLYGON_XYM:
+            case POLYGON_XYZ:
+            case POLYGON_XYZM:
+            case MULTIPOLYGON_XY:
+            case MULTIPOLYGON_XYM:
+            case MULTIPOLYGON_XYZ:
+            case MULTIPOLYGON_XYZM: {
+                if (fill != null)
+                    shape.fill(canvas, fill);
+                if (stroke != null)
+                    shape.draw(canvas, stroke);
+            }
+            break;
+            default:
+                break;
+        }
+        return shape;
+    }
+
+    /**
+     * Collects the label of an already drawn geometry for the final label pass.
+     *
+     * <p>Lines reuse the path that has been built to draw them, points and
+     * polygons are anchored at the centroid. Labels of bigger features,
+     * in pixels of the zoom level, are placed first.</p>
+     *
+     * <p>The size is a length for all of them, so that they compete on
+     * the same scale: the length of lines, the square root of the area of
+     * polygons, the side of the equivalent square, and 0 for points, which
+     * are then placed after the other features by position, as done by 
+     * {@link LabelEngine} for equal priorities.</p>
+     */
+    private static void collectLabel(PointTransformation pointTransformer, ShapeWriter labelShapeWriter,
+                                     Envelope clipPixelEnvelope, Geometry geom, DrawableShape shape, String label,
+                                     LabelStyle labelStyle, LabelEngine labelEngine) {
+        if (labelStyle.isOnPath()) {
+            if (!clipPixelEnvelope.contains(geom.getEnvelopeInternal())) {
+                // the drawn path has been clipped
+                shape = labelShapeWriter.toShape(geom);
+            }
+            if (shape instanceof PathShape) {
+                Path linePath = ((PathShape) shape).getPath();
+                labelEngine.addPathLabel(label, linePath, getLabelPriority(geom), labelStyle);
+            }
+        } else {
+            /*
+             * for points and polygons for now just use the centroid
+             */
+            com.vividsolutions.jts.geom.Point centroid = geom.getCentroid();
+            Coordinate coordinate = centroid.getCoordinate();
+            PointF dest = new PointF();
+            pointTransformer.transform(coordinate, dest);
+            labelEngine.addPointLabel(label, dest.x, dest.y, getLabelPriority(geom), labelStyle);
+        }
+    }
+
+    private static double getLabelPriority(Geometry geom) {
+        switch (geom.getDimension()) {
+            case 1:
+                return geom.getLength();
+            case 2:
+                return Math.sqrt(geom.getArea());
+            default:
+                return 0;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.util.LruCache;
+
+import org.mapsforge.android.maps.overlay.Overlay;
+import org.mapsforge.core.model.Tile;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.TileRenderQueue;
+import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.Style;
+
+/**
+ * Renderer of the spatialite vector tables into reusable bitmap tiles.
+ *
+ * <p>Tiles are rasterized by a pool of background workers through the
+ * {@link SpatialiteVectorPainter} and kept in a memory bounded cache together
+ * with the signature of the styles and data versions of the layers they have
+ * been painted with. The overlay composites the cached tiles and a tile
+ * is only rendered again when it is missing or its signature is outdated.
+ * Until then the outdated tile is shown.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class VectorTileRenderer {
+    private static final String THREAD_NAME = "VectorTileRenderer"; //$NON-NLS-1$
+    private static final int TILE_SIZE = Tile.TILE_SIZE;
+    /**
+     * Pixels around a tile that are painted too, so that
+     * labels crossing the tile borders continue in the neighbour tiles.
+     */
+    private static final int LABEL_MARGIN = TILE_SIZE / 2;
+    private static final long MIN_REDRAW_INTERVAL = 300;
+
+    private final Overlay overlay;
+    private final ExecutorService executor;
+    private final LruCache<Tile, RenderedTile> tilesCache;
+    private final TileRenderQueue<Tile> renderQueue;
+    private final Object redrawLock = new Object();
+
+    private volatile String currentSignature = "";
+    private volatile TileRange currentRange = null;
+    private long lastRedrawRequest = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param overlay the overlay to redraw when new tiles are available.
+     */
+    public VectorTileRenderer( Overlay overlay ) {
+        this.overlay = overlay;
+        int threads = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            private int count = 0;
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread(runnable, THREAD_NAME + "-" + count++);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        tilesCache = new LruCache<Tile, RenderedTile>(maxBytes){
+            @Override
+            protected int sizeOf( Tile key, RenderedTile value ) {
+                return value.bitmap.getByteCount();
+            }
+        };
+        // a tile pending for an outdated signature does not block the request for the current one
+        renderQueue = new TileRenderQueue<Tile>(executor){
+            protected boolean isWanted( Tile tile, String signature ) {
+                TileRange range = currentRange;
+                return range != null && range.contains(tile) && signature.equals(currentSignature);
+            }
+
+            protected boolean render( Tile tile, String signature ) throws Exception {
+                return renderTile(tile, signature);
+            }
+
+            protected void tileFinished( Tile tile, boolean rendered, boolean isLast ) {
+                requestRedraw(isLast);
+            }
+        };
+    }
+
+    /**
+     * Composite the available tiles of the enabled vector tables on the canvas.
+     *
+     * <p>Missing and outdated tiles are scheduled for rendering and the
+     * overlay is asked to redraw once they are ready.</p>
+     *
+     * @param canvas the canvas to draw on.
+     * @param drawPosition the mapsforge pixel position of the upper left corner of the canvas.
+     * @param drawZoomLevel the zoom level.
+     */
+    public void drawTiles( Canvas canvas, Point drawPosition, byte drawZoomLevel ) {
+        String signature = getLayersSignature(drawZoomLevel);
+        currentSignature = signature;
+
+        long maxTile = (1L << drawZoomLevel) - 1;
+        long minTileX = Math.max(0, (long) Math.floor(drawPosition.x / (double) TILE_SIZE));
+        long minTileY = Math.max(0, (long) Math.floor(drawPosition.y / (double) TILE_SIZE));
+        long maxTileX = Math.min(maxTile, (long) Math.floor((drawPosition.x + canvas.getWidth()) / (double) TILE_SIZE));
+        long maxTileY = Math.min(maxTile, (long) Math.floor((drawPosition.y + canvas.getHeight()) / (double) TILE_SIZE));
+        TileRange range = new TileRange(drawZoomLevel, minTileX, minTileY, maxTileX, maxTileY);
+        currentRange = range;
+        if (signature.length() == 0) {
+            // no table to draw at this zoom level
+            return;
+        }
+
+        for( long tileY = minTileY; tileY <= maxTileY; tileY++ ) {
+            for( long tileX = minTileX; tileX <= maxTileX; tileX++ ) {
+                Tile tile = new Tile(tileX, tileY, drawZoomLevel);
+                RenderedTile renderedTile = tilesCache.get(tile);
+                if (renderedTile != null) {
+                    canvas.drawBitmap(renderedTile.bitmap, tileX * TILE_SIZE - drawPosition.x, tileY * TILE_SIZE
+                            - drawPosition.y, null);
+                }
+                if (renderedTile == null || !renderedTile.signature.equals(signature)) {
+                    renderQueue.schedule(tile, signature);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the workers and release the cached tiles.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+        tilesCache.evictAll();
+    }
+
+    private boolean renderTile( final Tile tile, final String signature ) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Point drawPosition = new Point((int) tile.getPixelX(), (int) tile.getPixelY());
+        boolean done = SpatialiteVectorPainter.paint(canvas, drawPosition, tile.zoomLevel, LABEL_MARGIN,
+                new SpatialiteVectorPainter.StopCondition(){
+                    public boolean stopDrawing() {
+                        return renderQueue.isStopped(tile, signature);
+                    }
+                });
+        if (done) {
+            tilesCache.put(tile, new RenderedTile(bitmap, signature));
+        }
+        return done;
+    }
+
+    private void requestRedraw( boolean isLast ) {
+        boolean doRedraw;
+        synchronized (redrawLock) {
+            long now = System.currentTimeMillis();
+            doRedraw = isLast || now - lastRedrawRequest > MIN_REDRAW_INTERVAL;
+            if (doRedraw) {
+                lastRedrawRequest = now;
+            }
+        }
+        if (doRedraw) {
+            overlay.requestRedraw();
+        }
+    }
+
+    /**
+     * Builds the signature of the tables visible at a zoom level.
+     *
+     * <p>It changes whenever a table is enabled or disabled, its
+     * style changes or its data are modified.</p>
+     */
+    private static String getLayersSignature( byte drawZoomLevel ) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            List<SpatialVectorTable> spatialVectorTables = SpatialDatabasesManager.getInstance().getSpatialVectorTables(false);
+            for( SpatialVectorTable spatialTable : spatialVectorTables ) {
+                Style style4Table = spatialTable.getStyle();
+                if (style4Table.enabled == 0) {
+                    continue;
+                }
+                if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
+                    continue;
+                }
+                sb.append(spatialTable.getUniqueNameBasedOnDbFilePath());
+                sb.append(style4Table.insertValuesString());
+                sb.append(spatialTable.getDataVersion());
+                sb.append(";");
+            }
+        } catch (jsqlite.Exception e) {
+            GPLog.error("VectorTileRenderer", "VectorTileRenderer.getLayersSignature [failed]", e); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+
+    private static class RenderedTile {
+        final Bitmap bitmap;
+        final String signature;
+
+        RenderedTile( Bitmap bitmap, String signature ) {
+            this.bitmap = bitmap;
+            this.signature = signature;
+        }
+    }
+
+    private static class TileRange {
+        final byte zoomLevel;
+        final long minTileX;
+        final long minTileY;
+        final long maxTileX;
+        final long maxTileY;
+
+        TileRange( byte zoomLevel, long minTileX, long minTileY, long maxTileX, long maxTileY ) {
+            this.zoomLevel = zoomLevel;
+            this.minTileX = minTileX;
+            this.minTileY = minTileY;
+            this.maxTileX = maxTileX;
+            this.maxTileY = maxTileY;
+        }
+
+        boolean contains( Tile tile ) {
+            return tile.zoomLevel == zoomLevel && tile.tileX >= minTileX && tile.tileX <= maxTileX
+                    && tile.tileY >= minTileY && tile.tileY <= maxTileY;
+        }
+    }
+}
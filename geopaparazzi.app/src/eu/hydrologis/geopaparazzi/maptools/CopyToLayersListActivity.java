@@ -146,16 +146,18 @@ public class CopyToLayersListActivity extends ListActivity implements OnTouchLis
                                 SpatialVectorTable spatialVectorTable = compatibleSpatialVectorTables.get(position);
 
                                 int count = 0;
-                                for (Feature feature : featuresList) {
-                                    try {
-                                        Geometry geometry = FeatureUtilities.getGeometry(feature);
-                                        DaoSpatialite.addNewFeatureByGeometry(geometry, LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
-                                        count++;
-                                    } catch (Exception e) {
-                                        GPLog.error(this, null, e);
-                                        Utilities.errorDialog(editableButton.getContext(), e, null);
-                                        return;
+                                try {
+                                    List<Geometry> geometries = new ArrayList<Geometry>();
+                                    for (Feature feature : featuresList) {
+                                        geometries.add(FeatureUtilities.getGeometry(feature));
                                     }
+                                    // all features are copied in one transaction
+                                    DaoSpatialite.addNewFeaturesByGeometry(geometries, LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
+                                    count = geometries.size();
+                                } catch (Exception e) {
+                                    GPLog.error(this, null, e);
+                                    Utilities.errorDialog(editableButton.getContext(), e, null);
+                                    return;
                                 }
 
                                 try {
@@ -48,8 +48,10 @@ import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.Abstrac
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
-import jsqlite.Database;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.PreparedStatementCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteConnectionPool;
 import jsqlite.Exception;
 import jsqlite.Stmt;
 
@@ -99,36 +101,29 @@ public class FeatureUtilities {
      * @throws Exception is something goes wrong.
      */
     public static List<Feature> buildWithoutGeometry(String query, SpatialVectorTable spatialTable) throws Exception {
-        List<Feature> featuresList = new ArrayList<Feature>();
-        AbstractSpatialDatabaseHandler vectorHandler = SpatialDatabasesManager.getInstance().getVectorHandler(spatialTable);
-        if (vectorHandler instanceof SpatialiteDatabaseHandler) {
-            SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
-            Database database = spatialiteDbHandler.getDatabase();
-
-            String tableName = spatialTable.getTableName();
-            String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
-
-            Stmt stmt = database.prepare(query);
-            try {
-                while (stmt.step()) {
-                    int column_count = stmt.column_count();
-                    // the first is the id, transparent to the user
-                    String id = stmt.column_string(0);
-                    Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id);
-                    for (int i = 1; i < column_count; i++) {
-                        String cName = stmt.column_name(i);
-                        String value = stmt.column_string(i);
-                        DataType type = spatialTable.getTableFieldType(cName);
-                        feature.addAttribute(cName, value, type.name());
-                    }
-                    featuresList.add(feature);
-                }
-            } finally {
-                stmt.close();
-            }
+        return build(query, null, spatialTable, null, false);
+    }
 
-        }
-        return featuresList;
+    /**
+     * Build the features intersecting a bounding box, through a cached prepared statement.
+     * <p/>
+     * <p>The query is aborted once the token is canceled.</p>
+     *
+     * @param statement         the query, with the bounds as {@link PreparedStatementCache#BOUNDS_PARAMETERS},
+     *                          as of {@link SpatialiteDatabaseHandler#getIntersectionStatementBBOX(String, SpatialVectorTable)}.
+     * @param spatialTable      the parent Spatialtable.
+     * @param n                 north bound.
+     * @param s                 south bound.
+     * @param e                 east bound.
+     * @param w                 west bound.
+     * @param cancellationToken the token of the request or <code>null</code>.
+     * @return the list of feature from the query.
+     * @throws Exception is something goes wrong or the query has been canceled.
+     * @see #buildWithoutGeometry(String, SpatialVectorTable)
+     */
+    public static List<Feature> buildWithoutGeometry(String statement, SpatialVectorTable spatialTable, double n, double s,
+                                                     double e, double w, CancellationToken cancellationToken) throws Exception {
+        return build(statement, new double[]{n, s, e, w}, spatialTable, cancellationToken, false);
     }
 
     /**
@@ -143,48 +138,114 @@ public class FeatureUtilities {
      * @throws Exception is something goes wrong.
      */
     public static List<Feature> buildFeatures(String query, SpatialVectorTable spatialTable) throws Exception {
+        return build(query, null, spatialTable, null, true);
+    }
+
+    /**
+     * Build the features intersecting a bounding box, through a cached prepared statement.
+     * <p/>
+     * <p>The query is aborted once the token is canceled.</p>
+     *
+     * @param statement         the query, with the bounds as {@link PreparedStatementCache#BOUNDS_PARAMETERS},
+     *                          as of {@link eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities#getBboxIntersectingFeaturesStatement(String, SpatialVectorTable)}.
+     * @param spatialTable      the parent Spatialtable.
+     * @param n                 north bound.
+     * @param s                 south bound.
+     * @param e                 east bound.
+     * @param w                 west bound.
+     * @param cancellationToken the token of the request or <code>null</code>.
+     * @return the list of feature from the query.
+     * @throws Exception is something goes wrong or the query has been canceled.
+     * @see #buildFeatures(String, SpatialVectorTable)
+     */
+    public static List<Feature> buildFeatures(String statement, SpatialVectorTable spatialTable, double n, double s,
+                                              double e, double w, CancellationToken cancellationToken) throws Exception {
+        return build(statement, new double[]{n, s, e, w}, spatialTable, cancellationToken, true);
+    }
+
+    /**
+     * @param bounds the n, s, e, w bounds to bind to a cached statement or
+     *               <code>null</code> to prepare a query without parameters.
+     */
+    private static List<Feature> build(String query, double[] bounds, SpatialVectorTable spatialTable,
+                                       CancellationToken cancellationToken, boolean withGeometry) throws Exception {
         List<Feature> featuresList = new ArrayList<Feature>();
         AbstractSpatialDatabaseHandler vectorHandler = SpatialDatabasesManager.getInstance().getVectorHandler(spatialTable);
         if (vectorHandler instanceof SpatialiteDatabaseHandler) {
             SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
-            Database database = spatialiteDbHandler.getDatabase();
-            String tableName = spatialTable.getTableName();
-            String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
+            SpatialiteConnectionPool connectionPool = spatialiteDbHandler.getConnectionPool();
+            PreparedStatementCache reader = connectionPool.acquireReader(cancellationToken);
 
-            Stmt stmt = database.prepare(query);
+            Stmt stmt = null;
             try {
+                if (bounds != null) {
+                    stmt = reader.acquire(query, bounds[0], bounds[1], bounds[2], bounds[3]);
+                } else {
+                    stmt = reader.getDatabase().prepare(query);
+                }
                 while (stmt.step()) {
-                    int count = stmt.column_count();
-                    String id = stmt.column_string(0);
-                    byte[] geometryBytes = stmt.column_bytes(count - 1);
-                    Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id, geometryBytes);
-                    for (int i = 1; i < count - 1; i++) {
-                        String cName = stmt.column_name(i);
-                        String value = stmt.column_string(i);
-                        DataType type = spatialTable.getTableFieldType(cName);
-                        if (type == null) {
-                            GPLog.addLogEntry("Featureutilities#buildFeatures", "Unexpected type for column "
-                                    + cName);
-                            continue;
-                        }
-                        feature.addAttribute(cName, value, type.name());
+                    if (withGeometry) {
+                        featuresList.add(readFeature(stmt, spatialTable));
+                    } else {
+                        featuresList.add(readFeatureWithoutGeometry(stmt, spatialTable));
                     }
-                    featuresList.add(feature);
                 }
             } finally {
-                stmt.close();
+                if (stmt != null) {
+                    if (bounds != null) {
+                        reader.release(query, stmt);
+                    } else {
+                        stmt.close();
+                    }
+                }
+                connectionPool.releaseReader(reader);
             }
-            for (Feature feature : featuresList) {
-                String id = feature.getId();
-                double[] areaLength = DaoSpatialite.getAreaAndLengthById(id, spatialTable);
-                feature.setOriginalArea(areaLength[0]);
-                feature.setOriginalLength(areaLength[1]);
+            if (withGeometry) {
+                for (Feature feature : featuresList) {
+                    String id = feature.getId();
+                    double[] areaLength = DaoSpatialite.getAreaAndLengthById(id, spatialTable);
+                    feature.setOriginalArea(areaLength[0]);
+                    feature.setOriginalLength(areaLength[1]);
+                }
             }
         }
-
         return featuresList;
     }
 
+    private static Feature readFeatureWithoutGeometry(Stmt stmt, SpatialVectorTable spatialTable) throws Exception {
+        int column_count = stmt.column_count();
+        // the first is the id, transparent to the user
+        String id = stmt.column_string(0);
+        Feature feature = new Feature(spatialTable.getTableName(), spatialTable.getUniqueNameBasedOnDbFilePath(), id);
+        for (int i = 1; i < column_count; i++) {
+            String cName = stmt.column_name(i);
+            String value = stmt.column_string(i);
+            DataType type = spatialTable.getTableFieldType(cName);
+            feature.addAttribute(cName, value, type.name());
+        }
+        return feature;
+    }
+
+    private static Feature readFeature(Stmt stmt, SpatialVectorTable spatialTable) throws Exception {
+        int count = stmt.column_count();
+        String id = stmt.column_string(0);
+        byte[] geometryBytes = stmt.column_bytes(count - 1);
+        Feature feature = new Feature(spatialTable.getTableName(), spatialTable.getUniqueNameBasedOnDbFilePath(), id,
+                geometryBytes);
+        for (int i = 1; i < count - 1; i++) {
+            String cName = stmt.column_name(i);
+            String value = stmt.column_string(i);
+            DataType type = spatialTable.getTableFieldType(cName);
+            if (type == null) {
+                GPLog.addLogEntry("Featureutilities#buildFeatures", "Unexpected type for column "
+                        + cName);
+                continue;
+            }
+            feature.addAttribute(cName, value, type.name());
+        }
+        return feature;
+    }
+
 //    /**
 //     * Build the features given by a query.
 //     *
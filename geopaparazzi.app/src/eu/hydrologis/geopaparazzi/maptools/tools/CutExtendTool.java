@@ -171,7 +171,7 @@ public class CutExtendTool extends MapTool {
             MapViewPosition mapPosition = mapView.getMapPosition();
             byte zoomLevel = mapPosition.getZoomLevel();
 
-            PointTransformation pointTransformer = new MapsforgePointTransformation(projection, point, zoomLevel);
+            PointTransformation pointTransformer = new MapsforgePointTransformation(point, zoomLevel);
             ShapeWriter shapeWriter = new ShapeWriter(pointTransformer);
             shapeWriter.setRemoveDuplicatePoints(true);
 
@@ -276,10 +276,10 @@ public class CutExtendTool extends MapTool {
                         west = e - 1;
                     }
 
-                    String query =
-                            SpatialiteUtilities.getBboxIntersectingFeaturesQuery(LibraryConstants.SRID_WGS84_4326,
-                                    spatialVectorTable, north, south, east, west);
-                    List<Feature> features = FeatureUtilities.buildFeatures(query, spatialVectorTable);
+                    String statement = SpatialiteUtilities.getBboxIntersectingFeaturesStatement(
+                            LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
+                    List<Feature> features = FeatureUtilities.buildFeatures(statement, spatialVectorTable, north, south,
+                            east, west, null);
                     Geometry startGeometry = null;
                     Geometry endGeometry = null;
                     for (Feature feature: features) {
@@ -19,6 +19,7 @@ package eu.hydrologis.geopaparazzi.maptools.tools;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -28,6 +29,8 @@ import android.os.AsyncTask;
 import android.os.Parcelable;
 import android.view.MotionEvent;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 import org.mapsforge.android.maps.MapView;
 import org.mapsforge.android.maps.Projection;
 import org.mapsforge.core.model.GeoPoint;
@@ -43,6 +46,7 @@ import eu.geopaparazzi.library.util.ColorUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.hydrologis.geopaparazzi.R;
@@ -81,6 +85,8 @@ public class InfoTool extends MapTool {
     private float top;
 
     private ProgressDialog infoProgressDialog;
+    // the token of the running info request, canceled by a newer one
+    private CancellationToken infoCancellationToken;
 
     private SliderDrawProjection sliderDrawProjection;
 
@@ -177,6 +183,9 @@ public class InfoTool extends MapTool {
     }
 
     public void disable() {
+        if (infoCancellationToken != null) {
+            infoCancellationToken.cancel();
+        }
         if (mapView != null) {
             mapView.setClickable(true);
             mapView = null;
@@ -187,20 +196,25 @@ public class InfoTool extends MapTool {
         try {
             final SpatialDatabasesManager sdbManager = SpatialDatabasesManager.getInstance();
             List<SpatialVectorTable> spatialTables = sdbManager.getSpatialVectorTables(false);
-            double[] boundsCoordinates = new double[]{w, s, e, n};
+            Envelope queryEnvelope = new Envelope(w, e, s, n);
             final List<SpatialVectorTable> visibleTables = new ArrayList<SpatialVectorTable>();
             for( SpatialVectorTable spatialTable : spatialTables ) {
                 if (spatialTable.getStyle().enabled == 0) {
                     continue;
                 }
                 // do not add tables that are out of range
-                // TODO activate this only when a decent strategy has been developed to update the bounds also
-                //                if (!spatialTable.checkBounds(boundsCoordinates)) {
-                //                    continue;
-                //                }
+                if (!spatialTable.intersectsTableBounds(queryEnvelope)) {
+                    continue;
+                }
                 visibleTables.add(spatialTable);
             }
 
+            if (infoCancellationToken != null) {
+                infoCancellationToken.cancel();
+            }
+            final CancellationToken cancellationToken = new CancellationToken();
+            infoCancellationToken = cancellationToken;
+
             final Context context = EditManager.INSTANCE.getEditingView().getContext();
             infoProgressDialog = new ProgressDialog(context);
             infoProgressDialog.setCancelable(true);
@@ -210,6 +224,11 @@ public class InfoTool extends MapTool {
             infoProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
             infoProgressDialog.setProgress(0);
             infoProgressDialog.setMax(visibleTables.size());
+            infoProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener(){
+                public void onCancel( DialogInterface dialog ) {
+                    cancellationToken.cancel();
+                }
+            });
             infoProgressDialog.show();
 
             new AsyncTask<String, Integer, String>(){
@@ -232,20 +251,23 @@ public class InfoTool extends MapTool {
                             }
 
                             for( SpatialVectorTable spatialTable : visibleTables ) {
-                                String query = SpatialiteDatabaseHandler.getIntersectionQueryBBOX(
-                                        LibraryConstants.SRID_WGS84_4326, spatialTable, north, south, east, west);
+                                String statement = SpatialiteDatabaseHandler.getIntersectionStatementBBOX(
+                                        LibraryConstants.SRID_WGS84_4326, spatialTable);
 
-                                List<Feature> featuresList = FeatureUtilities.buildWithoutGeometry(query, spatialTable);
+                                List<Feature> featuresList = FeatureUtilities.buildWithoutGeometry(statement, spatialTable,
+                                        north, south, east, west, cancellationToken);
                                 features.addAll(featuresList);
 
                                 publishProgress(1);
                                 // Escape early if cancel() is called
-                                if (isCancelled())
+                                if (isCancelled() || cancellationToken.isCanceled())
                                     return "CANCEL";
                             }
                         }
                         return "";
                     } catch (Exception e) {
+                        if (cancellationToken.isCanceled())
+                            return "CANCEL";
                         GPLog.error(this, null, e); //$NON-NLS-1$
                         return "ERROR: " + e.getLocalizedMessage();
                     }
@@ -251,11 +251,10 @@ public class MainEditingToolGroup implements ToolGroup, OnClickListener, OnTouch
                                 Geometry newGeom = FeatureUtilities.WKBREADER.read(cutExtendProcessedFeature.getDefaultGeometry());
 
                                 if (tableGeometryType.isGeometryCompatible(newGeom)) {
-                                    DaoSpatialite.updateFeatureGeometry(
-                                            cutExtendProcessedFeature.getId(),
-                                            newGeom, LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
-
-                                    DaoSpatialite.deleteFeatures(Arrays.asList(cutExtendFeatureToRemove));
+                                    // update and removal are committed together
+                                    DaoSpatialite.updateFeaturesGeometry(Arrays.asList(cutExtendProcessedFeature.getId()),
+                                            Arrays.asList(newGeom), LibraryConstants.SRID_WGS84_4326, spatialVectorTable,
+                                            Arrays.asList(cutExtendFeatureToRemove));
                                     // reset mapview
                                     Context context = v.getContext();
                                     Intent intent = new Intent(context, MapsSupportService.class);
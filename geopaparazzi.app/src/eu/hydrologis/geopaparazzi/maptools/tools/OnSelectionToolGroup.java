@@ -334,7 +334,7 @@ public class OnSelectionToolGroup implements ToolGroup, OnClickListener, OnTouch
                 MapViewPosition mapPosition = mapView.getMapPosition();
                 byte zoomLevel = mapPosition.getZoomLevel();
 
-                PointTransformation pointTransformer = new MapsforgePointTransformation(projection, point, zoomLevel);
+                PointTransformation pointTransformer = new MapsforgePointTransformation(point, zoomLevel);
                 ShapeWriter shapeWriter = new ShapeWriter(pointTransformer);
                 shapeWriter.setRemoveDuplicatePoints(true);
                 // shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
@@ -43,6 +43,7 @@ import eu.geopaparazzi.library.features.ILayer;
 import eu.geopaparazzi.library.util.ColorUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.Utilities;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTableLayer;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
@@ -79,6 +80,8 @@ public class SelectionTool extends MapTool {
     private float top;
 
     private ProgressDialog infoProgressDialog;
+    // the token of the running selection, canceled by a newer one
+    private CancellationToken selectionCancellationToken;
 
     private SliderDrawProjection editingViewProjection;
 
@@ -169,6 +172,9 @@ public class SelectionTool extends MapTool {
     }
 
     public void disable() {
+        if (selectionCancellationToken != null) {
+            selectionCancellationToken.cancel();
+        }
         if (mapView != null) {
             mapView.setClickable(true);
             mapView = null;
@@ -181,6 +187,12 @@ public class SelectionTool extends MapTool {
         SpatialVectorTableLayer layer = (SpatialVectorTableLayer) editLayer;
         final SpatialVectorTable spatialVectorTable = layer.getSpatialVectorTable();
 
+        if (selectionCancellationToken != null) {
+            selectionCancellationToken.cancel();
+        }
+        final CancellationToken cancellationToken = new CancellationToken();
+        selectionCancellationToken = cancellationToken;
+
         final Context context = EditManager.INSTANCE.getEditingView().getContext();
         infoProgressDialog = new ProgressDialog(context);
         infoProgressDialog.setCancelable(true);
@@ -208,12 +220,17 @@ public class SelectionTool extends MapTool {
                         west = e - 1;
                     }
 
-                    String query = SpatialiteUtilities.getBboxIntersectingFeaturesQuery(LibraryConstants.SRID_WGS84_4326,
-                            spatialVectorTable, north, south, east, west);
-                    features = FeatureUtilities.buildFeatures(query, spatialVectorTable);
+                    String statement = SpatialiteUtilities.getBboxIntersectingFeaturesStatement(
+                            LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
+                    features = FeatureUtilities.buildFeatures(statement, spatialVectorTable, north, south, east, west,
+                            cancellationToken);
+                    if (cancellationToken.isCanceled())
+                        return "CANCEL";
 
                     return "";
                 } catch (Exception e) {
+                    if (cancellationToken.isCanceled())
+                        return "CANCEL";
                     GPLog.error(this, null, e); //$NON-NLS-1$
                     return "ERROR: " + e.getLocalizedMessage();
                 }
@@ -0,0 +1,325 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.ProjectingWKBReader;
+
+/**
+ * Generators of the data the benchmarks run on.
+ *
+ * <p>Data are random but reproducible and lie in the area of
+ * {@link #WEST}, {@link #SOUTH}, {@link #EAST}, {@link #NORTH}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class BenchmarkFixtures {
+    /**
+     * The seed of all random data.
+     */
+    public static final long SEED = 4326;
+    /**
+     * Western bound of the data.
+     */
+    public static final double WEST = 11.0;
+    /**
+     * Southern bound of the data.
+     */
+    public static final double SOUTH = 46.0;
+    /**
+     * Eastern bound of the data.
+     */
+    public static final double EAST = 12.0;
+    /**
+     * Northern bound of the data.
+     */
+    public static final double NORTH = 47.0;
+
+    /**
+     * The name of the generated vector table.
+     */
+    public static final String VECTOR_TABLE = "roads";
+    /**
+     * The name of the spatial index of the generated vector table, as spatialite names it.
+     */
+    public static final String VECTOR_TABLE_RTREE = "idx_roads_geometry";
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Create a database file that is deleted on exit.
+     *
+     * @param prefix the file name prefix.
+     * @param suffix the file name suffix.
+     * @return the file.
+     * @throws IOException if something goes wrong.
+     */
+    public static File createTempDatabase( String prefix, String suffix ) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        if (!file.delete()) {
+            throw new IOException("Unable to reset: " + file);
+        }
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Open a connection to a database file.
+     *
+     * @param file the file.
+     * @return the connection.
+     * @throws SQLException if something goes wrong.
+     */
+    public static Connection open( File file ) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The sqlite-jdbc driver is missing.", e);
+        }
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+    }
+
+    /**
+     * Create the WKB of a random line, as a walk of the given number of vertexes.
+     *
+     * @param random the random generator.
+     * @param vertexes the number of vertexes.
+     * @param crs the reference system to convert the wgs84 coordinates to or <code>null</code>.
+     * @return the WKB.
+     */
+    public static byte[] createLine( Random random, int vertexes, CoordinateReferenceSystem crs ) {
+        double[] coords = new double[vertexes * 2];
+        double x = WEST + random.nextDouble() * (EAST - WEST);
+        double y = SOUTH + random.nextDouble() * (NORTH - SOUTH);
+        for( int i = 0; i < vertexes; i++ ) {
+            x += (random.nextDouble() - 0.5) * 0.001;
+            y += (random.nextDouble() - 0.5) * 0.001;
+            coords[2 * i] = x;
+            coords[2 * i + 1] = y;
+        }
+        if (crs != null) {
+            crs.fromWgs84(coords, 0, vertexes);
+        }
+        Coordinate[] coordinates = new Coordinate[vertexes];
+        for( int i = 0; i < vertexes; i++ ) {
+            coordinates[i] = new Coordinate(coords[2 * i], coords[2 * i + 1]);
+        }
+        return new WKBWriter().write(geometryFactory.createLineString(coordinates));
+    }
+
+    /**
+     * Create a vector table of random lines with a spatial index like the one of spatialite.
+     *
+     * @param file the database file.
+     * @param count the number of lines.
+     * @throws SQLException if something goes wrong.
+     */
+    public static void createVectorDatabase( File file, int count ) throws SQLException {
+        Random random = new Random(SEED);
+        Connection connection = open(file);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE " + VECTOR_TABLE + " (PK_UID INTEGER PRIMARY KEY, name TEXT, geometry BLOB)");
+            statement.execute("CREATE VIRTUAL TABLE " + VECTOR_TABLE_RTREE + " USING rtree(pkid, xmin, xmax, ymin, ymax)");
+            statement.close();
+
+            connection.setAutoCommit(false);
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + VECTOR_TABLE
+                    + " (PK_UID, name, geometry) VALUES (?, ?, ?)");
+            PreparedStatement insertIndex = connection.prepareStatement("INSERT INTO " + VECTOR_TABLE_RTREE
+                    + " (pkid, xmin, xmax, ymin, ymax) VALUES (?, ?, ?, ?, ?)");
+            ProjectingWKBReader envelopeReader = new ProjectingWKBReader(new ProjectingWKBReader.OrdinateProjection(){
+                public double projectX( double x ) {
+                    return x;
+                }
+                public double projectY( double y ) {
+                    return y;
+                }
+            });
+            for( int i = 1; i <= count; i++ ) {
+                byte[] wkb = createLine(random, 20 + random.nextInt(40), null);
+                Envelope envelope = envelopeReader.read(wkb).getEnvelopeInternal();
+                insert.setInt(1, i);
+                insert.setString(2, "road " + i);
+                insert.setBytes(3, wkb);
+                insert.executeUpdate();
+                insertIndex.setInt(1, i);
+                insertIndex.setDouble(2, envelope.getMinX());
+                insertIndex.setDouble(3, envelope.getMaxX());
+                insertIndex.setDouble(4, envelope.getMinY());
+                insertIndex.setDouble(5, envelope.getMaxY());
+                insertIndex.executeUpdate();
+            }
+            insert.close();
+            insertIndex.close();
+            connection.commit();
+        } catch (ParseException e) {
+            throw new SQLException(e);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Create a mbtiles database with the map/images layout written by the app.
+     *
+     * @param file the database file.
+     * @param minZoom the min zoom level.
+     * @param maxZoom the max zoom level.
+     * @param tilesPerSide the max number of tiles per side of a zoom level.
+     * @param tileSize the size in bytes of the tile images.
+     * @return the tile ranges as [zoom][minX, minY, maxX, maxY], with y in tms order.
+     * @throws SQLException if something goes wrong.
+     */
+    public static int[][] createMbtilesDatabase( File file, int minZoom, int maxZoom, int tilesPerSide, int tileSize )
+            throws SQLException {
+        Random random = new Random(SEED);
+        int[][] ranges = new int[maxZoom + 1][];
+        Connection connection = open(file);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE metadata (name text, value text)");
+            statement.execute("CREATE TABLE images (tile_data blob, tile_id text)");
+            statement.execute("CREATE TABLE map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id TEXT, grid_id TEXT)");
+            statement.execute("CREATE UNIQUE INDEX images_id ON images (tile_id)");
+            statement.execute("CREATE UNIQUE INDEX map_index ON map (zoom_level, tile_column, tile_row)");
+            statement.execute("CREATE VIEW tiles AS SELECT map.zoom_level AS zoom_level, map.tile_column AS tile_column,"
+                    + " map.tile_row AS tile_row, images.tile_data AS tile_data FROM map JOIN images"
+                    + " ON images.tile_id = map.tile_id");
+            statement.execute("INSERT INTO metadata VALUES ('bounds', '" + WEST + "," + SOUTH + "," + EAST + "," + NORTH + "')");
+            statement.execute("INSERT INTO metadata VALUES ('minzoom', '" + minZoom + "')");
+            statement.execute("INSERT INTO metadata VALUES ('maxzoom', '" + maxZoom + "')");
+            statement.close();
+
+            connection.setAutoCommit(false);
+            PreparedStatement insertImage = connection.prepareStatement("INSERT INTO images (tile_data, tile_id) VALUES (?, ?)");
+            PreparedStatement insertMap = connection.prepareStatement("INSERT INTO map (zoom_level, tile_column, tile_row, tile_id) VALUES (?, ?, ?, ?)");
+            byte[] tile = new byte[tileSize];
+            for( int zoom = minZoom; zoom <= maxZoom; zoom++ ) {
+                int minX = lonToTileX(WEST, zoom);
+                int minY = (1 << zoom) - 1 - latToTileY(NORTH, zoom);
+                int maxX = Math.min(lonToTileX(EAST, zoom), minX + tilesPerSide - 1);
+                int maxY = Math.min((1 << zoom) - 1 - latToTileY(SOUTH, zoom), minY + tilesPerSide - 1);
+                ranges[zoom] = new int[]{minX, minY, maxX, maxY};
+                for( int x = minX; x <= maxX; x++ ) {
+                    for( int y = minY; y <= maxY; y++ ) {
+                        String tileId = zoom + "-" + x + "-" + y;
+                        random.nextBytes(tile);
+                        insertImage.setBytes(1, tile);
+                        insertImage.setString(2, tileId);
+                        insertImage.executeUpdate();
+                        insertMap.setInt(1, zoom);
+                        insertMap.setInt(2, x);
+                        insertMap.setInt(3, y);
+                        insertMap.setString(4, tileId);
+                        insertMap.executeUpdate();
+                    }
+                }
+            }
+            insertImage.close();
+            insertMap.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        return ranges;
+    }
+
+    /**
+     * Create the gps log tables of the app database.
+     *
+     * @param file the database file.
+     * @throws SQLException if something goes wrong.
+     */
+    public static void createGpsLogDatabase( File file ) throws SQLException {
+        Connection connection = open(file);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE gpslogs (_id INTEGER PRIMARY KEY AUTOINCREMENT, startts DATE NOT NULL,"
+                    + " endts DATE NOT NULL, lengthm REAL NOT NULL, isdirty INTEGER NOT NULL, text TEXT NOT NULL)");
+            statement.execute("CREATE TABLE gpslogsdata (_id INTEGER PRIMARY KEY AUTOINCREMENT, lon REAL NOT NULL,"
+                    + " lat REAL NOT NULL, altim REAL NOT NULL, ts DATE NOT NULL, logid INTEGER NOT NULL"
+                    + " CONSTRAINT logid REFERENCES gpslogs(_id) ON DELETE CASCADE)");
+            statement.execute("CREATE INDEX gpslog_id_idx ON gpslogsdata (logid)");
+            statement.execute("CREATE INDEX gpslog_ts_idx ON gpslogsdata (ts)");
+            statement.execute("CREATE INDEX gpslog_x_by_y_idx ON gpslogsdata (lon, lat)");
+            statement.execute("CREATE INDEX gpslog_logid_x_y_idx ON gpslogsdata (logid, lon, lat)");
+            statement.execute("INSERT INTO gpslogs (_id, startts, endts, lengthm, isdirty, text) VALUES (1, 0, 0, 0, 0, 'log')");
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @param lon the longitude.
+     * @param zoom the zoom level.
+     * @return the google/osm tile column.
+     */
+    public static int lonToTileX( double lon, int zoom ) {
+        return (int) Math.floor((lon + 180.0) / 360.0 * (1 << zoom));
+    }
+
+    /**
+     * @param lat the latitude.
+     * @param zoom the zoom level.
+     * @return the google/osm tile row.
+     */
+    public static int latToTileY( double lat, int zoom ) {
+        double latRad = Math.toRadians(lat);
+        return (int) Math.floor((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * (1 << zoom));
+    }
+
+    /**
+     * Create the projection from wgs84 to the pixels of a zoom level, as done while drawing.
+     *
+     * @param zoom the zoom level.
+     * @return the projection.
+     */
+    public static ProjectingWKBReader.OrdinateProjection createPixelProjection( int zoom ) {
+        final double mapSize = 256L << zoom;
+        return new ProjectingWKBReader.OrdinateProjection(){
+            public double projectX( double x ) {
+                return (x + 180.0) / 360.0 * mapSize;
+            }
+            public double projectY( double y ) {
+                double sinLatitude = Math.sin(Math.toRadians(y));
+                return (0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI)) * mapSize;
+            }
+        };
+    }
+}
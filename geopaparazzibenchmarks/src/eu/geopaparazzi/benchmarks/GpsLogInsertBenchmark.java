@@ -0,0 +1,125 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Inserts of gps log points into the gps log table of the app, per point.
+ *
+ * <p>Compares the insert of every fix in its own transaction, as the logger does,
+ * with the insert of a batch of fixes in a single transaction.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GpsLogInsertBenchmark {
+    static final int BATCH_SIZE = 100;
+
+    private File databaseFile;
+    private Connection connection;
+    private PreparedStatement insert;
+    private double lon = BenchmarkFixtures.WEST;
+    private double lat = BenchmarkFixtures.SOUTH;
+    private long ts = 0;
+
+    /**
+     * Create the database.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        databaseFile = BenchmarkFixtures.createTempDatabase("gpslog", ".sqlite");
+        BenchmarkFixtures.createGpsLogDatabase(databaseFile);
+        connection = BenchmarkFixtures.open(databaseFile);
+        insert = connection.prepareStatement("INSERT INTO gpslogsdata (lon, lat, altim, ts, logid) VALUES (?, ?, ?, ?, 1)");
+    }
+
+    /**
+     * Close the database.
+     *
+     * @throws SQLException if something goes wrong.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        insert.close();
+        connection.close();
+        if (!databaseFile.delete()) {
+            databaseFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Insert a single point with autocommit.
+     *
+     * @throws SQLException if something goes wrong.
+     */
+    @Benchmark
+    public void insertPerFix() throws SQLException {
+        insertPoint();
+    }
+
+    /**
+     * Insert {@link #BATCH_SIZE} points in a transaction.
+     *
+     * @throws SQLException if something goes wrong.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertBatch() throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for( int i = 0; i < BATCH_SIZE; i++ ) {
+                insertPoint();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void insertPoint() throws SQLException {
+        lon += 0.00001;
+        lat += 0.00001;
+        ts += 1000;
+        insert.setDouble(1, lon);
+        insert.setDouble(2, lat);
+        insert.setDouble(3, 500.0);
+        insert.setLong(4, ts);
+        insert.executeUpdate();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reads of single tiles from a mbtiles database, per tile.
+ *
+ * <p>Uses the query of the mbtiles map views on random tiles of all the zoom levels.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MbtilesReadBenchmark {
+    private static final int MIN_ZOOM = 10;
+    private static final int MAX_ZOOM = 14;
+    private static final int TILES_PER_SIDE = 40;
+    private static final int TILE_SIZE = 16 * 1024;
+    private static final int REQUESTS = 4096;
+
+    private File databaseFile;
+    private Connection connection;
+    private PreparedStatement query;
+    private int[][] requests;
+    private int requestIndex;
+
+    /**
+     * Create the database and the tile requests.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        databaseFile = BenchmarkFixtures.createTempDatabase("mbtilesread", ".mbtiles");
+        int[][] ranges = BenchmarkFixtures.createMbtilesDatabase(databaseFile, MIN_ZOOM, MAX_ZOOM, TILES_PER_SIDE, TILE_SIZE);
+        connection = BenchmarkFixtures.open(databaseFile);
+        query = connection.prepareStatement("select tile_data from tiles where tile_column=? and tile_row=? and zoom_level=?");
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        requests = new int[REQUESTS][];
+        for( int i = 0; i < REQUESTS; i++ ) {
+            int zoom = MIN_ZOOM + random.nextInt(MAX_ZOOM - MIN_ZOOM + 1);
+            int[] range = ranges[zoom];
+            int x = range[0] + random.nextInt(range[2] - range[0] + 1);
+            int y = range[1] + random.nextInt(range[3] - range[1] + 1);
+            requests[i] = new int[]{x, y, zoom};
+        }
+    }
+
+    /**
+     * Close the database.
+     *
+     * @throws SQLException if something goes wrong.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        query.close();
+        connection.close();
+        if (!databaseFile.delete()) {
+            databaseFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return the tile image.
+     * @throws SQLException if something goes wrong.
+     */
+    @Benchmark
+    public byte[] readTile() throws SQLException {
+        int[] request = requests[requestIndex++ % REQUESTS];
+        query.setInt(1, request[0]);
+        query.setInt(2, request[1]);
+        query.setInt(3, request[2]);
+        ResultSet resultSet = query.executeQuery();
+        try {
+            if (resultSet.next()) {
+                return resultSet.getBytes(1);
+            }
+            return null;
+        } finally {
+            resultSet.close();
+        }
+    }
+}
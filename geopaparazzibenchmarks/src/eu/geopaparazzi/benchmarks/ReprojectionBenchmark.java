@@ -0,0 +1,85 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystems;
+
+/**
+ * Conversion of coordinates to wgs84 in java, per coordinate.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ReprojectionBenchmark.COORDINATES)
+public class ReprojectionBenchmark {
+    static final int COORDINATES = 10000;
+
+    /**
+     * The srid of the source coordinates: web mercator, UTM 32N, Gauss-Boaga and Gauss-Kruger.
+     */
+    @Param({"3857", "32632", "3003", "31468"})
+    public int srid;
+
+    private CoordinateReferenceSystem crs;
+    private double[] sourceCoords;
+    private double[] coords;
+
+    /**
+     * Create the coordinates.
+     */
+    @Setup
+    public void setup() {
+        crs = CoordinateReferenceSystems.forSrid(srid);
+        Random random = new Random(BenchmarkFixtures.SEED);
+        sourceCoords = new double[COORDINATES * 2];
+        for( int i = 0; i < COORDINATES; i++ ) {
+            sourceCoords[2 * i] = BenchmarkFixtures.WEST + random.nextDouble() * (BenchmarkFixtures.EAST - BenchmarkFixtures.WEST);
+            sourceCoords[2 * i + 1] = BenchmarkFixtures.SOUTH + random.nextDouble()
+                    * (BenchmarkFixtures.NORTH - BenchmarkFixtures.SOUTH);
+        }
+        crs.fromWgs84(sourceCoords, 0, COORDINATES);
+        coords = new double[sourceCoords.length];
+    }
+
+    /**
+     * @return the converted coordinates.
+     */
+    @Benchmark
+    public double[] toWgs84() {
+        // the conversion works in place
+        System.arraycopy(sourceCoords, 0, coords, 0, coords.length);
+        crs.toWgs84(coords, 0, COORDINATES);
+        return coords;
+    }
+}
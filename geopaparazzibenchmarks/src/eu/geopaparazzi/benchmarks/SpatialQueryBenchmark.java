@@ -0,0 +1,159 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.io.ParseException;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.ProjectingWKBReader;
+
+/**
+ * Bounding box queries of a vector table through its spatial index, per viewport.
+ *
+ * <p>Runs the query used by the renderer in MBR mode, that reads the candidate rows
+ * from the R*Tree of the table, for viewports of different sizes placed randomly
+ * in the data area.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpatialQueryBenchmark {
+    private static final int FEATURES = 50000;
+    private static final int VIEWPORTS = 256;
+    private static final int ZOOM = 14;
+
+    /**
+     * The size of the viewport in degrees.
+     */
+    @Param({"0.01", "0.05", "0.2"})
+    public double viewportSize;
+
+    private File databaseFile;
+    private Connection connection;
+    private PreparedStatement query;
+    private ProjectingWKBReader reader;
+    private double[][] viewports;
+    private int viewportIndex;
+
+    /**
+     * Create the table and the viewports.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        databaseFile = BenchmarkFixtures.createTempDatabase("spatialquery", ".sqlite");
+        BenchmarkFixtures.createVectorDatabase(databaseFile, FEATURES);
+        connection = BenchmarkFixtures.open(databaseFile);
+        query = connection.prepareStatement("SELECT geometry FROM " + BenchmarkFixtures.VECTOR_TABLE
+                + " WHERE ROWID IN (SELECT pkid FROM " + BenchmarkFixtures.VECTOR_TABLE_RTREE
+                + " WHERE xmin <= ? AND xmax >= ? AND ymin <= ? AND ymax >= ?)");
+        reader = new ProjectingWKBReader(BenchmarkFixtures.createPixelProjection(ZOOM));
+
+        Random random = new Random(BenchmarkFixtures.SEED);
+        viewports = new double[VIEWPORTS][];
+        for( int i = 0; i < VIEWPORTS; i++ ) {
+            double w = BenchmarkFixtures.WEST + random.nextDouble() * (BenchmarkFixtures.EAST - BenchmarkFixtures.WEST - viewportSize);
+            double s = BenchmarkFixtures.SOUTH + random.nextDouble()
+                    * (BenchmarkFixtures.NORTH - BenchmarkFixtures.SOUTH - viewportSize);
+            viewports[i] = new double[]{w, s, w + viewportSize, s + viewportSize};
+        }
+    }
+
+    /**
+     * Close the database.
+     *
+     * @throws SQLException if something goes wrong.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        query.close();
+        connection.close();
+        if (!databaseFile.delete()) {
+            databaseFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Read the geometries of a viewport without decoding them.
+     *
+     * @param blackhole the consumer.
+     * @throws SQLException if something goes wrong.
+     */
+    @Benchmark
+    public void query( Blackhole blackhole ) throws SQLException {
+        ResultSet resultSet = executeQuery();
+        try {
+            while( resultSet.next() ) {
+                blackhole.consume(resultSet.getBytes(1));
+            }
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Read the geometries of a viewport and decode them to screen pixels, as the renderer does.
+     *
+     * @param blackhole the consumer.
+     * @throws SQLException if something goes wrong.
+     * @throws ParseException if something goes wrong.
+     */
+    @Benchmark
+    public void queryAndDecode( Blackhole blackhole ) throws SQLException, ParseException {
+        ResultSet resultSet = executeQuery();
+        try {
+            while( resultSet.next() ) {
+                blackhole.consume(reader.read(resultSet.getBytes(1)));
+            }
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private ResultSet executeQuery() throws SQLException {
+        double[] viewport = viewports[viewportIndex++ % VIEWPORTS];
+        query.setDouble(1, viewport[2]);
+        query.setDouble(2, viewport[0]);
+        query.setDouble(3, viewport[3]);
+        query.setDouble(4, viewport[1]);
+        return query.executeQuery();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystems;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.ProjectingWKBReader;
+
+/**
+ * Decoding of the geometries read while drawing, per geometry.
+ *
+ * <p>Compares the plain jts reader with the projecting reader of the renderer,
+ * for wgs84 data and for data that are converted from UTM in java.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(WkbDecodeBenchmark.GEOMETRIES)
+public class WkbDecodeBenchmark {
+    static final int GEOMETRIES = 1000;
+    private static final int VERTEXES = 50;
+    private static final int ZOOM = 14;
+
+    private byte[][] wgs84Lines;
+    private byte[][] utmLines;
+    private WKBReader wkbReader;
+    private ProjectingWKBReader projectingReader;
+    private ProjectingWKBReader projectingUtmReader;
+
+    /**
+     * Create the geometries and the readers.
+     */
+    @Setup
+    public void setup() {
+        CoordinateReferenceSystem utm32n = CoordinateReferenceSystems.forSrid(32632);
+        Random random = new Random(BenchmarkFixtures.SEED);
+        wgs84Lines = new byte[GEOMETRIES][];
+        utmLines = new byte[GEOMETRIES][];
+        for( int i = 0; i < GEOMETRIES; i++ ) {
+            wgs84Lines[i] = BenchmarkFixtures.createLine(random, VERTEXES, null);
+            utmLines[i] = BenchmarkFixtures.createLine(random, VERTEXES, utm32n);
+        }
+        wkbReader = new WKBReader();
+        projectingReader = new ProjectingWKBReader(BenchmarkFixtures.createPixelProjection(ZOOM));
+        projectingUtmReader = new ProjectingWKBReader(BenchmarkFixtures.createPixelProjection(ZOOM));
+        projectingUtmReader.setSourceCrs(utm32n);
+    }
+
+    /**
+     * @param blackhole the consumer.
+     * @throws ParseException never.
+     */
+    @Benchmark
+    public void jtsWkbReader( Blackhole blackhole ) throws ParseException {
+        for( byte[] wkb : wgs84Lines ) {
+            blackhole.consume(wkbReader.read(wkb));
+        }
+    }
+
+    /**
+     * @param blackhole the consumer.
+     * @throws ParseException never.
+     */
+    @Benchmark
+    public void projectingWkbReader( Blackhole blackhole ) throws ParseException {
+        for( byte[] wkb : wgs84Lines ) {
+            blackhole.consume(projectingReader.read(wkb));
+        }
+    }
+
+    /**
+     * @param blackhole the consumer.
+     * @throws ParseException never.
+     */
+    @Benchmark
+    public void projectingWkbReaderFromUtm( Blackhole blackhole ) throws ParseException {
+        for( byte[] wkb : utmLines ) {
+            blackhole.consume(projectingUtmReader.read(wkb));
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the tiles of a persistent queue of tile requests.
+ *
+ * <p>Requests are read page by page from a {@link RequestQueue} and downloaded by a
+ * pool of workers, with a limit of connections per host. The responses are read
+ * completely, so that the connections are kept alive and reused. A single writer
+ * hands the downloaded tiles to a {@link TileWriter} in batches.</p>
+ *
+ * <p>Requests are expected to be removed from the queue only once their tile has
+ * been written, so that an interrupted run can be resumed by running again on the
+ * remaining requests.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TilePrefetcher {
+
+    /**
+     * The persistent queue of tile requests.
+     */
+    public interface RequestQueue {
+        /**
+         * Read a page of requests.
+         *
+         * @param afterTileId the last tile id of the previous page or <code>null</code> for the first page.
+         * @param limit the max number of requests to read.
+         * @return the requests, as tile id to url, ordered by tile id.
+         */
+        Map<String, String> nextRequests( String afterTileId, int limit );
+    }
+
+    /**
+     * The writer of the downloaded tiles.
+     */
+    public interface TileWriter {
+        /**
+         * Store a batch of tiles and remove their requests from the queue.
+         *
+         * @param tiles the downloaded tiles.
+         * @return the number of tiles that have been stored.
+         * @throws Exception if the tiles can't be stored, which aborts the download.
+         */
+        int writeTiles( List<Tile> tiles ) throws Exception;
+    }
+
+    /**
+     * Receives the progress of the download.
+     */
+    public interface ProgressListener {
+        /**
+         * Called by the writer thread after every batch.
+         *
+         * @param stored the number of tiles stored so far.
+         * @param failed the number of requests that failed so far.
+         */
+        void onProgress( int stored, int failed );
+    }
+
+    /**
+     * The way a download ended.
+     */
+    public static enum Status {
+        /**
+         * All requests have been processed.
+         */
+        COMPLETED,
+        /**
+         * The download has been canceled.
+         */
+        CANCELED,
+        /**
+         * The server redirects or keeps failing, as servers that need an account do.
+         */
+        SERVER_NOT_USABLE,
+        /**
+         * The tiles could not be written.
+         */
+        WRITE_FAILED
+    }
+
+    /**
+     * A downloaded tile.
+     */
+    public static class Tile {
+        /**
+         * The tile id of the request.
+         */
+        public final String tileId;
+        /**
+         * The url of the request.
+         */
+        public final String url;
+        /**
+         * The payload of the response.
+         */
+        public final byte[] data;
+
+        /**
+         * Constructor.
+         *
+         * @param tileId the tile id of the request.
+         * @param url the url of the request.
+         * @param data the payload of the response.
+         */
+        public Tile( String tileId, String url, byte[] data ) {
+            this.tileId = tileId;
+            this.url = url;
+            this.data = data;
+        }
+    }
+
+    private static final String[] END_OF_REQUESTS = new String[0];
+    private static final int PAGE_SIZE = 100;
+
+    private final RequestQueue requestQueue;
+    private final TileWriter tileWriter;
+    private ProgressListener progressListener;
+    private int workersCount = 4;
+    private int connectionsPerHost = 2;
+    private int batchSize = 50;
+    private int connectTimeout = 10000;
+    private int readTimeout = 20000;
+    private int maxConsecutiveFailures = 10;
+
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final AtomicInteger storedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean isCanceled = false;
+    private volatile Status stopStatus = null;
+    private volatile String lastError = "";
+    private volatile boolean workersDone = false;
+
+    /**
+     * Constructor.
+     *
+     * @param requestQueue the queue of the requests.
+     * @param tileWriter the writer of the downloaded tiles.
+     */
+    public TilePrefetcher( RequestQueue requestQueue, TileWriter tileWriter ) {
+        this.requestQueue = requestQueue;
+        this.tileWriter = tileWriter;
+    }
+
+    /**
+     * @param progressListener the listener to notify or <code>null</code>.
+     */
+    public void setProgressListener( ProgressListener progressListener ) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param workersCount the number of parallel downloads.
+     */
+    public void setWorkersCount( int workersCount ) {
+        this.workersCount = Math.max(1, workersCount);
+    }
+
+    /**
+     * @param connectionsPerHost the max number of parallel downloads from the same host.
+     */
+    public void setConnectionsPerHost( int connectionsPerHost ) {
+        this.connectionsPerHost = Math.max(1, connectionsPerHost);
+    }
+
+    /**
+     * @param batchSize the number of tiles handed to the writer at once.
+     */
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param connectTimeout the connect timeout in milliseconds.
+     * @param readTimeout the read timeout in milliseconds.
+     */
+    public void setTimeouts( int connectTimeout, int readTimeout ) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @param maxConsecutiveFailures the number of failed requests in a row after which the server is considered not usable.
+     */
+    public void setMaxConsecutiveFailures( int maxConsecutiveFailures ) {
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+    }
+
+    /**
+     * Cancel the download.
+     *
+     * <p>The tiles downloaded so far are still written.</p>
+     */
+    public void cancel() {
+        isCanceled = true;
+    }
+
+    /**
+     * @return the number of tiles stored.
+     */
+    public int getStoredCount() {
+        return storedCount.get();
+    }
+
+    /**
+     * @return the number of requests that failed.
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the description of the last failure.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Download the requests of the queue, blocking until done.
+     *
+     * <p>A prefetcher is meant to be run once.</p>
+     *
+     * @return the way the download ended.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    public Status run() throws InterruptedException {
+        final BlockingQueue<String[]> requests = new ArrayBlockingQueue<String[]>(workersCount * 4);
+        final BlockingQueue<Tile> tiles = new ArrayBlockingQueue<Tile>(batchSize * 2);
+
+        List<Thread> workers = new ArrayList<Thread>(workersCount);
+        for( int i = 0; i < workersCount; i++ ) {
+            Thread worker = new Thread("TilePrefetcher-worker-" + i){
+                public void run() {
+                    download(requests, tiles);
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        Thread writer = new Thread("TilePrefetcher-writer"){
+            public void run() {
+                write(tiles);
+            }
+        };
+        writer.start();
+
+        try {
+            String afterTileId = null;
+            pages: while( !isStopped() ) {
+                Map<String, String> page = requestQueue.nextRequests(afterTileId, PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                for( Map.Entry<String, String> request : page.entrySet() ) {
+                    String[] tileIdUrl = new String[]{request.getKey(), request.getValue()};
+                    while( !requests.offer(tileIdUrl, 200, TimeUnit.MILLISECONDS) ) {
+                        if (isStopped()) {
+                            break pages;
+                        }
+                    }
+                    afterTileId = request.getKey();
+                }
+            }
+        } finally {
+            if (isStopped()) {
+                requests.clear();
+            }
+            for( int i = 0; i < workersCount; i++ ) {
+                requests.put(END_OF_REQUESTS);
+            }
+            for( Thread worker : workers ) {
+                worker.join();
+            }
+            workersDone = true;
+            writer.join();
+        }
+        if (stopStatus != null) {
+            return stopStatus;
+        }
+        return isCanceled ? Status.CANCELED : Status.COMPLETED;
+    }
+
+    private boolean isStopped() {
+        return isCanceled || stopStatus != null;
+    }
+
+    private void download( BlockingQueue<String[]> requests, BlockingQueue<Tile> tiles ) {
+        try {
+            while( true ) {
+                String[] request = requests.take();
+                if (request == END_OF_REQUESTS) {
+                    return;
+                }
+                if (isStopped()) {
+                    continue;
+                }
+                String tileId = request[0];
+                String url = request[1];
+                byte[] data = null;
+                try {
+                    data = fetch(url);
+                } catch (IOException e) {
+                    lastError = "[" + url + "] " + e.getMessage();
+                }
+                if (data == null) {
+                    failedCount.incrementAndGet();
+                    if (consecutiveFailures.incrementAndGet() > maxConsecutiveFailures && stopStatus == null) {
+                        stopStatus = Status.SERVER_NOT_USABLE;
+                    }
+                } else {
+                    consecutiveFailures.set(0);
+                    tiles.put(new Tile(tileId, url, data));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write( BlockingQueue<Tile> tiles ) {
+        List<Tile> batch = new ArrayList<Tile>(batchSize);
+        try {
+            while( true ) {
+                Tile tile = tiles.poll(500, TimeUnit.MILLISECONDS);
+                if (tile != null) {
+                    batch.add(tile);
+                    tiles.drainTo(batch, batchSize - batch.size());
+                }
+                boolean done = workersDone && tiles.isEmpty();
+                if (batch.size() >= batchSize || (tile == null && !batch.isEmpty()) || (done && !batch.isEmpty())) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (done && batch.isEmpty()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch( List<Tile> batch ) {
+        if (stopStatus == Status.WRITE_FAILED) {
+            // the requests are kept for the next run
+            return;
+        }
+        try {
+            storedCount.addAndGet(tileWriter.writeTiles(batch));
+        } catch (Exception e) {
+            lastError = "Unable to write the tiles: " + e.getMessage();
+            stopStatus = Status.WRITE_FAILED;
+        }
+        if (progressListener != null) {
+            progressListener.onProgress(storedCount.get(), failedCount.get());
+        }
+    }
+
+    /**
+     * Download a tile.
+     *
+     * @param urlString the url.
+     * @return the payload or <code>null</code> if the server did not send a tile.
+     * @throws IOException if the connection fails.
+     */
+    private byte[] fetch( String urlString ) throws IOException {
+        URL url = new URL(urlString);
+        String host = url.getHost() + ":" + url.getPort();
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(connectionsPerHost);
+            permits = hostPermits.putIfAbsent(host, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        permits.acquireUninterruptibly();
+        try {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            if (!(connection instanceof HttpURLConnection)) {
+                // as file urls
+                return readFully(connection.getInputStream());
+            }
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                byte[] data = readFully(httpConnection.getInputStream());
+                if (data.length > 0) {
+                    return data;
+                }
+                lastError = "[" + urlString + "] empty response";
+                return null;
+            }
+            // read the error body, so that the connection can be reused
+            InputStream errorStream = httpConnection.getErrorStream();
+            if (errorStream != null) {
+                readFully(errorStream);
+            }
+            lastError = "[" + urlString + "] [" + responseCode + "] " + httpConnection.getResponseMessage();
+            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
+                // as connections that return nothing until an account is activated
+                stopStatus = Status.SERVER_NOT_USABLE;
+            }
+            return null;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static byte[] readFully( InputStream inputStream ) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            byte[] buffer = new byte[8192];
+            int read;
+            while( (read = inputStream.read(buffer)) != -1 ) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
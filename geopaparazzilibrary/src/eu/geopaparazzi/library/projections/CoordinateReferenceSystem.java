@@ -0,0 +1,127 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * A coordinate reference system, made of a datum and an optional map projection.
+ * 
+ * <p>Converts packed x/y coordinates in bulk to and from WGS 84 longitude 
+ * and latitude in degrees, without creating objects per coordinate.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class CoordinateReferenceSystem {
+    private final int srid;
+    private final Ellipsoid ellipsoid;
+    private final MapProjection projection;
+    private final HelmertTransform datumTransform;
+
+    /**
+     * Constructor.
+     * 
+     * @param srid the srid.
+     * @param ellipsoid the ellipsoid of the datum.
+     * @param projection the map projection or <code>null</code> for geographic coordinates.
+     * @param datumTransform the transformation to WGS 84 or <code>null</code>, if 
+     *          the datum is considered equal to WGS 84.
+     */
+    public CoordinateReferenceSystem( int srid, Ellipsoid ellipsoid, MapProjection projection, HelmertTransform datumTransform ) {
+        this.srid = srid;
+        this.ellipsoid = ellipsoid;
+        this.projection = projection;
+        this.datumTransform = datumTransform;
+    }
+
+    /**
+     * @return the srid.
+     */
+    public int getSrid() {
+        return srid;
+    }
+
+    /**
+     * @return <code>true</code>, if the coordinates are geographic.
+     */
+    public boolean isGeographic() {
+        return projection == null;
+    }
+
+    /**
+     * Convert coordinates in place to WGS 84.
+     * 
+     * @param coords the packed x/y coordinates, that get longitude and latitude in degrees.
+     * @param offset the index of the first x.
+     * @param count the number of coordinates.
+     */
+    public void toWgs84( double[] coords, int offset, int count ) {
+        double[] lonLat = new double[2];
+        double[] xyz = new double[3];
+        int end = offset + 2 * count;
+        for( int i = offset; i < end; i += 2 ) {
+            if (projection != null) {
+                projection.unproject(coords[i], coords[i + 1], lonLat);
+            } else {
+                lonLat[0] = Math.toRadians(coords[i]);
+                lonLat[1] = Math.toRadians(coords[i + 1]);
+            }
+            if (datumTransform != null) {
+                ellipsoid.toGeocentric(lonLat[0], lonLat[1], xyz);
+                datumTransform.toWgs84(xyz);
+                Ellipsoid.WGS84.fromGeocentric(xyz[0], xyz[1], xyz[2], lonLat);
+            }
+            double lon = Math.toDegrees(lonLat[0]);
+            if (lon > 180) {
+                lon -= 360;
+            } else if (lon < -180) {
+                lon += 360;
+            }
+            coords[i] = lon;
+            coords[i + 1] = Math.toDegrees(lonLat[1]);
+        }
+    }
+
+    /**
+     * Convert WGS 84 coordinates in place to this reference system.
+     * 
+     * @param coords the packed longitude/latitude coordinates in degrees, that get x and y.
+     * @param offset the index of the first longitude.
+     * @param count the number of coordinates.
+     */
+    public void fromWgs84( double[] coords, int offset, int count ) {
+        double[] lonLat = new double[2];
+        double[] xyz = new double[3];
+        int end = offset + 2 * count;
+        for( int i = offset; i < end; i += 2 ) {
+            lonLat[0] = Math.toRadians(coords[i]);
+            lonLat[1] = Math.toRadians(coords[i + 1]);
+            if (datumTransform != null) {
+                Ellipsoid.WGS84.toGeocentric(lonLat[0], lonLat[1], xyz);
+                datumTransform.fromWgs84(xyz);
+                ellipsoid.fromGeocentric(xyz[0], xyz[1], xyz[2], lonLat);
+            }
+            if (projection != null) {
+                projection.project(lonLat[0], lonLat[1], lonLat);
+                coords[i] = lonLat[0];
+                coords[i + 1] = lonLat[1];
+            } else {
+                coords[i] = Math.toDegrees(lonLat[0]);
+                coords[i + 1] = Math.toDegrees(lonLat[1]);
+            }
+        }
+    }
+}
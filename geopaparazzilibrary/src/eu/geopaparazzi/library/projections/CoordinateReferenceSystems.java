@@ -0,0 +1,152 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+import java.util.HashMap;
+
+/**
+ * The coordinate reference systems that can be converted in java, by srid.
+ * 
+ * <p>Supported are:</p>
+ * <ul>
+ * <li>4326, WGS 84</li>
+ * <li>3857 and its aliases 900913, 3785 and 102100, web mercator</li>
+ * <li>32601-32660 and 32701-32760, WGS 84 / UTM</li>
+ * <li>25828-25838, ETRS89 / UTM</li>
+ * <li>26901-26923, NAD83 / UTM</li>
+ * <li>6707-6709, RDN2008 / UTM</li>
+ * <li>3003 and 3004, Monte Mario / Italy (Gauss-Boaga)</li>
+ * <li>31466-31469, DHDN / 3-degree Gauss-Kruger</li>
+ * <li>27700, OSGB 1936 / British National Grid</li>
+ * <li>2154, RGF93 / Lambert-93</li>
+ * </ul>
+ * 
+ * <p>ETRS89, NAD83, RDN2008 and RGF93 are considered equal to WGS 84. The other
+ * datums are shifted with the parameters proj uses by default, which are accurate 
+ * to a few meters.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class CoordinateReferenceSystems {
+    /**
+     * The srid of WGS 84.
+     */
+    public static final int WGS84_SRID = 4326;
+
+    private static final HashMap<Integer, CoordinateReferenceSystem> crsMap = new HashMap<Integer, CoordinateReferenceSystem>();
+
+    private static final HelmertTransform MONTE_MARIO_TO_WGS84 = new HelmertTransform(-104.1, -49.1, -9.9, 0.971, -2.917,
+            0.714, -11.68);
+    private static final HelmertTransform DHDN_TO_WGS84 = new HelmertTransform(598.1, 73.7, 418.2, 0.202, 0.045, -2.455, 6.7);
+    private static final HelmertTransform OSGB36_TO_WGS84 = new HelmertTransform(446.448, -125.157, 542.06, 0.15, 0.247,
+            0.842, -20.489);
+
+    private CoordinateReferenceSystems() {
+    }
+
+    /**
+     * Get a reference system by srid.
+     * 
+     * @param srid the srid as string.
+     * @return the reference system or <code>null</code>, if it is not supported.
+     */
+    public static CoordinateReferenceSystem forSrid( String srid ) {
+        try {
+            return forSrid(Integer.parseInt(srid.trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a reference system by srid.
+     * 
+     * @param srid the srid.
+     * @return the reference system or <code>null</code>, if it is not supported.
+     */
+    public static CoordinateReferenceSystem forSrid( int srid ) {
+        synchronized (crsMap) {
+            if (crsMap.containsKey(srid)) {
+                return crsMap.get(srid);
+            }
+            CoordinateReferenceSystem crs = create(srid);
+            crsMap.put(srid, crs);
+            return crs;
+        }
+    }
+
+    /**
+     * @param srid the srid.
+     * @return <code>true</code>, if the reference system can be converted in java.
+     */
+    public static boolean isSupported( String srid ) {
+        return forSrid(srid) != null;
+    }
+
+    private static CoordinateReferenceSystem create( int srid ) {
+        if (srid == WGS84_SRID) {
+            return new CoordinateReferenceSystem(srid, Ellipsoid.WGS84, null, null);
+        }
+        if (srid == 3857 || srid == 900913 || srid == 3785 || srid == 102100) {
+            return new CoordinateReferenceSystem(srid, Ellipsoid.WGS84, new WebMercator(), null);
+        }
+        if (srid >= 32601 && srid <= 32660) {
+            return utm(srid, Ellipsoid.WGS84, srid - 32600, false);
+        }
+        if (srid >= 32701 && srid <= 32760) {
+            return utm(srid, Ellipsoid.WGS84, srid - 32700, true);
+        }
+        if (srid >= 25828 && srid <= 25838) {
+            return utm(srid, Ellipsoid.GRS80, srid - 25800, false);
+        }
+        if (srid >= 26901 && srid <= 26923) {
+            return utm(srid, Ellipsoid.GRS80, srid - 26900, false);
+        }
+        if (srid >= 6707 && srid <= 6709) {
+            return utm(srid, Ellipsoid.GRS80, srid - 6707 + 32, false);
+        }
+        switch( srid ) {
+        case 3003:
+            return new CoordinateReferenceSystem(srid, Ellipsoid.INTERNATIONAL_1924, new TransverseMercator(
+                    Ellipsoid.INTERNATIONAL_1924, 0, 9, 0.9996, 1500000, 0), MONTE_MARIO_TO_WGS84);
+        case 3004:
+            return new CoordinateReferenceSystem(srid, Ellipsoid.INTERNATIONAL_1924, new TransverseMercator(
+                    Ellipsoid.INTERNATIONAL_1924, 0, 15, 0.9996, 2520000, 0), MONTE_MARIO_TO_WGS84);
+        case 31466:
+        case 31467:
+        case 31468:
+        case 31469: {
+            int zone = srid - 31464;
+            return new CoordinateReferenceSystem(srid, Ellipsoid.BESSEL_1841, new TransverseMercator(Ellipsoid.BESSEL_1841,
+                    0, zone * 3, 1, zone * 1000000 + 500000, 0), DHDN_TO_WGS84);
+        }
+        case 27700:
+            return new CoordinateReferenceSystem(srid, Ellipsoid.AIRY_1830, new TransverseMercator(Ellipsoid.AIRY_1830, 49, -2,
+                    0.9996012717, 400000, -100000), OSGB36_TO_WGS84);
+        case 2154:
+            return new CoordinateReferenceSystem(srid, Ellipsoid.GRS80, new LambertConformalConic(Ellipsoid.GRS80, 49, 44, 46.5,
+                    3, 700000, 6600000), null);
+        default:
+            return null;
+        }
+    }
+
+    private static CoordinateReferenceSystem utm( int srid, Ellipsoid ellipsoid, int zone, boolean south ) {
+        return new CoordinateReferenceSystem(srid, ellipsoid, TransverseMercator.utm(ellipsoid, zone, south), null);
+    }
+}
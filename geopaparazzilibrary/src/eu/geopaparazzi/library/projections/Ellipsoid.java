@@ -0,0 +1,117 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * A reference ellipsoid.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class Ellipsoid {
+    /**
+     * WGS 84.
+     */
+    public static final Ellipsoid WGS84 = new Ellipsoid(6378137.0, 298.257223563);
+    /**
+     * GRS 1980, used by ETRS89, NAD83, RDN2008 and RGF93.
+     */
+    public static final Ellipsoid GRS80 = new Ellipsoid(6378137.0, 298.257222101);
+    /**
+     * International 1924 (Hayford), used by Monte Mario and ED50.
+     */
+    public static final Ellipsoid INTERNATIONAL_1924 = new Ellipsoid(6378388.0, 297.0);
+    /**
+     * Bessel 1841, used by DHDN.
+     */
+    public static final Ellipsoid BESSEL_1841 = new Ellipsoid(6377397.155, 299.1528128);
+    /**
+     * Airy 1830, used by OSGB 1936.
+     */
+    public static final Ellipsoid AIRY_1830 = new Ellipsoid(6377563.396, 299.3249646);
+    /**
+     * Clarke 1866, used by NAD27.
+     */
+    public static final Ellipsoid CLARKE_1866 = new Ellipsoid(6378206.4, 294.9786982);
+
+    /**
+     * The semi major axis.
+     */
+    public final double a;
+    /**
+     * The flattening.
+     */
+    public final double f;
+    /**
+     * The squared eccentricity.
+     */
+    public final double e2;
+    /**
+     * The eccentricity.
+     */
+    public final double e;
+
+    /**
+     * Constructor.
+     * 
+     * @param a the semi major axis.
+     * @param inverseFlattening the inverse flattening.
+     */
+    public Ellipsoid( double a, double inverseFlattening ) {
+        this.a = a;
+        f = 1.0 / inverseFlattening;
+        e2 = f * (2 - f);
+        e = Math.sqrt(e2);
+    }
+
+    /**
+     * Convert geographic coordinates to geocentric ones, on the ellipsoid surface.
+     * 
+     * @param lon the longitude in radians.
+     * @param lat the latitude in radians.
+     * @param dest the array to fill with x, y, z.
+     */
+    public void toGeocentric( double lon, double lat, double[] dest ) {
+        double sinLat = Math.sin(lat);
+        double cosLat = Math.cos(lat);
+        double nu = a / Math.sqrt(1 - e2 * sinLat * sinLat);
+        dest[0] = nu * cosLat * Math.cos(lon);
+        dest[1] = nu * cosLat * Math.sin(lon);
+        dest[2] = nu * (1 - e2) * sinLat;
+    }
+
+    /**
+     * Convert geocentric coordinates to geographic ones, with Bowring's formula.
+     * 
+     * <p>The ellipsoidal height is dropped.</p>
+     * 
+     * @param x the geocentric x.
+     * @param y the geocentric y.
+     * @param z the geocentric z.
+     * @param dest the array to fill with longitude and latitude in radians.
+     */
+    public void fromGeocentric( double x, double y, double z, double[] dest ) {
+        double b = a * (1 - f);
+        double ep2 = e2 / (1 - e2);
+        double p = Math.sqrt(x * x + y * y);
+        double theta = Math.atan2(z * a, p * b);
+        double sinTheta = Math.sin(theta);
+        double cosTheta = Math.cos(theta);
+        dest[0] = Math.atan2(y, x);
+        dest[1] = Math.atan2(z + ep2 * b * sinTheta * sinTheta * sinTheta, p - e2 * a * cosTheta * cosTheta * cosTheta);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * A seven parameter datum transformation to WGS 84, in the position vector convention
+ * (EPSG:9606), as used by the towgs84 parameters of proj.
+ * 
+ * <p>The reverse transformation is done with the negated parameters, which
+ * differs by less than a millimeter for the small rotations of datum shifts.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HelmertTransform {
+    private static final double ARCSECONDS_TO_RADIANS = Math.PI / (180.0 * 3600.0);
+
+    private final double tx;
+    private final double ty;
+    private final double tz;
+    private final double rx;
+    private final double ry;
+    private final double rz;
+    private final double scale;
+
+    /**
+     * Constructor.
+     * 
+     * @param tx the x translation in meters.
+     * @param ty the y translation in meters.
+     * @param tz the z translation in meters.
+     * @param rx the x rotation in arc seconds.
+     * @param ry the y rotation in arc seconds.
+     * @param rz the z rotation in arc seconds.
+     * @param ppm the scale difference in parts per million.
+     */
+    public HelmertTransform( double tx, double ty, double tz, double rx, double ry, double rz, double ppm ) {
+        this.tx = tx;
+        this.ty = ty;
+        this.tz = tz;
+        this.rx = rx * ARCSECONDS_TO_RADIANS;
+        this.ry = ry * ARCSECONDS_TO_RADIANS;
+        this.rz = rz * ARCSECONDS_TO_RADIANS;
+        this.scale = 1 + ppm * 1e-6;
+    }
+
+    /**
+     * Transform geocentric coordinates in place to WGS 84.
+     * 
+     * @param xyz the geocentric coordinates.
+     */
+    public void toWgs84( double[] xyz ) {
+        apply(xyz, 1);
+    }
+
+    /**
+     * Transform geocentric coordinates in place from WGS 84.
+     * 
+     * @param xyz the geocentric coordinates.
+     */
+    public void fromWgs84( double[] xyz ) {
+        apply(xyz, -1);
+    }
+
+    private void apply( double[] xyz, double sign ) {
+        double x = xyz[0];
+        double y = xyz[1];
+        double z = xyz[2];
+        double s = sign > 0 ? scale : 2 - scale;
+        double sRx = sign * rx;
+        double sRy = sign * ry;
+        double sRz = sign * rz;
+        xyz[0] = sign * tx + s * (x - sRz * y + sRy * z);
+        xyz[1] = sign * ty + s * (sRz * x + y - sRx * z);
+        xyz[2] = sign * tz + s * (-sRy * x + sRx * y + z);
+    }
+}
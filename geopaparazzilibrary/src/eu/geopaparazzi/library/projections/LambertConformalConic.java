@@ -0,0 +1,105 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * The Lambert Conic Conformal projection with two standard parallels.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LambertConformalConic extends MapProjection {
+    private static final int MAX_ITERATIONS = 15;
+
+    private final double lon0;
+    private final double falseEasting;
+    private final double falseNorthing;
+    private final double n;
+    private final double aF;
+    private final double rhoOrigin;
+
+    /**
+     * Constructor.
+     * 
+     * @param ellipsoid the ellipsoid.
+     * @param lat1 the first standard parallel in degrees.
+     * @param lat2 the second standard parallel in degrees.
+     * @param lat0 the latitude of the false origin in degrees.
+     * @param lon0 the longitude of the false origin in degrees.
+     * @param falseEasting the false easting.
+     * @param falseNorthing the false northing.
+     */
+    public LambertConformalConic( Ellipsoid ellipsoid, double lat1, double lat2, double lat0, double lon0,
+            double falseEasting, double falseNorthing ) {
+        super(ellipsoid);
+        this.lon0 = Math.toRadians(lon0);
+        this.falseEasting = falseEasting;
+        this.falseNorthing = falseNorthing;
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double m1 = m(phi1);
+        double t1 = t(phi1);
+        if (Math.abs(phi1 - phi2) < 1e-10) {
+            n = Math.sin(phi1);
+        } else {
+            n = (Math.log(m1) - Math.log(m(phi2))) / (Math.log(t1) - Math.log(t(phi2)));
+        }
+        aF = ellipsoid.a * m1 / (n * Math.pow(t1, n));
+        rhoOrigin = aF * Math.pow(t(Math.toRadians(lat0)), n);
+    }
+
+    private double m( double phi ) {
+        double sinPhi = Math.sin(phi);
+        return Math.cos(phi) / Math.sqrt(1 - ellipsoid.e2 * sinPhi * sinPhi);
+    }
+
+    private double t( double phi ) {
+        double eSinPhi = ellipsoid.e * Math.sin(phi);
+        return Math.tan(Math.PI / 4 - phi / 2) / Math.pow((1 - eSinPhi) / (1 + eSinPhi), ellipsoid.e / 2);
+    }
+
+    @Override
+    public void project( double lon, double lat, double[] dest ) {
+        double rho = aF * Math.pow(t(lat), n);
+        double theta = n * (lon - lon0);
+        dest[0] = falseEasting + rho * Math.sin(theta);
+        dest[1] = falseNorthing + rhoOrigin - rho * Math.cos(theta);
+    }
+
+    @Override
+    public void unproject( double x, double y, double[] dest ) {
+        double dx = x - falseEasting;
+        double dy = rhoOrigin - (y - falseNorthing);
+        double sign = n < 0 ? -1 : 1;
+        double rho = sign * Math.sqrt(dx * dx + dy * dy);
+        double theta = Math.atan2(sign * dx, sign * dy);
+        double tPrime = Math.pow(rho / aF, 1 / n);
+        double e = ellipsoid.e;
+        double phi = Math.PI / 2 - 2 * Math.atan(tPrime);
+        for( int i = 0; i < MAX_ITERATIONS; i++ ) {
+            double eSinPhi = e * Math.sin(phi);
+            double newPhi = Math.PI / 2 - 2 * Math.atan(tPrime * Math.pow((1 - eSinPhi) / (1 + eSinPhi), e / 2));
+            boolean converged = Math.abs(newPhi - phi) < 1e-14;
+            phi = newPhi;
+            if (converged) {
+                break;
+            }
+        }
+        dest[0] = theta / n + lon0;
+        dest[1] = phi;
+    }
+}
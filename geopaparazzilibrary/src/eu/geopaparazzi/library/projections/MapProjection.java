@@ -0,0 +1,73 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * A map projection of geographic coordinates on an ellipsoid to plane coordinates.
+ * 
+ * <p>Implementations keep no state while projecting and can be used by several threads.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public abstract class MapProjection {
+    /**
+     * The ellipsoid the projection is defined on.
+     */
+    protected final Ellipsoid ellipsoid;
+
+    /**
+     * Constructor.
+     * 
+     * @param ellipsoid the ellipsoid the projection is defined on.
+     */
+    protected MapProjection( Ellipsoid ellipsoid ) {
+        this.ellipsoid = ellipsoid;
+    }
+
+    /**
+     * @return the ellipsoid the projection is defined on.
+     */
+    public Ellipsoid getEllipsoid() {
+        return ellipsoid;
+    }
+
+    /**
+     * Project geographic coordinates.
+     * 
+     * @param lon the longitude in radians.
+     * @param lat the latitude in radians.
+     * @param dest the array to fill with easting and northing.
+     */
+    public abstract void project( double lon, double lat, double[] dest );
+
+    /**
+     * Unproject plane coordinates.
+     * 
+     * @param x the easting.
+     * @param y the northing.
+     * @param dest the array to fill with longitude and latitude in radians.
+     */
+    public abstract void unproject( double x, double y, double[] dest );
+
+    /**
+     * Inverse hyperbolic tangent.
+     */
+    static double atanh( double x ) {
+        return 0.5 * Math.log((1 + x) / (1 - x));
+    }
+}
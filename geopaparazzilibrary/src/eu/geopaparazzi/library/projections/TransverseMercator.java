@@ -0,0 +1,171 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * The Transverse Mercator projection, used by UTM and most national grids.
+ * 
+ * <p>Implements Krueger's series to the sixth order in the third flattening,
+ * as given by Karney (2011), which is accurate to well below a millimeter
+ * within a few thousand kilometers from the central meridian.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TransverseMercator extends MapProjection {
+    private static final int MAX_ITERATIONS = 10;
+
+    private final double lon0;
+    private final double k0;
+    private final double falseEasting;
+    private final double falseNorthing;
+    private final double kA;
+    private final double xi0;
+    private final double[] alpha = new double[6];
+    private final double[] beta = new double[6];
+
+    /**
+     * Constructor.
+     * 
+     * @param ellipsoid the ellipsoid.
+     * @param lat0 the latitude of origin in degrees.
+     * @param lon0 the central meridian in degrees.
+     * @param k0 the scale factor at the central meridian.
+     * @param falseEasting the false easting.
+     * @param falseNorthing the false northing.
+     */
+    public TransverseMercator( Ellipsoid ellipsoid, double lat0, double lon0, double k0, double falseEasting,
+            double falseNorthing ) {
+        super(ellipsoid);
+        this.lon0 = Math.toRadians(lon0);
+        this.k0 = k0;
+        this.falseEasting = falseEasting;
+        this.falseNorthing = falseNorthing;
+
+        double n = ellipsoid.f / (2 - ellipsoid.f);
+        double n2 = n * n;
+        double n3 = n2 * n;
+        double n4 = n3 * n;
+        double n5 = n4 * n;
+        double n6 = n5 * n;
+        // the rectifying radius
+        double rectifyingRadius = ellipsoid.a / (1 + n) * (1 + n2 / 4 + n4 / 64 + n6 / 256);
+        kA = k0 * rectifyingRadius;
+
+        alpha[0] = n / 2 - 2 * n2 / 3 + 5 * n3 / 16 + 41 * n4 / 180 - 127 * n5 / 288 + 7891 * n6 / 37800;
+        alpha[1] = 13 * n2 / 48 - 3 * n3 / 5 + 557 * n4 / 1440 + 281 * n5 / 630 - 1983433 * n6 / 1935360;
+        alpha[2] = 61 * n3 / 240 - 103 * n4 / 140 + 15061 * n5 / 26880 + 167603 * n6 / 181440;
+        alpha[3] = 49561 * n4 / 161280 - 179 * n5 / 168 + 6601661 * n6 / 7257600;
+        alpha[4] = 34729 * n5 / 80640 - 3418889 * n6 / 1995840;
+        alpha[5] = 212378941 * n6 / 319334400;
+
+        beta[0] = n / 2 - 2 * n2 / 3 + 37 * n3 / 96 - n4 / 360 - 81 * n5 / 512 + 96199 * n6 / 604800;
+        beta[1] = n2 / 48 + n3 / 15 - 437 * n4 / 1440 + 46 * n5 / 105 - 1118711 * n6 / 3870720;
+        beta[2] = 17 * n3 / 480 - 37 * n4 / 840 - 209 * n5 / 4480 + 5569 * n6 / 90720;
+        beta[3] = 4397 * n4 / 161280 - 11 * n5 / 504 - 830251 * n6 / 7257600;
+        beta[4] = 4583 * n5 / 161280 - 108847 * n6 / 3991680;
+        beta[5] = 20648693 * n6 / 638668800;
+
+        // the northing of the latitude of origin
+        double[] origin = new double[2];
+        projectNormalized(0, Math.toRadians(lat0), origin);
+        xi0 = origin[1];
+    }
+
+    /**
+     * Create the projection of a UTM zone.
+     * 
+     * @param ellipsoid the ellipsoid.
+     * @param zone the zone number, from 1 to 60.
+     * @param south if <code>true</code>, the zone is in the southern hemisphere.
+     * @return the projection.
+     */
+    public static TransverseMercator utm( Ellipsoid ellipsoid, int zone, boolean south ) {
+        return new TransverseMercator(ellipsoid, 0, zone * 6 - 183, 0.9996, 500000, south ? 10000000 : 0);
+    }
+
+    @Override
+    public void project( double lon, double lat, double[] dest ) {
+        projectNormalized(lon - lon0, lat, dest);
+        double eta = dest[0];
+        double xi = dest[1];
+        dest[0] = falseEasting + kA * eta;
+        dest[1] = falseNorthing + kA * (xi - xi0);
+    }
+
+    /**
+     * Project to the normalized coordinates eta (dest[0]) and xi (dest[1]).
+     */
+    private void projectNormalized( double lambda, double phi, double[] dest ) {
+        double e = ellipsoid.e;
+        double sinPhi = Math.sin(phi);
+        // tangent of the conformal latitude
+        double tau = Math.sinh(atanh(sinPhi) - e * atanh(e * sinPhi));
+        double xiPrime = Math.atan2(tau, Math.cos(lambda));
+        double etaPrime = atanh(Math.sin(lambda) / Math.sqrt(1 + tau * tau));
+        double xi = xiPrime;
+        double eta = etaPrime;
+        for( int j = 0; j < alpha.length; j++ ) {
+            double twoJ = 2 * (j + 1);
+            xi += alpha[j] * Math.sin(twoJ * xiPrime) * Math.cosh(twoJ * etaPrime);
+            eta += alpha[j] * Math.cos(twoJ * xiPrime) * Math.sinh(twoJ * etaPrime);
+        }
+        dest[0] = eta;
+        dest[1] = xi;
+    }
+
+    @Override
+    public void unproject( double x, double y, double[] dest ) {
+        double eta = (x - falseEasting) / kA;
+        double xi = (y - falseNorthing) / kA + xi0;
+        double xiPrime = xi;
+        double etaPrime = eta;
+        for( int j = 0; j < beta.length; j++ ) {
+            double twoJ = 2 * (j + 1);
+            xiPrime -= beta[j] * Math.sin(twoJ * xi) * Math.cosh(twoJ * eta);
+            etaPrime -= beta[j] * Math.cos(twoJ * xi) * Math.sinh(twoJ * eta);
+        }
+        double sinhEtaPrime = Math.sinh(etaPrime);
+        double cosXiPrime = Math.cos(xiPrime);
+        // tangent of the conformal latitude
+        double tauPrime = Math.sin(xiPrime) / Math.sqrt(sinhEtaPrime * sinhEtaPrime + cosXiPrime * cosXiPrime);
+        dest[0] = lon0 + Math.atan2(sinhEtaPrime, cosXiPrime);
+        dest[1] = Math.atan(geographicTangent(tauPrime));
+    }
+
+    /**
+     * Get the tangent of the geographic latitude from the one of the conformal latitude, 
+     * through Newton's method.
+     */
+    private double geographicTangent( double tauPrime ) {
+        double e = ellipsoid.e;
+        double e2 = ellipsoid.e2;
+        double tau = tauPrime;
+        for( int i = 0; i < MAX_ITERATIONS; i++ ) {
+            double sqrtTau = Math.sqrt(1 + tau * tau);
+            double sigma = Math.sinh(e * atanh(e * tau / sqrtTau));
+            double tauPrimeI = tau * Math.sqrt(1 + sigma * sigma) - sigma * sqrtTau;
+            double delta = (tauPrime - tauPrimeI) / Math.sqrt(1 + tauPrimeI * tauPrimeI) * (1 + (1 - e2) * tau * tau)
+                    / ((1 - e2) * sqrtTau);
+            tau += delta;
+            if (Math.abs(delta) < 1e-14 * Math.max(1, Math.abs(tau))) {
+                break;
+            }
+        }
+        return tau;
+    }
+}
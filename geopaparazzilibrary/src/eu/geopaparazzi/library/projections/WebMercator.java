@@ -0,0 +1,49 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.projections;
+
+/**
+ * The spherical Mercator projection of web maps (EPSG:3857).
+ * 
+ * <p>WGS 84 coordinates are projected as if on a sphere with the semi major axis as radius.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class WebMercator extends MapProjection {
+
+    /**
+     * Constructor.
+     */
+    public WebMercator() {
+        super(Ellipsoid.WGS84);
+    }
+
+    @Override
+    public void project( double lon, double lat, double[] dest ) {
+        double a = ellipsoid.a;
+        dest[0] = a * lon;
+        dest[1] = a * Math.log(Math.tan(Math.PI / 4 + lat / 2));
+    }
+
+    @Override
+    public void unproject( double x, double y, double[] dest ) {
+        double a = ellipsoid.a;
+        dest[0] = x / a;
+        dest[1] = Math.PI / 2 - 2 * Math.atan(Math.exp(-y / a));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a <code>.dbf</code> file.
+ *
+ * <p>The values are read as:</p>
+ * <ul>
+ *  <li>'F' fields: {@link Double}</li>
+ *  <li>'N' fields: {@link Double} if the text has a decimal point or an exponent, {@link Long} otherwise</li>
+ *  <li>'L' fields: {@link Integer} 1 or 0</li>
+ *  <li>other fields, as 'C' and the 'D' dates [YYYYMMDD]: {@link String}</li>
+ * </ul>
+ * <p>Empty and unreadable values are <code>null</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DbfReader {
+
+    private final ByteBuffer buffer;
+    private final Charset charset;
+    private final int recordCount;
+    private final int headerLength;
+    private final int recordLength;
+    private final List<Field> fields = new ArrayList<Field>();
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the content of the dbf file.
+     * @param charset the charset of the texts.
+     * @throws IOException if the header is invalid.
+     */
+    public DbfReader( ByteBuffer buffer, Charset charset ) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.charset = charset;
+        recordCount = buffer.getInt(4);
+        headerLength = buffer.getShort(8) & 0xFFFF;
+        recordLength = buffer.getShort(10) & 0xFFFF;
+        if (headerLength > buffer.limit()) {
+            throw new IOException("Invalid dbf header.");
+        }
+        // the first byte of a record is the deletion flag
+        int fieldOffset = 1;
+        for( int position = 32; position + 32 <= headerLength && buffer.get(position) != 0x0D; position += 32 ) {
+            Field field = new Field();
+            int nameLength = 0;
+            while( nameLength < 11 && buffer.get(position + nameLength) != 0 ) {
+                nameLength++;
+            }
+            field.name = readString(position, nameLength).trim();
+            field.type = (char) buffer.get(position + 11);
+            field.length = buffer.get(position + 16) & 0xFF;
+            field.decimalCount = buffer.get(position + 17) & 0xFF;
+            field.offset = fieldOffset;
+            fieldOffset += field.length;
+            if (field.name.length() == 0) {
+                field.name = "field" + (fields.size() + 1);
+            }
+            fields.add(field);
+        }
+    }
+
+    /**
+     * @return the number of records, deleted ones included.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the number of fields.
+     */
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * @param fieldIndex the index of the field.
+     * @return the name of the field.
+     */
+    public String getFieldName( int fieldIndex ) {
+        return fields.get(fieldIndex).name;
+    }
+
+    /**
+     * @param fieldIndex the index of the field.
+     * @return the sql type of the column to store the field in.
+     */
+    public String getSqlType( int fieldIndex ) {
+        Field field = fields.get(fieldIndex);
+        switch (field.type) {
+            case 'N':
+                return field.decimalCount == 0 && field.length < 19 ? "INTEGER" : "DOUBLE";
+            case 'F':
+                return "DOUBLE";
+            case 'L':
+                return "INTEGER";
+            default:
+                return "TEXT";
+        }
+    }
+
+    /**
+     * @param record the index of the record.
+     * @return <code>true</code> if the record has been deleted.
+     */
+    public boolean isDeleted( int record ) {
+        return record < recordCount && buffer.get(headerLength + record * recordLength) == '*';
+    }
+
+    /**
+     * Read a value.
+     *
+     * @param record the index of the record.
+     * @param fieldIndex the index of the field.
+     * @return the value or <code>null</code>, also if the record does not exist.
+     */
+    public Object getValue( int record, int fieldIndex ) {
+        if (record >= recordCount) {
+            return null;
+        }
+        Field field = fields.get(fieldIndex);
+        String value = readString(headerLength + record * recordLength + field.offset, field.length).trim();
+        if (value.length() == 0) {
+            return null;
+        }
+        try {
+            switch (field.type) {
+                case 'F':
+                    return Double.valueOf(value);
+                case 'N':
+                    if (value.indexOf('.') != -1 || value.indexOf('E') != -1 || value.indexOf('e') != -1) {
+                        // also with a decimal count of 0, as written by some tools
+                        return Double.valueOf(value);
+                    }
+                    try {
+                        return Long.valueOf(value);
+                    } catch (NumberFormatException e) {
+                        // more digits than a long holds
+                        return Double.valueOf(value);
+                    }
+                case 'L':
+                    char c = Character.toUpperCase(value.charAt(0));
+                    if (c == 'T' || c == 'Y') {
+                        return 1;
+                    } else if (c == 'F' || c == 'N') {
+                        return 0;
+                    }
+                    return null;
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            // as the '*' filled values of overflows
+            return null;
+        }
+    }
+
+    private String readString( int position, int length ) {
+        byte[] bytes = new byte[length];
+        for( int i = 0; i < length; i++ ) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    private static class Field {
+        String name;
+        char type;
+        int offset;
+        int length;
+        int decimalCount;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The recently used content hashes of stored tile images, with the id of the stored image.
+ *
+ * <p>Images are stored in batches: the hashes of the images stored by a batch are
+ * kept in a {@link Batch} and only added to the cache once its transaction is committed,
+ * so that a rolled back batch leaves no hash of an image that does not exist.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ImageHashCache {
+
+    private final LinkedHashMap<String, String> tileIdsByHash;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of hashes to keep, removing the least recently used ones first.
+     */
+    @SuppressWarnings("serial")
+    public ImageHashCache( final int maxEntries ) {
+        tileIdsByHash = new LinkedHashMap<String, String>(256, 0.75f, true){
+            protected boolean removeEldestEntry( Map.Entry<String, String> eldest ) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param imageHash the content hash of an image.
+     * @return the id of the stored image or <code>null</code>, if it is not in the cache.
+     */
+    public synchronized String get( String imageHash ) {
+        return tileIdsByHash.get(imageHash);
+    }
+
+    /**
+     * Add the hash of a stored image.
+     *
+     * @param imageHash the content hash of the image.
+     * @param tileId the id of the stored image.
+     */
+    public synchronized void put( String imageHash, String tileId ) {
+        tileIdsByHash.put(imageHash, tileId);
+    }
+
+    /**
+     * @return a new batch of images to store.
+     */
+    public Batch startBatch() {
+        return new Batch();
+    }
+
+    /**
+     * The hashes of the images stored in a transaction.
+     */
+    public class Batch {
+        private final Map<String, String> storedTileIds = new HashMap<String, String>();
+
+        private Batch() {
+        }
+
+        /**
+         * Get a stored image, by this batch or already committed.
+         *
+         * @param imageHash the content hash of an image.
+         * @return the id of the stored image or <code>null</code>.
+         */
+        public String get( String imageHash ) {
+            String tileId = storedTileIds.get(imageHash);
+            if (tileId == null) {
+                tileId = ImageHashCache.this.get(imageHash);
+            }
+            return tileId;
+        }
+
+        /**
+         * Record an image, to be called only once its insert has succeeded.
+         *
+         * @param imageHash the content hash of the image.
+         * @param tileId the id of the stored image.
+         */
+        public void stored( String imageHash, String tileId ) {
+            storedTileIds.put(imageHash, tileId);
+        }
+
+        /**
+         * Add the recorded images to the cache, once the transaction is committed.
+         */
+        public void commit() {
+            synchronized (ImageHashCache.this) {
+                tileIdsByHash.putAll(storedTileIds);
+            }
+            storedTileIds.clear();
+        }
+    }
+}
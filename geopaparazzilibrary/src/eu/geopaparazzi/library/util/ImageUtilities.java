@@ -0,0 +1,100 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+/**
+ * Utilities to recognize encoded images without decoding them.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ImageUtilities {
+
+    /**
+     * The png format.
+     */
+    public static final String FORMAT_PNG = "png";
+    /**
+     * The jpeg format.
+     */
+    public static final String FORMAT_JPG = "jpg";
+    /**
+     * The gif format.
+     */
+    public static final String FORMAT_GIF = "gif";
+    /**
+     * The webp format.
+     */
+    public static final String FORMAT_WEBP = "webp";
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] GIF_SIGNATURE = {'G', 'I', 'F', '8'};
+    private static final byte[] RIFF_SIGNATURE = {'R', 'I', 'F', 'F'};
+    private static final byte[] WEBP_SIGNATURE = {'W', 'E', 'B', 'P'};
+
+    /**
+     * Get the format of an encoded image from its header.
+     *
+     * <p>Servers often answer with an error text or html page and a 200 code,
+     * which this allows to recognize before the data are stored.</p>
+     *
+     * @param data the encoded image.
+     * @return one of the <code>FORMAT_*</code> values or <code>null</code> if the data are not a supported image.
+     */
+    public static String getImageFormat( byte[] data ) {
+        if (data == null) {
+            return null;
+        }
+        if (startsWith(data, 0, PNG_SIGNATURE)) {
+            return FORMAT_PNG;
+        }
+        if (startsWith(data, 0, JPG_SIGNATURE)) {
+            return FORMAT_JPG;
+        }
+        if (startsWith(data, 0, GIF_SIGNATURE)) {
+            return FORMAT_GIF;
+        }
+        if (startsWith(data, 0, RIFF_SIGNATURE) && startsWith(data, 8, WEBP_SIGNATURE)) {
+            return FORMAT_WEBP;
+        }
+        return null;
+    }
+
+    /**
+     * Check if the data are an encoded image.
+     *
+     * @param data the data to check.
+     * @return <code>true</code> if the header is the one of a supported image.
+     */
+    public static boolean isImage( byte[] data ) {
+        return getImageFormat(data) != null;
+    }
+
+    private static boolean startsWith( byte[] data, int offset, byte[] signature ) {
+        if (data.length < offset + signature.length) {
+            return false;
+        }
+        for( int i = 0; i < signature.length; i++ ) {
+            if (data[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
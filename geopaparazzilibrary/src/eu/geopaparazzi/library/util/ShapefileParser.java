@@ -0,0 +1,278 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the records of a <code>.shp</code> file into WKB.
+ *
+ * <p>Lines and polygons are decoded as multi geometries, so that all the records
+ * of a shapefile have a single geometry type. Z and M values are dropped.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileParser {
+
+    /**
+     * The length of the header of the <code>.shp</code> and <code>.shx</code> files.
+     */
+    public static final int HEADER_LENGTH = 100;
+    /**
+     * The file code at the start of the <code>.shp</code> and <code>.shx</code> files.
+     */
+    public static final int FILE_CODE = 9994;
+
+    // the shape types
+    private static final int NULL_SHAPE = 0;
+    private static final int POINT = 1;
+    private static final int POLYLINE = 3;
+    private static final int POLYGON = 5;
+    private static final int MULTIPOINT = 8;
+    private static final int POINTZ = 11;
+    private static final int POLYLINEZ = 13;
+    private static final int POLYGONZ = 15;
+    private static final int MULTIPOINTZ = 18;
+    private static final int POINTM = 21;
+    private static final int POLYLINEM = 23;
+    private static final int POLYGONM = 25;
+    private static final int MULTIPOINTM = 28;
+    private static final int MULTIPATCH = 31;
+
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+    private static final int WKB_MULTIPOINT = 4;
+    private static final int WKB_MULTILINESTRING = 5;
+    private static final int WKB_MULTIPOLYGON = 6;
+
+    private ShapefileParser() {
+    }
+
+    /**
+     * Get the geometry type the records of a shape type are decoded to.
+     *
+     * @param shapeType the shape type of the shapefile header.
+     * @return the geometry type, as POINT, MULTIPOINT, MULTILINESTRING or MULTIPOLYGON.
+     * @throws IOException if the shape type is not supported, as MultiPatch.
+     */
+    public static String getGeometryType( int shapeType ) throws IOException {
+        switch (shapeType) {
+            case POINT:
+            case POINTZ:
+            case POINTM:
+                return "POINT";
+            case MULTIPOINT:
+            case MULTIPOINTZ:
+            case MULTIPOINTM:
+                return "MULTIPOINT";
+            case POLYLINE:
+            case POLYLINEZ:
+            case POLYLINEM:
+                return "MULTILINESTRING";
+            case POLYGON:
+            case POLYGONZ:
+            case POLYGONM:
+                return "MULTIPOLYGON";
+            case MULTIPATCH:
+                throw new IOException("MultiPatch shapefiles are not supported.");
+            default:
+                throw new IOException("Unsupported shape type " + shapeType + ".");
+        }
+    }
+
+    /**
+     * Convert a shapefile record to little endian XY WKB.
+     *
+     * <p>The Z and M variants have the same x/y layout, their z and m values
+     * follow the x/y values and are not read.</p>
+     *
+     * @param shp the little endian shp buffer.
+     * @param offset the offset of the record content.
+     * @return the WKB or <code>null</code> for null shapes.
+     * @throws IOException if the shape type of the record is not supported.
+     */
+    public static byte[] toWkb( ByteBuffer shp, int offset ) throws IOException {
+        int shapeType = shp.getInt(offset);
+        switch (shapeType) {
+            case NULL_SHAPE:
+                return null;
+            case POINT:
+            case POINTZ:
+            case POINTM: {
+                ByteBuffer wkb = newWkb(21, WKB_POINT);
+                wkb.putDouble(shp.getDouble(offset + 4));
+                wkb.putDouble(shp.getDouble(offset + 12));
+                return wkb.array();
+            }
+            case MULTIPOINT:
+            case MULTIPOINTZ:
+            case MULTIPOINTM: {
+                int numPoints = shp.getInt(offset + 36);
+                int points = offset + 40;
+                ByteBuffer wkb = newWkb(9 + numPoints * 21, WKB_MULTIPOINT);
+                wkb.putInt(numPoints);
+                for( int i = 0; i < numPoints; i++ ) {
+                    wkb.put((byte) 1);
+                    wkb.putInt(WKB_POINT);
+                    wkb.putDouble(shp.getDouble(points + 16 * i));
+                    wkb.putDouble(shp.getDouble(points + 16 * i + 8));
+                }
+                return wkb.array();
+            }
+            case POLYLINE:
+            case POLYLINEZ:
+            case POLYLINEM: {
+                int numParts = shp.getInt(offset + 36);
+                int numPoints = shp.getInt(offset + 40);
+                int parts = offset + 44;
+                int points = parts + 4 * numParts;
+                ByteBuffer wkb = newWkb(9 + numParts * 9 + numPoints * 16, WKB_MULTILINESTRING);
+                wkb.putInt(numParts);
+                for( int part = 0; part < numParts; part++ ) {
+                    int start = shp.getInt(parts + 4 * part);
+                    int end = part + 1 < numParts ? shp.getInt(parts + 4 * (part + 1)) : numPoints;
+                    wkb.put((byte) 1);
+                    wkb.putInt(WKB_LINESTRING);
+                    putRing(shp, points, start, end, wkb);
+                }
+                return wkb.array();
+            }
+            case POLYGON:
+            case POLYGONZ:
+            case POLYGONM:
+                return polygonToWkb(shp, offset);
+            case MULTIPATCH:
+                throw new IOException("MultiPatch shapes are not supported.");
+            default:
+                throw new IOException("Unsupported shape type " + shapeType + ".");
+        }
+    }
+
+    /**
+     * Shapefiles store the rings of all polygons of a record in sequence, outer rings
+     * clockwise and holes counterclockwise. Holes are assigned to the outer ring that
+     * contains them.
+     */
+    private static byte[] polygonToWkb( ByteBuffer shp, int offset ) {
+        int numParts = shp.getInt(offset + 36);
+        int numPoints = shp.getInt(offset + 40);
+        int parts = offset + 44;
+        int points = parts + 4 * numParts;
+
+        List<int[]> shells = new ArrayList<int[]>();
+        List<int[]> holes = new ArrayList<int[]>();
+        for( int part = 0; part < numParts; part++ ) {
+            int start = shp.getInt(parts + 4 * part);
+            int end = part + 1 < numParts ? shp.getInt(parts + 4 * (part + 1)) : numPoints;
+            int[] ring = {start, end};
+            if (signedArea(shp, points, start, end) <= 0) {
+                shells.add(ring);
+            } else {
+                holes.add(ring);
+            }
+        }
+        if (shells.isEmpty()) {
+            // wrongly oriented rings, take them as polygons without holes
+            shells = holes;
+            holes = new ArrayList<int[]>();
+        }
+        List<List<int[]>> polygons = new ArrayList<List<int[]>>(shells.size());
+        for( int[] shell : shells ) {
+            List<int[]> polygon = new ArrayList<int[]>(1);
+            polygon.add(shell);
+            polygons.add(polygon);
+        }
+        for( int[] hole : holes ) {
+            double x = shp.getDouble(points + 16 * hole[0]);
+            double y = shp.getDouble(points + 16 * hole[0] + 8);
+            List<int[]> container = null;
+            for( List<int[]> polygon : polygons ) {
+                int[] shell = polygon.get(0);
+                if (contains(shp, points, shell[0], shell[1], x, y)) {
+                    container = polygon;
+                    break;
+                }
+            }
+            if (container == null) {
+                // an orphan hole is kept as a polygon on its own
+                container = new ArrayList<int[]>(1);
+                polygons.add(container);
+            }
+            container.add(hole);
+        }
+
+        ByteBuffer wkb = newWkb(9 + polygons.size() * 9 + numParts * 4 + numPoints * 16, WKB_MULTIPOLYGON);
+        wkb.putInt(polygons.size());
+        for( List<int[]> polygon : polygons ) {
+            wkb.put((byte) 1);
+            wkb.putInt(WKB_POLYGON);
+            wkb.putInt(polygon.size());
+            for( int[] ring : polygon ) {
+                putRing(shp, points, ring[0], ring[1], wkb);
+            }
+        }
+        return wkb.array();
+    }
+
+    private static ByteBuffer newWkb( int size, int wkbType ) {
+        ByteBuffer wkb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        wkb.put((byte) 1);
+        wkb.putInt(wkbType);
+        return wkb;
+    }
+
+    private static void putRing( ByteBuffer shp, int points, int start, int end, ByteBuffer wkb ) {
+        wkb.putInt(end - start);
+        for( int i = start; i < end; i++ ) {
+            wkb.putDouble(shp.getDouble(points + 16 * i));
+            wkb.putDouble(shp.getDouble(points + 16 * i + 8));
+        }
+    }
+
+    private static double signedArea( ByteBuffer shp, int points, int start, int end ) {
+        double area = 0;
+        for( int i = start; i < end - 1; i++ ) {
+            double x1 = shp.getDouble(points + 16 * i);
+            double y1 = shp.getDouble(points + 16 * i + 8);
+            double x2 = shp.getDouble(points + 16 * (i + 1));
+            double y2 = shp.getDouble(points + 16 * (i + 1) + 8);
+            area += x1 * y2 - x2 * y1;
+        }
+        return area / 2.0;
+    }
+
+    private static boolean contains( ByteBuffer shp, int points, int start, int end, double x, double y ) {
+        boolean inside = false;
+        for( int i = start, j = end - 1; i < end; j = i++ ) {
+            double xi = shp.getDouble(points + 16 * i);
+            double yi = shp.getDouble(points + 16 * i + 8);
+            double xj = shp.getDouble(points + 16 * j);
+            double yj = shp.getDouble(points + 16 * j + 8);
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
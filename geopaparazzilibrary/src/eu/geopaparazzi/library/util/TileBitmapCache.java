@@ -0,0 +1,250 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * A memory cache of decoded tiles, shared by all the tile sources.
+ *
+ * <p>The tiles are kept by source, zoom level and tile column/row, up to
+ * a budget of bytes, removing the least recently used ones first.</p>
+ *
+ * <p>The bitmaps removed from the cache are reused to decode the next tiles,
+ * on the devices that support it (api 11+), instead of allocating a new bitmap
+ * for every tile.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileBitmapCache {
+
+    /**
+     * The maximum number of removed bitmaps kept for reuse.
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 4;
+
+    // BitmapFactory.Options.inBitmap/inMutable are api 11, the libraries are built for api 10
+    private static final Field IN_BITMAP_FIELD;
+    private static final Field IN_MUTABLE_FIELD;
+    static {
+        Field inBitmap = null;
+        Field inMutable = null;
+        if (Build.VERSION.SDK_INT >= 11) {
+            try {
+                inBitmap = BitmapFactory.Options.class.getField("inBitmap");
+                inMutable = BitmapFactory.Options.class.getField("inMutable");
+            } catch (NoSuchFieldException e) {
+                inBitmap = null;
+                inMutable = null;
+            }
+        }
+        IN_BITMAP_FIELD = inBitmap;
+        IN_MUTABLE_FIELD = inMutable;
+    }
+
+    private static TileBitmapCache tileBitmapCache;
+
+    private final LruCache<String, Bitmap> tilesCache;
+    private final List<Bitmap> reusableBitmaps = new ArrayList<Bitmap>();
+    private final Canvas canvas = new Canvas();
+
+    /**
+     * Get the cache shared by all the tile sources.
+     *
+     * <p>It uses up to an eighth of the memory available to the application.</p>
+     *
+     * @return the shared cache.
+     */
+    public static synchronized TileBitmapCache getInstance() {
+        if (tileBitmapCache == null) {
+            tileBitmapCache = new TileBitmapCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return tileBitmapCache;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes the maximum size of the cached bitmaps in bytes.
+     */
+    public TileBitmapCache( int maxBytes ) {
+        tilesCache = new LruCache<String, Bitmap>(maxBytes){
+            protected int sizeOf( String key, Bitmap bitmap ) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+
+            protected void entryRemoved( boolean evicted, String key, Bitmap oldBitmap, Bitmap newBitmap ) {
+                addReusableBitmap(oldBitmap);
+            }
+        };
+    }
+
+    /**
+     * Draw a cached tile.
+     *
+     * @param source the tile source, as the path of its database, see {@link TileCacheKeys}.
+     * @param zoom the zoom level.
+     * @param x the tile column.
+     * @param y the tile row.
+     * @param tileBitmap the bitmap to draw the tile into.
+     * @return <code>true</code> if the tile was cached and has been drawn.
+     */
+    public synchronized boolean drawTile( String source, int zoom, int x, int y, Bitmap tileBitmap ) {
+        Bitmap cachedBitmap = tilesCache.get(TileCacheKeys.getTileKey(source, zoom, x, y));
+        if (cachedBitmap == null) {
+            return false;
+        }
+        draw(cachedBitmap, tileBitmap);
+        return true;
+    }
+
+    /**
+     * Decode a tile, draw it and add it to the cache.
+     *
+     * @param source the tile source, as the path of its database, see {@link TileCacheKeys}.
+     * @param zoom the zoom level.
+     * @param x the tile column.
+     * @param y the tile row.
+     * @param tileData the encoded image.
+     * @param tileBitmap the bitmap to draw the tile into.
+     * @return <code>true</code> if the image could be decoded and has been drawn.
+     */
+    public boolean putTile( String source, int zoom, int x, int y, byte[] tileData, Bitmap tileBitmap ) {
+        if (tileData == null) {
+            return false;
+        }
+        Bitmap decodedBitmap = decode(tileData, tileBitmap.getConfig());
+        if (decodedBitmap == null) {
+            return false;
+        }
+        synchronized (this) {
+            tilesCache.put(TileCacheKeys.getTileKey(source, zoom, x, y), decodedBitmap);
+            draw(decodedBitmap, tileBitmap);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a tile that has changed in its source.
+     *
+     * @param source the tile source, as the path of its database, see {@link TileCacheKeys}.
+     * @param zoom the zoom level.
+     * @param x the tile column.
+     * @param y the tile row.
+     */
+    public synchronized void removeTile( String source, int zoom, int x, int y ) {
+        tilesCache.remove(TileCacheKeys.getTileKey(source, zoom, x, y));
+    }
+
+    /**
+     * Remove all the tiles of a source, for example when it is closed.
+     *
+     * @param source the tile source, the path of a database also removes the tiles of its tables.
+     * @see TileCacheKeys#isOfSource(String, String)
+     */
+    public synchronized void removeSource( String source ) {
+        for( String key : tilesCache.snapshot().keySet() ) {
+            if (TileCacheKeys.isOfSource(key, source)) {
+                tilesCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Remove all the tiles.
+     */
+    public synchronized void clear() {
+        tilesCache.evictAll();
+    }
+
+    /**
+     * Draw the tile in the same way the pixels were copied before,
+     * transparent pixels become black.
+     */
+    private void draw( Bitmap cachedBitmap, Bitmap tileBitmap ) {
+        tileBitmap.eraseColor(Color.BLACK);
+        canvas.setBitmap(tileBitmap);
+        canvas.drawBitmap(cachedBitmap, 0, 0, null);
+    }
+
+    private Bitmap decode( byte[] tileData, Bitmap.Config config ) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (config != null) {
+            options.inPreferredConfig = config;
+        }
+        Bitmap reusableBitmap = null;
+        if (IN_BITMAP_FIELD != null) {
+            reusableBitmap = takeReusableBitmap(options.inPreferredConfig);
+            try {
+                IN_MUTABLE_FIELD.setBoolean(options, true);
+                IN_BITMAP_FIELD.set(options, reusableBitmap);
+            } catch (IllegalAccessException e) {
+                GPLog.error(this, null, e);
+            }
+        }
+        Bitmap decodedBitmap = null;
+        try {
+            decodedBitmap = BitmapFactory.decodeByteArray(tileData, 0, tileData.length, options);
+        } catch (IllegalArgumentException e) {
+            // the image does not fit in the reused bitmap [before api 19 it must have the same size]
+            if (reusableBitmap == null) {
+                throw e;
+            }
+            try {
+                IN_BITMAP_FIELD.set(options, null);
+            } catch (IllegalAccessException e1) {
+                GPLog.error(this, null, e1);
+            }
+            decodedBitmap = BitmapFactory.decodeByteArray(tileData, 0, tileData.length, options);
+        }
+        if (decodedBitmap == null && reusableBitmap != null) {
+            addReusableBitmap(reusableBitmap);
+        }
+        return decodedBitmap;
+    }
+
+    private synchronized Bitmap takeReusableBitmap( Bitmap.Config config ) {
+        for( int i = 0; i < reusableBitmaps.size(); i++ ) {
+            Bitmap bitmap = reusableBitmaps.get(i);
+            if (bitmap.getConfig() == config) {
+                return reusableBitmaps.remove(i);
+            }
+        }
+        return null;
+    }
+
+    private synchronized void addReusableBitmap( Bitmap bitmap ) {
+        if (IN_BITMAP_FIELD == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        if (reusableBitmaps.size() < MAX_REUSABLE_BITMAPS) {
+            reusableBitmaps.add(bitmap);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+/**
+ * The keys of the tiles in the {@link TileBitmapCache}.
+ *
+ * <p>A source is the path of its database, followed by the table for
+ * the databases that have more tile tables. All the parts of a key are
+ * joined by the same separator, so that the tiles of a database, those
+ * of its tables included, share the prefix of the database path.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileCacheKeys {
+
+    /**
+     * The separator of the parts of a key.
+     */
+    public static final String SEPARATOR = "/";
+
+    private TileCacheKeys() {
+    }
+
+    /**
+     * Get the source of a tile table of a database.
+     *
+     * @param databasePath the path of the database.
+     * @param tableName the table of the tiles.
+     * @return the source.
+     */
+    public static String getTableSource( String databasePath, String tableName ) {
+        return databasePath + SEPARATOR + tableName;
+    }
+
+    /**
+     * Get the key of a tile.
+     *
+     * @param source the tile source.
+     * @param zoom the zoom level.
+     * @param x the tile column.
+     * @param y the tile row.
+     * @return the key.
+     */
+    public static String getTileKey( String source, int zoom, int x, int y ) {
+        return source + SEPARATOR + zoom + SEPARATOR + x + SEPARATOR + y;
+    }
+
+    /**
+     * Check if a key is of a tile of a source.
+     *
+     * @param key the key of the tile.
+     * @param source the source, a database path also matches the tiles of its tables.
+     * @return <code>true</code> if the tile is of the source.
+     */
+    public static boolean isOfSource( String key, String source ) {
+        return key.startsWith(source + SEPARATOR);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Schedules the rendering of tiles on background workers.
+ *
+ * <p>A tile is rendered for a signature, i.e. the state of what it shows. A tile
+ * is scheduled once per signature: while it is pending for an outdated signature,
+ * a request for the new signature is scheduled too and the outdated task stops
+ * as soon as it checks {@link #isStopped(Object, String)}.</p>
+ *
+ * @param <T> the type of the tiles.
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public abstract class TileRenderQueue<T> {
+
+    private final Executor executor;
+    private final Set<PendingTile<T>> pendingTiles = new HashSet<PendingTile<T>>();
+
+    /**
+     * Constructor.
+     *
+     * @param executor the workers to render on.
+     */
+    public TileRenderQueue( Executor executor ) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedule the rendering of a tile, unless it is already pending for the same signature.
+     *
+     * @param tile the tile.
+     * @param signature the signature to render the tile for.
+     * @return <code>true</code> if the tile has been scheduled.
+     */
+    public boolean schedule( final T tile, final String signature ) {
+        final PendingTile<T> pendingTile = new PendingTile<T>(tile, signature);
+        synchronized (pendingTiles) {
+            if (!pendingTiles.add(pendingTile)) {
+                return false;
+            }
+        }
+        executor.execute(new Runnable(){
+            public void run() {
+                boolean done = false;
+                try {
+                    if (!isStopped(tile, signature)) {
+                        done = render(tile, signature);
+                    }
+                } catch (Exception e) {
+                    GPLog.error(TileRenderQueue.this, "TileRenderQueue.render [failed] " + tile, e); //$NON-NLS-1$
+                }
+                boolean isLast;
+                synchronized (pendingTiles) {
+                    pendingTiles.remove(pendingTile);
+                    isLast = pendingTiles.isEmpty();
+                }
+                if (done || isLast) {
+                    // also when the last one stopped, a throttled redraw of the previous tiles may be due
+                    tileFinished(tile, done, isLast);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Check if the rendering of a tile should stop, since it is no longer wanted for the signature.
+     *
+     * @param tile the tile.
+     * @param signature the signature the tile is rendered for.
+     * @return <code>true</code> if the rendering should stop.
+     */
+    public boolean isStopped( T tile, String signature ) {
+        return Thread.currentThread().isInterrupted() || !isWanted(tile, signature);
+    }
+
+    /**
+     * @return the number of tiles scheduled and not yet finished.
+     */
+    public int getPendingCount() {
+        synchronized (pendingTiles) {
+            return pendingTiles.size();
+        }
+    }
+
+    /**
+     * @param tile the tile.
+     * @param signature the signature the tile is rendered for.
+     * @return <code>true</code> if the tile is still needed with this signature.
+     */
+    protected abstract boolean isWanted( T tile, String signature );
+
+    /**
+     * Render a tile, on a worker.
+     *
+     * @param tile the tile.
+     * @param signature the signature to render the tile for.
+     * @return <code>true</code> if the tile has been completely rendered.
+     * @throws Exception if the rendering fails.
+     */
+    protected abstract boolean render( T tile, String signature ) throws Exception;
+
+    /**
+     * Called on the worker after a tile has been completely rendered
+     * or, if it stopped, when it was the last pending one.
+     *
+     * @param tile the tile.
+     * @param rendered <code>true</code> if the tile has been completely rendered.
+     * @param isLast <code>true</code> if no other tile is pending.
+     */
+    protected abstract void tileFinished( T tile, boolean rendered, boolean isLast );
+
+    private static class PendingTile<T> {
+        final T tile;
+        final String signature;
+
+        PendingTile( T tile, String signature ) {
+            this.tile = tile;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (!(obj instanceof PendingTile)) {
+                return false;
+            }
+            PendingTile< ? > other = (PendingTile< ? >) obj;
+            return tile.equals(other.tile) && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tile.hashCode() + signature.hashCode();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import eu.geopaparazzi.library.util.DbfReader;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestDbfReader extends TestCase {
+
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    // name, type, length, decimal count
+    private static final Object[][] FIELDS = {{"ID", 'N', 20, 0}, {"AREA", 'N', 12, 3}, {"RATIO", 'F', 12, 0},
+            {"COUNT", 'N', 6, 0}, {"SURVEYED", 'D', 8, 0}, {"VALID", 'L', 1, 0}, {"NAME", 'C', 10, 0}};
+
+    private DbfReader dbf;
+
+    protected void setUp() throws Exception {
+        // deletion flag and values
+        String[][] records = {{" ", "1", "12.5", "3", "42", "20140321", "T", "Bolzano"},
+                {" ", "2", "1.25E2", "0.5", "1.0", "19991231", "n", "Trento"}, {"*", "3", "", "", "", "", "?", ""},
+                {" ", "12345678901234567890", "***", "-7", "-1e3", "        ", " ", "àè"}};
+        dbf = new DbfReader(dbf(records), CHARSET);
+    }
+
+    public void testFields() throws Exception {
+        assertEquals(4, dbf.getRecordCount());
+        assertEquals(FIELDS.length, dbf.getFieldCount());
+        assertEquals("ID", dbf.getFieldName(0));
+        // too long for a long
+        assertEquals("DOUBLE", dbf.getSqlType(0));
+        assertEquals("DOUBLE", dbf.getSqlType(1));
+        assertEquals("DOUBLE", dbf.getSqlType(2));
+        assertEquals("INTEGER", dbf.getSqlType(3));
+        assertEquals("TEXT", dbf.getSqlType(4));
+        assertEquals("INTEGER", dbf.getSqlType(5));
+        assertEquals("TEXT", dbf.getSqlType(6));
+    }
+
+    public void testNumericFields() throws Exception {
+        assertEquals(Long.valueOf(1), dbf.getValue(0, 0));
+        assertEquals(Double.valueOf(12.5), dbf.getValue(0, 1));
+        assertEquals(Double.valueOf(125), dbf.getValue(1, 1));
+        // 'F' is always a double
+        assertEquals(Double.valueOf(3), dbf.getValue(0, 2));
+        assertEquals(Double.valueOf(0.5), dbf.getValue(1, 2));
+        // 'N' without decimals in the header but with a decimal point or exponent in the value
+        assertEquals(Long.valueOf(42), dbf.getValue(0, 3));
+        assertEquals(Double.valueOf(1), dbf.getValue(1, 3));
+        assertEquals(Double.valueOf(-1000), dbf.getValue(3, 3));
+        // more digits than a long, overflow stars
+        assertEquals(Double.valueOf(12345678901234567890.0), dbf.getValue(3, 0));
+        assertNull(dbf.getValue(3, 1));
+        assertEquals(Double.valueOf(-7), dbf.getValue(3, 2));
+    }
+
+    public void testDateFields() throws Exception {
+        assertEquals("20140321", dbf.getValue(0, 4));
+        assertEquals("19991231", dbf.getValue(1, 4));
+        assertNull(dbf.getValue(3, 4));
+    }
+
+    public void testOtherFields() throws Exception {
+        assertEquals(1, dbf.getValue(0, 5));
+        assertEquals(0, dbf.getValue(1, 5));
+        assertNull(dbf.getValue(2, 5));
+        assertNull(dbf.getValue(3, 5));
+        assertEquals("Bolzano", dbf.getValue(0, 6));
+        assertEquals("àè", dbf.getValue(3, 6));
+    }
+
+    public void testDeletedAndMissingRecords() throws Exception {
+        assertFalse(dbf.isDeleted(0));
+        assertTrue(dbf.isDeleted(2));
+        assertNull(dbf.getValue(2, 1));
+        // the dbf can have less records than the shp
+        assertFalse(dbf.isDeleted(4));
+        assertNull(dbf.getValue(4, 0));
+    }
+
+    private static ByteBuffer dbf( String[][] records ) {
+        int headerLength = 32 + 32 * FIELDS.length + 1;
+        int recordLength = 1;
+        for( Object[] field : FIELDS ) {
+            recordLength += (Integer) field[2];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + records.length * recordLength + 1).order(
+                ByteOrder.LITTLE_ENDIAN);
+        buffer.put(0, (byte) 3);
+        buffer.putInt(4, records.length);
+        buffer.putShort(8, (short) headerLength);
+        buffer.putShort(10, (short) recordLength);
+        for( int i = 0; i < FIELDS.length; i++ ) {
+            int position = 32 + 32 * i;
+            put(buffer, position, (String) FIELDS[i][0], 11);
+            buffer.put(position + 11, (byte) ((Character) FIELDS[i][1]).charValue());
+            buffer.put(position + 16, (byte) ((Integer) FIELDS[i][2]).intValue());
+            buffer.put(position + 17, (byte) ((Integer) FIELDS[i][3]).intValue());
+        }
+        buffer.put(headerLength - 1, (byte) 0x0D);
+        for( int r = 0; r < records.length; r++ ) {
+            int position = headerLength + r * recordLength;
+            put(buffer, position, records[r][0], 1);
+            position++;
+            for( int i = 0; i < FIELDS.length; i++ ) {
+                int length = (Integer) FIELDS[i][2];
+                String value = records[r][i + 1];
+                // numbers are right aligned, texts left aligned
+                boolean isNumber = FIELDS[i][1].equals('N') || FIELDS[i][1].equals('F');
+                while( value.length() < length ) {
+                    value = isNumber ? " " + value : value + " ";
+                }
+                put(buffer, position, value, length);
+                position += length;
+            }
+        }
+        buffer.put(buffer.limit() - 1, (byte) 0x1A);
+        return buffer;
+    }
+
+    private static void put( ByteBuffer buffer, int position, String value, int length ) {
+        byte[] bytes = value.getBytes(CHARSET);
+        for( int i = 0; i < length && i < bytes.length; i++ ) {
+            buffer.put(position + i, bytes[i]);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.geopaparazzi.library.util.ImageHashCache;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestImageHashCache extends TestCase {
+
+    // the 'images' table: tile_id -> image
+    private Map<String, String> images;
+    // the 'map' table: tile -> tile_id
+    private Map<String, String> map;
+
+    protected void setUp() throws Exception {
+        images = new HashMap<String, String>();
+        map = new HashMap<String, String>();
+    }
+
+    public void testDedupAcrossBatches() throws Exception {
+        ImageHashCache cache = new ImageHashCache(10);
+
+        ImageHashCache.Batch batch1 = cache.startBatch();
+        insert(batch1, "1-1-1", "sea");
+        insert(batch1, "1-1-2", "sea");
+        // not visible to other batches before the commit
+        assertNull(cache.startBatch().get(hash("sea")));
+        batch1.commit();
+
+        ImageHashCache.Batch batch2 = cache.startBatch();
+        insert(batch2, "1-2-1", "sea");
+        insert(batch2, "1-2-2", "land");
+        batch2.commit();
+
+        assertEquals(2, images.size());
+        assertEquals("1-1-1", map.get("1-1-2"));
+        assertEquals("1-1-1", map.get("1-2-1"));
+        assertEquals("1-2-2", map.get("1-2-2"));
+        assertEquals("1-1-1", cache.get(hash("sea")));
+        assertEquals("1-2-2", cache.get(hash("land")));
+    }
+
+    public void testConstraintFailureIsNotRecorded() throws Exception {
+        ImageHashCache cache = new ImageHashCache(10);
+        // stored before the hashes were kept, with other content
+        images.put("1-1-1", "old");
+
+        ImageHashCache.Batch batch = cache.startBatch();
+        insert(batch, "1-1-1", "sea"); // fails on the existing tile_id
+        insert(batch, "1-1-2", "sea");
+        batch.commit();
+
+        assertEquals("old", images.get("1-1-1"));
+        assertEquals("1-1-2", map.get("1-1-2"));
+        assertEquals("sea", images.get(map.get("1-1-2")));
+        assertEquals("1-1-2", cache.get(hash("sea")));
+
+        ImageHashCache.Batch nextBatch = cache.startBatch();
+        insert(nextBatch, "1-1-3", "sea");
+        nextBatch.commit();
+        assertEquals("1-1-2", map.get("1-1-3"));
+    }
+
+    public void testRolledBackBatchIsNotRecorded() throws Exception {
+        ImageHashCache cache = new ImageHashCache(10);
+
+        ImageHashCache.Batch batch = cache.startBatch();
+        assertEquals("1-1-1", insert(batch, "1-1-1", "sea"));
+        // the transaction failed: no commit
+
+        assertNull(cache.get(hash("sea")));
+        assertNull(cache.startBatch().get(hash("sea")));
+    }
+
+    public void testLeastRecentlyUsedAreRemoved() throws Exception {
+        ImageHashCache cache = new ImageHashCache(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    /**
+     * Insert a tile as MBTilesDroidSpitter.insertTilesData does.
+     *
+     * @return the tile_id the tile references or <code>null</code> if the insert failed.
+     */
+    private String insert( ImageHashCache.Batch batch, String tile, String image ) {
+        String imageHash = hash(image);
+        String tileId = batch.get(imageHash);
+        if (tileId == null) {
+            if (images.containsKey(tile)) {
+                // code 19, the tile_id exists: skipped
+                return null;
+            }
+            images.put(tile, image);
+            batch.stored(imageHash, tile);
+            tileId = tile;
+        }
+        map.put(tile, tileId);
+        return tileId;
+    }
+
+    private static String hash( String image ) {
+        return "#" + image;
+    }
+}
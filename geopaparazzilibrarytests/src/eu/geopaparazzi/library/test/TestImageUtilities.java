@@ -0,0 +1,54 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import eu.geopaparazzi.library.util.ImageUtilities;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestImageUtilities extends TestCase {
+
+    public void testImageFormats() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+        byte[] jpg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F'};
+        byte[] gif = "GIF89a".getBytes("US-ASCII");
+        byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes("US-ASCII");
+
+        assertEquals(ImageUtilities.FORMAT_PNG, ImageUtilities.getImageFormat(png));
+        assertEquals(ImageUtilities.FORMAT_JPG, ImageUtilities.getImageFormat(jpg));
+        assertEquals(ImageUtilities.FORMAT_GIF, ImageUtilities.getImageFormat(gif));
+        assertEquals(ImageUtilities.FORMAT_WEBP, ImageUtilities.getImageFormat(webp));
+    }
+
+    public void testErrorResponsesAreNoImages() throws Exception {
+        byte[] serviceException = "<ServiceException code=\"LayerNotDefined\">access denied</ServiceException>"
+                .getBytes("UTF-8");
+        byte[] riffNotWebp = "RIFF\0\0\0\0WAVEfmt ".getBytes("US-ASCII");
+        byte[] truncatedPng = {(byte) 0x89, 'P', 'N'};
+
+        assertFalse(ImageUtilities.isImage(serviceException));
+        assertFalse(ImageUtilities.isImage(riffNotWebp));
+        assertFalse(ImageUtilities.isImage(truncatedPng));
+        assertFalse(ImageUtilities.isImage(new byte[0]));
+        assertFalse(ImageUtilities.isImage(null));
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystems;
+import eu.geopaparazzi.library.projections.Ellipsoid;
+import eu.geopaparazzi.library.projections.HelmertTransform;
+import eu.geopaparazzi.library.projections.LambertConformalConic;
+import eu.geopaparazzi.library.projections.MapProjection;
+import eu.geopaparazzi.library.projections.TransverseMercator;
+import junit.framework.TestCase;
+
+/**
+ * Checks of the java projections against published coordinate pairs.
+ * 
+ * <p>The references are the examples of the EPSG Guidance Note 7-2 and of the Ordnance 
+ * Survey "A guide to coordinate systems in Great Britain".</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestProjections extends TestCase {
+
+    private static double dms( double degrees, double minutes, double seconds ) {
+        double value = Math.abs(degrees) + minutes / 60.0 + seconds / 3600.0;
+        return degrees < 0 ? -value : value;
+    }
+
+    private static double[] project( MapProjection projection, double lon, double lat ) {
+        double[] xy = new double[2];
+        projection.project(Math.toRadians(lon), Math.toRadians(lat), xy);
+        return xy;
+    }
+
+    public void testTransverseMercatorOrdnanceSurvey() {
+        // OSGB36 geographic to National Grid, OS guide annex C
+        TransverseMercator bng = new TransverseMercator(Ellipsoid.AIRY_1830, 49, -2, 0.9996012717, 400000, -100000);
+        double[] xy = project(bng, dms(1, 43, 4.5177), dms(52, 39, 27.2531));
+        assertEquals(651409.903, xy[0], 0.001);
+        assertEquals(313177.270, xy[1], 0.001);
+
+        // EPSG guidance note 7-2
+        xy = project(bng, 0.5, 50.5);
+        assertEquals(577274.99, xy[0], 0.01);
+        assertEquals(69740.49, xy[1], 0.01);
+    }
+
+    public void testUtmMeridianArc() {
+        // on the central meridian the northing is the scaled meridian arc, 4984944.378 m to 45 degrees
+        CoordinateReferenceSystem utm32n = CoordinateReferenceSystems.forSrid(32632);
+        double[] coords = {9, 45};
+        utm32n.fromWgs84(coords, 0, 1);
+        assertEquals(500000.0, coords[0], 0.001);
+        assertEquals(0.9996 * 4984944.378, coords[1], 0.001);
+
+        CoordinateReferenceSystem utm33s = CoordinateReferenceSystems.forSrid("32733");
+        coords = new double[]{15, -45};
+        utm33s.fromWgs84(coords, 0, 1);
+        assertEquals(500000.0, coords[0], 0.001);
+        assertEquals(10000000 - 0.9996 * 4984944.378, coords[1], 0.001);
+    }
+
+    public void testWebMercator() {
+        // EPSG guidance note 7-2
+        CoordinateReferenceSystem webMercator = CoordinateReferenceSystems.forSrid(3857);
+        double[] coords = {dms(-100, 20, 0), dms(24, 22, 54.433)};
+        webMercator.fromWgs84(coords, 0, 1);
+        assertEquals(-11169055.58, coords[0], 0.01);
+        assertEquals(2800000.00, coords[1], 0.01);
+
+        webMercator.toWgs84(coords, 0, 1);
+        assertEquals(dms(-100, 20, 0), coords[0], 1e-9);
+        assertEquals(dms(24, 22, 54.433), coords[1], 1e-9);
+    }
+
+    public void testLambertConformalConic() {
+        // EPSG guidance note 7-2, NAD27 / Texas South Central, in US survey feet
+        double usFoot = 1200.0 / 3937.0;
+        LambertConformalConic lcc = new LambertConformalConic(Ellipsoid.CLARKE_1866, dms(28, 23, 0), dms(30, 17, 0), dms(27,
+                50, 0), -99, 2000000 * usFoot, 0);
+        double[] xy = project(lcc, -96, 28.5);
+        assertEquals(2963503.91, xy[0] / usFoot, 0.01);
+        assertEquals(254759.80, xy[1] / usFoot, 0.01);
+
+        double[] lonLat = new double[2];
+        lcc.unproject(xy[0], xy[1], lonLat);
+        assertEquals(-96, Math.toDegrees(lonLat[0]), 1e-9);
+        assertEquals(28.5, Math.toDegrees(lonLat[1]), 1e-9);
+
+        // Lambert-93 false origin
+        CoordinateReferenceSystem lambert93 = CoordinateReferenceSystems.forSrid(2154);
+        double[] coords = {3, 46.5};
+        lambert93.fromWgs84(coords, 0, 1);
+        assertEquals(700000, coords[0], 0.001);
+        assertEquals(6600000, coords[1], 0.001);
+    }
+
+    public void testGeocentric() {
+        // EPSG guidance note 7-2
+        double[] xyz = new double[3];
+        Ellipsoid.WGS84.toGeocentric(Math.toRadians(dms(2, 7, 46.38)), Math.toRadians(dms(53, 48, 33.82)), xyz);
+        // the example is at 73 m of ellipsoidal height
+        double height = 73.0;
+        double lat = Math.toRadians(dms(53, 48, 33.82));
+        double lon = Math.toRadians(dms(2, 7, 46.38));
+        assertEquals(3771793.968, xyz[0] + height * Math.cos(lat) * Math.cos(lon), 0.001);
+        assertEquals(140253.342, xyz[1] + height * Math.cos(lat) * Math.sin(lon), 0.001);
+        assertEquals(5124304.349, xyz[2] + height * Math.sin(lat), 0.001);
+
+        double[] lonLat = new double[2];
+        Ellipsoid.WGS84.fromGeocentric(xyz[0], xyz[1], xyz[2], lonLat);
+        assertEquals(lon, lonLat[0], 1e-11);
+        assertEquals(lat, lonLat[1], 1e-11);
+    }
+
+    public void testHelmert() {
+        // EPSG guidance note 7-2, WGS 72 to WGS 84 position vector transformation
+        HelmertTransform helmert = new HelmertTransform(0, 0, 4.5, 0, 0, 0.554, 0.219);
+        double[] xyz = {3657660.66, 255768.55, 5201382.11};
+        helmert.toWgs84(xyz);
+        assertEquals(3657660.78, xyz[0], 0.01);
+        assertEquals(255778.43, xyz[1], 0.01);
+        assertEquals(5201387.75, xyz[2], 0.01);
+
+        helmert.fromWgs84(xyz);
+        assertEquals(3657660.66, xyz[0], 0.001);
+        assertEquals(255768.55, xyz[1], 0.001);
+        assertEquals(5201382.11, xyz[2], 0.001);
+    }
+
+    public void testDatumShifts() {
+        /*
+         * the Airy transit circle, origin of the OSGB36 longitudes, is at 51 28 38 N
+         * and lies 5.3 arc seconds west of the WGS 84 prime meridian, at 51 28 40.1 N.
+         * The Helmert shift is accurate to a few meters.
+         */
+        TransverseMercator bngProjection = new TransverseMercator(Ellipsoid.AIRY_1830, 49, -2, 0.9996012717, 400000,
+                -100000);
+        double[] coords = project(bngProjection, 0, dms(51, 28, 38));
+        CoordinateReferenceSystems.forSrid(27700).toWgs84(coords, 0, 1);
+        assertEquals(-dms(0, 0, 5.3), coords[0], dms(0, 0, 1));
+        assertEquals(dms(51, 28, 40.1), coords[1], dms(0, 0, 1));
+    }
+
+    public void testRoundTrips() {
+        /*
+         * srid, longitude and latitude of a point in the area of use and tolerance.
+         * Datum shifts are done in 2D, dropping the ellipsoidal height, so they 
+         * round trip to about a centimeter.
+         */
+        double shifted = 5e-7;
+        double exact = 1e-9;
+        double[][] sridPoints = {{4326, -123.1, 49.2, exact}, {3857, 14.9, -33.9, exact}, {900913, 9.1, 45.5, exact},
+                {32601, -177.5, 52.0, exact}, {32632, 11.35, 46.5, exact}, {32633, 15.2, 40.6, exact},
+                {32660, 175.5, -39.0, exact}, {32733, 14.9, -33.9, exact}, {25832, 7.4, 51.5, exact},
+                {26910, -123.1, 49.2, exact}, {6707, 9.1, 45.5, exact}, {3003, 9.1, 45.5, shifted}, {3004, 15.2, 40.6, shifted},
+                {31466, 6.5, 51.2, shifted}, {31468, 11.6, 48.1, shifted}, {27700, -2.5, 53.0, shifted},
+                {2154, 2.35, 48.85, exact}};
+        for( double[] sridPoint : sridPoints ) {
+            int srid = (int) sridPoint[0];
+            CoordinateReferenceSystem crs = CoordinateReferenceSystems.forSrid(srid);
+            assertNotNull("srid " + srid, crs);
+            for( double dLon = -2; dLon <= 2; dLon += 1 ) {
+                for( double dLat = -2; dLat <= 2; dLat += 1 ) {
+                    double lon = sridPoint[1] + dLon;
+                    double lat = sridPoint[2] + dLat;
+                    double[] coords = {lon, lat};
+                    crs.fromWgs84(coords, 0, 1);
+                    crs.toWgs84(coords, 0, 1);
+                    assertEquals("srid " + srid, lon, coords[0], sridPoint[3]);
+                    assertEquals("srid " + srid, lat, coords[1], sridPoint[3]);
+                }
+            }
+        }
+        assertNull(CoordinateReferenceSystems.forSrid(23032));
+        assertNull(CoordinateReferenceSystems.forSrid("not a srid"));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import eu.geopaparazzi.library.util.ShapefileParser;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestShapefileParser extends TestCase {
+
+    private static final double[][] LINE = {{0, 0}, {1, 1}, {2, 0}};
+    // a clockwise shell, a counterclockwise hole in it and a second shell
+    private static final double[][] RINGS = {{0, 0}, {0, 10}, {10, 10}, {10, 0}, {0, 0}, {2, 2}, {4, 2}, {4, 4}, {2, 4},
+            {2, 2}, {20, 20}, {20, 21}, {21, 21}, {20, 20}};
+
+    public void testGeometryTypes() throws Exception {
+        assertEquals("POINT", ShapefileParser.getGeometryType(1));
+        assertEquals("POINT", ShapefileParser.getGeometryType(11));
+        assertEquals("POINT", ShapefileParser.getGeometryType(21));
+        assertEquals("MULTILINESTRING", ShapefileParser.getGeometryType(3));
+        assertEquals("MULTILINESTRING", ShapefileParser.getGeometryType(13));
+        assertEquals("MULTILINESTRING", ShapefileParser.getGeometryType(23));
+        assertEquals("MULTIPOLYGON", ShapefileParser.getGeometryType(5));
+        assertEquals("MULTIPOLYGON", ShapefileParser.getGeometryType(15));
+        assertEquals("MULTIPOLYGON", ShapefileParser.getGeometryType(25));
+        assertEquals("MULTIPOINT", ShapefileParser.getGeometryType(8));
+        assertEquals("MULTIPOINT", ShapefileParser.getGeometryType(18));
+        assertEquals("MULTIPOINT", ShapefileParser.getGeometryType(28));
+    }
+
+    public void testMultiPatchIsRejected() throws Exception {
+        try {
+            ShapefileParser.getGeometryType(31);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("MultiPatch"));
+        }
+        try {
+            // 31 % 10 would have been taken as a point
+            ShapefileParser.toWkb(shape(31, new int[]{0}, LINE, true, true), 0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("MultiPatch"));
+        }
+    }
+
+    public void testUnknownTypeIsRejected() throws Exception {
+        try {
+            ShapefileParser.getGeometryType(2);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            ShapefileParser.toWkb(shape(41, null, new double[][]{{1, 2}}, false, false), 0);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testNullShape() throws Exception {
+        ByteBuffer shp = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        shp.putInt(0, 0);
+        assertNull(ShapefileParser.toWkb(shp, 0));
+    }
+
+    public void testPoints() throws Exception {
+        double[][] point = {{11.5, 46.25}};
+        assertEquals("POINT(11.5 46.25)", toText(shape(1, null, point, false, false)));
+        assertEquals("POINT(11.5 46.25)", toText(shape(11, null, point, true, true)));
+        assertEquals("POINT(11.5 46.25)", toText(shape(21, null, point, false, true)));
+    }
+
+    public void testMultiPoints() throws Exception {
+        String expected = "MULTIPOINT(POINT(0.0 0.0), POINT(1.0 1.0), POINT(2.0 0.0))";
+        assertEquals(expected, toText(shape(8, null, LINE, false, false)));
+        assertEquals(expected, toText(shape(18, null, LINE, true, true)));
+        assertEquals(expected, toText(shape(28, null, LINE, false, true)));
+    }
+
+    public void testLines() throws Exception {
+        String expected = "MULTILINESTRING(LINESTRING(0.0 0.0, 1.0 1.0), LINESTRING(2.0 0.0))";
+        int[] parts = {0, 2};
+        assertEquals(expected, toText(shape(3, parts, LINE, false, false)));
+        assertEquals(expected, toText(shape(13, parts, LINE, true, true)));
+        assertEquals(expected, toText(shape(23, parts, LINE, false, true)));
+    }
+
+    public void testPolygonsWithHoles() throws Exception {
+        String expected = "MULTIPOLYGON(POLYGON((0.0 0.0, 0.0 10.0, 10.0 10.0, 10.0 0.0, 0.0 0.0), "
+                + "(2.0 2.0, 4.0 2.0, 4.0 4.0, 2.0 4.0, 2.0 2.0)), "
+                + "POLYGON((20.0 20.0, 20.0 21.0, 21.0 21.0, 20.0 20.0)))";
+        int[] parts = {0, 5, 10};
+        assertEquals(expected, toText(shape(5, parts, RINGS, false, false)));
+        assertEquals(expected, toText(shape(15, parts, RINGS, true, true)));
+        assertEquals(expected, toText(shape(25, parts, RINGS, false, true)));
+    }
+
+    /**
+     * Build the content of a shape record.
+     *
+     * @param parts the start indexes of the parts or <code>null</code> for points and multipoints.
+     */
+    private static ByteBuffer shape( int shapeType, int[] parts, double[][] points, boolean hasZ, boolean hasM ) {
+        boolean isPoint = shapeType % 10 == 1 && shapeType != 31;
+        int n = points.length;
+        int size = 4 + 16 * n + (hasZ ? 8 * n : 0) + (hasM ? 8 * n : 0);
+        if (!isPoint) {
+            size += 32 + 4 + (parts != null ? 4 + 4 * parts.length : 0) + (hasZ ? 16 : 0) + (hasM ? 16 : 0);
+        }
+        ByteBuffer shp = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        shp.putInt(shapeType);
+        if (isPoint) {
+            shp.putDouble(points[0][0]).putDouble(points[0][1]);
+            if (hasZ)
+                shp.putDouble(100);
+            if (hasM)
+                shp.putDouble(-1);
+            return shp;
+        }
+        shp.position(shp.position() + 32); // bounding box, not read
+        if (parts != null) {
+            shp.putInt(parts.length);
+        }
+        shp.putInt(n);
+        if (parts != null) {
+            for( int part : parts ) {
+                shp.putInt(part);
+            }
+        }
+        for( double[] point : points ) {
+            shp.putDouble(point[0]).putDouble(point[1]);
+        }
+        if (hasZ) {
+            shp.putDouble(100).putDouble(100);
+            for( int i = 0; i < n; i++ ) {
+                shp.putDouble(100);
+            }
+        }
+        if (hasM) {
+            shp.putDouble(-1).putDouble(-1);
+            for( int i = 0; i < n; i++ ) {
+                shp.putDouble(-1);
+            }
+        }
+        return shp;
+    }
+
+    private static String toText( ByteBuffer shp ) throws IOException {
+        ByteBuffer wkb = ByteBuffer.wrap(ShapefileParser.toWkb(shp, 0)).order(ByteOrder.LITTLE_ENDIAN);
+        String text = readGeometry(wkb);
+        assertFalse("trailing bytes", wkb.hasRemaining());
+        return text;
+    }
+
+    private static String readGeometry( ByteBuffer wkb ) {
+        assertEquals(1, wkb.get());
+        int type = wkb.getInt();
+        switch (type) {
+            case 1:
+                return "POINT(" + wkb.getDouble() + " " + wkb.getDouble() + ")";
+            case 2:
+                return "LINESTRING(" + readPoints(wkb) + ")";
+            case 3: {
+                StringBuilder sb = new StringBuilder("POLYGON(");
+                int numRings = wkb.getInt();
+                for( int i = 0; i < numRings; i++ ) {
+                    sb.append(i > 0 ? ", (" : "(").append(readPoints(wkb)).append(")");
+                }
+                return sb.append(")").toString();
+            }
+            case 4:
+            case 5:
+            case 6: {
+                StringBuilder sb = new StringBuilder(type == 4 ? "MULTIPOINT(" : type == 5 ? "MULTILINESTRING(" : "MULTIPOLYGON(");
+                int numGeometries = wkb.getInt();
+                for( int i = 0; i < numGeometries; i++ ) {
+                    sb.append(i > 0 ? ", " : "").append(readGeometry(wkb));
+                }
+                return sb.append(")").toString();
+            }
+            default:
+                fail("wkb type " + type);
+                return null;
+        }
+    }
+
+    private static String readPoints( ByteBuffer wkb ) {
+        StringBuilder sb = new StringBuilder();
+        int numPoints = wkb.getInt();
+        for( int i = 0; i < numPoints; i++ ) {
+            sb.append(i > 0 ? ", " : "").append(wkb.getDouble()).append(" ").append(wkb.getDouble());
+        }
+        return sb.toString();
+    }
+}
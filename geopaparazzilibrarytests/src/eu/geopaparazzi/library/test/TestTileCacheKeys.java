@@ -0,0 +1,64 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import eu.geopaparazzi.library.util.TileCacheKeys;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTileCacheKeys extends TestCase {
+
+    private static final String MBTILES = "/sdcard/maps/bolzano.mbtiles";
+    private static final String GEOPACKAGE = "/sdcard/maps/trento.gpkg";
+
+    public void testTileKeys() throws Exception {
+        assertEquals(MBTILES + "/12/2170/1456", TileCacheKeys.getTileKey(MBTILES, 12, 2170, 1456));
+        String source = TileCacheKeys.getTableSource(GEOPACKAGE, "ortho");
+        assertEquals(GEOPACKAGE + "/ortho/12/2170/1456", TileCacheKeys.getTileKey(source, 12, 2170, 1456));
+    }
+
+    public void testDatabaseSource() throws Exception {
+        String mbtilesKey = TileCacheKeys.getTileKey(MBTILES, 12, 2170, 1456);
+        assertTrue(TileCacheKeys.isOfSource(mbtilesKey, MBTILES));
+        assertFalse(TileCacheKeys.isOfSource(mbtilesKey, GEOPACKAGE));
+        // the database path matches the tiles of all its tables
+        String orthoKey = TileCacheKeys.getTileKey(TileCacheKeys.getTableSource(GEOPACKAGE, "ortho"), 12, 2170, 1456);
+        String dtmKey = TileCacheKeys.getTileKey(TileCacheKeys.getTableSource(GEOPACKAGE, "dtm"), 12, 2170, 1456);
+        assertTrue(TileCacheKeys.isOfSource(orthoKey, GEOPACKAGE));
+        assertTrue(TileCacheKeys.isOfSource(dtmKey, GEOPACKAGE));
+    }
+
+    public void testTableSource() throws Exception {
+        String ortho = TileCacheKeys.getTableSource(GEOPACKAGE, "ortho");
+        assertTrue(TileCacheKeys.isOfSource(TileCacheKeys.getTileKey(ortho, 12, 2170, 1456), ortho));
+        assertFalse(TileCacheKeys.isOfSource(
+                TileCacheKeys.getTileKey(TileCacheKeys.getTableSource(GEOPACKAGE, "dtm"), 12, 2170, 1456), ortho));
+        // a table name that starts with the name of another table
+        assertFalse(TileCacheKeys.isOfSource(
+                TileCacheKeys.getTileKey(TileCacheKeys.getTableSource(GEOPACKAGE, "ortho2"), 12, 2170, 1456), ortho));
+    }
+
+    public void testPathPrefixIsNotASource() throws Exception {
+        // a database whose path starts with the path of another one
+        String key = TileCacheKeys.getTileKey(MBTILES + ".bak", 12, 2170, 1456);
+        assertFalse(TileCacheKeys.isOfSource(key, MBTILES));
+    }
+}
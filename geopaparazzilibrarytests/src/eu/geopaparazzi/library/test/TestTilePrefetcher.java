@@ -0,0 +1,244 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.network.TilePrefetcher;
+import eu.geopaparazzi.library.network.TilePrefetcher.Status;
+import eu.geopaparazzi.library.network.TilePrefetcher.Tile;
+import junit.framework.TestCase;
+
+/**
+ * Checks of the tile prefetcher against a local http server.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTilePrefetcher extends TestCase {
+
+    private TileServer server;
+
+    protected void setUp() throws Exception {
+        server = new TileServer();
+    }
+
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+    public void testDownloadsAllRequests() throws Exception {
+        MemoryQueue queue = new MemoryQueue(server, 300);
+        TilePrefetcher prefetcher = new TilePrefetcher(queue, queue);
+        prefetcher.setWorkersCount(6);
+        prefetcher.setConnectionsPerHost(3);
+        prefetcher.setBatchSize(20);
+
+        assertEquals(Status.COMPLETED, prefetcher.run());
+        assertEquals(300, prefetcher.getStoredCount());
+        assertEquals(0, prefetcher.getFailedCount());
+        assertTrue(queue.requests.isEmpty());
+        assertEquals(300, queue.stored.size());
+        for( Map.Entry<String, String> tile : queue.stored.entrySet() ) {
+            assertEquals("/" + tile.getKey(), tile.getValue());
+        }
+        // one writer, in batches
+        assertEquals(1, queue.writerThreads.size());
+        assertTrue(queue.batches.get() < 300);
+        // the limit per host holds and the connections are reused
+        assertTrue(server.maxActiveRequests.get() <= 3);
+        assertTrue(server.connections.get() < 300);
+    }
+
+    public void testFailingServerIsAbandonedAndRequestsAreKept() throws Exception {
+        server.responseCode = 500;
+        MemoryQueue queue = new MemoryQueue(server, 100);
+        TilePrefetcher prefetcher = new TilePrefetcher(queue, queue);
+        prefetcher.setMaxConsecutiveFailures(5);
+
+        assertEquals(Status.SERVER_NOT_USABLE, prefetcher.run());
+        assertEquals(0, prefetcher.getStoredCount());
+        assertTrue(prefetcher.getFailedCount() > 5);
+        assertEquals(100, queue.requests.size());
+    }
+
+    public void testInterruptedDownloadIsResumed() throws Exception {
+        MemoryQueue queue = new MemoryQueue(server, 200);
+        queue.failAfterBatches = 2;
+        TilePrefetcher prefetcher = new TilePrefetcher(queue, queue);
+        prefetcher.setBatchSize(10);
+
+        assertEquals(Status.WRITE_FAILED, prefetcher.run());
+        int stored = queue.stored.size();
+        assertTrue(stored > 0 && stored < 200);
+        assertEquals(200 - stored, queue.requests.size());
+
+        queue.failAfterBatches = -1;
+        TilePrefetcher resumed = new TilePrefetcher(queue, queue);
+        assertEquals(Status.COMPLETED, resumed.run());
+        assertEquals(200 - stored, resumed.getStoredCount());
+        assertTrue(queue.requests.isEmpty());
+        assertEquals(200, queue.stored.size());
+    }
+
+    /**
+     * A request table and tile store in memory.
+     */
+    private static class MemoryQueue implements TilePrefetcher.RequestQueue, TilePrefetcher.TileWriter {
+        final SortedMap<String, String> requests = new TreeMap<String, String>();
+        final Map<String, String> stored = new TreeMap<String, String>();
+        final List<Thread> writerThreads = new ArrayList<Thread>();
+        final AtomicInteger batches = new AtomicInteger();
+        volatile int failAfterBatches = -1;
+
+        MemoryQueue( TileServer server, int count ) {
+            for( int i = 0; i < count; i++ ) {
+                String tileId = String.format("16-%05d-%05d", 34000 + i % 20, 22000 + i / 20);
+                requests.put(tileId, server.getUrl(tileId));
+            }
+        }
+
+        public synchronized Map<String, String> nextRequests( String afterTileId, int limit ) {
+            SortedMap<String, String> tail = afterTileId == null ? requests : requests.tailMap(afterTileId + "\0");
+            Map<String, String> page = new TreeMap<String, String>();
+            for( Map.Entry<String, String> request : tail.entrySet() ) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.put(request.getKey(), request.getValue());
+            }
+            return page;
+        }
+
+        public synchronized int writeTiles( List<Tile> tiles ) throws Exception {
+            if (!writerThreads.contains(Thread.currentThread())) {
+                writerThreads.add(Thread.currentThread());
+            }
+            if (failAfterBatches >= 0 && batches.get() >= failAfterBatches) {
+                throw new IOException("disk full");
+            }
+            batches.incrementAndGet();
+            for( Tile tile : tiles ) {
+                stored.put(tile.tileId, new String(tile.data, "UTF-8"));
+                requests.remove(tile.tileId);
+            }
+            return tiles.size();
+        }
+    }
+
+    /**
+     * A http/1.1 server with keep alive, that returns the path of the request as tile.
+     */
+    private static class TileServer implements Runnable {
+        final ServerSocket serverSocket;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger activeRequests = new AtomicInteger();
+        final AtomicInteger maxActiveRequests = new AtomicInteger();
+        volatile int responseCode = 200;
+
+        TileServer() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "TileServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getUrl( String tileId ) {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + tileId;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        public void run() {
+            while( !serverSocket.isClosed() ) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(){
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void serve( Socket socket ) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while( (requestLine = reader.readLine()) != null ) {
+                    String line;
+                    while( (line = reader.readLine()) != null && line.length() > 0 ) {
+                        // skip the headers
+                    }
+                    String path = requestLine.split(" ")[1];
+                    int active = activeRequests.incrementAndGet();
+                    synchronized (maxActiveRequests) {
+                        if (active > maxActiveRequests.get()) {
+                            maxActiveRequests.set(active);
+                        }
+                    }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    byte[] body = (responseCode == 200 ? path : "error").getBytes("UTF-8");
+                    String header = "HTTP/1.1 " + responseCode + (responseCode == 200 ? " OK" : " Error") + "\r\n"
+                            + "Content-Type: image/png\r\nContent-Length: " + body.length + "\r\n\r\n";
+                    activeRequests.decrementAndGet();
+                    // a single write, not to wait for the delayed ack of the header
+                    byte[] headerBytes = header.getBytes("ISO-8859-1");
+                    byte[] response = new byte[headerBytes.length + body.length];
+                    System.arraycopy(headerBytes, 0, response, 0, headerBytes.length);
+                    System.arraycopy(body, 0, response, headerBytes.length, body.length);
+                    out.write(response);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the client closed the connection
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.library.util.TileRenderQueue;
+import junit.framework.TestCase;
+
+/**
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTileRenderQueue extends TestCase {
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testSameSignatureIsScheduledOnce() throws Exception {
+        Queue queue = new Queue(executor, "a");
+        queue.blockRendering = true;
+        assertTrue(queue.schedule("1/2/3", "a"));
+        assertFalse(queue.schedule("1/2/3", "a"));
+        assertTrue(queue.schedule("1/2/4", "a"));
+
+        queue.release.countDown();
+        assertTrue(queue.allDone.await(5, TimeUnit.SECONDS));
+        assertEquals("a", queue.rendered.get("1/2/3"));
+        assertEquals("a", queue.rendered.get("1/2/4"));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    public void testNewSignatureWhileTileIsPending() throws Exception {
+        Queue queue = new Queue(executor, "old");
+        queue.blockRendering = true;
+        assertTrue(queue.schedule("1/2/3", "old"));
+        assertTrue(queue.started.await(5, TimeUnit.SECONDS));
+
+        // the style changes while the tile is rendered with the old one
+        queue.wantedSignature = "new";
+        assertTrue(queue.schedule("1/2/3", "new"));
+        assertEquals(2, queue.getPendingCount());
+
+        queue.release.countDown();
+        assertTrue(queue.allDone.await(5, TimeUnit.SECONDS));
+        assertEquals("new", queue.rendered.get("1/2/3"));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private static class Queue extends TileRenderQueue<String> {
+        volatile String wantedSignature;
+        volatile boolean blockRendering = false;
+        final Map<String, String> rendered = new ConcurrentHashMap<String, String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch allDone = new CountDownLatch(1);
+
+        Queue( ExecutorService executor, String wantedSignature ) {
+            super(executor);
+            this.wantedSignature = wantedSignature;
+        }
+
+        protected boolean isWanted( String tile, String signature ) {
+            return signature.equals(wantedSignature);
+        }
+
+        protected boolean render( String tile, String signature ) throws Exception {
+            started.countDown();
+            if (blockRendering) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            if (isStopped(tile, signature)) {
+                return false;
+            }
+            rendered.put(tile, signature);
+            return true;
+        }
+
+        protected void tileFinished( String tile, boolean rendered, boolean isLast ) {
+            if (isLast) {
+                allDone.countDown();
+            }
+        }
+    }
+}
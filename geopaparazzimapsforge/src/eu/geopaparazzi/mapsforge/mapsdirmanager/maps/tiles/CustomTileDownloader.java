@@ -14,6 +14,7 @@
  */
 package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,6 +41,7 @@ import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.network.NetworkUtilities;
 import eu.geopaparazzi.library.util.FileUtilities;
+import eu.geopaparazzi.library.util.ImageUtilities;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.MbtilesDatabaseHandler;
 
@@ -443,6 +445,7 @@ public class CustomTileDownloader extends TileDownloader {
                 }
                 if (run > 0) {
                     mbtilesRequestUrl.put(REQUEST_TYPE_STR, requestType);
+                    mbtilesRequestUrl.put(FORCE_UNIQUE_STR, String.valueOf(i_force_unique));
                 }
                 if ((!requestedZoomLevels.equals("")) && (!requestUrl.equals(""))) {
                     String s_bbox = this.boundsWest + "," + this.boundsSouth + "," + this.boundsEast + "," + this.boundsNorth;
@@ -791,6 +794,7 @@ public class CustomTileDownloader extends TileDownloader {
                     GPLog.androidLog(-1, "CustomTileDownloader.executeJob: request[" + sb.toString() + "] ");
             }
             Bitmap decodedBitmap = null;
+            byte[] tileData = null;
 
             Context context = GPApplication.getInstance();
             if (context != null) {
@@ -803,9 +807,18 @@ public class CustomTileDownloader extends TileDownloader {
                     URLConnection urlConnection = url.openConnection();
                     urlConnection.setRequestProperty(USER_AGENT_STR, GEOPAPARAZZI_STR);
                     inputStream = urlConnection.getInputStream();
-                    decodedBitmap = BitmapFactory.decodeStream(inputStream);
-                    if (doScaleTiles && type != TILESCHEMA.wms)
+                    ByteArrayOutputStream tileStream = new ByteArrayOutputStream(16 * 1024);
+                    FileUtilities.copyFile(inputStream, tileStream);
+                    inputStream = null;
+                    tileData = tileStream.toByteArray();
+                    if (ImageUtilities.isImage(tileData)) {
+                        decodedBitmap = BitmapFactory.decodeByteArray(tileData, 0, tileData.length);
+                    }
+                    if (decodedBitmap != null && doScaleTiles && type != TILESCHEMA.wms) {
                         decodedBitmap = resize(decodedBitmap, tileX, tileYOsm, ZOOM_LEVEL_DIFF, tileSize);
+                        // the stored tile is the resized part, not the downloaded one
+                        tileData = null;
+                    }
                 } catch (Exception e) {
                     // ignore and set the image as empty
                     if (GPLog.LOG_HEAVY)
@@ -819,9 +832,14 @@ public class CustomTileDownloader extends TileDownloader {
             if (decodedBitmap != null) {
                 if (mbtilesDatabase != null) {
                     // we have a valid image, store this to the active mbtiles.db
-                    // [this must be done before recycle() is called]
-                    // decodedBitmap == ARGB_8888 ; bitmap == RGB_565
-                    mbtilesDatabase.insertBitmapTile(tileX, tileYOsm, zoom, decodedBitmap, i_force_unique);
+                    if (tileData != null) {
+                        // as downloaded, without compressing it again
+                        mbtilesDatabase.insertTileData(tileX, tileYOsm, zoom, tileData, i_force_unique);
+                    } else {
+                        // [this must be done before recycle() is called]
+                        // decodedBitmap == ARGB_8888 ; bitmap == RGB_565
+                        mbtilesDatabase.insertBitmapTile(tileX, tileYOsm, zoom, decodedBitmap, i_force_unique);
+                    }
                 }
                 // copy all pixels from the decoded bitmap to the color array
                 decodedBitmap.getPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
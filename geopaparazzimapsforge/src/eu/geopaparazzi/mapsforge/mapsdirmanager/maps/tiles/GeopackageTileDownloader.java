@@ -23,18 +23,20 @@ import org.mapsforge.core.model.GeoPoint;
 import org.mapsforge.core.model.Tile;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 
+import eu.geopaparazzi.library.util.TileBitmapCache;
+import eu.geopaparazzi.library.util.TileCacheKeys;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.PreparedStatementCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Rasterlite;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteConnectionPool;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialDataType;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
-import jsqlite.Database;
 
 /**
  * A MapGenerator that downloads tiles from geopackage databases.
@@ -49,8 +51,10 @@ public class GeopackageTileDownloader extends TileDownloader {
     private GeoPoint centerPoint = new GeoPoint(0, 0);
 
     private String tilePart;
+    // the key of the tiles of this table in the TileBitmapCache
+    private String tileSource;
     private AbstractSpatialDatabaseHandler spatialDatabaseHandler;
-    private Database spatialiteDatabase;
+    private SpatialiteConnectionPool spatialiteConnectionPool;
 
     public GeopackageTileDownloader(SpatialRasterTable table) throws jsqlite.Exception {
         super();
@@ -61,13 +65,14 @@ public class GeopackageTileDownloader extends TileDownloader {
         mapType = SpatialDataType.getType4Name(mapTypeString);
         if (mapType == SpatialDataType.RASTERLITE2) {
             SpatialiteDatabaseHandler databaseHandler = (SpatialiteDatabaseHandler) spatialDatabaseHandler;
-            spatialiteDatabase = databaseHandler.getDatabase();
+            spatialiteConnectionPool = databaseHandler.getConnectionPool();
         }
 
         ZOOM_MAX = (byte) rasterTable.getMaxZoom();
         ZOOM_MIN = (byte) rasterTable.getMinZoom();
 
         tilePart = rasterTable.getTileQuery();
+        tileSource = TileCacheKeys.getTableSource(rasterTable.getDatabasePath(), rasterTable.getTableName());
     }
 
     public String getHostName() {
@@ -105,39 +110,40 @@ public class GeopackageTileDownloader extends TileDownloader {
         try {
             Tile tile = mapGeneratorJob.tile;
             int tileSize = Tile.TILE_SIZE;
+            int zoomLevel = tile.zoomLevel;
+            int tileX = (int) tile.tileX;
+            int tileY = (int) tile.tileY;
+            TileBitmapCache tileBitmapCache = TileBitmapCache.getInstance();
+            if (tileBitmapCache.drawTile(tileSource, zoomLevel, tileX, tileY, bitmap)) {
+                return true;
+            }
             byte[] rasterBytes = null;
             String tileQuery;
             if (mapType == SpatialDataType.RASTERLITE2) {
                 tileQuery = mapType.name();
-                int zoomLevel = tile.zoomLevel;
-                int tileX = (int) tile.tileX;
-                int tileY = (int) tile.tileY;
                 double[] tileBounds = Utilities.tileLatLonBounds(tileX, tileY, zoomLevel, Tile.TILE_SIZE);
-                rasterBytes = SPL_Rasterlite.getRasterTileInBounds(spatialiteDatabase, rasterTable, tileBounds, tileSize);
+                // read on its own connection, in parallel to drawing and queries
+                PreparedStatementCache reader = spatialiteConnectionPool.acquireReader();
+                try {
+                    rasterBytes = SPL_Rasterlite.getRasterTileInBounds(reader.getDatabase(), rasterTable, tileBounds, tileSize);
+                } finally {
+                    spatialiteConnectionPool.releaseReader(reader);
+                }
             } else {
                 tileQuery = getTilePath(tile);
                 rasterBytes = spatialDatabaseHandler.getRasterTile(tileQuery);
             }
-            Bitmap decodedBitmap = null;
+            boolean decoded = false;
             try {
-                decodedBitmap = BitmapFactory.decodeByteArray(rasterBytes, 0, rasterBytes.length);
+                decoded = tileBitmapCache.putTile(tileSource, zoomLevel, tileX, tileY, rasterBytes, bitmap);
             } catch (Exception e) {
                 // ignore and set the image as empty
                 GPLog.error(this, "Could not find image: " + tileQuery, e); //$NON-NLS-1$
             }
             // check if the input stream could be decoded into a bitmap
-            if (decodedBitmap != null) {
-                // copy all pixels from the decoded bitmap to the color array
-                decodedBitmap.getPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
-                decodedBitmap.recycle();
-            } else {
-                for (int i = 0; i < pixels.length; i++) {
-                    pixels[i] = Color.WHITE;
-                }
+            if (!decoded) {
+                bitmap.eraseColor(Color.WHITE);
             }
-
-            // copy all pixels from the color array to the tile bitmap
-            bitmap.setPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
             return true;
         } catch (Exception e) {
             GPLog.error(this, "GeopackageTileDownloader.executeJob]", e);
@@ -0,0 +1,56 @@
+/*
+ * The JTS Topology Suite is a collection of Java classes that
+ * implement the fundamental operations required to validate a given
+ * geo-spatial data set to a known topological specification.
+ *
+ * Copyright (C) 2001 Vivid Solutions
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * For more information, contact:
+ *
+ *     Vivid Solutions
+ *     Suite #1A
+ *     2328 Government Street
+ *     Victoria BC  V8T 5G5
+ *     Canada
+ *
+ *     (250)385-6040
+ *     www.vividsolutions.com
+ */
+package com.vividsolutions.jts.android;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+
+/**
+ * A {@link PointTransformation} that can transform whole
+ * {@link CoordinateSequence}s into a buffer of view coordinates,
+ * without creating objects per vertex.
+ * <p>
+ * The {@link ShapeWriter} uses the bulk transformation for lines
+ * and polygon rings when its transformation implements this interface.
+ *
+ * <p>Added for Android use.</p>
+ */
+public interface BulkPointTransformation extends PointTransformation {
+    /**
+     * Transforms the coordinates of a sequence into view coordinates.
+     * 
+     * @param src the source sequence
+     * @param dest the destination buffer, filled with the x,y pairs 
+     *          of the view coordinates. It has to hold at least 2 * <code>src.size()</code> values.
+     */
+    public void transform( CoordinateSequence src, float[] dest );
+}
@@ -34,12 +34,14 @@ package com.vividsolutions.jts.android;
 
 import android.graphics.Path;
 import android.graphics.PointF;
+import android.graphics.RectF;
 import android.graphics.drawable.shapes.Shape;
 
 import com.vividsolutions.jts.android.geom.DrawableShape;
 import com.vividsolutions.jts.android.geom.PathShape;
 import com.vividsolutions.jts.android.geom.PolygonShape;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.LineString;
@@ -74,6 +76,17 @@ import com.vividsolutions.jts.geom.Polygon;
  * <p>
  * 
  * <p>Modified for Android use.</p>
+ * <p>
+ * Lines and polygon rings are transformed into a reused buffer. If the
+ * transformation is a {@link BulkPointTransformation}, this happens in one
+ * call per coordinate sequence.
+ * <p>
+ * Setting a pixel tolerance (via the {@link #setPixelTolerance(float)} method)
+ * or clip bounds (via the {@link #setClipBounds(RectF)} method) switches lines and 
+ * polygon rings to a <b>screen mode</b>, which works on the transformed coordinates:
+ * vertices closer than the tolerance to the previous one are dropped and 
+ * segments are clipped to the bounds, so that only what is visible is 
+ * added to the paths.
  * 
  */
 public class ShapeWriter {
@@ -95,6 +108,18 @@ public class ShapeWriter {
      */
     private PointF transPoint = new PointF();
 
+    /**
+     * Cache a buffer to transfer the coordinates of lines and rings into shapes
+     */
+    private float[] viewBuffer = new float[256];
+    private float[] clipBuffer = new float[256];
+
+    private float pixelTolerance = 0;
+    private RectF clipBounds = null;
+    private final float[] clippedSegment = new float[4];
+    private float clipT0;
+    private float clipT1;
+
     /**
      * If true, decimation will be used to reduce the number of vertices
      * by removing consecutive duplicates.
@@ -192,6 +217,37 @@ public class ShapeWriter {
         this.decimationDistance = decimationDistance;
     }
 
+    /**
+     * Sets the distance in view units below which consecutive vertices 
+     * of lines and rings are considered duplicates and removed.
+     * <p>
+     * A tolerance &gt; 0 enables the screen mode, in which 
+     * the decimation distance and the duplicate points removal are not used.
+     * <p>
+     * The default is 0.0, which disables the vertex removal.
+     * 
+     * @param pixelTolerance the distance in view units
+     */
+    public void setPixelTolerance( float pixelTolerance ) {
+        this.pixelTolerance = pixelTolerance;
+    }
+
+    /**
+     * Sets the view bounds lines and rings are clipped to.
+     * <p>
+     * Clipped polygons get edges along the bounds, so when they are stroked
+     * the bounds should exceed the visible area by more than the stroke width.
+     * Bounds enable the screen mode, in which the decimation distance and 
+     * the duplicate points removal are not used.
+     * <p>
+     * The default is <code>null</code>, which disables clipping.
+     * 
+     * @param clipBounds the bounds in view coordinates or <code>null</code>
+     */
+    public void setClipBounds( RectF clipBounds ) {
+        this.clipBounds = clipBounds;
+    }
+
     /**
      * Creates a {@link Shape} representing a {@link Geometry}, 
      * according to the specified PointTransformation
@@ -232,21 +288,31 @@ public class ShapeWriter {
     private DrawableShape toShape( Polygon p ) {
         PolygonShape poly = new PolygonShape();
 
-        appendRing(poly, p.getExteriorRing().getCoordinates());
+        appendRing(poly, p.getExteriorRing().getCoordinateSequence());
         for( int j = 0; j < p.getNumInteriorRing(); j++ ) {
-            appendRing(poly, p.getInteriorRingN(j).getCoordinates());
+            appendRing(poly, p.getInteriorRingN(j).getCoordinateSequence());
+        }
+        if (poly.getPath() == null) {
+            // all rings have been clipped away
+            poly.initPath();
         }
 
         return poly;
     }
 
-    private void appendRing( PolygonShape poly, Coordinate[] coords ) {
-        double prevx = Double.NaN;
-        double prevy = Double.NaN;
-        Coordinate prev = null;
+    private void appendRing( PolygonShape poly, CoordinateSequence sequence ) {
+        if (isScreenMode()) {
+            appendScreenRing(poly, sequence);
+            return;
+        }
+        float[] view = transformSequence(sequence);
+        float prevx = Float.NaN;
+        float prevy = Float.NaN;
+        double prevModelX = Double.NaN;
+        double prevModelY = Double.NaN;
 
         Path tmpPath = null;
-        int n = coords.length - 1;
+        int n = sequence.size() - 1;
         /**
          * Don't include closing point.
          * Ring path will be closed explicitly, which provides a 
@@ -255,28 +321,32 @@ public class ShapeWriter {
         for( int i = 0; i < n; i++ ) {
 
             if (decimationDistance > 0.0) {
-                boolean isDecimated = prev != null && Math.abs(coords[i].x - prev.x) < decimationDistance
-                        && Math.abs(coords[i].y - prev.y) < decimationDistance;
-                if (i < n && isDecimated)
+                double x = sequence.getX(i);
+                double y = sequence.getY(i);
+                boolean isDecimated = Math.abs(x - prevModelX) < decimationDistance
+                        && Math.abs(y - prevModelY) < decimationDistance;
+                if (isDecimated)
                     continue;
-                prev = coords[i];
+                prevModelX = x;
+                prevModelY = y;
             }
 
-            transformPoint(coords[i], transPoint);
+            float viewX = view[2 * i];
+            float viewY = view[2 * i + 1];
 
             if (doRemoveDuplicatePoints) {
                 // skip duplicate points (except the last point)
-                boolean isDup = transPoint.x == prevx && transPoint.y == prevy;
-                if (i < n && isDup)
+                boolean isDup = viewX == prevx && viewY == prevy;
+                if (isDup)
                     continue;
-                prevx = transPoint.x;
-                prevy = transPoint.y;
+                prevx = viewX;
+                prevy = viewY;
             }
             if (tmpPath != null) {
-                tmpPath.lineTo(transPoint.x, transPoint.y);
+                tmpPath.lineTo(viewX, viewY);
             } else {
                 tmpPath = new Path();
-                tmpPath.moveTo(transPoint.x, transPoint.y);
+                tmpPath.moveTo(viewX, viewY);
             }
         }
         // handle closing point
@@ -322,45 +392,282 @@ public class ShapeWriter {
     }
 
     private PathShape toShape( LineString lineString ) {
+        if (isScreenMode()) {
+            return toScreenShape(lineString);
+        }
         Path shape = new Path();
 
-        Coordinate prev = lineString.getCoordinateN(0);
-        transformPoint(prev, transPoint);
-        shape.moveTo((float) transPoint.x, (float) transPoint.y);
+        CoordinateSequence sequence = lineString.getCoordinateSequence();
+        float[] view = transformSequence(sequence);
+        shape.moveTo(view[0], view[1]);
 
-        double prevx = (double) transPoint.x;
-        double prevy = (double) transPoint.y;
+        double prevModelX = sequence.getX(0);
+        double prevModelY = sequence.getY(0);
+        float prevx = view[0];
+        float prevy = view[1];
 
-        int n = lineString.getNumPoints() - 1;
+        int n = sequence.size() - 1;
         // int count = 0;
         for( int i = 1; i <= n; i++ ) {
-            Coordinate currentCoord = lineString.getCoordinateN(i);
             if (decimationDistance > 0.0) {
-                boolean isDecimated = prev != null && Math.abs(currentCoord.x - prev.x) < decimationDistance
-                        && Math.abs(currentCoord.y - prev.y) < decimationDistance;
+                double x = sequence.getX(i);
+                double y = sequence.getY(i);
+                boolean isDecimated = Math.abs(x - prevModelX) < decimationDistance
+                        && Math.abs(y - prevModelY) < decimationDistance;
                 if (i < n && isDecimated) {
                     continue;
                 }
-                prev = currentCoord;
+                prevModelX = x;
+                prevModelY = y;
             }
 
-            transformPoint(currentCoord, transPoint);
+            float viewX = view[2 * i];
+            float viewY = view[2 * i + 1];
 
             if (doRemoveDuplicatePoints) {
                 // skip duplicate points (except the last point)
-                boolean isDup = transPoint.x == prevx && transPoint.y == prevy;
+                boolean isDup = viewX == prevx && viewY == prevy;
                 if (i < n && isDup)
                     continue;
-                prevx = transPoint.x;
-                prevy = transPoint.y;
+                prevx = viewX;
+                prevy = viewY;
                 // count++;
             }
-            shape.lineTo((float) transPoint.x, (float) transPoint.y);
+            shape.lineTo(viewX, viewY);
         }
         // System.out.println(count);
         return new PathShape(shape);
     }
 
+    private boolean isScreenMode() {
+        return pixelTolerance > 0 || clipBounds != null;
+    }
+
+    private PathShape toScreenShape( LineString lineString ) {
+        Path shape = new Path();
+        CoordinateSequence sequence = lineString.getCoordinateSequence();
+        float[] view = transformSequence(sequence);
+        int count = reduceVertices(view, sequence.size());
+        if (clipBounds == null) {
+            shape.moveTo(view[0], view[1]);
+            for( int i = 1; i < count; i++ ) {
+                shape.lineTo(view[2 * i], view[2 * i + 1]);
+            }
+            return new PathShape(shape);
+        }
+
+        // the end of the previous visible segment, if it has not been clipped
+        boolean isConnected = false;
+        for( int i = 0; i < count - 1; i++ ) {
+            int clipped = clipSegment(view[2 * i], view[2 * i + 1], view[2 * i + 2], view[2 * i + 3]);
+            if (clipped < 0) {
+                isConnected = false;
+                continue;
+            }
+            if (!isConnected || (clipped & 1) != 0) {
+                shape.moveTo(clippedSegment[0], clippedSegment[1]);
+            }
+            shape.lineTo(clippedSegment[2], clippedSegment[3]);
+            isConnected = (clipped & 2) == 0;
+        }
+        return new PathShape(shape);
+    }
+
+    private void appendScreenRing( PolygonShape poly, CoordinateSequence sequence ) {
+        transformSequence(sequence);
+        // the closing point is not included
+        int count = reduceVertices(viewBuffer, sequence.size() - 1);
+        if (clipBounds != null) {
+            count = clipRing(count);
+        }
+        if (count < 3) {
+            return;
+        }
+        float[] view = viewBuffer;
+        Path tmpPath = new Path();
+        tmpPath.moveTo(view[0], view[1]);
+        for( int i = 1; i < count; i++ ) {
+            tmpPath.lineTo(view[2 * i], view[2 * i + 1]);
+        }
+        tmpPath.close();
+
+        Path mainPath = poly.getPath();
+        if (mainPath == null) {
+            poly.initPath();
+            mainPath = poly.getPath();
+        }
+        mainPath.addPath(tmpPath);
+    }
+
+    /**
+     * Removes in place the vertices closer than the pixel tolerance to the previous kept one.
+     * The first and last vertices are always kept.
+     * 
+     * @return the number of remaining vertices
+     */
+    private int reduceVertices( float[] view, int size ) {
+        if (pixelTolerance <= 0 || size < 3) {
+            return size;
+        }
+        float lastX = view[0];
+        float lastY = view[1];
+        int count = 1;
+        for( int i = 1; i < size - 1; i++ ) {
+            float x = view[2 * i];
+            float y = view[2 * i + 1];
+            if (Math.abs(x - lastX) < pixelTolerance && Math.abs(y - lastY) < pixelTolerance) {
+                continue;
+            }
+            view[2 * count] = x;
+            view[2 * count + 1] = y;
+            lastX = x;
+            lastY = y;
+            count++;
+        }
+        view[2 * count] = view[2 * (size - 1)];
+        view[2 * count + 1] = view[2 * (size - 1) + 1];
+        return count + 1;
+    }
+
+    /**
+     * Clips a segment to the clip bounds (Liang-Barsky) into {@link #clippedSegment}.
+     * 
+     * @return -1 if the segment is outside, else a mask with 1 set if the 
+     *          start and 2 set if the end has been moved
+     */
+    private int clipSegment( float x0, float y0, float x1, float y1 ) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        clipT0 = 0f;
+        clipT1 = 1f;
+        if (!clipTest(-dx, x0 - clipBounds.left) || !clipTest(dx, clipBounds.right - x0)
+                || !clipTest(-dy, y0 - clipBounds.top) || !clipTest(dy, clipBounds.bottom - y0)) {
+            return -1;
+        }
+        int clipped = 0;
+        clippedSegment[0] = x0;
+        clippedSegment[1] = y0;
+        clippedSegment[2] = x1;
+        clippedSegment[3] = y1;
+        if (clipT0 > 0f) {
+            clippedSegment[0] = x0 + clipT0 * dx;
+            clippedSegment[1] = y0 + clipT0 * dy;
+            clipped |= 1;
+        }
+        if (clipT1 < 1f) {
+            clippedSegment[2] = x0 + clipT1 * dx;
+            clippedSegment[3] = y0 + clipT1 * dy;
+            clipped |= 2;
+        }
+        return clipped;
+    }
+
+    private boolean clipTest( float p, float q ) {
+        if (p == 0f) {
+            return q >= 0f;
+        }
+        float r = q / p;
+        if (p < 0f) {
+            if (r > clipT1)
+                return false;
+            if (r > clipT0)
+                clipT0 = r;
+        } else {
+            if (r < clipT0)
+                return false;
+            if (r < clipT1)
+                clipT1 = r;
+        }
+        return true;
+    }
+
+    /**
+     * Clips the ring in the view buffer to the clip bounds (Sutherland-Hodgman).
+     * 
+     * @return the number of vertices of the clipped ring, which is left in the view buffer
+     */
+    private int clipRing( int count ) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for( int i = 0; i < count; i++ ) {
+            minX = Math.min(minX, viewBuffer[2 * i]);
+            maxX = Math.max(maxX, viewBuffer[2 * i]);
+            minY = Math.min(minY, viewBuffer[2 * i + 1]);
+            maxY = Math.max(maxY, viewBuffer[2 * i + 1]);
+        }
+        if (minX >= clipBounds.left && maxX <= clipBounds.right && minY >= clipBounds.top && maxY <= clipBounds.bottom) {
+            // completely inside
+            return count;
+        }
+        if (maxX < clipBounds.left || minX > clipBounds.right || maxY < clipBounds.top || minY > clipBounds.bottom) {
+            // completely outside
+            return 0;
+        }
+        count = clipRingEdge(count, 0, clipBounds.left, false);
+        count = clipRingEdge(count, 0, clipBounds.right, true);
+        count = clipRingEdge(count, 1, clipBounds.top, false);
+        count = clipRingEdge(count, 1, clipBounds.bottom, true);
+        return count;
+    }
+
+    /**
+     * Clips the ring in the view buffer to one edge of the bounds.
+     * 
+     * @param count the vertices of the ring
+     * @param axis 0 for a vertical, 1 for a horizontal edge
+     * @param value the position of the edge
+     * @param isMax if <code>true</code> the inside is below, else above the value
+     * @return the number of vertices of the clipped ring
+     */
+    private int clipRingEdge( int count, int axis, float value, boolean isMax ) {
+        if (count == 0) {
+            return 0;
+        }
+        // every vertex can add at most one intersection
+        if (clipBuffer.length < 4 * count) {
+            clipBuffer = new float[Math.max(4 * count, 2 * clipBuffer.length)];
+        }
+        float[] in = viewBuffer;
+        float[] out = clipBuffer;
+        int outCount = 0;
+        float prevX = in[2 * (count - 1)];
+        float prevY = in[2 * (count - 1) + 1];
+        float prev = axis == 0 ? prevX : prevY;
+        boolean prevInside = isMax ? prev <= value : prev >= value;
+        for( int i = 0; i < count; i++ ) {
+            float x = in[2 * i];
+            float y = in[2 * i + 1];
+            float current = axis == 0 ? x : y;
+            boolean inside = isMax ? current <= value : current >= value;
+            if (inside != prevInside) {
+                float t = (value - prev) / (current - prev);
+                if (axis == 0) {
+                    out[2 * outCount] = value;
+                    out[2 * outCount + 1] = prevY + t * (y - prevY);
+                } else {
+                    out[2 * outCount] = prevX + t * (x - prevX);
+                    out[2 * outCount + 1] = value;
+                }
+                outCount++;
+            }
+            if (inside) {
+                out[2 * outCount] = x;
+                out[2 * outCount + 1] = y;
+                outCount++;
+            }
+            prevX = x;
+            prevY = y;
+            prev = current;
+            prevInside = inside;
+        }
+        // swap the buffers, the result becomes the view buffer
+        clipBuffer = in;
+        viewBuffer = out;
+        return outCount;
+    }
+
     private DrawableShape toShape( Point point ) {
         PointF viewPoint = transformPoint(point.getCoordinate());
         return pointFactory.createPoint(viewPoint);
@@ -378,6 +685,29 @@ public class ShapeWriter {
         return shapes;
     }
 
+    /**
+     * Transforms a coordinate sequence into the view buffer.
+     * 
+     * @param sequence the sequence to transform
+     * @return the buffer holding the x,y pairs of the view coordinates
+     */
+    private float[] transformSequence( CoordinateSequence sequence ) {
+        int size = sequence.size();
+        if (viewBuffer.length < 2 * size) {
+            viewBuffer = new float[Math.max(2 * size, 2 * viewBuffer.length)];
+        }
+        if (pointTransformer instanceof BulkPointTransformation) {
+            ((BulkPointTransformation) pointTransformer).transform(sequence, viewBuffer);
+        } else {
+            for( int i = 0, j = 0; i < size; i++, j += 2 ) {
+                transformPoint(sequence.getCoordinate(i), transPoint);
+                viewBuffer[j] = transPoint.x;
+                viewBuffer[j + 1] = transPoint.y;
+            }
+        }
+        return viewBuffer;
+    }
+
     private PointF transformPoint( Coordinate model ) {
         return transformPoint(model, new PointF());
     }
@@ -26,17 +26,27 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.Utilities;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Vectors;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.MbtilesDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryTileCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialDatabasesCatalog;
 import eu.geopaparazzi.spatialite.database.spatial.util.comparators.OrderComparator;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialDataType;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.VectorLayerQueryModes;
 import jsqlite.Exception;
 
 /**
@@ -48,6 +58,7 @@ import jsqlite.Exception;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class SpatialDatabasesManager {
+    private static final int MAX_INIT_THREADS = 4;
 
     private List<AbstractSpatialDatabaseHandler> spatialDbHandlers = new ArrayList<AbstractSpatialDatabaseHandler>();
     private HashMap<SpatialVectorTable, AbstractSpatialDatabaseHandler> vectorTablesMap = new HashMap<SpatialVectorTable, AbstractSpatialDatabaseHandler>();
@@ -74,75 +85,119 @@ public class SpatialDatabasesManager {
      */
     public static void reset() {
         spatialDbManager = null;
+        GeometryTileCache.getInstance().clear();
     }
 
     /**
      * Initialie the manager on a given maps folder.
      *
+     * <p>The folder is walked recursively and the databases found are opened
+     * in parallel. The metadata of the databases are kept in a {@link SpatialDatabasesCatalog},
+     * so that databases that did not change since the last start are not queried again.</p>
+     *
      * @param context  the context to use.
      * @param mapsDir the maps folder.
      * @return <code>true</code>, when recursing a nomedia folder has been hit.
      */
     public boolean init( Context context, File mapsDir ) {
-        List<AbstractSpatialDatabaseHandler> tmpSpatialdbHandlers = new ArrayList<AbstractSpatialDatabaseHandler>();
-        boolean b_nomedia_file = false;
-        File[] filesInFolder = mapsDir.listFiles();
+        List<File> databaseFiles = new ArrayList<File>();
+        boolean b_nomedia_file = collectDatabaseFiles(mapsDir, mapsDir, databaseFiles);
+
+        SpatialDatabasesCatalog catalog = null;
+        try {
+            File supportDir = ResourcesManager.getInstance(context).getApplicationSupporterDir();
+            catalog = new SpatialDatabasesCatalog(new File(supportDir, SpatialDatabasesCatalog.CATALOG_FILENAME));
+            catalog.load();
+        } catch (java.lang.Exception e) {
+            GPLog.error(this, "Error [SpatialDatabasesManager.init] catalog not available", e); //$NON-NLS-1$
+        }
+        // the recovery mode has to query the databases again
+        boolean useCatalog = catalog != null && SPL_Vectors.VECTORLAYER_QUERYMODE == VectorLayerQueryModes.STRICT;
+
+        int threads = Math.max(1, Math.min(MAX_INIT_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<AbstractSpatialDatabaseHandler>> futures = new ArrayList<Future<AbstractSpatialDatabaseHandler>>();
+            for( File databaseFile : databaseFiles ) {
+                SpatialDatabasesCatalog.Entry catalogEntry = useCatalog ? catalog.get(databaseFile) : null;
+                if (catalogEntry != null && catalogEntry.getDatabaseType() == SpatialiteDatabaseType.UNKNOWN) {
+                    // nothing to load in there
+                    continue;
+                }
+                futures.add(executor.submit(new HandlerCreation(databaseFile, catalogEntry, catalog)));
+            }
+            // keep the order of the folder walk
+            for( Future<AbstractSpatialDatabaseHandler> future : futures ) {
+                try {
+                    AbstractSpatialDatabaseHandler sdb = future.get();
+                    if (sdb != null) {
+                        spatialDbHandlers.add(sdb);
+                    }
+                } catch (ExecutionException e) {
+                    GPLog.error(this, "Error [SpatialDatabasesManager.init]", e.getCause()); //$NON-NLS-1$
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            GPLog.error(this, "Error [SpatialDatabasesManager.init] interrupted", e); //$NON-NLS-1$
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (catalog != null) {
+            catalog.retain(databaseFiles);
+            catalog.save();
+        }
+        return b_nomedia_file;
+    }
+
+    /**
+     * Collect the spatialite based databases of a folder and its subfolders.
+     *
+     * @param mapsDir the maps root folder.
+     * @param folder the folder to collect.
+     * @param databaseFiles the list to add the database files to.
+     * @return <code>true</code>, when the folder has a nomedia file and has been ignored.
+     */
+    private boolean collectDatabaseFiles( File mapsDir, File folder, List<File> databaseFiles ) {
+        File[] filesInFolder = folder.listFiles();
+        if (filesInFolder == null) {
+            return false;
+        }
+        List<File> tmpDatabaseFiles = new ArrayList<File>();
         for( File currentFile : filesInFolder ) {
             // nomedia logic: first check the files, if no
             // '.nomedia' found: then its directories
             if (currentFile.isFile()) {
+                String name = currentFile.getName();
+                if (Utilities.isNameFromHiddenFile(name)) {
+                    continue;
+                }
+                if (name.equals(ResourcesManager.NO_MEDIA)) {
+                    if (!folder.toURI().equals(mapsDir.toURI())) {
+                        // ignore all files of this directory if not map root
+                        return true;
+                    }
+                }
                 // mj10777: collect spatialite.geometries and .mbtiles
                 // databases
                 for( SpatialDataType spatialiteType : SpatialDataType.values() ) {
-                    if (!spatialiteType.isSpatialiteBased()) {
-                        continue;
-                    }
-                    String extension = spatialiteType.getExtension();
-                    String name = currentFile.getName();
-                    if (Utilities.isNameFromHiddenFile(name)) {
-                        continue;
-                    }
-                    if (name.endsWith(extension)) {
-                        try {
-                            AbstractSpatialDatabaseHandler sdb = null;
-                            if (name.endsWith(SpatialDataType.MBTILES.getExtension())) {
-                                sdb = new MbtilesDatabaseHandler(currentFile.getAbsolutePath(), null);
-                            } else {
-                                sdb = new SpatialiteDatabaseHandler(currentFile.getAbsolutePath());
-                            }
-                            if (sdb.isValid()) {
-                                // GPLog.androidLog(-1,"SpatialDatabasesManager["+extension+"]: init["+currentFile.getAbsolutePath()+"] ");
-                                tmpSpatialdbHandlers.add(sdb);
-                            }
-                        } catch (IOException e) {
-                            GPLog.error(this, "Error [SpatialDatabasesManager.init]", e); //$NON-NLS-1$
-                        }
-                    }
-                    if (name.equals(ResourcesManager.NO_MEDIA)) {
-                        if (!currentFile.getParentFile().toURI().equals(mapsDir.toURI())) {
-                            // ignore all files of this directory if not map root
-                            b_nomedia_file = true;
-                            tmpSpatialdbHandlers.clear();
-                            return b_nomedia_file;
-                        }
+                    if (spatialiteType.isSpatialiteBased() && name.endsWith(spatialiteType.getExtension())) {
+                        tmpDatabaseFiles.add(currentFile);
+                        break;
                     }
                 }
             }
         }
-        if (!b_nomedia_file) {
-            for( int i = 0; i < tmpSpatialdbHandlers.size(); i++ ) {
-                spatialDbHandlers.add(tmpSpatialdbHandlers.get(i));
-            }
-        }
-        tmpSpatialdbHandlers.clear();
-        for( File this_file : filesInFolder ) {
-            if (this_file.isDirectory()) {
+        databaseFiles.addAll(tmpDatabaseFiles);
+        for( File currentFile : filesInFolder ) {
+            if (currentFile.isDirectory()) {
                 // mj10777: read recursive directories inside the
                 // sdcard/maps directory
-                init(context, this_file);
+                collectDatabaseFiles(mapsDir, currentFile, databaseFiles);
             }
         }
-        return b_nomedia_file;
+        return false;
     }
 
     /**
@@ -352,4 +407,43 @@ public class SpatialDatabasesManager {
         }
     }
 
+    /**
+     * Opens a database on a worker thread of the init.
+     */
+    private class HandlerCreation implements Callable<AbstractSpatialDatabaseHandler> {
+        private final File databaseFile;
+        private final SpatialDatabasesCatalog.Entry catalogEntry;
+        private final SpatialDatabasesCatalog catalog;
+
+        HandlerCreation( File databaseFile, SpatialDatabasesCatalog.Entry catalogEntry, SpatialDatabasesCatalog catalog ) {
+            this.databaseFile = databaseFile;
+            this.catalogEntry = catalogEntry;
+            this.catalog = catalog;
+        }
+
+        public AbstractSpatialDatabaseHandler call() {
+            try {
+                String path = databaseFile.getAbsolutePath();
+                AbstractSpatialDatabaseHandler sdb = null;
+                if (path.endsWith(SpatialDataType.MBTILES.getExtension())) {
+                    sdb = new MbtilesDatabaseHandler(path, null);
+                } else {
+                    SpatialiteDatabaseHandler spatialiteHandler = new SpatialiteDatabaseHandler(path, catalogEntry);
+                    if (catalog != null) {
+                        SpatialDatabasesCatalog.Entry newCatalogEntry = spatialiteHandler.getCatalogEntry();
+                        if (newCatalogEntry != null)
+                            catalog.put(databaseFile, newCatalogEntry);
+                    }
+                    sdb = spatialiteHandler;
+                }
+                if (sdb.isValid()) {
+                    return sdb;
+                }
+            } catch (IOException e) {
+                GPLog.error(this, "Error [SpatialDatabasesManager.init]", e); //$NON-NLS-1$
+            }
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jsqlite.Database;
+import jsqlite.ProgressHandler;
+
+/**
+ * A token to abort the queries of a request once it is no longer needed.
+ *
+ * <p>Readers acquired through {@link SpatialiteConnectionPool#acquireReader(CancellationToken)}
+ * check the token from the progress handler of sqlite while a statement runs, so that also a
+ * single long <code>step()</code> is abandoned. {@link #cancel()} additionally interrupts
+ * the statements that are running on behalf of the token.</p>
+ *
+ * <p>Conditions that are polled, as the one of a renderer whose tile went out
+ * of view, can be used by overriding {@link #isCanceled()}.</p>
+ *
+ * <p>A step on a canceled token fails with an {@link jsqlite.Exception}, which
+ * users check against {@link #isCanceled()} before reporting it as an error.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class CancellationToken {
+    private volatile boolean canceled = false;
+    private final List<Database> runningDatabases = new ArrayList<Database>(2);
+
+    /**
+     * Cancel the request and interrupt its running queries.
+     */
+    public void cancel() {
+        synchronized (runningDatabases) {
+            canceled = true;
+            for( Database database : runningDatabases ) {
+                database.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code>, if the queries of the request should be abandoned.
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Register a connection used on behalf of the token and make it check the token.
+     *
+     * @param database the connection, owned by the calling thread.
+     * @param opcodes the number of sqlite virtual machine instructions between checks.
+     */
+    void attach( Database database, int opcodes ) {
+        database.progress_handler(opcodes, new ProgressHandler(){
+            public boolean progress() {
+                return !isCanceled();
+            }
+        });
+        synchronized (runningDatabases) {
+            runningDatabases.add(database);
+        }
+    }
+
+    /**
+     * Unregister a connection, before it is used for something else.
+     *
+     * @param database the connection.
+     */
+    void detach( Database database ) {
+        synchronized (runningDatabases) {
+            runningDatabases.remove(database);
+        }
+        database.progress_handler(0, null);
+    }
+}
@@ -18,7 +18,9 @@
 package eu.geopaparazzi.spatialite.database.spatial.core.daos;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,12 +29,15 @@ import java.util.Locale;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.features.Feature;
 import eu.geopaparazzi.library.util.DataType;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryTileCache;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+import jsqlite.Constants;
 import jsqlite.Database;
 import jsqlite.Exception;
 import jsqlite.Stmt;
@@ -124,6 +129,21 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
     }
 
 
+    /**
+     * Notifies caches and renderers that the data of a table have been modified.
+     *
+     * @param uniqueTableName the unique name of the modified table.
+     * @throws Exception if something goes wrong.
+     */
+    private static void notifyDataChanged(String uniqueTableName) throws Exception {
+        SpatialVectorTable spatialTable = getSpatialVectorTableFromUniqueTableName(uniqueTableName);
+        if (spatialTable != null) {
+            // first, so that tiles being loaded meanwhile are not cached
+            spatialTable.incrementDataVersion();
+        }
+        GeometryTileCache.getInstance().invalidate(uniqueTableName);
+    }
+
     /**
      * Attemt to retrieve row-count and bounds for this geometry field.
      *
@@ -220,31 +240,50 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
      * <b>The features need to be from the same table</b>
      *
      * @param features the features list.
-     * @throws Exception if something goes wrong.
+     * @throws Exception if something goes wrong, in which case no feature is deleted.
      */
     public static void deleteFeatures(List<Feature> features) throws Exception {
         Feature firstFeature = features.get(0);
 
         String uniqueTableName = firstFeature.getUniqueTableName();
         Database database = getDatabaseFromUniqueTableName(uniqueTableName);
-        String tableName = firstFeature.getTableName();
+        SpatialVectorTable spatialVectorTable = getSpatialVectorTableFromUniqueTableName(uniqueTableName);
+        deleteFeatures(database, spatialVectorTable, features);
+        notifyDataChanged(uniqueTableName);
+    }
+
+    private static void deleteFeatures(Database database, SpatialVectorTable spatialVectorTable, List<Feature> features)
+            throws Exception {
+        String tableName = spatialVectorTable.getTableName();
 
         StringBuilder sbIn = new StringBuilder();
         sbIn.append("delete from ").append(tableName);
         sbIn.append(" where ");
 
         StringBuilder sb = new StringBuilder();
+        StringBuilder idsSb = new StringBuilder();
         for (Feature feature : features) {
             sb.append(" OR ");
             sb.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append("=");
             sb.append(feature.getId());
+            idsSb.append(",").append(feature.getId());
         }
         String valuesPart = sb.substring(4);
 
         sbIn.append(valuesPart);
 
         String updateQuery = sbIn.toString();
-        database.exec(updateQuery, null);
+        // the generalized levels must not keep deleted features
+        database.exec("BEGIN;", null);
+        try {
+            database.exec(updateQuery, null);
+            SpatialiteIndexing.updateGeometryPyramids(database, tableName, spatialVectorTable.getGeomName(),
+                    spatialVectorTable.getSrid(), idsSb.substring(1));
+            database.exec("COMMIT;", null);
+        } catch (Exception e) {
+            database.exec("ROLLBACK;", null);
+            throw e;
+        }
     }
 
     /**
@@ -259,16 +298,30 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
      */
     public static void addNewFeatureByGeometry(Geometry geometry, String geometrySrid, SpatialVectorTable spatialVectorTable)
             throws Exception {
+        addNewFeaturesByGeometry(Collections.singletonList(geometry), geometrySrid, spatialVectorTable);
+    }
+
+    /**
+     * Add new spatial records by adding geometries.
+     * <p/>
+     * <p>The other attributes will not be populated. The geometries are bound as WKB
+     * to a single prepared insert and all records are committed in one transaction.
+     *
+     * @param geometries         the geometries that will create the new records.
+     * @param geometrySrid       the srid of the geometries without the EPSG prefix.
+     * @param spatialVectorTable the table into which to insert the records.
+     * @throws Exception if something goes wrong, in which case no record is added.
+     */
+    public static void addNewFeaturesByGeometry(List<Geometry> geometries, String geometrySrid,
+                                                SpatialVectorTable spatialVectorTable) throws Exception {
+        if (geometries.size() == 0) {
+            return;
+        }
         String uniqueTableName = spatialVectorTable.getUniqueNameBasedOnDbFilePath();
         Database database = getDatabaseFromUniqueTableName(uniqueTableName);
         String tableName = spatialVectorTable.getTableName();
         String geometryFieldName = spatialVectorTable.getGeomName();
         String srid = spatialVectorTable.getSrid();
-        int geomType = spatialVectorTable.getGeomType();
-        GeometryType geometryType = GeometryType.forValue(geomType);
-        String geometryTypeCast = geometryType.getGeometryTypeCast();
-        String spaceDimensionsCast = geometryType.getSpaceDimensionsCast();
-        String multiSingleCast = geometryType.getMultiSingleCast();
 
         // get list of non geom fields and default values
         String nonGeomFieldsNames = "";
@@ -284,11 +337,6 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
             }
         }
 
-        boolean doTransform = true;
-        if (srid.equals(geometrySrid)) {
-            doTransform = false;
-        }
-
         StringBuilder sbIn = new StringBuilder();
         sbIn.append("insert into ").append(tableName);
         sbIn.append(" (");
@@ -298,37 +346,37 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
             sbIn.append(nonGeomFieldsNames);
         }
         sbIn.append(") values (");
-        if (doTransform)
-            sbIn.append("ST_Transform(");
-        if (multiSingleCast != null)
-            sbIn.append(multiSingleCast).append("(");
-        if (spaceDimensionsCast != null)
-            sbIn.append(spaceDimensionsCast).append("(");
-        if (geometryTypeCast != null)
-            sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
-        sbIn.append(geometrySrid);
-        sbIn.append(")");
-        if (geometryTypeCast != null)
-            sbIn.append(")");
-        if (spaceDimensionsCast != null)
-            sbIn.append(")");
-        if (multiSingleCast != null)
-            sbIn.append(")");
-        if (doTransform) {
-            sbIn.append(",");
-            sbIn.append(srid);
-            sbIn.append(")");
-        }
+        sbIn.append(buildGeometryFromWkb(spatialVectorTable, geometrySrid, 1));
         // add field default values
         if (nonGeomFieldsNames.length() > 0) {
             sbIn.append(nonGeomFieldsValues);
         }
         sbIn.append(")");
         String insertQuery = sbIn.toString();
-        database.exec(insertQuery, null);
+
+        WKBWriter wkbWriter = new WKBWriter();
+        StringBuilder idsSb = new StringBuilder();
+        database.exec("BEGIN;", null);
+        try {
+            Stmt statement = database.prepare(insertQuery);
+            try {
+                for (Geometry geometry : geometries) {
+                    statement.bind(1, wkbWriter.write(geometry));
+                    statement.step();
+                    statement.reset();
+                    idsSb.append(",").append(database.last_insert_rowid());
+                }
+            } finally {
+                statement.close();
+            }
+            SpatialiteIndexing.updateGeometryPyramids(database, tableName, geometryFieldName, srid, idsSb.substring(1));
+            expandTableBounds(database, spatialVectorTable, idsSb.substring(1));
+            database.exec("COMMIT;", null);
+        } catch (Exception e) {
+            database.exec("ROLLBACK;", null);
+            throw e;
+        }
+        notifyDataChanged(uniqueTableName);
     }
 
     /**
@@ -374,6 +422,8 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.exec(updateQuery, null);
+        // cached tiles carry the label texts
+        notifyDataChanged(feature.getUniqueTableName());
     }
 
     /**
@@ -383,13 +433,176 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
      */
     public static void updateFeatureGeometry(String id, Geometry geometry, String geometrySrid, SpatialVectorTable spatialVectorTable)
             throws Exception {
+        updateFeaturesGeometry(Collections.singletonList(id), Collections.singletonList(geometry), geometrySrid,
+                spatialVectorTable, null);
+    }
+
+    /**
+     * Updates the geometries of features and deletes features of the same table in one transaction.
+     * <p/>
+     * <p>The geometries are bound as WKB to a single prepared update. This allows
+     * to commit the result of edits like cut or extend, that change a feature and
+     * remove the one it has been combined with, in one go.
+     *
+     * @param ids                the ids of the features to update, as defined by field
+     *                           {@link eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities#SPATIALTABLE_ID_FIELD}
+     * @param geometries         the new geometries, in the same order of the ids.
+     * @param geometrySrid       the srid of the geometries without the EPSG prefix.
+     * @param spatialVectorTable the table of the features.
+     * @param featuresToDelete   the features to delete or <code>null</code>.
+     * @throws Exception if something goes wrong, in which case nothing is changed.
+     */
+    public static void updateFeaturesGeometry(List<String> ids, List<Geometry> geometries, String geometrySrid,
+                                              SpatialVectorTable spatialVectorTable, List<Feature> featuresToDelete) throws Exception {
         String uniqueTableName = spatialVectorTable.getUniqueNameBasedOnDbFilePath();
         Database database = getDatabaseFromUniqueTableName(uniqueTableName);
         String tableName = spatialVectorTable.getTableName();
         String geometryFieldName = spatialVectorTable.getGeomName();
         String srid = spatialVectorTable.getSrid();
-        int geomType = spatialVectorTable.getGeomType();
-        GeometryType geometryType = GeometryType.forValue(geomType);
+
+        StringBuilder sbIn = new StringBuilder();
+        sbIn.append("update ").append(tableName);
+        sbIn.append(" set ");
+        sbIn.append(geometryFieldName);
+        sbIn.append(" = ");
+        sbIn.append(buildGeometryFromWkb(spatialVectorTable, geometrySrid, 1));
+        sbIn.append(" where ");
+        sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append("=?2");
+        String updateQuery = sbIn.toString();
+
+        WKBWriter wkbWriter = new WKBWriter();
+        StringBuilder idsSb = new StringBuilder();
+        database.exec("BEGIN;", null);
+        try {
+            Stmt statement = database.prepare(updateQuery);
+            try {
+                for (int i = 0; i < ids.size(); i++) {
+                    String id = ids.get(i);
+                    statement.bind(1, wkbWriter.write(geometries.get(i)));
+                    statement.bind(2, Long.parseLong(id));
+                    statement.step();
+                    statement.reset();
+                    idsSb.append(",").append(id);
+                }
+            } finally {
+                statement.close();
+            }
+            if (idsSb.length() > 0) {
+                SpatialiteIndexing.updateGeometryPyramids(database, tableName, geometryFieldName, srid, idsSb.substring(1));
+                expandTableBounds(database, spatialVectorTable, idsSb.substring(1));
+            }
+            if (featuresToDelete != null && featuresToDelete.size() > 0) {
+                deleteFeatures(database, spatialVectorTable, featuresToDelete);
+            }
+            database.exec("COMMIT;", null);
+        } catch (Exception e) {
+            database.exec("ROLLBACK;", null);
+            throw e;
+        }
+        notifyDataChanged(uniqueTableName);
+    }
+
+    /**
+     * Grows the bounds of a table to include the geometries of some of its records.
+     * <p/>
+     * <p>The bounds are updated in memory, in wgs84, and in the layer statistics of the
+     * database, in the srid of the table, which avoids a complete UpdateLayerStatistics
+     * and keeps them right also for the next start. Statistics without an extent are left alone.
+     *
+     * @param database           the database.
+     * @param spatialVectorTable the table.
+     * @param ids                the comma separated ids of the records.
+     * @throws Exception if something goes wrong.
+     */
+    private static void expandTableBounds(Database database, SpatialVectorTable spatialVectorTable, String ids)
+            throws Exception {
+        String tableName = spatialVectorTable.getTableName();
+        String geometryFieldName = spatialVectorTable.getGeomName();
+        String wgs84Geometry = geometryFieldName;
+        if (!spatialVectorTable.getSrid().equals(LibraryConstants.SRID_WGS84_4326)) {
+            wgs84Geometry = "ST_Transform(" + geometryFieldName + "," + LibraryConstants.SRID_WGS84_4326 + ")";
+        }
+
+        StringBuilder sbIn = new StringBuilder();
+        sbIn.append("SELECT Min(MbrMinX(g)),Min(MbrMinY(g)),Max(MbrMaxX(g)),Max(MbrMaxY(g))");
+        sbIn.append(",Min(MbrMinX(t)),Min(MbrMinY(t)),Max(MbrMaxX(t)),Max(MbrMaxY(t)) FROM (SELECT ");
+        sbIn.append(geometryFieldName).append(" AS g,");
+        sbIn.append(wgs84Geometry).append(" AS t FROM ");
+        sbIn.append(tableName);
+        sbIn.append(" WHERE ");
+        sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append(" IN (").append(ids).append("))");
+
+        double[] tableBounds = new double[4];
+        double[] wgs84Bounds = new double[4];
+        Stmt statement = database.prepare(sbIn.toString());
+        try {
+            if (!statement.step() || statement.column_type(0) == Constants.SQLITE_NULL) {
+                // only null geometries
+                return;
+            }
+            for (int i = 0; i < 4; i++) {
+                tableBounds[i] = statement.column_double(i);
+                wgs84Bounds[i] = statement.column_double(i + 4);
+            }
+        } finally {
+            statement.close();
+        }
+
+        // statistics table, table field, geometry field, filter
+        String[][] statisticsTables = {
+                // spatialite 4
+                {"geometry_columns_statistics", "f_table_name", "f_geometry_column", ""},
+                // spatialite 3
+                {"layer_statistics", "table_name", "geometry_column", "raster_layer=0 AND "}};
+        for (String[] statistics : statisticsTables) {
+            if (!tableExists(database, statistics[0])) {
+                continue;
+            }
+            StringBuilder sbUpdate = new StringBuilder();
+            sbUpdate.append("UPDATE ").append(statistics[0]);
+            sbUpdate.append(" SET extent_min_x=Min(extent_min_x,?1),extent_min_y=Min(extent_min_y,?2)");
+            sbUpdate.append(",extent_max_x=Max(extent_max_x,?3),extent_max_y=Max(extent_max_y,?4) WHERE ");
+            sbUpdate.append(statistics[3]);
+            sbUpdate.append("Lower(").append(statistics[1]).append(")=Lower(?5) AND ");
+            sbUpdate.append("Lower(").append(statistics[2]).append(")=Lower(?6) AND extent_min_x IS NOT NULL");
+            Stmt updateStatement = database.prepare(sbUpdate.toString());
+            try {
+                for (int i = 0; i < 4; i++) {
+                    updateStatement.bind(i + 1, tableBounds[i]);
+                }
+                updateStatement.bind(5, tableName);
+                updateStatement.bind(6, geometryFieldName);
+                updateStatement.step();
+            } finally {
+                updateStatement.close();
+            }
+        }
+        spatialVectorTable.expandTableBounds(wgs84Bounds);
+    }
+
+    private static boolean tableExists(Database database, String tableName) throws Exception {
+        Stmt statement = database.prepare("SELECT name FROM sqlite_master WHERE type='table' AND Lower(name)=Lower(?1)");
+        try {
+            statement.bind(1, tableName);
+            return statement.step();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Build the sql expression that reads a WKB geometry parameter into the geometry field of a table.
+     *
+     * <p>The geometry is cast to the type of the table and transformed to its srid.</p>
+     *
+     * @param spatialVectorTable the table.
+     * @param geometrySrid       the srid of the geometry without the EPSG prefix.
+     * @param parameterIndex     the index of the WKB parameter.
+     * @return the expression.
+     */
+    private static String buildGeometryFromWkb(SpatialVectorTable spatialVectorTable, String geometrySrid, int parameterIndex) {
+        String srid = spatialVectorTable.getSrid();
+        GeometryType geometryType = GeometryType.forValue(spatialVectorTable.getGeomType());
         String geometryTypeCast = geometryType.getGeometryTypeCast();
         String spaceDimensionsCast = geometryType.getSpaceDimensionsCast();
         String multiSingleCast = geometryType.getMultiSingleCast();
@@ -400,10 +613,6 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         }
 
         StringBuilder sbIn = new StringBuilder();
-        sbIn.append("update ").append(tableName);
-        sbIn.append(" set ");
-        sbIn.append(geometryFieldName);
-        sbIn.append(" = ");
         if (doTransform)
             sbIn.append("ST_Transform(");
         if (multiSingleCast != null)
@@ -412,9 +621,9 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
             sbIn.append(spaceDimensionsCast).append("(");
         if (geometryTypeCast != null)
             sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
+        sbIn.append("GeomFromWKB(?");
+        sbIn.append(parameterIndex);
+        sbIn.append(" , ");
         sbIn.append(geometrySrid);
         sbIn.append(")");
         if (geometryTypeCast != null)
@@ -428,12 +637,7 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
             sbIn.append(srid);
             sbIn.append(")");
         }
-        sbIn.append("");
-        sbIn.append(" where ");
-        sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append("=");
-        sbIn.append(id);
-        String insertQuery = sbIn.toString();
-        database.exec(insertQuery, null);
+        return sbIn.toString();
     }
 
     /**
@@ -282,7 +282,7 @@ public class DatabaseCreationAndProperties implements ISpatialiteTableAndFieldsN
      * @param name     a name for the log.
      * @return info of supported versions in JavaSqlite.
      */
-    public static String getJavaSqliteDescription(Database database, String name) {
+    public static synchronized String getJavaSqliteDescription(Database database, String name) {
         if (JavaSqliteDescription.equals("")) {
             int majorVersion = 0;
             try {
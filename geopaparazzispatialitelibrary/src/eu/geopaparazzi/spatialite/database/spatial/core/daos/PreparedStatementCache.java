@@ -0,0 +1,209 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.library.database.GPLog;
+import jsqlite.Database;
+import jsqlite.Exception;
+import jsqlite.Stmt;
+
+/**
+ * A cache of prepared statements of a database.
+ *
+ * <p>Statements are kept by their sql, which is parameterized for the
+ * values that change between calls, as the bounds of the bbox queries. Since 
+ * they are built from the table, the srid and the kind of query, this is the same
+ * as keying them by these. A statement is taken out of the cache while used, so
+ * that concurrent users of the same query get their own statement, and is
+ * reset and put back when released.</p>
+ *
+ * <p>The least recently used statements are closed once more than the maximum 
+ * number of idle statements are kept.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class PreparedStatementCache {
+    /**
+     * The parameters of the bounds of the bbox queries, in the order w, s, e, n.
+     */
+    public static final String[] BOUNDS_PARAMETERS = {"?1", "?2", "?3", "?4"};
+    /**
+     * The first free parameter after the bounds.
+     */
+    public static final int FIRST_EXTRA_PARAMETER = BOUNDS_PARAMETERS.length + 1;
+
+    private final Database database;
+    private final int maxIdleStatements;
+    private final LinkedHashMap<String, List<Stmt>> idleStatements = new LinkedHashMap<String, List<Stmt>>(16, 0.75f, true);
+    private int idleCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param database the database to prepare the statements on.
+     * @param maxIdleStatements the maximum number of statements kept while not in use.
+     */
+    public PreparedStatementCache( Database database, int maxIdleStatements ) {
+        this.database = database;
+        this.maxIdleStatements = maxIdleStatements;
+    }
+
+    /**
+     * @return the database the statements are prepared on.
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Get a prepared statement for a query.
+     *
+     * <p>The statement has to be given back through {@link #release(String, Stmt)}.</p>
+     *
+     * @param sql the parameterized query.
+     * @return the statement, with no parameter bound.
+     * @throws Exception if the query can't be prepared.
+     */
+    public Stmt acquire( String sql ) throws Exception {
+        synchronized (this) {
+            List<Stmt> statements = idleStatements.get(sql);
+            if (statements != null && statements.size() > 0) {
+                idleCount--;
+                Stmt stmt = statements.remove(statements.size() - 1);
+                if (statements.size() == 0) {
+                    idleStatements.remove(sql);
+                }
+                return stmt;
+            }
+        }
+        return database.prepare(sql);
+    }
+
+    /**
+     * Get a prepared statement for a bbox query and bind the bounds.
+     *
+     * @param sql the query, with the bounds as {@link #BOUNDS_PARAMETERS}.
+     * @param n north bound.
+     * @param s south bound.
+     * @param e east bound.
+     * @param w west bound.
+     * @return the statement.
+     * @throws Exception if the query can't be prepared.
+     */
+    public Stmt acquire( String sql, double n, double s, double e, double w ) throws Exception {
+        Stmt stmt = acquire(sql);
+        try {
+            stmt.bind(1, w);
+            stmt.bind(2, s);
+            stmt.bind(3, e);
+            stmt.bind(4, n);
+        } catch (Exception ex) {
+            stmt.close();
+            throw ex;
+        }
+        return stmt;
+    }
+
+    /**
+     * Give back a statement got through {@link #acquire(String)}.
+     *
+     * @param sql the query the statement has been acquired for.
+     * @param stmt the statement.
+     */
+    public void release( String sql, Stmt stmt ) {
+        List<Stmt> toClose = new ArrayList<Stmt>();
+        try {
+            stmt.reset();
+            stmt.clear_bindings();
+        } catch (Exception e) {
+            GPLog.error(this, "PreparedStatementCache.release [reset failed] sql[" + sql + "]", e);
+            toClose.add(stmt);
+            stmt = null;
+        }
+        if (stmt != null) {
+            synchronized (this) {
+                if (closed) {
+                    toClose.add(stmt);
+                } else {
+                    List<Stmt> statements = idleStatements.get(sql);
+                    if (statements == null) {
+                        statements = new ArrayList<Stmt>(2);
+                        idleStatements.put(sql, statements);
+                    }
+                    statements.add(stmt);
+                    idleCount++;
+                    Iterator<Map.Entry<String, List<Stmt>>> iterator = idleStatements.entrySet().iterator();
+                    while( idleCount > maxIdleStatements && iterator.hasNext() ) {
+                        List<Stmt> eldest = iterator.next().getValue();
+                        idleCount -= eldest.size();
+                        toClose.addAll(eldest);
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close all the idle statements.
+     *
+     * <p>Needs to be called when the schema of the database changes 
+     * and before the database is closed. After {@link #close()} statements 
+     * released by their users are closed instead of cached.</p>
+     */
+    public void clear() {
+        List<Stmt> toClose = new ArrayList<Stmt>();
+        synchronized (this) {
+            for( List<Stmt> statements : idleStatements.values() ) {
+                toClose.addAll(statements);
+            }
+            idleStatements.clear();
+            idleCount = 0;
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close all the idle statements and stop caching.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        clear();
+    }
+
+    private void closeAll( List<Stmt> statements ) {
+        for( Stmt stmt : statements ) {
+            try {
+                stmt.close();
+            } catch (Exception e) {
+                GPLog.error(this, "PreparedStatementCache.close [failed]", e);
+            }
+        }
+    }
+}
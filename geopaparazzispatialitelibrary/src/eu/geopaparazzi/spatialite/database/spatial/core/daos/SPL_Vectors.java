@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryQueryModes;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.VectorLayerQueryModes;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
 import jsqlite.Database;
@@ -38,6 +39,10 @@ import static eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialit
  */
 public class SPL_Vectors implements ISpatialiteTableAndFieldsNames {
     public static VectorLayerQueryModes VECTORLAYER_QUERYMODE = VectorLayerQueryModes.STRICT;
+    /**
+     * The way the geometries to draw are searched for.
+     */
+    public static GeometryQueryModes RENDER_QUERYMODE = GeometryQueryModes.MBR;
 
     public static final String LOGTAG = "SPL_VECTOR";
 
@@ -396,6 +401,10 @@ public class SPL_Vectors implements ISpatialiteTableAndFieldsNames {
             statement = database.prepare(GeneralQueriesPreparer.LAYERS_QUERY_EXTENT_INVALID_V3.getQuery());
             while (statement.step()) {
                 vector_key = statement.column_string(0);
+                if (SpatialiteIndexing.isGeometryPyramidTable(vector_key)) {
+                    // generalized geometries of another table
+                    continue;
+                }
                 vector_data = statement.column_string(1);
                 vector_extent = statement.column_string(2);
                 spatialVectorMapErrors.put(vector_key, vector_data + vector_extent);
@@ -450,6 +459,10 @@ public class SPL_Vectors implements ISpatialiteTableAndFieldsNames {
             statement = database.prepare(GeneralQueriesPreparer.LAYERS_QUERY_EXTENT_VALID_V3.getQuery());
             while (statement.step()) {
                 vector_key = statement.column_string(0);
+                if (SpatialiteIndexing.isGeometryPyramidTable(vector_key)) {
+                    // generalized geometries of another table
+                    continue;
+                }
                 vector_data = statement.column_string(1);
                 vector_extent = "";
                 vector_extent = statement.column_string(2);
@@ -502,6 +515,10 @@ public class SPL_Vectors implements ISpatialiteTableAndFieldsNames {
             statement = database.prepare(GeneralQueriesPreparer.VECTOR_LAYERS_QUERY_EXTENT_INVALID_V4.getQuery());
             while (statement.step()) {
                 vector_key = statement.column_string(0);
+                if (SpatialiteIndexing.isGeometryPyramidTable(vector_key)) {
+                    // generalized geometries of another table
+                    continue;
+                }
                 vector_data = statement.column_string(1);
                 vector_extent = statement.column_string(2);
                 spatialVectorMapErrors.put(vector_key, vector_data + vector_extent);
@@ -518,6 +535,10 @@ public class SPL_Vectors implements ISpatialiteTableAndFieldsNames {
             statement = database.prepare(GeneralQueriesPreparer.VECTOR_LAYERS_QUERY_EXTENT_VALID_V4.getQuery());
             while (statement.step()) {
                 vector_key = statement.column_string(0);
+                if (SpatialiteIndexing.isGeometryPyramidTable(vector_key)) {
+                    // generalized geometries of another table
+                    continue;
+                }
                 vector_data = statement.column_string(1);
                 vector_extent = "";
                 if (vector_key.contains("SpatialView")) { // berlin_1000;map_linestring;SpatialView;ROWID
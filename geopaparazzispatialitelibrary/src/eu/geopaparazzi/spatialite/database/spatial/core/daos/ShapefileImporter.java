@@ -0,0 +1,358 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.DbfReader;
+import eu.geopaparazzi.library.util.FileUtilities;
+import eu.geopaparazzi.library.util.ShapefileParser;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+/**
+ * Imports a shapefile into a new table of a spatialite database.
+ *
+ * <p>The <code>.shp</code>, <code>.shx</code> and <code>.dbf</code> files are read
+ * through memory mapped buffers and every record is decoded straight into WKB, which
+ * is inserted through a prepared statement in transactions of {@link #BATCH_SIZE} records.
+ * The spatial index is created once all records are in.</p>
+ *
+ * <p>The records are decoded by {@link ShapefileParser} and {@link DbfReader}. Lines and
+ * polygons are stored as multi geometries, so that the table has a single geometry type.
+ * Z and M values are dropped, MultiPatch shapefiles are not supported.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileImporter {
+
+    /**
+     * Receives the progress of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every committed batch of records.
+         *
+         * @param read  the number of records read so far.
+         * @param total the number of records of the shapefile.
+         */
+        void onProgress(int read, int total);
+    }
+
+    /**
+     * The name of the geometry column of the imported tables.
+     */
+    public static final String GEOMETRY_COLUMN = "Geometry";
+    /**
+     * The name of the primary key column of the imported tables.
+     */
+    public static final String PK_COLUMN = "PK_UID";
+    /**
+     * The number of records inserted per transaction.
+     */
+    public static final int BATCH_SIZE = 500;
+    /**
+     * The charset of the dbf file, if the shapefile has no <code>.cpg</code> file.
+     */
+    public static final String DEFAULT_CHARSET = "CP1252";
+
+    private final Database database;
+    private String charsetName = DEFAULT_CHARSET;
+    private ProgressListener progressListener;
+    private CancellationToken cancellationToken;
+
+    /**
+     * Constructor.
+     *
+     * @param database the database to import into.
+     */
+    public ShapefileImporter(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @param charsetName the charset of the dbf file, used if the shapefile has no <code>.cpg</code> file.
+     */
+    public void setCharset(String charsetName) {
+        this.charsetName = charsetName;
+    }
+
+    /**
+     * @param progressListener the listener to notify or <code>null</code>.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param cancellationToken the token that aborts the import or <code>null</code>.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Import a shapefile into a new table.
+     *
+     * <p>If the import fails or is canceled, the table is dropped.</p>
+     *
+     * @param shpFile   the <code>.shp</code> file.
+     * @param tableName the name of the table to create.
+     * @param srid      the srid of the shapefile.
+     * @return the number of imported records, deleted dbf records excluded.
+     * @throws IOException        if the shapefile can't be read.
+     * @throws jsqlite.Exception  if the import or the spatial index fail or the import has been canceled.
+     */
+    public int importShapefile(File shpFile, String tableName, int srid) throws IOException, jsqlite.Exception {
+        String basePath = FileUtilities.getNameWithoutExtention(shpFile);
+        basePath = new File(shpFile.getParentFile(), basePath).getAbsolutePath();
+        ByteBuffer shp = map(shpFile);
+        File shxFile = new File(basePath + ".shx");
+        ByteBuffer shx = shxFile.exists() ? map(shxFile) : null;
+        DbfReader dbf = new DbfReader(map(new File(basePath + ".dbf")), readCharset(new File(basePath + ".cpg")));
+
+        shp.order(ByteOrder.BIG_ENDIAN);
+        if (shp.getInt(0) != ShapefileParser.FILE_CODE) {
+            throw new IOException("Not a shapefile: " + shpFile);
+        }
+        int shpLength = Math.min(shp.getInt(24) * 2, shp.limit());
+        shp.order(ByteOrder.LITTLE_ENDIAN);
+        String geometryType;
+        try {
+            geometryType = ShapefileParser.getGeometryType(shp.getInt(32));
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + " " + shpFile);
+        }
+        int total = shx != null ? (shx.limit() - ShapefileParser.HEADER_LENGTH) / 8 : dbf.getRecordCount();
+
+        String[] columnNames = createTable(tableName, srid, geometryType, dbf);
+        int imported = 0;
+        boolean done = false;
+        try {
+            imported = insertRecords(tableName, srid, columnNames, shp, shpLength, shx, total, dbf);
+            int spatialIndex = SpatialiteIndexing.spatialiteCreateSpatialIndex(database, tableName, GEOMETRY_COLUMN,
+                    SpatialiteDatabaseType.SPATIALITE4);
+            if (spatialIndex != 1) {
+                throw new jsqlite.Exception("Could not create the spatial index of: " + tableName);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                dropTable(tableName);
+            }
+        }
+        return imported;
+    }
+
+    private String[] createTable(String tableName, int srid, String geometryType, DbfReader dbf) throws jsqlite.Exception {
+        Set<String> usedNames = new HashSet<String>();
+        usedNames.add(PK_COLUMN.toLowerCase(Locale.US));
+        usedNames.add(GEOMETRY_COLUMN.toLowerCase(Locale.US));
+        String[] columnNames = new String[dbf.getFieldCount()];
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE \"").append(tableName).append("\" (").append(PK_COLUMN).append(" INTEGER PRIMARY KEY AUTOINCREMENT");
+        for (int i = 0; i < columnNames.length; i++) {
+            String name = dbf.getFieldName(i);
+            while (!usedNames.add(name.toLowerCase(Locale.US))) {
+                name = name + "_";
+            }
+            columnNames[i] = name;
+            sb.append(", \"").append(name.replace("\"", "\"\"")).append("\" ").append(dbf.getSqlType(i));
+        }
+        sb.append(");");
+        database.exec(sb.toString(), null);
+        try {
+            database.exec("SELECT AddGeometryColumn('" + tableName + "','" + GEOMETRY_COLUMN + "'," + srid + ",'" + geometryType
+                    + "','XY');", null);
+        } catch (jsqlite.Exception e) {
+            database.exec("DROP TABLE \"" + tableName + "\";", null);
+            throw e;
+        }
+        return columnNames;
+    }
+
+    private int insertRecords(String tableName, int srid, String[] columnNames, ByteBuffer shp, int shpLength, ByteBuffer shx,
+                              int total, DbfReader dbf) throws IOException, jsqlite.Exception {
+        StringBuilder sbIn = new StringBuilder();
+        StringBuilder sbValues = new StringBuilder();
+        sbIn.append("INSERT INTO \"").append(tableName).append("\" (");
+        for (String columnName : columnNames) {
+            sbIn.append("\"").append(columnName.replace("\"", "\"\"")).append("\", ");
+            sbValues.append("?, ");
+        }
+        sbIn.append(GEOMETRY_COLUMN).append(") VALUES (").append(sbValues).append("GeomFromWKB(?, ").append(srid).append("));");
+
+        int geometryIndex = columnNames.length + 1;
+        int imported = 0;
+        int recordIndex = 0;
+        int shpPosition = ShapefileParser.HEADER_LENGTH;
+        Stmt statement = database.prepare(sbIn.toString());
+        try {
+            database.exec("BEGIN;", null);
+            while (true) {
+                // the content offset and length of the record, in bytes
+                int offset;
+                int length;
+                if (shx != null) {
+                    if (recordIndex >= total) {
+                        break;
+                    }
+                    shx.order(ByteOrder.BIG_ENDIAN);
+                    offset = shx.getInt(ShapefileParser.HEADER_LENGTH + 8 * recordIndex) * 2 + 8;
+                    length = shx.getInt(ShapefileParser.HEADER_LENGTH + 8 * recordIndex + 4) * 2;
+                } else {
+                    if (shpPosition + 8 > shpLength) {
+                        break;
+                    }
+                    shp.order(ByteOrder.BIG_ENDIAN);
+                    offset = shpPosition + 8;
+                    length = shp.getInt(shpPosition + 4) * 2;
+                    shpPosition = offset + length;
+                }
+                if (offset + length > shpLength) {
+                    throw new IOException("Truncated shapefile record " + recordIndex);
+                }
+
+                if (!dbf.isDeleted(recordIndex)) {
+                    shp.order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = 0; i < columnNames.length; i++) {
+                        bind(statement, i + 1, dbf.getValue(recordIndex, i));
+                    }
+                    byte[] wkb = ShapefileParser.toWkb(shp, offset);
+                    if (wkb == null) {
+                        statement.bind(geometryIndex);
+                    } else {
+                        statement.bind(geometryIndex, wkb);
+                    }
+                    statement.step();
+                    statement.reset();
+                    statement.clear_bindings();
+                    imported++;
+                }
+                recordIndex++;
+
+                if (recordIndex % BATCH_SIZE == 0) {
+                    database.exec("COMMIT;", null);
+                    notifyProgress(recordIndex, total);
+                    if (cancellationToken != null && cancellationToken.isCanceled()) {
+                        throw new jsqlite.Exception("Import canceled.");
+                    }
+                    database.exec("BEGIN;", null);
+                }
+            }
+            database.exec("COMMIT;", null);
+        } catch (jsqlite.Exception e) {
+            rollback();
+            throw e;
+        } catch (IOException e) {
+            rollback();
+            throw e;
+        } catch (RuntimeException e) {
+            // malformed records, as out of bounds offsets
+            rollback();
+            throw new IOException("Unable to read the shapefile record " + recordIndex + ": " + e.getMessage());
+        } finally {
+            statement.close();
+        }
+        notifyProgress(recordIndex, total);
+        return imported;
+    }
+
+    private static void bind(Stmt statement, int pos, Object value) throws jsqlite.Exception {
+        if (value == null) {
+            statement.bind(pos);
+        } else if (value instanceof Long) {
+            statement.bind(pos, ((Long) value).longValue());
+        } else if (value instanceof Double) {
+            statement.bind(pos, ((Double) value).doubleValue());
+        } else if (value instanceof Integer) {
+            statement.bind(pos, ((Integer) value).intValue());
+        } else {
+            statement.bind(pos, value.toString());
+        }
+    }
+
+    private void notifyProgress(int read, int total) {
+        if (progressListener != null) {
+            progressListener.onProgress(read, total);
+        }
+    }
+
+    private void rollback() {
+        try {
+            database.exec("ROLLBACK;", null);
+        } catch (jsqlite.Exception e) {
+            // no transaction running
+        }
+    }
+
+    private void dropTable(String tableName) {
+        try {
+            database.exec("SELECT DiscardGeometryColumn('" + tableName + "','" + GEOMETRY_COLUMN + "');", null);
+            database.exec("DROP TABLE IF EXISTS \"" + tableName + "\";", null);
+        } catch (jsqlite.Exception e) {
+            GPLog.error("ShapefileImporter", "dropTable[" + tableName + "] db[" + database.getFilename() + "]", e);
+        }
+    }
+
+    private Charset readCharset(File cpgFile) {
+        String name = charsetName;
+        if (cpgFile.exists()) {
+            try {
+                String cpg = FileUtilities.readfile(cpgFile).trim();
+                if (cpg.length() > 0) {
+                    name = cpg.matches("\\d+") ? "CP" + cpg : cpg;
+                }
+            } catch (IOException e) {
+                GPLog.error("ShapefileImporter", "readCharset[" + cpgFile + "]", e);
+            }
+        }
+        try {
+            return Charset.forName(name);
+        } catch (RuntimeException e) {
+            GPLog.androidLog(4, "ShapefileImporter: unsupported charset[" + name + "], using " + DEFAULT_CHARSET, e);
+            return Charset.forName(DEFAULT_CHARSET);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // the mapping stays valid after the channel is closed
+            return buffer;
+        } finally {
+            in.close();
+        }
+    }
+}
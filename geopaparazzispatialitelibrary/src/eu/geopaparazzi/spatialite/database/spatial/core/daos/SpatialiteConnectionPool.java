@@ -0,0 +1,236 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.library.database.GPLog;
+import jsqlite.Constants;
+import jsqlite.Database;
+import jsqlite.Exception;
+
+/**
+ * The connections to a spatialite database: a single writer and a pool of readers.
+ *
+ * <p>Thread ownership:</p>
+ * <ul>
+ * <li>the writer connection is shared. It is used to read the metadata of the
+ * database when it is opened and for all the modifications (features, styles,
+ * generalized geometries). Modifications are short and serialized by sqlite.</li>
+ * <li>a reader connection is owned by one thread at a time, between
+ * {@link #acquireReader()} and {@link #releaseReader(PreparedStatementCache)}. It is
+ * used for the queries that can run in parallel, as drawing, info and selection
+ * queries and raster tiles.</li>
+ * </ul>
+ *
+ * <p>Readers are opened read-only when needed, up to the maximum, and come with
+ * their own cache of prepared statements. Once all are in use, further requests wait
+ * for one to be released. Readers acquired for a {@link CancellationToken} abort
+ * their queries once it is canceled.</p>
+ *
+ * <p>The database keeps its rollback journal, since the wal mode needs shared memory,
+ * which is not available on all the storages the maps folder can be on. Readers therefore
+ * wait for a commit of the writer through the busy timeout, and the other way round.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SpatialiteConnectionPool {
+    /**
+     * The time in milliseconds a connection waits for a lock of another connection to be released.
+     */
+    public static final int BUSY_TIMEOUT = 5000;
+    /**
+     * The number of sqlite virtual machine instructions between the checks of a {@link CancellationToken}.
+     */
+    public static final int CANCEL_CHECK_OPCODES = 1000;
+
+    private final Database writer;
+    private final String databasePath;
+    private final int maxReaders;
+    private final int maxCachedStatements;
+    private final List<PreparedStatementCache> idleReaders = new ArrayList<PreparedStatementCache>();
+    private final Map<PreparedStatementCache, CancellationToken> readerTokens = new IdentityHashMap<PreparedStatementCache, CancellationToken>();
+    private int openReaders = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param writer              the open read-write connection.
+     * @param maxReaders          the maximum number of read-only connections.
+     * @param maxCachedStatements the maximum number of idle statements kept per reader.
+     */
+    public SpatialiteConnectionPool( Database writer, int maxReaders, int maxCachedStatements ) {
+        this.writer = writer;
+        this.databasePath = writer.getFilename();
+        this.maxReaders = maxReaders;
+        this.maxCachedStatements = maxCachedStatements;
+    }
+
+    /**
+     * @return the read-write connection.
+     */
+    public Database getWriter() {
+        return writer;
+    }
+
+    /**
+     * Get a reader connection for the current thread.
+     *
+     * <p>It has to be given back through {@link #releaseReader(PreparedStatementCache)},
+     * usually in a finally block, and must not be used afterwards.</p>
+     *
+     * @return the statements cache of the reader, whose database is available through
+     *          {@link PreparedStatementCache#getDatabase()}.
+     * @throws Exception if the pool is closed or the connection can't be opened.
+     */
+    public PreparedStatementCache acquireReader() throws Exception {
+        return acquireReader(null);
+    }
+
+    /**
+     * Get a reader connection for the current thread, whose queries are aborted
+     * once a token is canceled.
+     *
+     * @param cancellationToken the token of the request or <code>null</code>.
+     * @return the statements cache of the reader.
+     * @throws Exception if the pool is closed, the token canceled or the connection can't be opened.
+     * @see #acquireReader()
+     */
+    public PreparedStatementCache acquireReader( CancellationToken cancellationToken ) throws Exception {
+        PreparedStatementCache reader = acquireIdleOrNewReader();
+        if (cancellationToken != null) {
+            cancellationToken.attach(reader.getDatabase(), CANCEL_CHECK_OPCODES);
+            synchronized (this) {
+                readerTokens.put(reader, cancellationToken);
+            }
+            if (cancellationToken.isCanceled()) {
+                releaseReader(reader);
+                throw new Exception("Query canceled on: " + databasePath);
+            }
+        }
+        return reader;
+    }
+
+    private PreparedStatementCache acquireIdleOrNewReader() throws Exception {
+        synchronized (this) {
+            while( true ) {
+                if (closed) {
+                    throw new Exception("The connections of the database are closed: " + databasePath);
+                }
+                if (idleReaders.size() > 0) {
+                    return idleReaders.remove(idleReaders.size() - 1);
+                }
+                if (openReaders < maxReaders) {
+                    openReaders++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new Exception("Interrupted while waiting for a connection to: " + databasePath);
+                }
+            }
+        }
+        try {
+            Database database = new Database();
+            database.open(databasePath, Constants.SQLITE_OPEN_READONLY);
+            database.busy_timeout(BUSY_TIMEOUT);
+            return new PreparedStatementCache(database, maxCachedStatements);
+        } catch (Exception e) {
+            synchronized (this) {
+                openReaders--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a reader got through {@link #acquireReader()}.
+     *
+     * @param reader the reader.
+     */
+    public void releaseReader( PreparedStatementCache reader ) {
+        CancellationToken cancellationToken;
+        synchronized (this) {
+            cancellationToken = readerTokens.remove(reader);
+        }
+        if (cancellationToken != null) {
+            cancellationToken.detach(reader.getDatabase());
+        }
+        synchronized (this) {
+            if (!closed) {
+                idleReaders.add(reader);
+                notifyAll();
+                return;
+            }
+            openReaders--;
+        }
+        closeReader(reader);
+    }
+
+    /**
+     * Close the idle statements of the readers.
+     *
+     * <p>To be called when the schema of the database changes.</p>
+     */
+    public void clearStatements() {
+        List<PreparedStatementCache> readers;
+        synchronized (this) {
+            readers = new ArrayList<PreparedStatementCache>(idleReaders);
+        }
+        for( PreparedStatementCache reader : readers ) {
+            reader.clear();
+        }
+    }
+
+    /**
+     * Close the idle readers.
+     *
+     * <p>Readers in use are closed when released. The writer is
+     * left to the owner of the pool.</p>
+     */
+    public void close() {
+        List<PreparedStatementCache> readers;
+        synchronized (this) {
+            closed = true;
+            readers = new ArrayList<PreparedStatementCache>(idleReaders);
+            openReaders -= idleReaders.size();
+            idleReaders.clear();
+            notifyAll();
+        }
+        for( PreparedStatementCache reader : readers ) {
+            closeReader(reader);
+        }
+    }
+
+    private void closeReader( PreparedStatementCache reader ) {
+        reader.close();
+        try {
+            reader.getDatabase().close();
+        } catch (Exception e) {
+            GPLog.error(this, "SpatialiteConnectionPool.closeReader [failed] db[" + databasePath + "]", e);
+        }
+    }
+}
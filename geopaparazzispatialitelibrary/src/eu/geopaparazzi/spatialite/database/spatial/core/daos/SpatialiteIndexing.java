@@ -18,7 +18,12 @@
 
 package eu.geopaparazzi.spatialite.database.spatial.core.daos;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
 import jsqlite.Database;
 import jsqlite.Exception;
@@ -31,6 +36,35 @@ import jsqlite.Stmt;
  */
 public class SpatialiteIndexing {
 
+    /**
+     * The table that registers the generalized geometry levels of the tables.
+     */
+    public static final String GEOMETRY_PYRAMIDS_TABLE = "geometry_pyramids";
+    /**
+     * The name prefix of the tables holding a generalized geometry level.
+     */
+    public static final String GEOMETRY_PYRAMID_PREFIX = "geometry_pyramid_";
+    /**
+     * The geometry column of a generalized geometry level.
+     */
+    public static final String GEOMETRY_PYRAMID_GEOMETRY = "geometry";
+    /**
+     * The column of a generalized geometry level that keeps the ROWID of the source record.
+     */
+    public static final String GEOMETRY_PYRAMID_SOURCE_ID = "source_rowid";
+    /**
+     * The srid the generalized geometries are stored in, which is the one used for drawing.
+     */
+    public static final String GEOMETRY_PYRAMID_SRID = LibraryConstants.SRID_WGS84_4326;
+    /**
+     * The name prefix of the R*Tree tables of the spatial indexes.
+     */
+    public static final String SPATIALINDEX_RTREE_PREFIX = "idx_";
+    /**
+     * The default highest zoom levels the generalized geometries are built for.
+     */
+    public static final int[] GEOMETRY_PYRAMID_ZOOMLEVELS = {6, 9, 12};
+
     /**
      * Attemt to create GeoPackage-SpatialIndex for this geometry field.
      * returned if the SpatialIndex was created (and therefore useable) or not
@@ -171,4 +205,265 @@ public class SpatialiteIndexing {
         return i_spatialindex;
     }
 
+    /**
+     * Create the generalized geometry levels (pyramid) of a geometry field.
+     * <p/>
+     * For every zoom level a table named {@link #GEOMETRY_PYRAMID_PREFIX}table_geometrycolumn_zoom is
+     * created, which contains the geometries transformed to {@link #GEOMETRY_PYRAMID_SRID} and simplified
+     * to half a pixel of that zoom level, together with its own SpatialIndex.
+     * The level is then used to draw all zoom levels up to the given one and above the
+     * one of the previous level. Existing levels of the geometry field are replaced.
+     * <p/>
+     * - This can take long on big tables and should not be run on the ui thread.
+     *
+     * @param database        the db to use.
+     * @param table_name      the table of the db to use.
+     * @param geometry_column the geometry field of the table to use.
+     * @param srid            the srid of the geometry field.
+     * @param maxZoomLevels   the highest zoom level each generalized level is used for.
+     * @param databaseType    for Spatialite 3 and 4 specific Tasks
+     * @return the number of created levels.
+     * @throws Exception if something goes wrong.
+     */
+    public static int spatialiteCreateGeometryPyramid(Database database, String table_name, String geometry_column, String srid,
+                                                      int[] maxZoomLevels, SpatialiteDatabaseType databaseType) throws Exception {
+        int i_levels = 0;
+        if ((table_name.equals("")) || (geometry_column.equals("")))
+            return i_levels;
+        database.exec("CREATE TABLE IF NOT EXISTS " + GEOMETRY_PYRAMIDS_TABLE
+                + " (f_table_name TEXT NOT NULL, f_geometry_column TEXT NOT NULL, max_zoom INTEGER NOT NULL,"
+                + " pyramid_table TEXT NOT NULL, tolerance DOUBLE NOT NULL,"
+                + " PRIMARY KEY (f_table_name, f_geometry_column, max_zoom));", null);
+        dropGeometryPyramid(database, table_name, geometry_column);
+
+        // a pixel covers less latitude degrees towards the poles
+        double maxLatitude = getMaxAbsLatitude(database, table_name, geometry_column, srid);
+        for (int maxZoom : maxZoomLevels) {
+            double tolerance = 360.0 / (256L << maxZoom) * Math.cos(Math.toRadians(maxLatitude)) / 2.0;
+            String pyramidTable = (GEOMETRY_PYRAMID_PREFIX + table_name + "_" + geometry_column + "_" + maxZoom).toLowerCase();
+            String s_CreatePyramid = "";
+            try {
+                database.exec("BEGIN;", null);
+                s_CreatePyramid = "CREATE TABLE " + pyramidTable + " (" + GEOMETRY_PYRAMID_SOURCE_ID + " INTEGER PRIMARY KEY);";
+                database.exec(s_CreatePyramid, null);
+                s_CreatePyramid = "SELECT AddGeometryColumn('" + pyramidTable + "','" + GEOMETRY_PYRAMID_GEOMETRY + "',"
+                        + GEOMETRY_PYRAMID_SRID + ",'GEOMETRY','XY');";
+                database.exec(s_CreatePyramid, null);
+                s_CreatePyramid = getPyramidInsertQuery(pyramidTable, table_name, geometry_column, srid, tolerance, null);
+                database.exec(s_CreatePyramid, null);
+                s_CreatePyramid = "INSERT OR REPLACE INTO " + GEOMETRY_PYRAMIDS_TABLE + " VALUES ('" + table_name + "','"
+                        + geometry_column + "'," + maxZoom + ",'" + pyramidTable + "'," + tolerance + ");";
+                database.exec(s_CreatePyramid, null);
+                database.exec("COMMIT;", null);
+            } catch (jsqlite.Exception e_stmt) {
+                database.exec("ROLLBACK;", null);
+                GPLog.error("DAOSPATIALIE", "spatialiteCreateGeometryPyramid[" + databaseType + "] sql[" + s_CreatePyramid
+                        + "] db[" + database.getFilename() + "]", e_stmt);
+                continue;
+            }
+            if (spatialiteCreateSpatialIndex(database, pyramidTable, GEOMETRY_PYRAMID_GEOMETRY, databaseType) == 1) {
+                i_levels++;
+            } else {
+                // without index the level would be slower than the original table
+                dropGeometryPyramidLevel(database, table_name, geometry_column, pyramidTable);
+            }
+        }
+        return i_levels;
+    }
+
+    /**
+     * Get the generalized geometry levels of a geometry field.
+     *
+     * @param database        the db to use.
+     * @param table_name      the table of the db to use.
+     * @param geometry_column the geometry field of the table to use.
+     * @return the map of the highest zoom level to the table of each level, empty if there are none.
+     * @throws Exception if something goes wrong.
+     */
+    public static TreeMap<Integer, String> getGeometryPyramids(Database database, String table_name, String geometry_column)
+            throws Exception {
+        TreeMap<Integer, String> pyramidsMap = new TreeMap<Integer, String>();
+        if (!hasGeometryPyramidsTable(database))
+            return pyramidsMap;
+        String s_SelectPyramids = "SELECT max_zoom, pyramid_table FROM " + GEOMETRY_PYRAMIDS_TABLE + " WHERE f_table_name = '"
+                + table_name + "' AND f_geometry_column = '" + geometry_column + "';";
+        Stmt statement = null;
+        try {
+            statement = database.prepare(s_SelectPyramids);
+            while (statement.step()) {
+                pyramidsMap.put(statement.column_int(0), statement.column_string(1));
+            }
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+        return pyramidsMap;
+    }
+
+    /**
+     * Bring the generalized geometry levels of a geometry field in line with changed records.
+     *
+     * @param database        the db to use.
+     * @param table_name      the table of the db to use.
+     * @param geometry_column the geometry field of the table to use.
+     * @param srid            the srid of the geometry field.
+     * @param rowIds          the comma separated ROWIDs of the inserted, updated or deleted records.
+     * @throws Exception if something goes wrong.
+     */
+    public static void updateGeometryPyramids(Database database, String table_name, String geometry_column, String srid,
+                                              String rowIds) throws Exception {
+        if (!hasGeometryPyramidsTable(database))
+            return;
+        List<String> pyramidTables = new ArrayList<String>();
+        List<Double> tolerances = new ArrayList<Double>();
+        String s_SelectPyramids = "SELECT pyramid_table, tolerance FROM " + GEOMETRY_PYRAMIDS_TABLE + " WHERE f_table_name = '"
+                + table_name + "' AND f_geometry_column = '" + geometry_column + "';";
+        Stmt statement = null;
+        try {
+            statement = database.prepare(s_SelectPyramids);
+            while (statement.step()) {
+                pyramidTables.add(statement.column_string(0));
+                tolerances.add(statement.column_double(1));
+            }
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+        for (int i = 0; i < pyramidTables.size(); i++) {
+            String pyramidTable = pyramidTables.get(i);
+            database.exec("DELETE FROM " + pyramidTable + " WHERE " + GEOMETRY_PYRAMID_SOURCE_ID + " IN (" + rowIds + ");", null);
+            database.exec(getPyramidInsertQuery(pyramidTable, table_name, geometry_column, srid, tolerances.get(i), rowIds), null);
+        }
+    }
+
+    /**
+     * Get the name of the R*Tree table of the spatial index of a geometry field.
+     *
+     * @param table_name      the table of the db to use.
+     * @param geometry_column the geometry field of the table to use.
+     * @return the R*Tree table name.
+     */
+    public static String getSpatialIndexRtreeTable(String table_name, String geometry_column) {
+        return SPATIALINDEX_RTREE_PREFIX + table_name + "_" + geometry_column;
+    }
+
+    /**
+     * Check if a geometry field has an enabled spatial index with its R*Tree table.
+     *
+     * <p>Geometry fields with a MbrCache or a disabled index have no
+     * usable R*Tree table.</p>
+     *
+     * @param database        the db to use.
+     * @param table_name      the table of the db to use.
+     * @param geometry_column the geometry field of the table to use.
+     * @return <code>true</code>, if the R*Tree table can be queried.
+     * @throws Exception if something goes wrong.
+     */
+    public static boolean hasSpatialIndexRtree(Database database, String table_name, String geometry_column) throws Exception {
+        String rtreeTable = getSpatialIndexRtreeTable(table_name, geometry_column);
+        String s_SelectIndex = "SELECT count(*) FROM geometry_columns WHERE spatial_index_enabled = 1 AND "
+                + "lower(f_table_name) = lower('" + table_name + "') AND lower(f_geometry_column) = lower('" + geometry_column
+                + "') AND EXISTS (SELECT 1 FROM sqlite_master WHERE type = 'table' AND lower(name) = lower('" + rtreeTable
+                + "'));";
+        Stmt statement = null;
+        try {
+            statement = database.prepare(s_SelectIndex);
+            return statement.step() && statement.column_int(0) > 0;
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    /**
+     * Check if a table is a generalized geometry level.
+     *
+     * @param table_name the table or vector key (starting with the table name) to check.
+     * @return <code>true</code>, if it belongs to a geometry pyramid.
+     */
+    public static boolean isGeometryPyramidTable(String table_name) {
+        return table_name.toLowerCase().startsWith(GEOMETRY_PYRAMID_PREFIX);
+    }
+
+    private static void dropGeometryPyramid(Database database, String table_name, String geometry_column) throws Exception {
+        TreeMap<Integer, String> pyramidsMap = getGeometryPyramids(database, table_name, geometry_column);
+        for (String pyramidTable : pyramidsMap.values()) {
+            dropGeometryPyramidLevel(database, table_name, geometry_column, pyramidTable);
+        }
+    }
+
+    private static void dropGeometryPyramidLevel(Database database, String table_name, String geometry_column,
+                                                 String pyramidTable) throws Exception {
+        String s_DropPyramid = "";
+        try {
+            s_DropPyramid = "SELECT DisableSpatialIndex('" + pyramidTable + "','" + GEOMETRY_PYRAMID_GEOMETRY + "');";
+            database.exec(s_DropPyramid, null);
+            s_DropPyramid = "DROP TABLE IF EXISTS idx_" + pyramidTable + "_" + GEOMETRY_PYRAMID_GEOMETRY + ";";
+            database.exec(s_DropPyramid, null);
+            s_DropPyramid = "SELECT DiscardGeometryColumn('" + pyramidTable + "','" + GEOMETRY_PYRAMID_GEOMETRY + "');";
+            database.exec(s_DropPyramid, null);
+            s_DropPyramid = "DROP TABLE IF EXISTS " + pyramidTable + ";";
+            database.exec(s_DropPyramid, null);
+            s_DropPyramid = "DELETE FROM " + GEOMETRY_PYRAMIDS_TABLE + " WHERE f_table_name = '" + table_name
+                    + "' AND f_geometry_column = '" + geometry_column + "' AND pyramid_table = '" + pyramidTable + "';";
+            database.exec(s_DropPyramid, null);
+        } catch (jsqlite.Exception e_stmt) {
+            GPLog.error("DAOSPATIALIE", "dropGeometryPyramidLevel sql[" + s_DropPyramid + "] db[" + database.getFilename() + "]",
+                    e_stmt);
+        }
+    }
+
+    private static boolean hasGeometryPyramidsTable(Database database) throws Exception {
+        Stmt statement = null;
+        try {
+            statement = database.prepare("SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = '"
+                    + GEOMETRY_PYRAMIDS_TABLE + "';");
+            return statement.step() && statement.column_int(0) > 0;
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    private static double getMaxAbsLatitude(Database database, String table_name, String geometry_column, String srid)
+            throws Exception {
+        String extent = "Extent(" + geometry_column + ")";
+        if (!srid.equals(GEOMETRY_PYRAMID_SRID))
+            extent = "ST_Transform(" + extent + "," + GEOMETRY_PYRAMID_SRID + ")";
+        String s_SelectLatitudes = "SELECT MbrMinY(e), MbrMaxY(e) FROM (SELECT " + extent + " AS e FROM " + table_name + ");";
+        double maxLatitude = 0;
+        Stmt statement = null;
+        try {
+            statement = database.prepare(s_SelectLatitudes);
+            if (statement.step()) {
+                maxLatitude = Math.max(Math.abs(statement.column_double(0)), Math.abs(statement.column_double(1)));
+            }
+        } catch (jsqlite.Exception e_stmt) {
+            GPLog.error("DAOSPATIALIE", "getMaxAbsLatitude sql[" + s_SelectLatitudes + "] db[" + database.getFilename() + "]",
+                    e_stmt);
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+        return Math.min(maxLatitude, 85.0);
+    }
+
+    private static String getPyramidInsertQuery(String pyramidTable, String table_name, String geometry_column, String srid,
+                                                double tolerance, String rowIds) {
+        String geometry = geometry_column;
+        if (!srid.equals(GEOMETRY_PYRAMID_SRID))
+            geometry = "ST_Transform(" + geometry_column + "," + GEOMETRY_PYRAMID_SRID + ")";
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT INTO ").append(pyramidTable);
+        sb.append(" (").append(GEOMETRY_PYRAMID_SOURCE_ID).append(",").append(GEOMETRY_PYRAMID_GEOMETRY).append(")");
+        sb.append(" SELECT ROWID, CastToXY(COALESCE(ST_SimplifyPreserveTopology(");
+        sb.append(geometry).append(",").append(tolerance).append("),").append(geometry).append("))");
+        sb.append(" FROM ").append(table_name);
+        sb.append(" WHERE ").append(geometry_column).append(" IS NOT NULL");
+        if (rowIds != null)
+            sb.append(" AND ROWID IN (").append(rowIds).append(")");
+        sb.append(";");
+        return sb.toString();
+    }
+
 }
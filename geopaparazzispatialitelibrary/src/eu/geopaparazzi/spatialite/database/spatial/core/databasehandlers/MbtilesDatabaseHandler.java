@@ -18,7 +18,6 @@
 package eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
 import java.io.IOException;
@@ -30,10 +29,13 @@ import java.util.List;
 import java.util.Map;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.ImageUtilities;
+import eu.geopaparazzi.library.util.TileBitmapCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.AbstractSpatialTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MBTilesDroidSpitter;
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MBTilesWriter;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MBtilesAsync;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesMetadata;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialDataType;
@@ -50,6 +52,7 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
 
     private List<SpatialRasterTable> rasterTableList;
     private MBTilesDroidSpitter mbtilesSplitter;
+    private volatile MBTilesWriter mbtilesWriter;
     private HashMap<String, String> mbtilesMetadata = null;
     /**
      * 
@@ -93,6 +96,8 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
     public String s_request_y_type = "osm"; // 0=osm ; 1=tms ; 2=wms
     /** * */
     public String s_request_type = ""; // 'fill', 'replace'
+    /** * */
+    public int i_force_unique = 0; // 1: store identical images once
 
     /**
       * Constructor.
@@ -203,6 +208,8 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
       * <p>i_y_osm must be in is Open-Street-Map 'Slippy Map' notation 
       * [will be converted to 'tms' notation if needed]
       *
+      * <p>The decoded tiles are kept in the shared {@link TileBitmapCache}.
+      *
       * @param i_x the value for tile_column field in the map,tiles Tables and part of the tile_id when image is not blank
       * @param i_y_osm the value for tile_row field in the map,tiles Tables and part of the tile_id when image is not blank
       * @param i_z the value for zoom_level field in the map,tiles Tables and part of the tile_id when image is not blank
@@ -211,30 +218,25 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
       * @return Bitmap of the tile or null if no tile matched the given parameters
       */
     public boolean getBitmapTile( int i_x, int i_y_osm, int i_z, int i_pixel_size, Bitmap tile_bitmap ) {
-        boolean b_rc = true;
+        TileBitmapCache tileBitmapCache = TileBitmapCache.getInstance();
+        if (tileBitmapCache.drawTile(databasePath, i_z, i_x, i_y_osm, tile_bitmap)) {
+            return true;
+        }
         if (mbtilesSplitter.getmbtiles() == null) { // in case .'open' was forgotten
             open(); // "" : default value will be used '1.1'
         }
-        int[] pixels = new int[i_pixel_size * i_pixel_size];
-        byte[] rasterBytes = mbtilesSplitter.getTileAsBytes(i_x, i_y_osm, i_z);
+        byte[] rasterBytes = null;
+        MBTilesWriter writer = mbtilesWriter; // set to null when closed
+        if (writer != null) { // not yet written
+            rasterBytes = writer.getPendingTile(i_x, i_y_osm, i_z);
+        }
         if (rasterBytes == null) {
-            b_rc = false;
-            return b_rc;
-        }
-        Bitmap decodedBitmap = null;
-        decodedBitmap = BitmapFactory.decodeByteArray(rasterBytes, 0, rasterBytes.length);
-        // check if the input stream could be decoded into a bitmap
-        if (decodedBitmap != null) {
-            // copy all pixels from the decoded bitmap to the color array
-            decodedBitmap.getPixels(pixels, 0, i_pixel_size, 0, 0, i_pixel_size, i_pixel_size);
-            decodedBitmap.recycle();
-        } else {
-            b_rc = false;
-            return b_rc;
+            rasterBytes = mbtilesSplitter.getTileAsBytes(i_x, i_y_osm, i_z);
+        }
+        if (rasterBytes == null) {
+            return false;
         }
-        // copy all pixels from the color array to the tile bitmap
-        tile_bitmap.setPixels(pixels, 0, i_pixel_size, 0, 0, i_pixel_size, i_pixel_size);
-        return b_rc;
+        return tileBitmapCache.putTile(databasePath, i_z, i_x, i_y_osm, rasterBytes, tile_bitmap);
     }
 
     /**
@@ -256,6 +258,7 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
       * @throws IOException  if something goes wrong.
       */
     public int insertBitmapTile( int i_x, int i_y_osm, int i_z, Bitmap tile_bitmap, int forceUnique ) throws IOException {
+        TileBitmapCache.getInstance().removeTile(databasePath, i_z, i_x, i_y_osm);
         try {
             return mbtilesSplitter.insertBitmapTile(i_x, i_y_osm, i_z, tile_bitmap, forceUnique);
         } catch (IOException e) {
@@ -264,6 +267,61 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
         }
     }
 
+    /**
+      * Function to insert a new downloaded Tile image to the mbtiles Database.
+      *
+      * <p>The image is stored as it was downloaded, without decoding and compressing it again.
+      * The tiles are written in batches of {@link MBTilesWriter#DEFAULT_BATCH_SIZE}, the last
+      * ones when the database is closed.</p>
+      *
+      * @param i_x the value for tile_column field in the map,tiles Tables and part of the tile_id when image is not blank
+      * @param i_y_osm the value for tile_row field in the map,tiles Tables and part of the tile_id when image is not blank
+      * @param i_z the value for zoom_level field in the map,tiles Tables and part of the tile_id when image is not blank
+      * @param tileData the encoded image.
+      * @param forceUnique if 1, it check if image is unique in Database [may be slow if used]
+      * @return 0: correct, 2: the data are not an image, otherwise error
+      * @throws IOException  if something goes wrong.
+      */
+    public synchronized int insertTileData( int i_x, int i_y_osm, int i_z, byte[] tileData, int forceUnique ) throws IOException {
+        if (!ImageUtilities.isImage(tileData)) { // probably an error text sent by the server
+            return 2;
+        }
+        if (mbtilesWriter == null) {
+            mbtilesWriter = new MBTilesWriter(mbtilesSplitter, MBTilesWriter.DEFAULT_BATCH_SIZE, forceUnique);
+        }
+        TileBitmapCache.getInstance().removeTile(databasePath, i_z, i_x, i_y_osm);
+        try {
+            mbtilesWriter.addTile(i_x, i_y_osm, i_z, tileData);
+            return 0;
+        } catch (IOException e) {
+            GPLog.error(this, null, e);
+            return 1;
+        }
+    }
+
+    /**
+      * Function to insert a batch of downloaded Tile images to the mbtiles Database.
+      *
+      * <p>The tiles are stored and their requests removed from the request_url table
+      * in one transaction.</p>
+      *
+      * @param tilesData the encoded images by tile_id of their request.
+      * @param forceUnique if 1, it check if image is unique in Database [may be slow if used]
+      * @return the number of tiles stored.
+      * @throws IOException if the batch could not be stored, in which case the requests remain.
+      */
+    public int insertTilesData( Map<String, byte[]> tilesData, int forceUnique ) throws IOException {
+        TileBitmapCache tileBitmapCache = TileBitmapCache.getInstance();
+        for( String tileId : tilesData.keySet() ) { // 'replace' requests change existing tiles
+            int[] zxy_osm_tms = MBTilesDroidSpitter.get_zxy_from_tile_id(tileId);
+            if ((zxy_osm_tms == null) || (zxy_osm_tms.length != 4)) { // invalid tile_id, skipped when stored
+                continue;
+            }
+            tileBitmapCache.removeTile(databasePath, zxy_osm_tms[0], zxy_osm_tms[1], zxy_osm_tms[2]);
+        }
+        return mbtilesSplitter.insertTilesData(tilesData, forceUnique);
+    }
+
     public void open() {
         if (mbtilesSplitter.getmbtiles() == null) {
             mbtilesSplitter.open(true, ""); // "" : default value will be used '1.1'
@@ -309,9 +367,20 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
                 mbtiles_async.cancel(true);
             }
         }
+        synchronized (this) {
+            if (mbtilesWriter != null) {
+                try {
+                    mbtilesWriter.close();
+                } catch (IOException e) {
+                    GPLog.error(this, null, e);
+                }
+                mbtilesWriter = null;
+            }
+        }
         if (mbtilesSplitter != null) {
             mbtilesSplitter.close();
         }
+        TileBitmapCache.getInstance().removeSource(databasePath);
     }
 
     /**
@@ -451,6 +520,10 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
                 // 'file' or 'http'
                 s_request_protocol = s_value;
             }
+            if (s_key.equals("force_unique")) {
+                // 1: identical images are stored once
+                i_force_unique = s_value.equals("1") ? 1 : 0;
+            }
 
             // GPLog.androidLog(-1, "run_retrieve_url: key[" + s_key + "]  value[" + s_value +
             // "] load[" + i_load_url + "] ");
@@ -530,6 +603,20 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
         return new LinkedHashMap<String, String>();
     }
 
+    /**
+      * Returns a page of the collected urls mapped to their tile id, ordered by tile id.
+      * 
+      * @param afterTileId the last tile id of the previous page or <code>null</code> for the first page.
+      * @param limit amount of records to retrieve.
+      * @return  the map of ids, urls.
+      */
+    public HashMap<String, String> getRequestUrlsMap( String afterTileId, int limit ) {
+        if (mbtilesSplitter != null) {
+            return mbtilesSplitter.retrieve_request_url(afterTileId, limit);
+        }
+        return new LinkedHashMap<String, String>();
+    }
+
     /**
       * Bulk insert of record in table.
       * 
@@ -30,23 +30,36 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystems;
 import eu.geopaparazzi.library.util.ColorUtilities;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.ResourcesManager;
+import eu.geopaparazzi.library.util.TileBitmapCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryQueryModes;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.TableTypes;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.AbstractSpatialTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryIterator;
+import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryTileCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DatabaseCreationAndProperties;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.GeopaparazziDatabaseProperties;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.PreparedStatementCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Vectors;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteConnectionPool;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Rasterlite;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteIndexing;
 import eu.geopaparazzi.spatialite.database.spatial.util.comparators.OrderComparator;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialDatabasesCatalog;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.geopaparazzi.spatialite.database.spatial.util.Style;
 import jsqlite.Database;
@@ -64,17 +77,30 @@ import static eu.geopaparazzi.spatialite.database.spatial.core.daos.Geopaparazzi
 /**
  * An utility class to handle the spatial database.
  *
+ * <p>The database is used through a {@link SpatialiteConnectionPool}: the
+ * metadata and the modifications go through the writer connection returned
+ * by {@link #getDatabase()}, drawing, info queries and raster tiles through
+ * read-only connections, so that they can run in parallel.</p>
+ *
  * @author Andrea Antonello (www.hydrologis.com)
  */
 @SuppressWarnings("nls")
 public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
+    private static final int MAX_CACHED_STATEMENTS = 32;
+    private static final int MAX_READ_CONNECTIONS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
 
     private String uniqueDbName4DataProperties = "";
 
     private Database dbJava;
+    // the read-only connections, with the prepared bbox queries that are run on every draw
+    private SpatialiteConnectionPool connectionPool;
 
     private HashMap<String, Paint> fillPaints = new HashMap<String, Paint>();
     private HashMap<String, Paint> strokePaints = new HashMap<String, Paint>();
+    // the generalized geometry levels of the tables [unique table name, max zoom level to level table]
+    private final HashMap<String, TreeMap<Integer, String>> geometryPyramidsMap = new HashMap<String, TreeMap<Integer, String>>();
+    // whether the tables can be queried on the R*Tree of their spatial index [unique table name, has R*Tree]
+    private final HashMap<String, Boolean> spatialIndexRtreeMap = new HashMap<String, Boolean>();
 
     private List<SpatialVectorTable> vectorTableList;
     private List<SpatialRasterTable> rasterTableList;
@@ -94,6 +120,18 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @throws IOException if something goes wrong.
      */
     public SpatialiteDatabaseHandler(String dbPath) throws IOException {
+        this(dbPath, null);
+    }
+
+    /**
+     * Constructor that reuses the metadata read on a previous start.
+     *
+     * @param dbPath       the path to the database this handler connects to.
+     * @param catalogEntry the metadata of the unchanged database or <code>null</code>,
+     *                     to read them from the database.
+     * @throws IOException if something goes wrong.
+     */
+    public SpatialiteDatabaseHandler(String dbPath, SpatialDatabasesCatalog.Entry catalogEntry) throws IOException {
         super(dbPath);
         try {
             try {
@@ -117,6 +155,8 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
             dbJava = new jsqlite.Database();
             try {
                 dbJava.open(databasePath, jsqlite.Constants.SQLITE_OPEN_READWRITE | jsqlite.Constants.SQLITE_OPEN_CREATE);
+                dbJava.busy_timeout(SpatialiteConnectionPool.BUSY_TIMEOUT);
+                connectionPool = new SpatialiteConnectionPool(dbJava, MAX_READ_CONNECTIONS, MAX_CACHED_STATEMENTS);
                 isDatabaseValid = true;
             } catch (Exception e) {
                 GPLog.error(this, "Database marked as invalid: " + databasePath, e);
@@ -126,7 +166,13 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
             if (isValid()) {
                 // check database and collect the views list
                 try {
-                    databaseType = DatabaseCreationAndProperties.checkDatabaseTypeAndValidity(dbJava, spatialVectorMap, spatialVectorMapErrors);
+                    if (catalogEntry != null) {
+                        databaseType = catalogEntry.getDatabaseType();
+                        spatialVectorMap.putAll(catalogEntry.getSpatialVectorMap());
+                        spatialVectorMapErrors.putAll(catalogEntry.getSpatialVectorMapErrors());
+                    } else {
+                        databaseType = DatabaseCreationAndProperties.checkDatabaseTypeAndValidity(dbJava, spatialVectorMap, spatialVectorMapErrors);
+                    }
                 } catch (Exception e) {
                     GPLog.error(this, null, e);
                     isDatabaseValid = false;
@@ -262,7 +308,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @param style the {@link Style} to use.
      * @return the paint.
      */
-    public Paint getFillPaint4Style(Style style) {
+    public synchronized Paint getFillPaint4Style(Style style) {
         Paint paint = fillPaints.get(style.name);
         if (paint == null) {
             paint = new Paint();
@@ -284,7 +330,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      * @param style the {@link Style} to use.
      * @return the paint.
      */
-    public Paint getStrokePaint4Style(Style style) {
+    public synchronized Paint getStrokePaint4Style(Style style) {
         Paint paint = strokePaints.get(style.name);
         if (paint == null) {
             paint = new Paint();
@@ -334,15 +380,20 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public List<byte[]> getWKBFromTableInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e, double w) {
         List<byte[]> list = new ArrayList<byte[]>();
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w);
+        String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, false, table, false);
         try {
-            Stmt stmt = dbJava.prepare(query);
+            PreparedStatementCache reader = connectionPool.acquireReader();
             try {
-                while (stmt.step()) {
-                    list.add(stmt.column_bytes(0));
+                Stmt stmt = reader.acquire(query, n, s, e, w);
+                try {
+                    while (stmt.step()) {
+                        list.add(stmt.column_bytes(0));
+                    }
+                } finally {
+                    reader.release(query, stmt);
                 }
             } finally {
-                stmt.close();
+                connectionPool.releaseReader(reader);
             }
             return list;
         } catch (Exception ex) {
@@ -354,13 +405,19 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     @Override
     public byte[] getRasterTile(String query) {
         try {
-            Stmt stmt = dbJava.prepare(query);
+            PreparedStatementCache reader = connectionPool.acquireReader();
             try {
-                if (stmt.step()) {
-                    return stmt.column_bytes(0);
+                // the query holds the tile indexes, no point in caching it
+                Stmt stmt = reader.getDatabase().prepare(query);
+                try {
+                    if (stmt.step()) {
+                        return stmt.column_bytes(0);
+                    }
+                } finally {
+                    stmt.close();
                 }
             } finally {
-                stmt.close();
+                connectionPool.releaseReader(reader);
             }
         } catch (Exception ex) {
             GPLog.error(this, null, ex);
@@ -381,15 +438,199 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public GeometryIterator getGeometryIteratorInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e,
                                                         double w) {
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w);
-        // GPLog.androidLog(-1,"GeopaparazziOverlay.getGeometryIteratorInBounds query["+query+"]");
-        return new GeometryIterator(dbJava, query);
+        String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, false, table, false);
+        return new GeometryIterator(connectionPool, query, false, n, s, e, w);
+    }
+
+    /**
+     * Get the {@link GeometryIterator} of a table in a given bound with generalized geometries.
+     *
+     * <p>If the table has a generalized geometry level for the zoom level, the geometries
+     * are read from it. Otherwise they are simplified by the query.</p>
+     *
+     * <p>If WGS 84 is requested and the srid of the table is supported by
+     * {@link CoordinateReferenceSystems}, the geometries are read as stored and
+     * converted by the iterator, instead of being transformed by the database.</p>
+     *
+     * <p>The geometries are searched as set in {@link SPL_Vectors#RENDER_QUERYMODE}.</p>
+     *
+     * @param destSrid          the srid to which to transform to.
+     * @param withRowId         if <code>true</code>, the ROWIDs are available through {@link GeometryIterator#getRowId()}.
+     * @param table             the table to use.
+     * @param n                 north bound.
+     * @param s                 south bound.
+     * @param e                 east bound.
+     * @param w                 west bound.
+     * @param zoomLevel         the zoom level the geometries are drawn at.
+     * @param simplifyTolerance the simplification distance in units of the destination srid,
+     *                          0 to get the geometries in full resolution.
+     * @return the geometries iterator.
+     */
+    public GeometryIterator getGeometryIteratorInBounds(String destSrid, boolean withRowId, SpatialVectorTable table, double n,
+                                                        double s, double e, double w, int zoomLevel, double simplifyTolerance) {
+        return getGeometryIteratorInBounds(destSrid, withRowId, table, n, s, e, w, zoomLevel, simplifyTolerance, null);
+    }
+
+    /**
+     * Get the {@link GeometryIterator} of a table in a given bound with generalized geometries,
+     * whose query is aborted once a token is canceled.
+     *
+     * @param destSrid          the srid to which to transform to.
+     * @param withRowId         if <code>true</code>, the ROWIDs are available through {@link GeometryIterator#getRowId()}.
+     * @param table             the table to use.
+     * @param n                 north bound.
+     * @param s                 south bound.
+     * @param e                 east bound.
+     * @param w                 west bound.
+     * @param zoomLevel         the zoom level the geometries are drawn at.
+     * @param simplifyTolerance the simplification distance in units of the destination srid,
+     *                          0 to get the geometries in full resolution.
+     * @param cancellationToken the token of the drawing request or <code>null</code>.
+     * @return the geometries iterator.
+     * @see #getGeometryIteratorInBounds(String, boolean, SpatialVectorTable, double, double, double, double, int, double)
+     */
+    public GeometryIterator getGeometryIteratorInBounds(String destSrid, boolean withRowId, SpatialVectorTable table, double n,
+                                                        double s, double e, double w, int zoomLevel, double simplifyTolerance,
+                                                        CancellationToken cancellationToken) {
+        String pyramidTable = getGeometryPyramid(table, zoomLevel);
+        if (pyramidTable != null) {
+            String query = SpatialiteUtilities.buildPyramidGeometriesInBoundsStatement(destSrid, withRowId, table, pyramidTable);
+            return new GeometryIterator(connectionPool, cancellationToken, query, withRowId, n, s, e, w);
+        }
+        GeometryQueryModes queryMode = getRenderQueryMode(table);
+        if (destSrid.equals(LibraryConstants.SRID_WGS84_4326) && !table.getSrid().equals(destSrid)) {
+            CoordinateReferenceSystem tableCrs = CoordinateReferenceSystems.forSrid(table.getSrid());
+            if (tableCrs != null) {
+                return getNativeGeometryIteratorInBounds(tableCrs, withRowId, table, n, s, e, w, simplifyTolerance, queryMode,
+                        cancellationToken);
+            }
+        }
+        if (simplifyTolerance > 0 && !table.isPoint()) {
+            // points are never simplified, their query has no tolerance parameter
+            String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, destSrid, withRowId, table, true,
+                    queryMode);
+            return new GeometryIterator(connectionPool, cancellationToken, query, withRowId, n, s, e, w, simplifyTolerance);
+        }
+        String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(destSrid, destSrid, withRowId, table, false,
+                queryMode);
+        return new GeometryIterator(connectionPool, cancellationToken, query, withRowId, n, s, e, w);
+    }
+
+    /**
+     * Get the {@link GeometryIterator} of a table in WGS 84 bounds, that reads
+     * the geometries in the srid of the table and converts them in java.
+     */
+    private GeometryIterator getNativeGeometryIteratorInBounds(CoordinateReferenceSystem tableCrs, boolean withRowId,
+                                                               SpatialVectorTable table, double n, double s, double e,
+                                                               double w, double simplifyTolerance,
+                                                               GeometryQueryModes queryMode,
+                                                               CancellationToken cancellationToken) {
+        String boundsSrid = LibraryConstants.SRID_WGS84_4326;
+        GeometryIterator geometryIterator;
+        if (simplifyTolerance > 0 && !table.isPoint()) {
+            // the tolerance in units of the table srid, at the center of the bounds
+            double lat = (n + s) / 2.0;
+            double[] coords = {w, lat, w + simplifyTolerance, lat};
+            tableCrs.fromWgs84(coords, 0, 2);
+            double tableTolerance = Math.hypot(coords[2] - coords[0], coords[3] - coords[1]);
+            String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(boundsSrid, table.getSrid(), withRowId, table,
+                    true, queryMode);
+            geometryIterator = new GeometryIterator(connectionPool, cancellationToken, query, withRowId, n, s, e, w,
+                    tableTolerance);
+        } else {
+            String query = SpatialiteUtilities.buildGeometriesInBoundsStatement(boundsSrid, table.getSrid(), withRowId, table,
+                    false, queryMode);
+            geometryIterator = new GeometryIterator(connectionPool, cancellationToken, query, withRowId, n, s, e, w);
+        }
+        geometryIterator.setSourceCrs(tableCrs);
+        return geometryIterator;
+    }
+
+    /**
+     * Create the generalized geometry levels of a table, to be used for drawing at low zoom levels.
+     *
+     * <p>This can take long on big tables and should not be run on the ui thread.</p>
+     *
+     * @param table         the table to use.
+     * @param maxZoomLevels the highest zoom level each generalized level is used for.
+     * @return the number of created levels.
+     * @throws Exception if something goes wrong.
+     */
+    public int createGeometryPyramid(SpatialVectorTable table, int[] maxZoomLevels) throws Exception {
+        int levels = SpatialiteIndexing.spatialiteCreateGeometryPyramid(dbJava, table.getTableName(), table.getGeomName(),
+                table.getSrid(), maxZoomLevels, databaseType);
+        // the cached statements may read dropped level tables
+        connectionPool.clearStatements();
+        synchronized (geometryPyramidsMap) {
+            geometryPyramidsMap.remove(table.getUniqueNameBasedOnDbFilePath());
+        }
+        table.incrementDataVersion();
+        GeometryTileCache.getInstance().invalidate(table.getUniqueNameBasedOnDbFilePath());
+        return levels;
+    }
+
+    /**
+     * Get the query mode to use to draw a table, falling back to {@link GeometryQueryModes#EXACT}
+     * if the table has no R*Tree to query.
+     */
+    private GeometryQueryModes getRenderQueryMode(SpatialVectorTable table) {
+        if (SPL_Vectors.RENDER_QUERYMODE != GeometryQueryModes.MBR || table.isView()) {
+            return GeometryQueryModes.EXACT;
+        }
+        Boolean hasRtree;
+        synchronized (spatialIndexRtreeMap) {
+            hasRtree = spatialIndexRtreeMap.get(table.getUniqueNameBasedOnDbFilePath());
+            if (hasRtree == null) {
+                try {
+                    hasRtree = SpatialiteIndexing.hasSpatialIndexRtree(dbJava, table.getTableName(), table.getGeomName());
+                } catch (Exception ex) {
+                    GPLog.error(this, null, ex);
+                    hasRtree = false;
+                }
+                spatialIndexRtreeMap.put(table.getUniqueNameBasedOnDbFilePath(), hasRtree);
+            }
+        }
+        return hasRtree ? GeometryQueryModes.MBR : GeometryQueryModes.EXACT;
+    }
+
+    /**
+     * Get the generalized geometry level of a table to use for a zoom level.
+     *
+     * @return the level table, i.e. the one with the nearest highest zoom level, or <code>null</code>.
+     */
+    private String getGeometryPyramid(SpatialVectorTable table, int zoomLevel) {
+        if (table.isView()) {
+            return null;
+        }
+        TreeMap<Integer, String> pyramidsMap;
+        synchronized (geometryPyramidsMap) {
+            pyramidsMap = geometryPyramidsMap.get(table.getUniqueNameBasedOnDbFilePath());
+            if (pyramidsMap == null) {
+                try {
+                    pyramidsMap = SpatialiteIndexing.getGeometryPyramids(dbJava, table.getTableName(), table.getGeomName());
+                } catch (Exception ex) {
+                    GPLog.error(this, null, ex);
+                    pyramidsMap = new TreeMap<Integer, String>();
+                }
+                geometryPyramidsMap.put(table.getUniqueNameBasedOnDbFilePath(), pyramidsMap);
+            }
+        }
+        Map.Entry<Integer, String> pyramidEntry = pyramidsMap.ceilingEntry(zoomLevel);
+        if (pyramidEntry == null) {
+            return null;
+        }
+        return pyramidEntry.getValue();
     }
 
     public void close() throws Exception {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
         if (dbJava != null) {
             dbJava.close();
         }
+        // the tiles of the raster tables
+        TileBitmapCache.getInstance().removeSource(databasePath);
     }
 
     /**
@@ -407,39 +648,47 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public void intersectionToStringBBOX(String boundsSrid, SpatialVectorTable spatialTable, double n, double s, double e,
                                          double w, StringBuilder resultStringBuilder, String indentStr) throws Exception {
-        String query = getIntersectionQueryBBOX(boundsSrid, spatialTable, n, s, e, w);
-        Stmt stmt = dbJava.prepare(query);
+        String query = getIntersectionStatementBBOX(boundsSrid, spatialTable);
+        PreparedStatementCache reader = connectionPool.acquireReader();
         try {
-            while (stmt.step()) {
-                int column_count = stmt.column_count();
-                for (int i = 0; i < column_count; i++) {
-                    String cName = stmt.column_name(i);
-                    String value = stmt.column_string(i);
-                    resultStringBuilder.append(indentStr).append(cName).append(": ").append(value).append("\n");
+            Stmt stmt = reader.acquire(query, n, s, e, w);
+            try {
+                while (stmt.step()) {
+                    int column_count = stmt.column_count();
+                    for (int i = 0; i < column_count; i++) {
+                        String cName = stmt.column_name(i);
+                        String value = stmt.column_string(i);
+                        resultStringBuilder.append(indentStr).append(cName).append(": ").append(value).append("\n");
+                    }
+                    resultStringBuilder.append("\n");
                 }
-                resultStringBuilder.append("\n");
+            } finally {
+                reader.release(query, stmt);
             }
         } finally {
-            stmt.close();
+            connectionPool.releaseReader(reader);
         }
     }
 
     /**
-     * Get the query to run for a bounding box intersection.
+     * Get the parameterized query to run for a bounding box intersection.
      * <p/>
      * <p>This assures that the first element of the query is
      * the id field for the record as defined in {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD}.
+     * <p/>
+     * <p>The bounds are bound as {@link PreparedStatementCache#BOUNDS_PARAMETERS}.
      *
      * @param boundsSrid   the srid of the bounds requested.
      * @param spatialTable the {@link SpatialVectorTable} to query.
-     * @param n            north bound.
-     * @param s            south bound.
-     * @param e            east bound.
-     * @param w            west bound.
      * @return the query to run to get all fields.
      */
-    public static String getIntersectionQueryBBOX(String boundsSrid, SpatialVectorTable spatialTable, double n, double s,
-                                                  double e, double w) {
+    public static String getIntersectionStatementBBOX(String boundsSrid, SpatialVectorTable spatialTable) {
+        String[] bounds = PreparedStatementCache.BOUNDS_PARAMETERS;
+        return getIntersectionQueryBBOX(boundsSrid, spatialTable, bounds[3], bounds[1], bounds[2], bounds[0]);
+    }
+
+    private static String getIntersectionQueryBBOX(String boundsSrid, SpatialVectorTable spatialTable, String n, String s,
+                                                   String e, String w) {
         boolean doTransform = false;
         String fieldNamesList = SpatialiteUtilities.SPATIALTABLE_ID_FIELD;
         // List of non-blob fields
@@ -896,10 +1145,34 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
     /**
      * Getter for the spatialite db reference.
      *
+     * <p>This is the writer connection, to be used for modifications. Queries
+     * that run outside of the ui thread should use a reader of {@link #getConnectionPool()}.</p>
+     *
      * @return the spatialite database reference.
      */
     public Database getDatabase() {
         return dbJava;
     }
 
+    /**
+     * Get the metadata of the database to be kept in the catalog.
+     *
+     * @return the catalog entry or <code>null</code>, if the type of the database could not be determined.
+     */
+    public SpatialDatabasesCatalog.Entry getCatalogEntry() {
+        if (databaseType == null) {
+            return null;
+        }
+        return new SpatialDatabasesCatalog.Entry(databaseFile, databaseType, spatialVectorMap, spatialVectorMapErrors);
+    }
+
+    /**
+     * Getter for the connections of the database.
+     *
+     * @return the connection pool or <code>null</code>, if the database could not be opened.
+     */
+    public SpatialiteConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
 }
@@ -0,0 +1,73 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.spatialite.database.spatial.core.enums;
+
+/**
+ * The ways geometries in a bound are searched for.
+ *
+ * <p>The mode used for drawing is set in
+ * {@link eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Vectors#RENDER_QUERYMODE}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum GeometryQueryModes {
+    /**
+     * Geometries that intersect the bound, searched through the
+     * SpatialIndex virtual table and checked with <code>ST_Intersects</code>.
+     *
+     * <p>Needed by the tools that work on the returned features.</p>
+     */
+    EXACT(0),
+    /**
+     * Geometries whose bounding box overlaps the bound, searched directly in the R*Tree
+     * of the spatial index. Enough for drawing, since the canvas clips anyway.
+     *
+     * <p>Tables without R*Tree, like spatial views, fall back to {@link #EXACT}.</p>
+     */
+    MBR(1);
+
+    private int code;
+
+    GeometryQueryModes(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the GeometryQueryModes for a given code.
+     *
+     * @param code the code.
+     * @return the mode.
+     */
+    public static GeometryQueryModes forCode(int code) {
+        switch (code) {
+            case 0:
+                return EXACT;
+            case 1:
+                return MBR;
+            default:
+                break;
+        }
+        throw new IllegalArgumentException("No mode defined for code: " + code);
+    }
+
+}
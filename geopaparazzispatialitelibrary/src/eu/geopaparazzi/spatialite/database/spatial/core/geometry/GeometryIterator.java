@@ -17,12 +17,19 @@
  */
 package eu.geopaparazzi.spatialite.database.spatial.core.geometry;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKBReader;
 
 import java.util.Iterator;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.PreparedStatementCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteConnectionPool;
 import jsqlite.Constants;
 import jsqlite.Database;
 import jsqlite.Exception;
@@ -36,14 +43,24 @@ import jsqlite.Stmt;
 @SuppressWarnings("nls")
 public class GeometryIterator implements Iterator<Geometry> {
     private WKBReader wkbReader = new WKBReader();
+    private ProjectingWKBReader projectingWkbReader = null;
+    private ProjectingWKBReader.OrdinateProjection projection = null;
+    private CoordinateReferenceSystem sourceCrs = null;
     private Stmt stmt;
+    private SpatialiteConnectionPool connectionPool = null;
+    private PreparedStatementCache statementCache = null;
+    private CancellationToken cancellationToken = null;
+    private String cachedQuery = null;
+    private int geometryColumn = 0;
+    private long rowId = -1;
+    private boolean hadError = false;
     private String labelText = "";
     /**
      * Returns Label String (if any)
      *
      *  <p>
-     * - if any label is being supported, will build s_label from column 1 to end<br>
-     * -- each column (after 1) will have a ', ' inserted<br>
+     * - if any label is being supported, will build s_label from the column after the geometry to end<br>
+     * -- each column (after the first) will have a ', ' inserted<br>
      * -- s_label will be empty if no label was requested<br>
      * @return s_label
     */
@@ -54,19 +71,19 @@ public class GeometryIterator implements Iterator<Geometry> {
      * Builds Label String (if any)
      *
      *  <p>
-     * - assumes that column 0 is ALWAYS a Geometry<br>
-     * - if any label is being supported, will build s_label from column 1 to end<br>
+     * - assumes that column 0 is ALWAYS a Geometry, column 1 if the ROWID is in column 0<br>
+     * - if any label is being supported, will build s_label from the column after the geometry to end<br>
      * -- each column (after 1) will have a ', ' inserted<br>
      * -- s_label will be set to blank before filling<br>
      * @param stmt statement being executed
      */
     private void setLabelText( Stmt stmt ) {
         labelText = "";
-        int i = 1;
+        int i = geometryColumn + 1;
         int columnCount = 0;
         try {
-            if ((stmt != null) && (columnCount = stmt.column_count()) > 1) {
-                for( i = 1; i < columnCount; i++ ) {
+            if ((stmt != null) && (columnCount = stmt.column_count()) > geometryColumn + 1) {
+                for( i = geometryColumn + 1; i < columnCount; i++ ) {
                     if (!labelText.equals("")) {
                         labelText += ", ";
                     }
@@ -100,13 +117,126 @@ public class GeometryIterator implements Iterator<Geometry> {
      * @param query the query to use.
      */
     public GeometryIterator( Database database, String query ) {
+        this(database, query, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param database the database to use.
+     * @param query the query to use.
+     * @param withRowId if <code>true</code>, the query has the ROWID in column 0 and the geometry in column 1.
+     */
+    public GeometryIterator( Database database, String query, boolean withRowId ) {
+        if (withRowId)
+            geometryColumn = 1;
         try {
             stmt = database.prepare(query);
         } catch (Exception e) {
+            hadError = true;
             GPLog.error(this, "GeometryIterator.creation sql[" + query + "]", e);
         }
     }
 
+    /**
+     * Constructor for a bbox query on a cached prepared statement of a reader connection.
+     *
+     * <p>The reader is owned by the iterator until {@link #close()}, which gives
+     * back the statement and the reader.</p>
+     *
+     * @param connectionPool the connections to get the reader from.
+     * @param query the query, with the bounds as {@link PreparedStatementCache#BOUNDS_PARAMETERS}.
+     * @param withRowId if <code>true</code>, the query has the ROWID in column 0 and the geometry in column 1.
+     * @param n north bound.
+     * @param s south bound.
+     * @param e east bound.
+     * @param w west bound.
+     * @param extraParameters the values of the parameters following the bounds.
+     */
+    public GeometryIterator( SpatialiteConnectionPool connectionPool, String query, boolean withRowId, double n, double s,
+            double e, double w, double... extraParameters ) {
+        this(connectionPool, null, query, withRowId, n, s, e, w, extraParameters);
+    }
+
+    /**
+     * Constructor for a cancelable bbox query on a cached prepared statement of a reader connection.
+     *
+     * <p>Once the token is canceled, the running step is aborted and the iterator ends.</p>
+     *
+     * @param connectionPool the connections to get the reader from.
+     * @param cancellationToken the token of the request or <code>null</code>.
+     * @param query the query, with the bounds as {@link PreparedStatementCache#BOUNDS_PARAMETERS}.
+     * @param withRowId if <code>true</code>, the query has the ROWID in column 0 and the geometry in column 1.
+     * @param n north bound.
+     * @param s south bound.
+     * @param e east bound.
+     * @param w west bound.
+     * @param extraParameters the values of the parameters following the bounds.
+     */
+    public GeometryIterator( SpatialiteConnectionPool connectionPool, CancellationToken cancellationToken, String query,
+            boolean withRowId, double n, double s, double e, double w, double... extraParameters ) {
+        if (withRowId)
+            geometryColumn = 1;
+        this.cancellationToken = cancellationToken;
+        try {
+            statementCache = connectionPool.acquireReader(cancellationToken);
+            this.connectionPool = connectionPool;
+            stmt = statementCache.acquire(query, n, s, e, w);
+            cachedQuery = query;
+            for( int i = 0; i < extraParameters.length; i++ ) {
+                stmt.bind(PreparedStatementCache.FIRST_EXTRA_PARAMETER + i, extraParameters[i]);
+            }
+        } catch (Exception ex) {
+            hadError = true;
+            if (!isCanceled())
+                GPLog.error(this, "GeometryIterator.creation sql[" + query + "]", ex);
+            if (stmt != null) {
+                statementCache.release(query, stmt);
+                stmt = null;
+            }
+            if (this.connectionPool != null) {
+                connectionPool.releaseReader(statementCache);
+                this.connectionPool = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the ROWID of the current geometry.
+     *
+     * @return the ROWID or -1, if the query has no ROWID.
+     */
+    public long getRowId() {
+        return rowId;
+    }
+
+    /**
+     * Set a projection to apply to the geometries, for drawing.
+     *
+     * <p>The geometries are then decoded by a {@link ProjectingWKBReader}, 
+     * with the {@link WKBReader} as fallback.</p>
+     *
+     * @param projection the projection or <code>null</code> to get the original geometries.
+     */
+    public void setProjection( ProjectingWKBReader.OrdinateProjection projection ) {
+        this.projection = projection;
+        projectingWkbReader = projection != null ? new ProjectingWKBReader(projection) : null;
+        if (projectingWkbReader != null)
+            projectingWkbReader.setSourceCrs(sourceCrs);
+    }
+
+    /**
+     * Set the reference system the query returns the geometries in, when they
+     * are converted to WGS 84 in java instead of the database.
+     *
+     * @param sourceCrs the reference system or <code>null</code>, if the query returns the destination srid.
+     */
+    public void setSourceCrs( CoordinateReferenceSystem sourceCrs ) {
+        this.sourceCrs = sourceCrs;
+        if (projectingWkbReader != null)
+            projectingWkbReader.setSourceCrs(sourceCrs);
+    }
+
     @Override
     public boolean hasNext() {
         if (stmt == null) {
@@ -115,7 +245,9 @@ public class GeometryIterator implements Iterator<Geometry> {
         try { // sqlite-amalgamation-3080100 allways returns false with BLOBS
             return stmt.step();
         } catch (Exception e) {
-            GPLog.error(this, "GeometryIterator.hasNext()[stmt.step() failed]", e);
+            hadError = true;
+            if (!isCanceled())
+                GPLog.error(this, "GeometryIterator.hasNext()[stmt.step() failed]", e);
             return false;
         }
     }
@@ -127,8 +259,17 @@ public class GeometryIterator implements Iterator<Geometry> {
             return null;
         }
         try {
-            byte[] geomBytes = stmt.column_bytes(0);
-            Geometry geometry = wkbReader.read(geomBytes);
+            if (geometryColumn > 0)
+                rowId = stmt.column_long(0);
+            byte[] geomBytes = stmt.column_bytes(geometryColumn);
+            Geometry geometry;
+            if (projectingWkbReader != null) {
+                geometry = readProjected(geomBytes);
+            } else {
+                geometry = wkbReader.read(geomBytes);
+                if (sourceCrs != null)
+                    toWgs84(geometry);
+            }
             setLabelText(stmt);
             return geometry;
         } catch (java.lang.Exception e) {
@@ -137,6 +278,55 @@ public class GeometryIterator implements Iterator<Geometry> {
         return null;
     }
 
+    /**
+     * Check if the query failed, for example on a busy database.
+     *
+     * <p>The iterator then ends as if there were no more geometries,
+     * so the geometries read until then are incomplete.</p>
+     *
+     * @return <code>true</code> if the query could not be prepared or a step failed.
+     */
+    public boolean hadError() {
+        return hadError;
+    }
+
+    private Geometry readProjected( byte[] geomBytes ) throws ParseException {
+        try {
+            return projectingWkbReader.read(geomBytes);
+        } catch (ParseException e) {
+            GPLog.error(this, "GeometryIterator.next()[projecting read failed, using WKBReader]", e);
+        }
+        Geometry geometry = wkbReader.read(geomBytes);
+        if (sourceCrs != null)
+            toWgs84(geometry);
+        geometry.apply(new CoordinateFilter(){
+            public void filter( Coordinate coordinate ) {
+                coordinate.x = projection.projectX(coordinate.x);
+                coordinate.y = projection.projectY(coordinate.y);
+            }
+        });
+        geometry.geometryChanged();
+        return geometry;
+    }
+
+    private void toWgs84( Geometry geometry ) {
+        final double[] coords = new double[2];
+        geometry.apply(new CoordinateFilter(){
+            public void filter( Coordinate coordinate ) {
+                coords[0] = coordinate.x;
+                coords[1] = coordinate.y;
+                sourceCrs.toWgs84(coords, 0, 1);
+                coordinate.x = coords[0];
+                coordinate.y = coords[1];
+            }
+        });
+        geometry.geometryChanged();
+    }
+
+    private boolean isCanceled() {
+        return cancellationToken != null && cancellationToken.isCanceled();
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
@@ -158,7 +348,18 @@ public class GeometryIterator implements Iterator<Geometry> {
      * @throws Exception  if something goes wrong.
      */
     public void close() throws Exception {
-        if (stmt != null)
-            stmt.close();
+        if (stmt != null) {
+            // interrupted statements are not put back
+            if (statementCache != null && !isCanceled()) {
+                statementCache.release(cachedQuery, stmt);
+            } else {
+                stmt.close();
+            }
+            stmt = null;
+        }
+        if (connectionPool != null) {
+            connectionPool.releaseReader(statementCache);
+            connectionPool = null;
+        }
     }
 }
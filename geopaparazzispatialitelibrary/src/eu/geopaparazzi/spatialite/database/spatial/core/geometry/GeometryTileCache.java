@@ -0,0 +1,285 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.geometry;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Vectors;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+import eu.geopaparazzi.spatialite.database.spatial.util.Style;
+
+/**
+ * A memory bounded cache of decoded geometries of vector tables.
+ *
+ * <p>Entries are kept per table, zoom level and tile aligned envelope and
+ * hold the geometries already projected into the view space of the zoom level,
+ * so that redraws of an area that has been loaded only cost canvas work.</p>
+ *
+ * <p>The least recently used entries are evicted once the estimated size of
+ * the cached geometries exceeds the memory budget. Entries of a table have
+ * to be invalidated through {@link #invalidate(String)} when its data change,
+ * after incrementing its data version, so that tiles loaded meanwhile are not added.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GeometryTileCache {
+
+    private static final String SEP = SpatialiteUtilities.UNIQUENAME_SEPARATOR;
+
+    private static GeometryTileCache geometryTileCache = null;
+
+    private final LinkedHashMap<String, GeometryTile> tilesMap = new LinkedHashMap<String, GeometryTile>(16, 0.75f, true);
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes the memory budget of the cache in bytes.
+     */
+    public GeometryTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the singleton instance, which uses an eighth of the available heap.
+     */
+    public static synchronized GeometryTileCache getInstance() {
+        if (geometryTileCache == null) {
+            geometryTileCache = new GeometryTileCache(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return geometryTileCache;
+    }
+
+    /**
+     * Get a cached tile of a table that covers the requested envelope.
+     *
+     * @param table        the table.
+     * @param zoomLevel    the zoom level the geometries have been projected for.
+     * @param viewEnvelope the envelope that needs to be covered, in the srid of the tile envelopes.
+     * @return the covering tile or <code>null</code>.
+     */
+    public synchronized GeometryTile get(SpatialVectorTable table, int zoomLevel, Envelope viewEnvelope) {
+        String prefix = getKeyPrefix(table, zoomLevel);
+        String coveringKey = null;
+        for (Map.Entry<String, GeometryTile> entry : tilesMap.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getValue().getEnvelope().contains(viewEnvelope)) {
+                coveringKey = entry.getKey();
+                break;
+            }
+        }
+        if (coveringKey == null) {
+            return null;
+        }
+        // access through get to update the lru order
+        return tilesMap.get(coveringKey);
+    }
+
+    /**
+     * Get the cached tile of a table that overlaps most with an envelope.
+     *
+     * <p>Used to load only the part of an envelope that is not in memory yet.</p>
+     *
+     * @param table     the table.
+     * @param zoomLevel the zoom level the geometries have been projected for.
+     * @param envelope  the envelope to load, in the srid of the tile envelopes.
+     * @return the tile with the largest overlap or <code>null</code>, if no tile overlaps.
+     */
+    public synchronized GeometryTile getOverlapping(SpatialVectorTable table, int zoomLevel, Envelope envelope) {
+        String prefix = getKeyPrefix(table, zoomLevel);
+        String overlappingKey = null;
+        double maxArea = 0;
+        for (Map.Entry<String, GeometryTile> entry : tilesMap.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                double area = entry.getValue().getEnvelope().intersection(envelope).getArea();
+                if (area > maxArea) {
+                    maxArea = area;
+                    overlappingKey = entry.getKey();
+                }
+            }
+        }
+        if (overlappingKey == null) {
+            return null;
+        }
+        // access through get to update the lru order
+        return tilesMap.get(overlappingKey);
+    }
+
+    /**
+     * Add a tile to the cache.
+     *
+     * @param table        the table the geometries belong to.
+     * @param zoomLevel    the zoom level the geometries have been projected for.
+     * @param tileEnvelope the envelope that has been queried to get the geometries.
+     * @param geometries   the projected geometries.
+     * @param labels       the label texts, in the same order of the geometries.
+     * @param rowIds       the ROWIDs of the geometries, in the same order of the geometries.
+     * @param dataVersion  the {@link SpatialVectorTable#getDataVersion() data version} of the table
+     *                     read before querying the geometries.
+     * @return the tile, which is not cached if the data of the table have changed meanwhile.
+     */
+    public synchronized GeometryTile put(SpatialVectorTable table, int zoomLevel, Envelope tileEnvelope,
+                                         List<Geometry> geometries, List<String> labels, long[] rowIds, int dataVersion) {
+        GeometryTile tile = new GeometryTile(tileEnvelope, geometries, labels, rowIds);
+        if (tile.getByteSize() > maxBytes) {
+            // would evict everything else, just use it for this draw
+            return tile;
+        }
+        if (table.getDataVersion() != dataVersion) {
+            // an edit happened during the query, the geometries may be outdated
+            return tile;
+        }
+        String key = getKeyPrefix(table, zoomLevel) + tileEnvelope.toString();
+        GeometryTile previous = tilesMap.put(key, tile);
+        if (previous != null) {
+            currentBytes -= previous.getByteSize();
+        }
+        currentBytes += tile.getByteSize();
+
+        Iterator<Map.Entry<String, GeometryTile>> iterator = tilesMap.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, GeometryTile> eldest = iterator.next();
+            if (eldest.getValue() == tile) {
+                continue;
+            }
+            currentBytes -= eldest.getValue().getByteSize();
+            iterator.remove();
+        }
+        return tile;
+    }
+
+    /**
+     * Remove all cached tiles of a table.
+     *
+     * @param uniqueTableName the unique name of the table as of {@link SpatialVectorTable#getUniqueNameBasedOnDbFilePath()}.
+     */
+    public synchronized void invalidate(String uniqueTableName) {
+        String prefix = uniqueTableName + SEP;
+        Iterator<Map.Entry<String, GeometryTile>> iterator = tilesMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, GeometryTile> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                currentBytes -= entry.getValue().getByteSize();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all cached tiles.
+     */
+    public synchronized void clear() {
+        tilesMap.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * @return the estimated size of the cached geometries in bytes.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    private static String getKeyPrefix(SpatialVectorTable table, int zoomLevel) {
+        /*
+         * the label field is part of the key, since
+         * the tiles carry the label texts, as well as the
+         * settings that change which geometries are read and how
+         */
+        Style style = table.getStyle();
+        String labelField = style.labelvisible == 1 ? style.labelfield : "";
+        return table.getUniqueNameBasedOnDbFilePath() + SEP + zoomLevel + SEP + labelField + SEP + style.decimationFactor + SEP
+                + SPL_Vectors.RENDER_QUERYMODE + SEP;
+    }
+
+    /**
+     * A cached set of projected geometries.
+     */
+    public static class GeometryTile {
+        private final Envelope envelope;
+        private final List<Geometry> geometries;
+        private final List<String> labels;
+        private final long[] rowIds;
+        private final long byteSize;
+
+        private GeometryTile(Envelope envelope, List<Geometry> geometries, List<String> labels, long[] rowIds) {
+            this.envelope = envelope;
+            this.geometries = geometries;
+            this.labels = labels;
+            this.rowIds = rowIds;
+
+            long size = 64 + 8L * rowIds.length;
+            for (Geometry geometry : geometries) {
+                size += estimateSize(geometry);
+            }
+            for (String label : labels) {
+                if (label != null)
+                    size += 40 + 2 * label.length();
+            }
+            byteSize = size;
+        }
+
+        /**
+         * @return the envelope that has been queried to get the geometries.
+         */
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+
+        /**
+         * @return the projected geometries.
+         */
+        public List<Geometry> getGeometries() {
+            return geometries;
+        }
+
+        /**
+         * @return the label texts, in the same order of the geometries.
+         */
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        /**
+         * @return the ROWIDs, in the same order of the geometries.
+         */
+        public long[] getRowIds() {
+            return rowIds;
+        }
+
+        /**
+         * @return the estimated memory used by the tile.
+         */
+        public long getByteSize() {
+            return byteSize;
+        }
+
+        private static long estimateSize(Geometry geometry) {
+            // packed x/y doubles as read by the ProjectingWKBReader, the geometry objects and their envelopes
+            return 16L * geometry.getNumPoints() + 128L * geometry.getNumGeometries();
+        }
+    }
+}
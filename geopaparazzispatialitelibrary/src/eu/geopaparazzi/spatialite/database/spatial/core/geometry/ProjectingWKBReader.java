@@ -0,0 +1,254 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.geometry;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.io.ParseException;
+
+import eu.geopaparazzi.library.projections.CoordinateReferenceSystem;
+
+/**
+ * A WKB reader for drawing, which projects the coordinates while decoding.
+ *
+ * <p>The ordinates are read straight from the WKB bytes into packed
+ * 2D coordinate sequences, so that no {@link com.vividsolutions.jts.geom.Coordinate}
+ * objects are created and no projection pass over the geometry is needed afterwards.
+ * Z and M values are skipped.</p>
+ *
+ * <p>Coordinates in a reference system supported by {@link CoordinateReferenceSystem}
+ * can be converted to WGS 84 before the projection, so that the database
+ * doesn't need to transform them.</p>
+ *
+ * <p>Supports the OGC/ISO and the extended (EWKB) type codes. Tools that
+ * need the original geometries have to use the plain {@link com.vividsolutions.jts.io.WKBReader}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ProjectingWKBReader {
+
+    /**
+     * The projection applied to the ordinates.
+     */
+    public interface OrdinateProjection {
+        /**
+         * @param x the x ordinate in the source srid.
+         * @return the projected x ordinate.
+         */
+        double projectX(double x);
+
+        /**
+         * @param y the y ordinate in the source srid.
+         * @return the projected y ordinate.
+         */
+        double projectY(double y);
+    }
+
+    private static final int EWKB_Z_FLAG = 0x80000000;
+    private static final int EWKB_M_FLAG = 0x40000000;
+    private static final int EWKB_SRID_FLAG = 0x20000000;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+    private final OrdinateProjection projection;
+    private CoordinateReferenceSystem sourceCrs = null;
+
+    private byte[] bytes;
+    private int position;
+    private boolean isLittleEndian;
+
+    /**
+     * Constructor.
+     *
+     * @param projection the projection to apply to the ordinates.
+     */
+    public ProjectingWKBReader(OrdinateProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Set the reference system of the read coordinates.
+     *
+     * @param sourceCrs the reference system to convert to WGS 84 before projecting
+     *                  or <code>null</code>, if the coordinates are WGS 84 already.
+     */
+    public void setSourceCrs(CoordinateReferenceSystem sourceCrs) {
+        this.sourceCrs = sourceCrs;
+    }
+
+    /**
+     * Read and project a geometry.
+     *
+     * @param wkb the WKB bytes.
+     * @return the projected geometry.
+     * @throws ParseException if the bytes are not a supported geometry.
+     */
+    public Geometry read(byte[] wkb) throws ParseException {
+        bytes = wkb;
+        position = 0;
+        try {
+            return readGeometry();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ParseException("Unexpected end of WKB at byte " + position);
+        } catch (IllegalArgumentException e) {
+            // invalid rings
+            throw new ParseException(e.getMessage());
+        } finally {
+            bytes = null;
+        }
+    }
+
+    private Geometry readGeometry() throws ParseException {
+        isLittleEndian = bytes[position++] == 1;
+        int typeInt = readInt();
+        int dimensions = 2;
+        if ((typeInt & EWKB_Z_FLAG) != 0)
+            dimensions++;
+        if ((typeInt & EWKB_M_FLAG) != 0)
+            dimensions++;
+        if ((typeInt & EWKB_SRID_FLAG) != 0)
+            readInt();
+        int type = typeInt & 0xffff;
+        // ISO codes: 1000 Z, 2000 M, 3000 ZM
+        switch (type / 1000) {
+            case 1:
+            case 2:
+                dimensions = 3;
+                break;
+            case 3:
+                dimensions = 4;
+                break;
+        }
+        switch (type % 1000) {
+            case 1:
+                return geometryFactory.createPoint(readSequence(1, dimensions));
+            case 2:
+                return geometryFactory.createLineString(readSequence(readInt(), dimensions));
+            case 3:
+                return readPolygon(dimensions);
+            case 4: {
+                Point[] points = new Point[readInt()];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = (Point) readTypedGeometry(Point.class);
+                }
+                return geometryFactory.createMultiPoint(points);
+            }
+            case 5: {
+                LineString[] lines = new LineString[readInt()];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = (LineString) readTypedGeometry(LineString.class);
+                }
+                return geometryFactory.createMultiLineString(lines);
+            }
+            case 6: {
+                Polygon[] polygons = new Polygon[readInt()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = (Polygon) readTypedGeometry(Polygon.class);
+                }
+                return geometryFactory.createMultiPolygon(polygons);
+            }
+            case 7: {
+                Geometry[] geometries = new Geometry[readInt()];
+                for (int i = 0; i < geometries.length; i++) {
+                    geometries[i] = readGeometry();
+                }
+                return geometryFactory.createGeometryCollection(geometries);
+            }
+            default:
+                throw new ParseException("Unsupported WKB geometry type: " + typeInt);
+        }
+    }
+
+    private Geometry readTypedGeometry(Class<? extends Geometry> geometryClass) throws ParseException {
+        Geometry geometry = readGeometry();
+        if (!geometryClass.isInstance(geometry)) {
+            throw new ParseException("Expected " + geometryClass.getSimpleName() + " in WKB, got "
+                    + geometry.getGeometryType());
+        }
+        return geometry;
+    }
+
+    private Polygon readPolygon(int dimensions) {
+        int ringsCount = readInt();
+        if (ringsCount == 0) {
+            return geometryFactory.createPolygon(null, null);
+        }
+        LinearRing shell = geometryFactory.createLinearRing(readSequence(readInt(), dimensions));
+        LinearRing[] holes = new LinearRing[ringsCount - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = geometryFactory.createLinearRing(readSequence(readInt(), dimensions));
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    private PackedCoordinateSequence readSequence(int size, int dimensions) {
+        double[] coords = new double[2 * size];
+        if (sourceCrs == null) {
+            for (int i = 0; i < size; i++) {
+                coords[2 * i] = projection.projectX(readDouble());
+                coords[2 * i + 1] = projection.projectY(readDouble());
+                // skip z and m
+                position += 8 * (dimensions - 2);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                coords[2 * i] = readDouble();
+                coords[2 * i + 1] = readDouble();
+                position += 8 * (dimensions - 2);
+            }
+            sourceCrs.toWgs84(coords, 0, size);
+            for (int i = 0; i < 2 * size; i += 2) {
+                coords[i] = projection.projectX(coords[i]);
+                coords[i + 1] = projection.projectY(coords[i + 1]);
+            }
+        }
+        return new PackedCoordinateSequence.Double(coords, 2);
+    }
+
+    private int readInt() {
+        int b0 = bytes[position++] & 0xff;
+        int b1 = bytes[position++] & 0xff;
+        int b2 = bytes[position++] & 0xff;
+        int b3 = bytes[position++] & 0xff;
+        if (isLittleEndian) {
+            return (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
+        }
+        return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    private double readDouble() {
+        long value = 0;
+        if (isLittleEndian) {
+            for (int i = 7; i >= 0; i--) {
+                value = (value << 8) | (bytes[position + i] & 0xff);
+            }
+        } else {
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[position + i] & 0xff);
+            }
+        }
+        position += 8;
+        return Double.longBitsToDouble(value);
+    }
+}
@@ -15,6 +15,8 @@ import android.graphics.drawable.Drawable;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashMap;
@@ -25,6 +27,8 @@ import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.ImageHashCache;
+import eu.geopaparazzi.library.util.ImageUtilities;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesMetadata.MetadataParseException;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesMetadata.MetadataValidator;
 
@@ -52,6 +56,10 @@ public class MBTilesDroidSpitter {
     HashMap<String, String> bounds_lat_long = null;
     // avoid SpatialiteLockException's - multiple read/writes will be queued
     private ReentrantReadWriteLock db_lock = new ReentrantReadWriteLock();
+    // content hash of the stored images [images_hash table], to store identical images once
+    private static final int i_image_hash_cache_size = 10000;
+    private volatile int i_image_hash_table = -1; // -1: not checked ; 0: does not exist ; 1: exists
+    private final ImageHashCache image_hash_cache = new ImageHashCache(i_image_hash_cache_size);
     // -----------------------------------------------
 
     /**
@@ -289,15 +297,8 @@ public class MBTilesDroidSpitter {
         // i_parm=1: 'ff-ee-dd.rgb' [to be used as tile_id], blank if image is not Blank (all pixels
         // use one RGB value)
         String s_tile_id = get_pixel_rgb_toString(tile_bitmap, 1);
-        ByteArrayOutputStream ba_stream = new ByteArrayOutputStream();
         try {
-            if (this.mbtiles_metadata.get("format") == "png") { // 'png' should be avoided, can
-                // create very big databases
-                tile_bitmap.compress(Bitmap.CompressFormat.PNG, 100, ba_stream);
-            } else { // 'jpg' should be used where possible
-                tile_bitmap.compress(Bitmap.CompressFormat.JPEG, 75, ba_stream);
-            }
-            byte[] ba_tile_data = ba_stream.toByteArray();
+            byte[] ba_tile_data = get_tile_data(tile_bitmap);
             i_rc = insertTile(s_tile_id, i_x, i_y_osm, i_z, ba_tile_data, i_force_unique);
         } catch (Exception e) {
             i_rc = 1;
@@ -308,6 +309,178 @@ public class MBTilesDroidSpitter {
     }
     // -----------------------------------------------
 
+    /**
+     * Function to insert a new downloaded Tile image to the mbtiles Database
+     * - the image is stored as it was downloaded, without decoding and compressing it again
+     * - i_y_osm must be in is Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
+     * - checking will be done to determin if the image is blank [i.e. all pixels have the same RGB]
+     *
+     * @param i_x            the value for tile_column field in the map,tiles Tables and part of the tile_id when image is not blank
+     * @param i_y_osm        the value for tile_row field in the map,tiles Tables and part of the tile_id when image is not blank
+     * @param i_z            the value for zoom_level field in the map,tiles Tables and part of the tile_id when image is not blank
+     * @param ba_tile_data   the encoded image [png, jpg, gif or webp]
+     * @param i_force_unique 1=check if image is unique in Database [may be slow if used]
+     * @return 0: correct, 2: the data are not an image, otherwise error
+     * @throws IOException if something goes wrong.
+     */
+    public int insertTileData(int i_x, int i_y_osm, int i_z, byte[] ba_tile_data, int i_force_unique) throws IOException {
+        if (!ImageUtilities.isImage(ba_tile_data)) { // probably an error text sent by the server
+            return 2;
+        }
+        int i_rc = 0;
+        try {
+            i_rc = insertTile(get_blank_tile_id(ba_tile_data), i_x, i_y_osm, i_z, ba_tile_data, i_force_unique);
+        } catch (Exception e) {
+            i_rc = 1;
+            GPLog.error(this, "MBTilesDroidSpitter[" + file_mbtiles.getAbsolutePath() + "]", e);
+        }
+        return i_rc;
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to insert a batch of downloaded Tile images to the mbtiles Database
+     * - the images are stored as they were downloaded, data that are not an image are skipped
+     * - the tiles are inserted and their 'request_url' records deleted in one transaction
+     * - when the transaction fails, nothing is stored and the requests remain for a later retry
+     *
+     * @param tiles_data     the encoded images by tile_id of their request ['z-x-y_osm', see get_tile_id_from_zxy]
+     * @param i_force_unique 1=check if image is unique in Database [may be slow if used]
+     * @return the amount of tiles stored
+     * @throws IOException if the batch could not be stored.
+     */
+    public int insertTilesData(Map<String, byte[]> tiles_data, int i_force_unique) throws IOException {
+        return insertTilesData(tiles_data, i_force_unique, true);
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to insert a batch of Tile images to the mbtiles Database
+     * - the images are stored as they are, data that are not an image are skipped
+     * - the tiles are inserted in one transaction
+     * - blank/unique images are searched for before the Database is locked
+     * - bounds and min/max zoom of the metadata are checked once, for the extent of the batch
+     *
+     * @param tiles_data         the encoded images by tile_id ['z-x-y_osm', see get_tile_id_from_zxy]
+     * @param i_force_unique     1=check if image is unique in Database [may be slow if used]
+     * @param b_delete_request_url true to delete the 'request_url' records of the tiles in the same transaction
+     * @return the amount of tiles stored
+     * @throws IOException if the batch could not be stored.
+     */
+    public int insertTilesData(Map<String, byte[]> tiles_data, int i_force_unique, boolean b_delete_request_url)
+            throws IOException {
+        if (!isValid()) { // this mbtiles file is invalid
+            throw new IOException("MBTilesDroidSpitter:insertTilesData[" + getName() + "] invalid mbtiles");
+        }
+        List<String> request_tile_ids = new ArrayList<String>(tiles_data.size());
+        List<String> image_tile_ids = new ArrayList<String>(tiles_data.size());
+        List<Boolean> unique_images = new ArrayList<Boolean>(tiles_data.size());
+        List<int[]> zxy_tiles = new ArrayList<int[]>(tiles_data.size());
+        List<byte[]> tile_datas = new ArrayList<byte[]>(tiles_data.size());
+        List<String> image_hashes = new ArrayList<String>(tiles_data.size());
+        List<String> blank_tile_ids = new ArrayList<String>();
+        boolean b_image_hashes = false;
+        for (Map.Entry<String, byte[]> tile_data : tiles_data.entrySet()) {
+            int[] zxy_osm_tms = get_zxy_from_tile_id(tile_data.getKey());
+            byte[] ba_tile_data = tile_data.getValue();
+            if ((zxy_osm_tms == null) || (zxy_osm_tms.length != 4) || (!ImageUtilities.isImage(ba_tile_data))) {
+                continue;
+            }
+            String s_tile_id = get_blank_tile_id(ba_tile_data);
+            String s_image_hash = null;
+            boolean b_unique = true;
+            if (s_tile_id.equals("")) {
+                s_tile_id = get_tile_id_from_zxy(zxy_osm_tms[0], zxy_osm_tms[1], zxy_osm_tms[2]);
+                if ((i_force_unique == 1) && (i_type_tiles == 1)) {
+                    s_image_hash = get_image_hash(ba_tile_data);
+                    String s_tile_id_query = search_image_hash(s_image_hash);
+                    if (!s_tile_id_query.equals("")) { // the 'map' table will reference the existing image
+                        b_unique = false;
+                        s_tile_id = s_tile_id_query;
+                        s_image_hash = null;
+                    } else { // repeated images of this batch are resolved while inserting
+                        b_image_hashes = true;
+                    }
+                }
+            } else { // a 'Blank' Image, stored once, also when it is repeated in this batch
+                b_unique = !blank_tile_ids.contains(s_tile_id) && search_blank_image(s_tile_id);
+                blank_tile_ids.add(s_tile_id);
+            }
+            request_tile_ids.add(tile_data.getKey());
+            image_tile_ids.add(s_tile_id);
+            unique_images.add(b_unique);
+            zxy_tiles.add(zxy_osm_tms);
+            tile_datas.add(ba_tile_data);
+            image_hashes.add(s_image_hash);
+        }
+        if (!db_mbtiles.isOpen()) { // '(conn# x): already closed'
+            throw new IOException("MBTilesDroidSpitter:insertTilesData[" + getName() + "] database is closed");
+        }
+        ImageHashCache.Batch stored_image_hashes = image_hash_cache.startBatch();
+        db_lock.writeLock().lock();
+        if (b_image_hashes) {
+            create_image_hash_table();
+        }
+        db_mbtiles.beginTransaction();
+        try {
+            for (int i = 0; i < request_tile_ids.size(); i++) {
+                int[] zxy_osm_tms = zxy_tiles.get(i);
+                String s_tile_id = image_tile_ids.get(i);
+                boolean b_unique = unique_images.get(i);
+                String s_image_hash = image_hashes.get(i);
+                if (s_image_hash != null) {
+                    String s_stored_tile_id = stored_image_hashes.get(s_image_hash);
+                    if (s_stored_tile_id != null) { // stored by an earlier tile of this batch
+                        s_tile_id = s_stored_tile_id;
+                        b_unique = false;
+                        s_image_hash = null;
+                    }
+                }
+                try {
+                    insert_tile_rows(s_tile_id, b_unique, zxy_osm_tms[1], zxy_osm_tms[2], zxy_osm_tms[0],
+                            tile_datas.get(i), s_image_hash, stored_image_hashes);
+                } catch (RuntimeException e) {
+                    if ((e.getMessage() == null) || (!e.getMessage().contains("code 19"))) {
+                        throw e;
+                    } // the tile allready exists: not to be considered an error
+                }
+                if (b_delete_request_url) {
+                    insert_request_url(i_request_url_count_delete, request_tile_ids.get(i), "");
+                }
+            }
+            db_mbtiles.setTransactionSuccessful();
+        } catch (Exception e) {
+            throw new IOException("MBTilesDroidSpitter:insertTilesData error[" + e.getLocalizedMessage() + "]");
+        } finally {
+            db_mbtiles.endTransaction();
+            db_lock.writeLock().unlock();
+        }
+        stored_image_hashes.commit(); // only once they are stored
+        // if the bounds or min/max zoom have changed, update changed values and reload metadata
+        checkBounds(zxy_tiles, 1);
+        return zxy_tiles.size();
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to compress a Tile Bitmap
+     * - to JPG or PNG depending on metdata setting
+     *
+     * @param tile_bitmap the Bitmap to extract image-data extracted from.
+     * @return the image-data
+     */
+    private byte[] get_tile_data(Bitmap tile_bitmap) {
+        ByteArrayOutputStream ba_stream = new ByteArrayOutputStream();
+        if (this.mbtiles_metadata.get("format") == "png") { // 'png' should be avoided, can
+            // create very big databases
+            tile_bitmap.compress(Bitmap.CompressFormat.PNG, 100, ba_stream);
+        } else { // 'jpg' should be used where possible
+            tile_bitmap.compress(Bitmap.CompressFormat.JPEG, 75, ba_stream);
+        }
+        return ba_stream.toByteArray();
+    }
+    // -----------------------------------------------
+
     /**
      * Function to insert a new Tile byte-data to the mbtiles Database
      * - i_y_osm must be in is Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
@@ -335,91 +508,41 @@ public class MBTilesDroidSpitter {
             // 'images' table
             b_unique = search_blank_image(s_tile_id);
         }
-        int i_y = i_y_osm;
-        if (s_tile_row_type.equals("tms")) {
-            int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z);
-            i_y = tmsTileXY[1];
-        }
         if (i_force_unique > 1)
             i_force_unique = 0;
-        String s_images_tablename = "images";
-        String s_map_tablename = "map";
-        String s_tiles_tablename = "tiles";
-        String s_mbtiles_field_tile_id = "tile_id";
-        String s_mbtiles_field_grid_id = "grid_id";
-        String s_mbtiles_field_tile_data = "tile_data";
-        String s_mbtiles_field_zoom_level = "zoom_level";
-        String s_mbtiles_field_tile_column = "tile_column";
-        String s_mbtiles_field_tile_row = "tile_row";
-        String s_grid_id = "";
-        // The use of 'i_force_unique == 1' will probely slow things down to a craw
         // GPLog.androidLog(1,"insertTile  tile_id["+s_tile_id+"] force_unique["+i_force_unique+"] unique["+b_unique+"]");
-        if ((i_force_unique == 1) && (b_unique)) {
-            // mj10777: not yet properly tested:
-            // - query the images table, searching for
-            // 'ba_tile_data'
-            // -- if found:
-            // --- set 'b_unique=false;'
-            // --- replace 's_tile_id' with images.tile_id of
-            // found record
+        String s_image_hash = null;
+        if ((i_force_unique == 1) && (b_unique) && (i_type_tiles == 1)) {
+            // search the content hash of the image in the 'images_hash' table
+            // - if found: the 'map' table will reference the existing image in 'images'
+            s_image_hash = get_image_hash(ba_tile_data);
             String s_tile_id_query = "";
             try {
-                s_tile_id_query = search_tile_image(ba_tile_data);
+                s_tile_id_query = search_image_hash(s_image_hash);
             } catch (Exception e) {
                 GPLog.error(this, null, e);
                 i_rc = 1;
             }
-            if (s_tile_id_query != "") { // We have this image, do not add again
+            if (!s_tile_id_query.equals("")) { // We have this image, do not add again
                 b_unique = false;
-                // replace the present tile_id with the found referenced tile_id
-                // the 'map' table will now reference the existing image in 'images'
                 s_tile_id = s_tile_id_query;
+                s_image_hash = null;
             }
         }
         // The Database may have been closed in the meantime, we just don't know that yet - should
         // bail out gracefully
         // - avoid 'IllegalStateException' '(conn# x): already closed'
         if (db_mbtiles.isOpen()) { // You cannot lock the Database if the connection is not open
+            ImageHashCache.Batch stored_image_hashes = image_hash_cache.startBatch();
             db_lock.writeLock().lock();
+            if (s_image_hash != null) {
+                create_image_hash_table();
+            }
             db_mbtiles.beginTransaction();
             try {
-                if (b_unique) { // We do not have this image, add it
-                    if (i_type_tiles == 1) {
-                        ContentValues image_values = new ContentValues();
-                        image_values.put(s_mbtiles_field_tile_data, ba_tile_data);
-                        image_values.put(s_mbtiles_field_tile_id, s_tile_id);
-                        db_mbtiles.insertOrThrow(s_images_tablename, null, image_values);
-                    }
-                }
-                if (i_type_tiles == 1) { // 'tiles' is a view
-                    // Note: the 'map' table will/should only reference an
-                    // existing image in the 'images'.
-                    // table
-                    // - it is possible that there is more than one reference
-                    // to an existing image
-                    // -- sample: an area has 15 tiles of one color (all pixels
-                    // of the tile have the same
-                    // RGB)
-                    // --- this image will be stored 1 time in 'images', but
-                    // will be used 15 times in 'map'
-                    ContentValues map_values = new ContentValues();
-                    map_values.put(s_mbtiles_field_zoom_level, i_z);
-                    map_values.put(s_mbtiles_field_tile_column, i_x);
-                    map_values.put(s_mbtiles_field_tile_row, i_y);
-                    map_values.put(s_mbtiles_field_tile_id, s_tile_id);
-                    if (b_grid_id)
-                        map_values.put(s_mbtiles_field_grid_id, s_grid_id);
-                    db_mbtiles.insertOrThrow(s_map_tablename, null, map_values);
-                }
-                if (i_type_tiles == 0) { // 'tiles' is a table
-                    ContentValues tiles_values = new ContentValues();
-                    tiles_values.put(s_mbtiles_field_zoom_level, i_z);
-                    tiles_values.put(s_mbtiles_field_tile_column, i_x);
-                    tiles_values.put(s_mbtiles_field_tile_row, i_y);
-                    tiles_values.put(s_mbtiles_field_tile_data, ba_tile_data);
-                    db_mbtiles.insertOrThrow(s_tiles_tablename, null, tiles_values);
-                }
+                insert_tile_rows(s_tile_id, b_unique, i_x, i_y_osm, i_z, ba_tile_data, s_image_hash, stored_image_hashes);
                 db_mbtiles.setTransactionSuccessful();
+                stored_image_hashes.commit();
             } catch (Exception e) {
                 int i_catch_rc = 0;
                 if (e.getMessage() != null) {
@@ -461,6 +584,83 @@ public class MBTilesDroidSpitter {
     }
     // -----------------------------------------------
 
+    /**
+     * Function to insert the rows of a Tile into the map/images or tiles Tables
+     * - i_y_osm must be in is Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
+     * - must be called within a '.beginTransaction()' with the write lock held
+     *
+     * @param s_tile_id    for images/map tables tile_id field
+     * @param b_unique     false if the image is allready stored in the 'images' table
+     * @param i_x          the value for tile_column field in the map,tiles Tables
+     * @param i_y_osm      the value for tile_row field in the map,tiles Tables
+     * @param i_z          the value for zoom_level field in the map,tiles Tables
+     * @param ba_tile_data the image-data
+     * @param s_image_hash the content hash of the image for the 'images_hash' table or null
+     * @param stored_image_hashes records the hash once the image has been inserted
+     */
+    private void insert_tile_rows(String s_tile_id, boolean b_unique, int i_x, int i_y_osm, int i_z, byte[] ba_tile_data,
+                                  String s_image_hash, ImageHashCache.Batch stored_image_hashes) {
+        int i_y = i_y_osm;
+        if (s_tile_row_type.equals("tms")) {
+            int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z);
+            i_y = tmsTileXY[1];
+        }
+        String s_images_tablename = "images";
+        String s_map_tablename = "map";
+        String s_tiles_tablename = "tiles";
+        String s_mbtiles_field_tile_id = "tile_id";
+        String s_mbtiles_field_grid_id = "grid_id";
+        String s_mbtiles_field_tile_data = "tile_data";
+        String s_mbtiles_field_zoom_level = "zoom_level";
+        String s_mbtiles_field_tile_column = "tile_column";
+        String s_mbtiles_field_tile_row = "tile_row";
+        String s_grid_id = "";
+        if (b_unique) { // We do not have this image, add it
+            if (i_type_tiles == 1) {
+                ContentValues image_values = new ContentValues();
+                image_values.put(s_mbtiles_field_tile_data, ba_tile_data);
+                image_values.put(s_mbtiles_field_tile_id, s_tile_id);
+                db_mbtiles.insertOrThrow(s_images_tablename, null, image_values);
+                if (s_image_hash != null) {
+                    ContentValues hash_values = new ContentValues();
+                    hash_values.put("image_hash", s_image_hash);
+                    hash_values.put(s_mbtiles_field_tile_id, s_tile_id);
+                    db_mbtiles.insertWithOnConflict("images_hash", null, hash_values, SQLiteDatabase.CONFLICT_IGNORE);
+                    stored_image_hashes.stored(s_image_hash, s_tile_id);
+                }
+            }
+        }
+        if (i_type_tiles == 1) { // 'tiles' is a view
+            // Note: the 'map' table will/should only reference an
+            // existing image in the 'images'.
+            // table
+            // - it is possible that there is more than one reference
+            // to an existing image
+            // -- sample: an area has 15 tiles of one color (all pixels
+            // of the tile have the same
+            // RGB)
+            // --- this image will be stored 1 time in 'images', but
+            // will be used 15 times in 'map'
+            ContentValues map_values = new ContentValues();
+            map_values.put(s_mbtiles_field_zoom_level, i_z);
+            map_values.put(s_mbtiles_field_tile_column, i_x);
+            map_values.put(s_mbtiles_field_tile_row, i_y);
+            map_values.put(s_mbtiles_field_tile_id, s_tile_id);
+            if (b_grid_id)
+                map_values.put(s_mbtiles_field_grid_id, s_grid_id);
+            db_mbtiles.insertOrThrow(s_map_tablename, null, map_values);
+        }
+        if (i_type_tiles == 0) { // 'tiles' is a table
+            ContentValues tiles_values = new ContentValues();
+            tiles_values.put(s_mbtiles_field_zoom_level, i_z);
+            tiles_values.put(s_mbtiles_field_tile_column, i_x);
+            tiles_values.put(s_mbtiles_field_tile_row, i_y);
+            tiles_values.put(s_mbtiles_field_tile_data, ba_tile_data);
+            db_mbtiles.insertOrThrow(s_tiles_tablename, null, tiles_values);
+        }
+    }
+    // -----------------------------------------------
+
     /**
      * Function to check if image is blank
      * - avoids duplicate images
@@ -509,49 +709,78 @@ public class MBTilesDroidSpitter {
     // -----------------------------------------------
 
     /**
-     * Function to check if image exists in the image-table
-     * - avoids duplicate images
+     * Function to search an image by its content hash
+     * - in the recently used hashes first, then in the 'images_hash' table
      *
-     * @param ba_tile_data the image-data extracted from the Bitmap.
+     * @param s_image_hash the content hash of the image [see get_image_hash]
      * @return tile_id of found image or blank
      */
-    private String search_tile_image(byte[] ba_tile_data) throws IOException { // The use of
-        // 'i_force_unique
-        // == 1' will
-        // probely slow
-        // things down to a
-        // craw
-        String s_tile_id = "";
-        if (i_type_tiles != 1) { // there will be no 'images' table, return
+    private String search_image_hash(String s_image_hash) throws IOException {
+        String s_tile_id = image_hash_cache.get(s_image_hash);
+        if (s_tile_id != null) {
             return s_tile_id;
         }
-        String s_tile_data = get_hex(ba_tile_data);
-        String s_sql_query = "SELECT tile_id FROM images WHERE (hex(tile_data) = '" + s_tile_data + "')";
+        s_tile_id = "";
         db_lock.readLock().lock();
-        try { // ?? another way to query for binary data in java ??
-            final Cursor c = db_mbtiles.rawQuery(s_sql_query, null);
-            if (c != null) {
-                if (c.moveToFirst()) { // TODO: do something if multiple results are returned
-                    s_tile_id = c.getString(c.getColumnIndex("tile_id"));
+        try {
+            if (i_image_hash_table < 0) {
+                Cursor c = db_mbtiles.rawQuery("SELECT name FROM sqlite_master WHERE (type = 'table' AND name = 'images_hash')",
+                        null);
+                i_image_hash_table = c.moveToFirst() ? 1 : 0;
+                c.close();
+            }
+            if (i_image_hash_table == 1) {
+                Cursor c = db_mbtiles.rawQuery("SELECT tile_id FROM images_hash WHERE (image_hash = ?)",
+                        new String[]{s_image_hash});
+                if (c.moveToFirst()) {
+                    s_tile_id = c.getString(0);
                 }
                 c.close();
             }
         } catch (Exception e) {
-            throw new IOException("MBTilesDroidSpitter:search_tile_image query[" + s_sql_query + "] error["
-                    + e.getLocalizedMessage() + "] ");
+            throw new IOException("MBTilesDroidSpitter:search_image_hash[" + getName() + "] error[" + e.getLocalizedMessage()
+                    + "] ");
         } finally {
             db_lock.readLock().unlock();
         }
-        if (s_tile_id != "") {
-            String msg = "MBTilesDroidSpitter:search_tile_image[" + file_mbtiles.getAbsolutePath() + "]  tile_id[" + s_tile_id
-                    + "] [a non-blank unique image has been found]";
-            if (GPLog.LOG_HEAVY)
-                GPLog.addLogEntry("MBTilesDroidSpitter", msg);
+        if (!s_tile_id.equals("")) {
+            image_hash_cache.put(s_image_hash, s_tile_id);
         }
         return s_tile_id;
     }
     // -----------------------------------------------
 
+    /**
+     * Function to create the 'images_hash' table [image_hash,tile_id], if it does not exist
+     * - the write lock must be held, outside of a transaction
+     * - images stored before the table was created are not in the table
+     */
+    private void create_image_hash_table() {
+        if (i_image_hash_table == 1) {
+            return;
+        }
+        db_mbtiles.execSQL("CREATE TABLE IF NOT EXISTS images_hash (image_hash TEXT PRIMARY KEY,tile_id TEXT)");
+        i_image_hash_table = 1;
+    }
+    // -----------------------------------------------
+
+    /**
+     * Content hash of an image
+     * - identical images have the same hash, to store them once in the 'images' table
+     *
+     * @param ba_tile_data the image-data
+     * @return the hex sha-1 of the image-data
+     */
+    public static String get_image_hash(byte[] ba_tile_data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return get_hex(digest.digest(ba_tile_data));
+        } catch (NoSuchAlgorithmException e) { // sha-1 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+    // -----------------------------------------------
+
     /**
      * Function to check if inserted tile is outside known bounds and min/max zoom, update metadata if desired
      * - i_y_osm must be in is Open-Street-Map 'Slippy Map' notation [will be converted to 'tms' notation if needed]
@@ -563,11 +792,54 @@ public class MBTilesDroidSpitter {
      * @return 1: metdata was updated
      */
     public int checkBounds(int i_x, int i_y_osm, int i_z, int i_update) throws IOException {
-        int i_rc = 0;
         // GPLog.androidLog(-1,"MBTilesDroidSpitter.icheckBounds: parms["+i_z+"/"+i_x+"/"+i_y_osm+"] i_fetch_bounds["+i_fetch_bounds+"]");
         // minx, miny, maxx, maxy
         double[] tileBounds = tileLatLonBounds(i_x, i_y_osm, i_z, 256);
-        HashMap<String, String> update_metadata = this.metadata.checkTileLocation(tileBounds, i_z);
+        return checkBounds(tileBounds, i_z, i_z, i_update);
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to check if inserted tiles are outside known bounds and min/max zoom, update metadata if desired
+     * - the metadata are updated at most once for all the tiles
+     *
+     * @param zxy_tiles the z,x,y_osm values of the tiles [see get_zxy_from_tile_id]
+     * @param i_update  1=updata metadate if outside of range [bounds, min/max zoom]
+     * @return 1: metdata was updated
+     */
+    public int checkBounds(List<int[]> zxy_tiles, int i_update) throws IOException {
+        if (zxy_tiles.isEmpty()) {
+            return 0;
+        }
+        // minx, miny, maxx, maxy
+        double[] tilesBounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        int i_min_zoom = Integer.MAX_VALUE;
+        int i_max_zoom = Integer.MIN_VALUE;
+        for (int[] zxy_osm : zxy_tiles) {
+            double[] tileBounds = tileLatLonBounds(zxy_osm[1], zxy_osm[2], zxy_osm[0], 256);
+            tilesBounds[0] = Math.min(tilesBounds[0], tileBounds[0]);
+            tilesBounds[1] = Math.min(tilesBounds[1], tileBounds[1]);
+            tilesBounds[2] = Math.max(tilesBounds[2], tileBounds[2]);
+            tilesBounds[3] = Math.max(tilesBounds[3], tileBounds[3]);
+            i_min_zoom = Math.min(i_min_zoom, zxy_osm[0]);
+            i_max_zoom = Math.max(i_max_zoom, zxy_osm[0]);
+        }
+        return checkBounds(tilesBounds, i_min_zoom, i_max_zoom, i_update);
+    }
+    // -----------------------------------------------
+
+    /**
+     * Function to check if an area is outside known bounds and min/max zoom, update metadata if desired
+     *
+     * @param tilesBounds the area of the tiles, minx, miny, maxx, maxy
+     * @param i_min_zoom  the min zoom_level of the tiles
+     * @param i_max_zoom  the max zoom_level of the tiles
+     * @param i_update    1=updata metadate if outside of range [bounds, min/max zoom]
+     * @return 1: metdata was updated
+     */
+    private int checkBounds(double[] tilesBounds, int i_min_zoom, int i_max_zoom, int i_update) throws IOException {
+        int i_rc = 0;
+        HashMap<String, String> update_metadata = this.metadata.checkTilesLocation(tilesBounds, i_min_zoom, i_max_zoom);
         if (update_metadata.size() > 0) {
             if (i_update == 1) { // the bounds or min/max zoom have changed, update changed values
                 // and reload metadata
@@ -1152,6 +1424,45 @@ public class MBTilesDroidSpitter {
     }
     // -----------------------------------------------
 
+    /**
+     * Returns a page of collected 'request_url', ordered by tile_id
+     * - to read all requests page by page, without reading again the requests of the previous pages
+     * - Query only when 'this.i_request_url_count' > 0 ; i.e. Table exists and has records
+     *
+     * @param s_after_tile_id the last tile_id of the previous page or null for the first page
+     * @param i_limit         amount of records to retrieve
+     * @return HashMap<String,String> mbtiles_request_url [tile_id,tile_url]
+     */
+    public HashMap<String, String> retrieve_request_url(String s_after_tile_id, int i_limit) {
+        HashMap<String, String> mbtiles_request_url = new LinkedHashMap<String, String>();
+        if (this.i_request_url_count > 0) {
+            db_lock.readLock().lock();
+            try {
+                String s_mbtiles_request_url = "SELECT tile_id,tile_url FROM request_url";
+                String[] args = null;
+                if (s_after_tile_id != null) {
+                    s_mbtiles_request_url += " WHERE (tile_id > ?)";
+                    args = new String[]{s_after_tile_id};
+                }
+                s_mbtiles_request_url += " ORDER BY tile_id LIMIT " + i_limit;
+                Cursor c_tiles = db_mbtiles.rawQuery(s_mbtiles_request_url, args);
+                if (c_tiles != null) {
+                    while (c_tiles.moveToNext()) {
+                        mbtiles_request_url.put(c_tiles.getString(0), c_tiles.getString(1));
+                    }
+                    c_tiles.close();
+                }
+            } catch (Exception e) {
+                GPLog.error(this, "MBTilesDroidSplitter: [" + getName() + "] -E-> retrieve_request_url["
+                        + this.i_request_url_count + "] after[" + s_after_tile_id + "]", e);
+            } finally {
+                db_lock.readLock().unlock();
+            }
+        }
+        return mbtiles_request_url;
+    }
+    // -----------------------------------------------
+
     /**
      * Returns result of last called fetchMetadata
      *
@@ -1570,6 +1881,37 @@ public class MBTilesDroidSpitter {
     }
     // -----------------------------------------------
 
+    /**
+     * Determin if an encoded image is blank (i.e. all pixels are of ONE colour)
+     * - a sample of the image is decoded first, which is enough to find out that most images are not blank
+     * - only when the sample is of one colour, the whole image is decoded to confirm it
+     *
+     * @param ba_tile_data the encoded image
+     * @return 'ff-ee-dd.rgb' [to be used as tile_id] or blank if the image is not blank
+     */
+    public static String get_blank_tile_id(byte[] ba_tile_data) {
+        BitmapFactory.Options sample_options = new BitmapFactory.Options();
+        sample_options.inSampleSize = 8;
+        Bitmap sample_bitmap = BitmapFactory.decodeByteArray(ba_tile_data, 0, ba_tile_data.length, sample_options);
+        if (sample_bitmap == null) {
+            return "";
+        }
+        String s_tile_id = get_pixel_rgb_toString(sample_bitmap, 1);
+        sample_bitmap.recycle();
+        if (s_tile_id.equals("")) {
+            return s_tile_id;
+        }
+        // details smaller than the sample may be missing in the sample
+        Bitmap tile_bitmap = BitmapFactory.decodeByteArray(ba_tile_data, 0, ba_tile_data.length);
+        if (tile_bitmap == null) {
+            return "";
+        }
+        s_tile_id = get_pixel_rgb_toString(tile_bitmap, 1);
+        tile_bitmap.recycle();
+        return s_tile_id;
+    }
+    // -----------------------------------------------
+
     /**
      * Retrieve zoom_level, x_tile,y_tile_osm from tile_id
      * - y_tile_osm is always in osm notation
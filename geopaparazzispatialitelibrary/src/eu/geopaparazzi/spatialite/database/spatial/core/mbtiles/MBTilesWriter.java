@@ -0,0 +1,222 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Buffers the tiles to store in a mbtiles database and writes them in batches.
+ *
+ * <p>Each batch is inserted in a single transaction and the bounds and
+ * min/max zoom of the metadata are checked once per batch, instead of
+ * a transaction and a metadata check for every tile.</p>
+ *
+ * <p>A batch is written when it has reached its number of tiles or size in bytes,
+ * or a while after its first tile has been added, so that the tiles of a download
+ * that stops are not kept in memory until the database is closed.</p>
+ *
+ * <p>Tiles that are not yet written can be read through {@link #getPendingTile(int, int, int)}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MBTilesWriter {
+    /**
+     * The default number of tiles written at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    /**
+     * The default size in bytes of the tiles written at once.
+     */
+    public static final int DEFAULT_BATCH_BYTES = 2 * 1024 * 1024;
+    /**
+     * The default time in milliseconds after which a batch is written, also if not full.
+     */
+    public static final long DEFAULT_BATCH_DELAY = 5000;
+
+    // a batch that failed is written again once, then it is dropped
+    private static final int MAX_FAILED_WRITES = 2;
+
+    // shared by all the writers, the tasks only write a batch
+    private static Timer flushTimer;
+
+    private final MBTilesDroidSpitter mbtilesSplitter;
+    private final int batchSize;
+    private final int batchBytes;
+    private final long batchDelay;
+    private final int forceUnique;
+    private final LinkedHashMap<String, byte[]> pendingTiles = new LinkedHashMap<String, byte[]>();
+    private int pendingBytes = 0;
+    private int failedWrites = 0;
+    private TimerTask flushTask;
+
+    /**
+     * Constructor, with the default batch size in bytes and delay.
+     *
+     * @param mbtilesSplitter the database to write to.
+     * @param batchSize the number of tiles written at once.
+     * @param forceUnique if 1, it check if image is unique in Database [may be slow if used]
+     */
+    public MBTilesWriter( MBTilesDroidSpitter mbtilesSplitter, int batchSize, int forceUnique ) {
+        this(mbtilesSplitter, batchSize, DEFAULT_BATCH_BYTES, DEFAULT_BATCH_DELAY, forceUnique);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mbtilesSplitter the database to write to.
+     * @param batchSize the number of tiles written at once.
+     * @param batchBytes the size in bytes of the tiles written at once.
+     * @param batchDelay the time in milliseconds after which a batch is written, also if not full.
+     * @param forceUnique if 1, it check if image is unique in Database [may be slow if used]
+     */
+    public MBTilesWriter( MBTilesDroidSpitter mbtilesSplitter, int batchSize, int batchBytes, long batchDelay,
+            int forceUnique ) {
+        this.mbtilesSplitter = mbtilesSplitter;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchBytes = Math.max(1, batchBytes);
+        this.batchDelay = Math.max(1, batchDelay);
+        this.forceUnique = forceUnique;
+    }
+
+    /**
+     * Add a tile, writing the pending tiles if the batch is full.
+     *
+     * @param x the tile column.
+     * @param yOsm the tile row in osm notation.
+     * @param z the zoom level.
+     * @param tileData the encoded image.
+     * @throws IOException if the batch could not be written.
+     */
+    public synchronized void addTile( int x, int yOsm, int z, byte[] tileData ) throws IOException {
+        byte[] replacedData = pendingTiles.put(mbtilesSplitter.get_tile_id_from_zxy(z, x, yOsm), tileData);
+        if (replacedData != null) {
+            pendingBytes -= replacedData.length;
+        }
+        pendingBytes += tileData.length;
+        if (pendingTiles.size() >= batchSize || pendingBytes >= batchBytes) {
+            flush();
+        } else if (flushTask == null) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Get a tile that has been added but not yet written.
+     *
+     * @param x the tile column.
+     * @param yOsm the tile row in osm notation.
+     * @param z the zoom level.
+     * @return the encoded image or <code>null</code>.
+     */
+    public synchronized byte[] getPendingTile( int x, int yOsm, int z ) {
+        if (pendingTiles.isEmpty()) {
+            return null;
+        }
+        return pendingTiles.get(mbtilesSplitter.get_tile_id_from_zxy(z, x, yOsm));
+    }
+
+    /**
+     * @return the number of tiles not yet written.
+     */
+    public synchronized int getPendingCount() {
+        return pendingTiles.size();
+    }
+
+    /**
+     * Write the pending tiles.
+     *
+     * <p>If the write fails, the pending tiles are kept and written once more,
+     * with the next batch or after the delay. If that fails too, they are dropped.</p>
+     *
+     * @return the number of tiles written.
+     * @throws IOException if the batch could not be written.
+     */
+    public synchronized int flush() throws IOException {
+        return flush(false);
+    }
+
+    /**
+     * Write the pending tiles, to be called before the database is closed.
+     *
+     * @throws IOException if the batch could not be written.
+     */
+    public synchronized void close() throws IOException {
+        flush(true);
+    }
+
+    private int flush( boolean isLastAttempt ) throws IOException {
+        cancelFlush();
+        if (pendingTiles.isEmpty()) {
+            return 0;
+        }
+        int written;
+        try {
+            written = mbtilesSplitter.insertTilesData(pendingTiles, forceUnique, false);
+        } catch (IOException e) {
+            failedWrites++;
+            if (!isLastAttempt && failedWrites < MAX_FAILED_WRITES) {
+                scheduleFlush();
+                throw e;
+            }
+            int droppedCount = pendingTiles.size();
+            clearPending();
+            throw new IOException("MBTilesWriter.flush [dropped " + droppedCount + " tiles after " + failedWrites
+                    + " failed writes] " + e.getLocalizedMessage());
+        }
+        clearPending();
+        return written;
+    }
+
+    private void clearPending() {
+        pendingTiles.clear();
+        pendingBytes = 0;
+        failedWrites = 0;
+    }
+
+    private void scheduleFlush() {
+        flushTask = new TimerTask(){
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    GPLog.error(MBTilesWriter.this, null, e);
+                }
+            }
+        };
+        getFlushTimer().schedule(flushTask, batchDelay);
+    }
+
+    private void cancelFlush() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    private static synchronized Timer getFlushTimer() {
+        if (flushTimer == null) {
+            flushTimer = new Timer("MBTilesWriter", true);
+        }
+        return flushTimer;
+    }
+}
@@ -444,55 +444,40 @@ public class MbTilesMetadata {
       * Function to check if inserted tile is outside known bounds and min/max zoom level
       * @param tileBounds area to check - left/west bottom/south right/east top/north
       * @param i_zoom the value for zoom_level to check
-      * @return 0=inside valid area/zoom ; i_rc > 0 outside area or zoom ; i_parm=0 no corrections ; 1= correct tileBounds values.
+      * @return the metadata values to change, empty if the tile is inside the valid area/zoom
       */
     public HashMap<String, String> checkTileLocation( double[] tileBounds, int i_zoom ) {
-        // mj10777: i_rc=0=inside valid area/zoom ; i_rc > 0 outside area or
-        // zoom ; i_parm=0 no corrections ; 1= correct tileBounds values.
-        // int i_rc = 0; // inside area
+        return checkTilesLocation(tileBounds, i_zoom, i_zoom);
+    }
+    // -----------------------------------------------
+    /**
+      * Function to check if inserted tiles are outside known bounds and min/max zoom level
+      * - to be called once for a batch of tiles, with the extent of the batch
+      * @param tilesBounds area to check - left/west bottom/south right/east top/north
+      * @param i_min_zoom the min value for zoom_level to check
+      * @param i_max_zoom the max value for zoom_level to check
+      * @return the metadata values to change, empty if the tiles are inside the valid area/zoom
+      */
+    public HashMap<String, String> checkTilesLocation( double[] tilesBounds, int i_min_zoom, int i_max_zoom ) {
         HashMap<String, String> update_metadata = new LinkedHashMap<String, String>();
         double bounds_west = (double) bounds[0];
         double bounds_south = (double) bounds[1];
         double bounds_east = (double) bounds[2];
         double bounds_north = (double) bounds[3];
-        double tile_west = tileBounds[0];
-        double tile_south = tileBounds[1];
-        double tile_east = tileBounds[2];
-        double tile_north = tileBounds[3];
-        int maxZoom = this.minZoom;
-        int minZoom = this.maxZoom;
-        if (((tile_west < bounds_west) || (tile_east > bounds_east))
-                || ((tile_south < bounds_south) || (tile_north > bounds_north)) || ((i_zoom < minZoom) || (i_zoom > maxZoom))) {
-            if (((tile_west >= bounds_west) && (tile_east <= bounds_east))
-                    && ((tile_south >= bounds_south) && (tile_north <= bounds_north))) {
-                // We are inside the Map-Area, but Zoom is not correct
-                if (i_zoom < minZoom) {
-                    update_metadata.put("minzoom", String.valueOf(i_zoom));
-                }
-                if (i_zoom > maxZoom) {
-                    update_metadata.put("maxzoom", String.valueOf(i_zoom));
-                }
-            } else {
-                if (i_zoom < minZoom) {
-                    update_metadata.put("minzoom", String.valueOf(i_zoom));
-                }
-                if (i_zoom > maxZoom) {
-                    update_metadata.put("maxzoom", String.valueOf(i_zoom));
-                }
-                if (tile_west < bounds_west) {
-                    bounds_west = tile_west;
-                }
-                if (tile_east > bounds_east) {
-                    bounds_east = tile_east;
-                }
-                if (tile_south < bounds_south) {
-                    bounds_south = tile_south;
-                }
-                if (tile_north > bounds_north) {
-                    bounds_north = tile_north;
-                }
-                update_metadata.put("bounds", bounds_west + "," + bounds_south + "," + bounds_east + "," + bounds_north);
-            }
+        if (i_min_zoom < this.minZoom) {
+            update_metadata.put("minzoom", String.valueOf(i_min_zoom));
+        }
+        if (i_max_zoom > this.maxZoom) {
+            update_metadata.put("maxzoom", String.valueOf(i_max_zoom));
+        }
+        // compared as stored, not to update again tiles on the border
+        if (((float) tilesBounds[0] < bounds[0]) || ((float) tilesBounds[1] < bounds[1]) || ((float) tilesBounds[2] > bounds[2])
+                || ((float) tilesBounds[3] > bounds[3])) {
+            bounds_west = Math.min(bounds_west, tilesBounds[0]);
+            bounds_south = Math.min(bounds_south, tilesBounds[1]);
+            bounds_east = Math.max(bounds_east, tilesBounds[2]);
+            bounds_north = Math.max(bounds_north, tilesBounds[3]);
+            update_metadata.put("bounds", bounds_west + "," + bounds_south + "," + bounds_east + "," + bounds_north);
         }
         return update_metadata;
     }
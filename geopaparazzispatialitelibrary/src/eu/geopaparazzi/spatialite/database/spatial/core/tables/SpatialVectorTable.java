@@ -17,6 +17,8 @@
  */
 package eu.geopaparazzi.spatialite.database.spatial.core.tables;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 import android.content.Context;
 
 import java.io.File;
@@ -81,6 +83,10 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
     // AbstractSpatialTable=-1 ; SpatialView: read_only=0 ; writable=1
     private int view_read_only = -1;
     private String uniqueNameBasedOnDbFilePath = "";
+    // incremented whenever the geometries of the table are modified
+    private transient volatile int dataVersion = 0;
+    // false if the statistics of the table did not supply a usable extent
+    private boolean hasValidBounds = false;
     // private String uniqueNameBasedOnDbFileName = "";
 
     /**
@@ -110,6 +116,21 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
         createUniqueNames();
 
         checkType();
+
+        hasValidBounds = checkValidBounds(bounds);
+    }
+
+    private static boolean checkValidBounds(double[] bounds) {
+        for (double bound : bounds) {
+            if (Double.isNaN(bound) || Double.isInfinite(bound)) {
+                return false;
+            }
+        }
+        if (bounds[0] > bounds[2] || bounds[1] > bounds[3]) {
+            return false;
+        }
+        // the default of the loaders when the extent could not be read
+        return bounds[0] != 0.0 || bounds[1] != 0.0 || bounds[2] != 0.0 || bounds[3] != 0.0;
     }
 
     /**
@@ -474,6 +495,61 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
         style.name = getUniqueNameBasedOnDbFilePath();
     }
 
+    /**
+     * Get the version of the table data.
+     * <p/>
+     * <p>The version changes whenever features are added, modified or removed
+     * through the application, so that renderers know when to repaint.
+     *
+     * @return the data version.
+     */
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Marks the table data as modified.
+     */
+    public void incrementDataVersion() {
+        dataVersion++;
+    }
+
+    /**
+     * Checks if the table might have geometries in an area.
+     * <p/>
+     * <p>Tables without a usable extent are assumed to intersect every area.
+     *
+     * @param envelope the wgs84 area.
+     * @return <code>false</code> only if the table is known to have no geometries in the area.
+     */
+    public synchronized boolean intersectsTableBounds(Envelope envelope) {
+        if (!hasValidBounds) {
+            return true;
+        }
+        return envelope.intersects(new Envelope(boundsWest, boundsEast, boundsSouth, boundsNorth));
+    }
+
+    /**
+     * Grows the bounds of the table to include an area.
+     * <p/>
+     * <p>To be called when geometries are added or moved. The bounds are never
+     * shrinked when geometries are removed, since too large bounds only cost a query.
+     *
+     * @param bounds the wgs84 bounds of the modified geometries as [w,s,e,n].
+     */
+    public synchronized void expandTableBounds(double[] bounds) {
+        if (!hasValidBounds || !checkValidBounds(bounds)) {
+            // the extent of the other geometries is not known either
+            return;
+        }
+        boundsWest = Math.min(boundsWest, bounds[0]);
+        boundsSouth = Math.min(boundsSouth, bounds[1]);
+        boundsEast = Math.max(boundsEast, bounds[2]);
+        boundsNorth = Math.max(boundsNorth, bounds[3]);
+        centerX = boundsWest + (boundsEast - boundsWest) / 2;
+        centerY = boundsSouth + (boundsNorth - boundsSouth) / 2;
+    }
+
     @Override
     public boolean isEditable() {
         return view_read_only < 0;
@@ -0,0 +1,318 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+
+/**
+ * A persistent catalog of the metadata read from the spatialite databases of the maps folder.
+ *
+ * <p>Entries are kept per database path together with the size and the last
+ * modification time of the file. On the next start the metadata of unchanged
+ * files are taken from the catalog instead of being queried from the database, and
+ * files that have been found to contain nothing to load are not opened at all.</p>
+ *
+ * <p>Any change of the file, as an edit of the data or of the styles, invalidates
+ * its entry.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SpatialDatabasesCatalog {
+    /**
+     * The name of the catalog file.
+     */
+    public static final String CATALOG_FILENAME = "spatialdatabases.catalog";
+
+    private static final int VERSION = 1;
+
+    private final File catalogFile;
+    private final HashMap<String, Entry> entriesMap = new HashMap<String, Entry>();
+    private boolean isDirty = false;
+
+    /**
+     * Constructor.
+     *
+     * @param catalogFile the file the catalog is persisted in.
+     */
+    public SpatialDatabasesCatalog( File catalogFile ) {
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Read the persisted entries.
+     *
+     * <p>A missing or unreadable catalog results in an empty one.</p>
+     */
+    public synchronized void load() {
+        entriesMap.clear();
+        isDirty = false;
+        if (!catalogFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)));
+            if (in.readInt() != VERSION) {
+                isDirty = true;
+                return;
+            }
+            int count = in.readInt();
+            for( int i = 0; i < count; i++ ) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                SpatialiteDatabaseType databaseType = SpatialiteDatabaseType.getType4Code(in.readInt());
+                HashMap<String, String> spatialVectorMap = readMap(in);
+                HashMap<String, String> spatialVectorMapErrors = readMap(in);
+                entriesMap.put(path, new Entry(length, lastModified, databaseType, spatialVectorMap, spatialVectorMapErrors));
+            }
+        } catch (java.lang.Exception e) {
+            GPLog.error(this, "SpatialDatabasesCatalog.load [failed] file[" + catalogFile + "]", e);
+            entriesMap.clear();
+            isDirty = true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the entries, if they changed since they have been read.
+     */
+    public synchronized void save() {
+        if (!isDirty) {
+            return;
+        }
+        File tmpFile = new File(catalogFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(VERSION);
+            out.writeInt(entriesMap.size());
+            for( Map.Entry<String, Entry> mapEntry : entriesMap.entrySet() ) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeInt(entry.databaseType.getCode());
+                writeMap(out, entry.spatialVectorMap);
+                writeMap(out, entry.spatialVectorMapErrors);
+            }
+            out.close();
+            out = null;
+            // replace the previous catalog only once completely written
+            if (catalogFile.exists() && !catalogFile.delete()) {
+                throw new IOException("Unable to replace: " + catalogFile);
+            }
+            if (!tmpFile.renameTo(catalogFile)) {
+                throw new IOException("Unable to rename to: " + catalogFile);
+            }
+            isDirty = false;
+        } catch (IOException e) {
+            GPLog.error(this, "SpatialDatabasesCatalog.save [failed] file[" + catalogFile + "]", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the entry of a database file, if the file did not change since it has been catalogued.
+     *
+     * @param databaseFile the database file.
+     * @return the entry or <code>null</code>.
+     */
+    public synchronized Entry get( File databaseFile ) {
+        Entry entry = entriesMap.get(databaseFile.getAbsolutePath());
+        if (entry == null || entry.length != databaseFile.length() || entry.lastModified != databaseFile.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Add or replace the entry of a database file.
+     *
+     * <p>The catalog needs to be saved only if the entry differs from the stored one.</p>
+     *
+     * @param databaseFile the database file.
+     * @param entry the entry.
+     */
+    public synchronized void put( File databaseFile, Entry entry ) {
+        Entry previous = entriesMap.put(databaseFile.getAbsolutePath(), entry);
+        if (!entry.equals(previous)) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * Remove the entries of the files that are no longer available.
+     *
+     * @param databaseFiles the files that are available.
+     */
+    public synchronized void retain( Collection<File> databaseFiles ) {
+        Set<String> paths = new HashSet<String>();
+        for( File databaseFile : databaseFiles ) {
+            paths.add(databaseFile.getAbsolutePath());
+        }
+        Iterator<String> iterator = entriesMap.keySet().iterator();
+        while( iterator.hasNext() ) {
+            if (!paths.contains(iterator.next())) {
+                iterator.remove();
+                isDirty = true;
+            }
+        }
+    }
+
+    private static HashMap<String, String> readMap( DataInputStream in ) throws IOException {
+        int size = in.readInt();
+        HashMap<String, String> map = new HashMap<String, String>(size);
+        for( int i = 0; i < size; i++ ) {
+            String key = in.readUTF();
+            String value = in.readUTF();
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    private static void writeMap( DataOutputStream out, Map<String, String> map ) throws IOException {
+        out.writeInt(map.size());
+        for( Map.Entry<String, String> entry : map.entrySet() ) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue() == null ? "" : entry.getValue());
+        }
+    }
+
+    /**
+     * The metadata of a database file.
+     */
+    public static class Entry {
+        private final long length;
+        private final long lastModified;
+        private final SpatialiteDatabaseType databaseType;
+        private final HashMap<String, String> spatialVectorMap;
+        private final HashMap<String, String> spatialVectorMapErrors;
+
+        /**
+         * Constructor.
+         *
+         * @param databaseFile the database file, whose current size and modification time are recorded.
+         * @param databaseType the type found for the database.
+         * @param spatialVectorMap the vector layers found in the database.
+         * @param spatialVectorMapErrors the vector layers of the database that have errors.
+         */
+        public Entry( File databaseFile, SpatialiteDatabaseType databaseType, Map<String, String> spatialVectorMap,
+                Map<String, String> spatialVectorMapErrors ) {
+            this(databaseFile.length(), databaseFile.lastModified(), databaseType, copyMap(spatialVectorMap),
+                    copyMap(spatialVectorMapErrors));
+        }
+
+        /**
+         * Copy a map as it is read back from the catalog file, where <code>null</code> values are stored as "".
+         */
+        private static HashMap<String, String> copyMap( Map<String, String> map ) {
+            HashMap<String, String> copy = new HashMap<String, String>(map.size());
+            for( Map.Entry<String, String> entry : map.entrySet() ) {
+                copy.put(entry.getKey(), entry.getValue() == null ? "" : entry.getValue());
+            }
+            return copy;
+        }
+
+        private Entry( long length, long lastModified, SpatialiteDatabaseType databaseType,
+                HashMap<String, String> spatialVectorMap, HashMap<String, String> spatialVectorMapErrors ) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.databaseType = databaseType;
+            this.spatialVectorMap = spatialVectorMap;
+            this.spatialVectorMapErrors = spatialVectorMapErrors;
+        }
+
+        /**
+         * @return the type found for the database.
+         */
+        public SpatialiteDatabaseType getDatabaseType() {
+            return databaseType;
+        }
+
+        /**
+         * @return the vector layers found in the database, as read by
+         *          {@link eu.geopaparazzi.spatialite.database.spatial.core.daos.DatabaseCreationAndProperties#checkDatabaseTypeAndValidity}.
+         */
+        public Map<String, String> getSpatialVectorMap() {
+            return spatialVectorMap;
+        }
+
+        /**
+         * @return the vector layers of the database that have errors.
+         */
+        public Map<String, String> getSpatialVectorMapErrors() {
+            return spatialVectorMapErrors;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return length == other.length && lastModified == other.lastModified && databaseType == other.databaseType
+                    && spatialVectorMap.equals(other.spatialVectorMap)
+                    && spatialVectorMapErrors.equals(other.spatialVectorMapErrors);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (length ^ (length >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (databaseType != null ? databaseType.hashCode() : 0);
+            result = 31 * result + spatialVectorMap.hashCode();
+            result = 31 * result + spatialVectorMapErrors.hashCode();
+            return result;
+        }
+    }
+}
@@ -23,6 +23,9 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKBReader;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.PreparedStatementCache;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SpatialiteIndexing;
+import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryQueryModes;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import jsqlite.Database;
 import jsqlite.Stmt;
@@ -80,42 +83,117 @@ public class SpatialiteUtilities {
      */
     public static String buildGeometriesInBoundsQuery( String destSrid, boolean withRowId, SpatialVectorTable table, double n,
             double s, double e, double w ) {
+        return buildGeometriesInBoundsQuery(destSrid, withRowId, table, n, s, e, w, 0);
+    }
+
+    /**
+     * Build a query to retrieve generalized geometries from a table in a given bound.
+     *
+     * <p>Lines and polygons are simplified through <code>ST_SimplifyPreserveTopology</code>
+     * after the transformation, so that only the vertices needed at the drawing 
+     * resolution are transferred and decoded. Should the simplification fail, 
+     * the full resolution geometry is returned.</p>
+     *
+     * @param destSrid the destination srid.
+     * @param withRowId if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param table the table to use.
+     * @param n north bound.
+     * @param s south bound.
+     * @param e east bound.
+     * @param w west bound.
+     * @param simplifyTolerance the simplification distance in units of the destination srid. 
+     *          With a value <= 0 the geometries are returned in full resolution.
+     * @return the query.
+     */
+    public static String buildGeometriesInBoundsQuery( String destSrid, boolean withRowId, SpatialVectorTable table, double n,
+            double s, double e, double w, double simplifyTolerance ) {
+        String tolerance = null;
+        if (simplifyTolerance > 0) {
+            tolerance = String.valueOf(simplifyTolerance);
+        }
+        return buildGeometriesInBoundsQuery(destSrid, destSrid, withRowId, table, String.valueOf(n), String.valueOf(s),
+                String.valueOf(e), String.valueOf(w), tolerance, GeometryQueryModes.EXACT);
+    }
+
+    /**
+     * Build a parameterized query to retrieve generalized geometries from a table in a given bound.
+     *
+     * <p>The bounds are bound as {@link PreparedStatementCache#BOUNDS_PARAMETERS}, the
+     * simplification distance, if used, as {@link PreparedStatementCache#FIRST_EXTRA_PARAMETER}.</p>
+     *
+     * @param destSrid the destination srid.
+     * @param withRowId if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param table the table to use.
+     * @param doSimplify if <code>true</code>, the query takes the simplification distance.
+     * @return the query.
+     * @see #buildGeometriesInBoundsQuery(String, boolean, SpatialVectorTable, double, double, double, double, double)
+     */
+    public static String buildGeometriesInBoundsStatement( String destSrid, boolean withRowId, SpatialVectorTable table,
+            boolean doSimplify ) {
+        return buildGeometriesInBoundsStatement(destSrid, destSrid, withRowId, table, doSimplify, GeometryQueryModes.EXACT);
+    }
+
+    /**
+     * Build a parameterized query to retrieve generalized geometries from a table in a given bound,
+     * with bounds and geometries in different srids.
+     *
+     * <p>Used to get the geometries in the srid of the table, to be transformed in java.</p>
+     *
+     * @param boundsSrid the srid of the bounds.
+     * @param destSrid the destination srid of the geometries.
+     * @param withRowId if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param table the table to use.
+     * @param doSimplify if <code>true</code>, the query takes the simplification distance, in units of the destination srid.
+     * @param queryMode how the geometries are searched for. {@link GeometryQueryModes#MBR} needs
+     *          the R*Tree of the spatial index of the table.
+     * @return the query.
+     */
+    public static String buildGeometriesInBoundsStatement( String boundsSrid, String destSrid, boolean withRowId,
+            SpatialVectorTable table, boolean doSimplify, GeometryQueryModes queryMode ) {
+        String[] bounds = PreparedStatementCache.BOUNDS_PARAMETERS;
+        String tolerance = null;
+        if (doSimplify) {
+            tolerance = "?" + PreparedStatementCache.FIRST_EXTRA_PARAMETER;
+        }
+        return buildGeometriesInBoundsQuery(boundsSrid, destSrid, withRowId, table, bounds[3], bounds[1], bounds[2], bounds[0],
+                tolerance, queryMode);
+    }
+
+    private static String buildGeometriesInBoundsQuery( String boundsSrid, String destSrid, boolean withRowId,
+            SpatialVectorTable table, String n, String s, String e, String w, String simplifyTolerance,
+            GeometryQueryModes queryMode ) {
         boolean doTransform = false;
         if (!table.getSrid().equals(destSrid)) {
             doTransform = true;
         }
-        StringBuilder mbrSb = new StringBuilder();
-        if (doTransform)
-            mbrSb.append("ST_Transform(");
-        mbrSb.append("BuildMBR(");
-        mbrSb.append(w);
-        mbrSb.append(",");
-        mbrSb.append(n);
-        mbrSb.append(",");
-        mbrSb.append(e);
-        mbrSb.append(",");
-        mbrSb.append(s);
-        if (doTransform) {
-            mbrSb.append(",");
-            mbrSb.append(destSrid);
-            mbrSb.append("),");
-            mbrSb.append(table.getSrid());
-        }
-        mbrSb.append(")");
-        String mbr = mbrSb.toString();
+        boolean doTransformBounds = !table.getSrid().equals(boundsSrid);
+        String mbr = buildMbr(n, s, e, w, doTransformBounds, boundsSrid, table.getSrid());
         StringBuilder qSb = new StringBuilder();
         qSb.append("SELECT ");
         if (withRowId) {
-            qSb.append(SPATIALTABLE_ID_FIELD).append(",");
+            qSb.append(table.getROWID()).append(",");
         }
-        qSb.append("ST_AsBinary(CastToXY(");
+        StringBuilder geomSb = new StringBuilder();
         if (doTransform)
-            qSb.append("ST_Transform(");
-        qSb.append(table.getGeomName());
+            geomSb.append("ST_Transform(");
+        geomSb.append(table.getGeomName());
         if (doTransform) {
+            geomSb.append(",");
+            geomSb.append(destSrid);
+            geomSb.append(")");
+        }
+        String geom = geomSb.toString();
+        qSb.append("ST_AsBinary(CastToXY(");
+        if (simplifyTolerance != null && !table.isPoint()) {
+            qSb.append("COALESCE(ST_SimplifyPreserveTopology(");
+            qSb.append(geom);
             qSb.append(",");
-            qSb.append(destSrid);
+            qSb.append(simplifyTolerance);
+            qSb.append("),");
+            qSb.append(geom);
             qSb.append(")");
+        } else {
+            qSb.append(geom);
         }
         qSb.append("))");
         if (table.getStyle().labelvisible == 1) {
@@ -124,6 +202,23 @@ public class SpatialiteUtilities {
         }
         qSb.append(" FROM ");
         qSb.append(table.getTableName());
+        if (queryMode == GeometryQueryModes.MBR) {
+            // bounding box overlap only, straight on the R*Tree
+            qSb.append(" WHERE ");
+            qSb.append(table.getROWID());
+            qSb.append(" IN (SELECT pkid FROM ");
+            qSb.append(SpatialiteIndexing.getSpatialIndexRtreeTable(table.getTableName(), table.getGeomName()));
+            qSb.append(" WHERE xmin <= MbrMaxX(");
+            qSb.append(mbr);
+            qSb.append(") AND xmax >= MbrMinX(");
+            qSb.append(mbr);
+            qSb.append(") AND ymin <= MbrMaxY(");
+            qSb.append(mbr);
+            qSb.append(") AND ymax >= MbrMinY(");
+            qSb.append(mbr);
+            qSb.append("));");
+            return qSb.toString();
+        }
         // the SpatialIndex would be searching for a square, the ST_Intersects the Geometry
         // the SpatialIndex could be fulfilled, but checking the Geometry could return the result
         // that it is not
@@ -150,22 +245,130 @@ public class SpatialiteUtilities {
     }
 
     /**
-     * Get the query to run for a bounding box intersection to retrieve features.
-     * 
+     * Build the MBR of the bounds, transformed to the srid of the table if needed.
+     *
+     * <p>The bounds are values or query parameters.</p>
+     */
+    private static String buildMbr( String n, String s, String e, String w, boolean doTransform, String boundsSrid,
+            String tableSrid ) {
+        StringBuilder mbrSb = new StringBuilder();
+        if (doTransform)
+            mbrSb.append("ST_Transform(");
+        mbrSb.append("BuildMBR(");
+        mbrSb.append(w);
+        mbrSb.append(",");
+        mbrSb.append(n);
+        mbrSb.append(",");
+        mbrSb.append(e);
+        mbrSb.append(",");
+        mbrSb.append(s);
+        if (doTransform) {
+            mbrSb.append(",");
+            mbrSb.append(boundsSrid);
+            mbrSb.append("),");
+            mbrSb.append(tableSrid);
+        }
+        mbrSb.append(")");
+        return mbrSb.toString();
+    }
+
+    /**
+     * Build a parameterized query to retrieve geometries from a generalized level of a table in a given bound.
+     *
+     * <p>The geometries are read from the level table, the labels from the original table.
+     * The bounds are bound as {@link PreparedStatementCache#BOUNDS_PARAMETERS}.</p>
+     *
+     * @param destSrid     the destination srid.
+     * @param withRowId    if <code>true</code>, the ROWID of the original table is added in position 0 of the query.
+     * @param table        the original table.
+     * @param pyramidTable the generalized level table as created by
+     *                     {@link SpatialiteIndexing#spatialiteCreateGeometryPyramid}.
+     * @return the query.
+     */
+    public static String buildPyramidGeometriesInBoundsStatement( String destSrid, boolean withRowId, SpatialVectorTable table,
+            String pyramidTable ) {
+        String[] bounds = PreparedStatementCache.BOUNDS_PARAMETERS;
+        return buildPyramidGeometriesInBoundsQuery(destSrid, withRowId, table, pyramidTable, bounds[3], bounds[1], bounds[2],
+                bounds[0]);
+    }
+
+    private static String buildPyramidGeometriesInBoundsQuery( String destSrid, boolean withRowId, SpatialVectorTable table,
+            String pyramidTable, String n, String s, String e, String w ) {
+        String pyramidSrid = SpatialiteIndexing.GEOMETRY_PYRAMID_SRID;
+        String pyramidGeom = "p." + SpatialiteIndexing.GEOMETRY_PYRAMID_GEOMETRY;
+        String pyramidId = "p." + SpatialiteIndexing.GEOMETRY_PYRAMID_SOURCE_ID;
+        boolean doTransform = false;
+        if (!pyramidSrid.equals(destSrid)) {
+            doTransform = true;
+        }
+        String mbr = buildMbr(n, s, e, w, doTransform, destSrid, pyramidSrid);
+        boolean withLabels = table.getStyle().labelvisible == 1;
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("SELECT ");
+        if (withRowId) {
+            qSb.append(pyramidId).append(",");
+        }
+        qSb.append("ST_AsBinary(CastToXY(");
+        if (doTransform)
+            qSb.append("ST_Transform(");
+        qSb.append(pyramidGeom);
+        if (doTransform) {
+            qSb.append(",");
+            qSb.append(destSrid);
+            qSb.append(")");
+        }
+        qSb.append("))");
+        if (withLabels) {
+            qSb.append(",");
+            qSb.append(table.getStyle().labelfield);
+        }
+        qSb.append(" FROM ");
+        qSb.append(pyramidTable);
+        qSb.append(" AS p");
+        if (withLabels) {
+            qSb.append(" JOIN ");
+            qSb.append(table.getTableName());
+            qSb.append(" AS t ON t.");
+            qSb.append(SPATIALTABLE_ID_FIELD);
+            qSb.append(" = ");
+            qSb.append(pyramidId);
+        }
+        qSb.append(" WHERE ST_Intersects(");
+        qSb.append(pyramidGeom);
+        qSb.append(", ");
+        qSb.append(mbr);
+        qSb.append(") = 1 AND ");
+        qSb.append(pyramidId);
+        qSb.append(" IN (SELECT ROWID FROM Spatialindex WHERE f_table_name ='");
+        qSb.append(pyramidTable);
+        qSb.append("' AND f_geometry_column = '");
+        qSb.append(SpatialiteIndexing.GEOMETRY_PYRAMID_GEOMETRY);
+        qSb.append("' AND search_frame = ");
+        qSb.append(mbr);
+        qSb.append(");");
+        return qSb.toString();
+    }
+
+    /**
+     * Get the parameterized query to run for a bounding box intersection to retrieve features.
+     *
      * <p>This assures that the first element of the query is
      * the id field for the record as defined in {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD}
-     * and the last one the geometry.
-     * 
+     * and the last one the geometry.</p>
+     *
+     * <p>The bounds are bound as {@link PreparedStatementCache#BOUNDS_PARAMETERS}.</p>
+     *
      * @param boundsSrid the srid of the bounds requested.
      * @param spatialTable the {@link SpatialVectorTable} to query.
-     * @param n north bound.
-     * @param s south bound.
-     * @param e east bound.
-     * @param w west bound.
      * @return the query to run to get all fields.
      */
-    public static String getBboxIntersectingFeaturesQuery( String boundsSrid, SpatialVectorTable spatialTable, double n,
-            double s, double e, double w ) {
+    public static String getBboxIntersectingFeaturesStatement( String boundsSrid, SpatialVectorTable spatialTable ) {
+        String[] bounds = PreparedStatementCache.BOUNDS_PARAMETERS;
+        return getBboxIntersectingFeaturesQuery(boundsSrid, spatialTable, bounds[3], bounds[1], bounds[2], bounds[0]);
+    }
+
+    private static String getBboxIntersectingFeaturesQuery( String boundsSrid, SpatialVectorTable spatialTable, String n,
+            String s, String e, String w ) {
         String query = null;
         boolean doTransform = false;
         String fieldNamesList = SpatialiteUtilities.SPATIALTABLE_ID_FIELD;
@@ -193,23 +396,8 @@ public class SpatialiteUtilities {
         sbQ.append("))");
         sbQ.append(" FROM ").append(spatialTable.getTableName());
         sbQ.append(" WHERE ST_Intersects(");
-        if (doTransform)
-            sbQ.append("ST_Transform(");
-        sbQ.append("BuildMBR(");
-        sbQ.append(w);
-        sbQ.append(",");
-        sbQ.append(s);
-        sbQ.append(",");
-        sbQ.append(e);
+        sbQ.append(buildMbr(n, s, e, w, doTransform, boundsSrid, spatialTable.getSrid()));
         sbQ.append(",");
-        sbQ.append(n);
-        if (doTransform) {
-            sbQ.append(",");
-            sbQ.append(boundsSrid);
-            sbQ.append("),");
-            sbQ.append(spatialTable.getSrid());
-        }
-        sbQ.append("),");
         sbQ.append(spatialTable.getGeomName());
         sbQ.append(");");
 